@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.common.multiarray;
+
+/**
+ * Companion of {@link IAccessor} giving access to the elements of a multidimensional array by
+ * their linear (i.e. row-major) index, as a <code>long</code> since arrays may hold more than 2^31
+ * elements. Unlike an index array, a linear index does not need to be mapped dimension by
+ * dimension for each element, so that sequential loops only cost an element lookup.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public interface ILinearAccessor {
+   /**
+    * Absolute <i>get</i> of the double value at the given linear (row-major) index.
+    */
+   double getDouble(long linear);
+
+   /**
+    * Absolute <i>get</i> of the float value at the given linear (row-major) index.
+    */
+   float getFloat(long linear);
+
+   /**
+    * Absolute <i>get</i> of the long value at the given linear (row-major) index.
+    */
+   long getLong(long linear);
+
+   /**
+    * Absolute <i>get</i> of the int value at the given linear (row-major) index.
+    */
+   int getInt(long linear);
+
+   /**
+    * Absolute <i>get</i> of the short value at the given linear (row-major) index.
+    */
+   short getShort(long linear);
+
+   /**
+    * Absolute <i>get</i> of the byte value at the given linear (row-major) index.
+    */
+   byte getByte(long linear);
+
+   /**
+    * Absolute <i>set</i> of the double value at the given linear (row-major) index.
+    */
+   void setDouble(long linear, double value);
+
+   /**
+    * Absolute <i>set</i> of the float value at the given linear (row-major) index.
+    */
+   void setFloat(long linear, float value);
+
+   /**
+    * Absolute <i>set</i> of the long value at the given linear (row-major) index.
+    */
+   void setLong(long linear, long value);
+
+   /**
+    * Absolute <i>set</i> of the int value at the given linear (row-major) index.
+    */
+   void setInt(long linear, int value);
+
+   /**
+    * Absolute <i>set</i> of the short value at the given linear (row-major) index.
+    */
+   void setShort(long linear, short value);
+
+   /**
+    * Absolute <i>set</i> of the byte value at the given linear (row-major) index.
+    */
+   void setByte(long linear, byte value);
+
+   /**
+    * Bulk <i>get</i> of <code>len</code> double values, starting at the given linear (row-major)
+    * index. Values may span several rows.
+    */
+   void getDoubles(long linear, double[] dst, int off, int len);
+
+   /**
+    * Bulk <i>get</i> of <code>len</code> float values, starting at the given linear (row-major)
+    * index. Values may span several rows.
+    */
+   void getFloats(long linear, float[] dst, int off, int len);
+
+   /**
+    * Bulk <i>get</i> of <code>len</code> long values, starting at the given linear (row-major)
+    * index. Values may span several rows.
+    */
+   void getLongs(long linear, long[] dst, int off, int len);
+
+   /**
+    * Bulk <i>get</i> of <code>len</code> int values, starting at the given linear (row-major)
+    * index. Values may span several rows.
+    */
+   void getInts(long linear, int[] dst, int off, int len);
+
+   /**
+    * Bulk <i>get</i> of <code>len</code> short values, starting at the given linear (row-major)
+    * index. Values may span several rows.
+    */
+   void getShorts(long linear, short[] dst, int off, int len);
+
+   /**
+    * Bulk <i>get</i> of <code>len</code> byte values, starting at the given linear (row-major)
+    * index. Values may span several rows.
+    */
+   void getBytes(long linear, byte[] dst, int off, int len);
+
+   /**
+    * Bulk <i>set</i> of <code>len</code> double values, starting at the given linear (row-major)
+    * index. Values may span several rows.
+    */
+   void setDoubles(long linear, double[] src, int off, int len);
+
+   /**
+    * Bulk <i>set</i> of <code>len</code> float values, starting at the given linear (row-major)
+    * index. Values may span several rows.
+    */
+   void setFloats(long linear, float[] src, int off, int len);
+
+   /**
+    * Bulk <i>set</i> of <code>len</code> long values, starting at the given linear (row-major)
+    * index. Values may span several rows.
+    */
+   void setLongs(long linear, long[] src, int off, int len);
+
+   /**
+    * Bulk <i>set</i> of <code>len</code> int values, starting at the given linear (row-major)
+    * index. Values may span several rows.
+    */
+   void setInts(long linear, int[] src, int off, int len);
+
+   /**
+    * Bulk <i>set</i> of <code>len</code> short values, starting at the given linear (row-major)
+    * index. Values may span several rows.
+    */
+   void setShorts(long linear, short[] src, int off, int len);
+
+   /**
+    * Bulk <i>set</i> of <code>len</code> byte values, starting at the given linear (row-major)
+    * index. Values may span several rows.
+    */
+   void setBytes(long linear, byte[] src, int off, int len);
+}
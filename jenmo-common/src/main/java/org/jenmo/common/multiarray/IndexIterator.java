@@ -24,6 +24,12 @@ package org.jenmo.common.multiarray;
 /**
  * An IndexIterator is a helper class used for stepping through the index values of a
  * {@link IMultiArray}.
+ * <p>
+ * Index values are visited in row-major order. Each one has a linear position, counted from
+ * <code>fromPos</code>, which can be reached directly with {@link #jumpTo(long)}. An iterator may
+ * also be bounded to a range of linear positions, and {@link #trySplit()} hands half of the remaining
+ * range to a new iterator: iterators obtained this way cover disjoint ranges and can be run by
+ * different threads.
  * 
  * @author Nicolas Ocquidant (thanks to Bill Hibbard)
  * @since 1.0
@@ -44,6 +50,21 @@ public class IndexIterator {
     */
    private int ncycles;
 
+   /**
+    * The number of index values between <code>fromPos</code> and <code>toPosExcl</code>.
+    */
+   private final long size;
+
+   /**
+    * The linear position of the counter value.
+    */
+   private long position;
+
+   /**
+    * The linear position where this iterator ends (exclusive).
+    */
+   private long end;
+
    /**
     * Creates a new IndexIterator whose variation is bounded by the component values of the
     * argument.
@@ -52,10 +73,7 @@ public class IndexIterator {
     *           typically <code>ma.getLengths()</code> for some MultiArray <code>ma</code>
     */
    public IndexIterator(final int[] toPosExcl) {
-      this.fromPos = new int[toPosExcl.length];
-      this.toPosExcl = toPosExcl; // N.B not a copy
-      counter = new int[toPosExcl.length];
-      ncycles = 0;
+      this(new int[toPosExcl.length], toPosExcl);
    }
 
    /**
@@ -72,6 +90,35 @@ public class IndexIterator {
       this.toPosExcl = toPosExcl; // N.B not a copy
       counter = fromPos.clone();
       ncycles = 0;
+      long product = 1;
+      for (int i = 0; i < fromPos.length; i++) {
+         product *= Math.max(0, toPosExcl[i] - fromPos[i]);
+      }
+      size = product;
+      position = 0;
+      end = size;
+   }
+
+   /**
+    * Creates a new IndexIterator over the index values whose linear position is in the given range.
+    * 
+    * @param fromPos
+    *           the index value at linear position 0.
+    * @param toPosExcl
+    *           typically <code>ma.getLengths()</code> for some MultiArray <code>ma</code>
+    * @param start
+    *           the first linear position
+    * @param end
+    *           the last linear position (exclusive)
+    */
+   public IndexIterator(final int[] fromPos, final int[] toPosExcl, final long start,
+         final long end) {
+      this(fromPos, toPosExcl);
+      if (start < 0 || end < start || end > size) {
+         throw new IndexOutOfBoundsException("Start=" + start + ", end=" + end + ", size=" + size);
+      }
+      this.end = end;
+      jumpTo(start);
    }
 
    /**
@@ -81,7 +128,7 @@ public class IndexIterator {
    public boolean notDone() {
       if (ncycles > 0)
          return false;
-      return true;
+      return position < end;
    }
 
    /**
@@ -91,14 +138,32 @@ public class IndexIterator {
       return counter;
    }
 
+   /**
+    * Return the linear position of the current counter value.
+    */
+   public long position() {
+      return position;
+   }
+
+   /**
+    * Return the number of index values left before this iterator is done.
+    */
+   public long remaining() {
+      if (ncycles > 0)
+         return 0;
+      return Math.max(0, end - position);
+   }
+
    /**
     * Increment the counter value
     */
    public void incr() {
+      position++;
       int digit = counter.length - 1;
       if (digit < 0) {
          // counter is zero length array <==> scalar
          ncycles++;
+         position = 0;
          return;
       }
       while (digit >= 0) {
@@ -110,6 +175,7 @@ public class IndexIterator {
          counter[digit] = fromPos[digit];
          if (digit == 0) {
             ncycles++; // rolled over
+            position = 0;
             break;
          }
          // else
@@ -124,9 +190,55 @@ public class IndexIterator {
     *           the number of times to increment the value.
     */
    public void advance(int nsteps) {
-      // TODO: make this smarter and faster;
-      while (nsteps-- > 0)
-         incr();
+      if (nsteps <= 0 || size == 0)
+         return;
+      final long target = position + nsteps;
+      ncycles += (int) (target / size);
+      setCounter(target % size);
+   }
+
+   /**
+    * Set the counter value to the index value at the given linear position.
+    * 
+    * @param linear
+    *           the linear position, from 0 (i.e. <code>fromPos</code>) to the number of index
+    *           values (i.e. done)
+    */
+   public void jumpTo(long linear) {
+      if (linear < 0 || linear > size) {
+         throw new IndexOutOfBoundsException("Position=" + linear + ", size=" + size);
+      }
+      // Absolute position: done only one step past the last index value, whatever the past cycles
+      ncycles = (linear == size) ? 1 : 0;
+      setCounter((linear == size) ? 0 : linear);
+   }
+
+   /**
+    * Splits the remaining index values of this iterator. The returned iterator covers the first
+    * half, from the current counter value, and this iterator moves to the start of the second half.
+    * 
+    * @return the new iterator, or <code>null</code> if there are less than 2 index values left
+    */
+   public IndexIterator trySplit() {
+      final long left = remaining();
+      if (left < 2)
+         return null;
+      final long mid = position + left / 2;
+      IndexIterator out = new IndexIterator(fromPos, toPosExcl, position, mid);
+      setCounter(mid);
+      return out;
+   }
+
+   private void setCounter(final long linear) {
+      position = linear;
+      if (size == 0)
+         return;
+      long rest = linear;
+      for (int digit = counter.length - 1; digit >= 0; digit--) {
+         final int len = toPosExcl[digit] - fromPos[digit];
+         counter[digit] = fromPos[digit] + (int) (rest % len);
+         rest /= len;
+      }
    }
 
    public String toString() {
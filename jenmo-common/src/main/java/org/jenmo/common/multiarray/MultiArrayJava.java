@@ -28,11 +28,19 @@ import java.lang.reflect.Array;
  * {@link IMultiArray} implementation which is an adapter for java language arrays. If you have a
  * java array and want to wrap it in a {@link IMultiArray} interface, use this class. Rank of these
  * is always > 0 (scalars as {@link IMultiArray} are not supported).
+ * <p>
+ * Elements can also be accessed by their linear index (see {@link ILinearAccessor}), the wrapped
+ * array being then assumed rectangular. The leaf array of the last accessed element is kept, so
+ * that sequential accesses only look up the nested arrays once for each row.
+ * <p>
+ * Arrays of rank 1 to 4 of <code>double</code>, <code>float</code>, <code>long</code>,
+ * <code>int</code>, <code>short</code> or <code>byte</code> are better wrapped with
+ * {@link #newInstance(Object)}, which returns a subclass accessing them without reflection.
  * 
  * @author Nicolas Ocquidant (thanks to Bill Hibbard)
  * @since 1.0
  */
-public class MultiArrayJava implements IMultiArray {
+public class MultiArrayJava implements IMultiArray, ILinearAccessor {
 
    /**
     * The java language array which this adapts.
@@ -42,13 +50,28 @@ public class MultiArrayJava implements IMultiArray {
    /**
     * The rank is the number of indices.
     */
-   private final int rank;
+   final int rank;
 
    /**
     * Class of the primitives or objects to be contained.
     */
    private final Class<?> componentType;
 
+   /**
+    * The leaf array of the last element accessed by linear index, null if none.
+    */
+   Object leaf;
+
+   /**
+    * The linear index of the first element of <code>leaf</code>.
+    */
+   long leafStart;
+
+   /**
+    * The lengths of the dimensions, lazily computed for linear accesses.
+    */
+   private int[] lengths;
+
    /**
     * Package private constructor which avoids some of the protections of the public constructor
     * below.
@@ -69,17 +92,57 @@ public class MultiArrayJava implements IMultiArray {
     *           a (multi-dimensional) array of primitives.
     */
    public MultiArrayJava(Object storage) {
-      int rank_ = 0;
-      Class<?> componentType_ = storage.getClass();
-      while (componentType_.isArray()) {
-         rank_++;
-         componentType_ = componentType_.getComponentType();
-      }
-      if (rank_ == 0)
+      this(storage, rankOf(storage.getClass()), componentTypeOf(storage.getClass()));
+      if (rank == 0)
+         throw new IllegalArgumentException();
+   }
+
+   /**
+    * Same as {@link #MultiArrayJava(Object)}, but arrays of rank 1 to 4 of <code>double</code>,
+    * <code>float</code>, <code>long</code>, <code>int</code>, <code>short</code> or
+    * <code>byte</code> are wrapped by a specialized subclass, which navigates through the nested
+    * arrays and accesses the elements of its own type without reflection.
+    * 
+    * @param storage
+    *           a (multi-dimensional) array of primitives.
+    */
+   public static MultiArrayJava newInstance(Object storage) {
+      final int rank = rankOf(storage.getClass());
+      if (rank == 0)
          throw new IllegalArgumentException();
-      jla = storage;
-      rank = rank_;
-      componentType = componentType_;
+      if (rank <= 4) {
+         final Class<?> componentType = componentTypeOf(storage.getClass());
+         if (componentType == double.class) {
+            return new MultiArrayJavaDouble(storage, rank);
+         } else if (componentType == float.class) {
+            return new MultiArrayJavaFloat(storage, rank);
+         } else if (componentType == long.class) {
+            return new MultiArrayJavaLong(storage, rank);
+         } else if (componentType == int.class) {
+            return new MultiArrayJavaInt(storage, rank);
+         } else if (componentType == short.class) {
+            return new MultiArrayJavaShort(storage, rank);
+         } else if (componentType == byte.class) {
+            return new MultiArrayJavaByte(storage, rank);
+         }
+      }
+      return new MultiArrayJava(storage);
+   }
+
+   private static int rankOf(Class<?> arrayType) {
+      int out = 0;
+      while (arrayType.isArray()) {
+         out++;
+         arrayType = arrayType.getComponentType();
+      }
+      return out;
+   }
+
+   private static Class<?> componentTypeOf(Class<?> arrayType) {
+      while (arrayType.isArray()) {
+         arrayType = arrayType.getComponentType();
+      }
+      return arrayType;
    }
 
    /**
@@ -170,8 +233,11 @@ public class MultiArrayJava implements IMultiArray {
 
    /* Begin IMultiArray Access methods from IMultiArrayAccessor */
 
-   private final Object getLastButOneArray(final int[] index) {
-      // TODO put a lastLeafArray variable to avoid unnecessary 'Array.get(Object, int)'?
+   /**
+    * Gets the leaf array holding the element at <code>index</code>. Overridden by the specialized
+    * subclasses to avoid reflection.
+    */
+   Object getLastButOneArray(final int[] index) {
       if (index.length < rank) {
          throw new IllegalArgumentException();
       }
@@ -183,6 +249,19 @@ public class MultiArrayJava implements IMultiArray {
       return oo;
    }
 
+   /**
+    * Gets the leaf (innermost) java array holding the element at <code>index</code>. Only the
+    * <code>rank - 1</code> first components of <code>index</code> are used. Useful for bulk copies
+    * along the last dimension.
+    * 
+    * @param index
+    *           MultiArray index
+    * @return the leaf array, i.e. an array of the component type
+    */
+   public final Object getRow(final int[] index) {
+      return getLastButOneArray(index);
+   }
+
    /**
     * @see IAccessor#get
     */
@@ -210,7 +289,7 @@ public class MultiArrayJava implements IMultiArray {
    /**
     * @see IAccessor#getByte
     */
-   public final byte getByte(final int[] index) {
+   public byte getByte(final int[] index) {
       final int end = rank - 1;
       return Array.getByte(getLastButOneArray(index), index[end]);
    }
@@ -218,7 +297,7 @@ public class MultiArrayJava implements IMultiArray {
    /**
     * @see IAccessor#getShort
     */
-   public final short getShort(final int[] index) {
+   public short getShort(final int[] index) {
       final int end = rank - 1;
       return Array.getShort(getLastButOneArray(index), index[end]);
    }
@@ -226,7 +305,7 @@ public class MultiArrayJava implements IMultiArray {
    /**
     * @see IAccessor#getInt
     */
-   public final int getInt(final int[] index) {
+   public int getInt(final int[] index) {
       final int end = rank - 1;
       return Array.getInt(getLastButOneArray(index), index[end]);
    }
@@ -234,7 +313,7 @@ public class MultiArrayJava implements IMultiArray {
    /**
     * @see IAccessor#getLong
     */
-   public final long getLong(final int[] index) {
+   public long getLong(final int[] index) {
       final int end = rank - 1;
       return Array.getLong(getLastButOneArray(index), index[end]);
    }
@@ -242,7 +321,7 @@ public class MultiArrayJava implements IMultiArray {
    /**
     * @see IAccessor#getFloat
     */
-   public final float getFloat(final int[] index) {
+   public float getFloat(final int[] index) {
       final int end = rank - 1;
       return Array.getFloat(getLastButOneArray(index), index[end]);
    }
@@ -250,7 +329,7 @@ public class MultiArrayJava implements IMultiArray {
    /**
     * @see IAccessor#getDouble
     */
-   public final double getDouble(final int[] index) {
+   public double getDouble(final int[] index) {
       final int end = rank - 1;
       return Array.getDouble(getLastButOneArray(index), index[end]);
    }
@@ -283,7 +362,7 @@ public class MultiArrayJava implements IMultiArray {
    /**
     * @see IAccessor#setByte
     */
-   public final void setByte(final int[] index, byte value) {
+   public void setByte(final int[] index, byte value) {
       final int end = rank - 1;
       Array.setByte(getLastButOneArray(index), index[end], value);
    }
@@ -291,7 +370,7 @@ public class MultiArrayJava implements IMultiArray {
    /**
     * @see IAccessor#setShort
     */
-   public final void setShort(final int[] index, short value) {
+   public void setShort(final int[] index, short value) {
       final int end = rank - 1;
       Array.setShort(getLastButOneArray(index), index[end], value);
    }
@@ -299,7 +378,7 @@ public class MultiArrayJava implements IMultiArray {
    /**
     * @see IAccessor#setInt
     */
-   public final void setInt(final int[] index, int value) {
+   public void setInt(final int[] index, int value) {
       final int end = rank - 1;
       Array.setInt(getLastButOneArray(index), index[end], value);
    }
@@ -307,7 +386,7 @@ public class MultiArrayJava implements IMultiArray {
    /**
     * @see IAccessor#setLong
     */
-   public final void setLong(final int[] index, long value) {
+   public void setLong(final int[] index, long value) {
       final int end = rank - 1;
       Array.setLong(getLastButOneArray(index), index[end], value);
    }
@@ -315,7 +394,7 @@ public class MultiArrayJava implements IMultiArray {
    /**
     * @see IAccessor#setFloat
     */
-   public final void setFloat(final int[] index, float value) {
+   public void setFloat(final int[] index, float value) {
       final int end = rank - 1;
       Array.setFloat(getLastButOneArray(index), index[end], value);
    }
@@ -323,7 +402,7 @@ public class MultiArrayJava implements IMultiArray {
    /**
     * @see IAccessor#setDouble
     */
-   public final void setDouble(final int[] index, double value) {
+   public void setDouble(final int[] index, double value) {
       final int end = rank - 1;
       Array.setDouble(getLastButOneArray(index), index[end], value);
    }
@@ -333,4 +412,265 @@ public class MultiArrayJava implements IMultiArray {
    }
 
    /* End IMultiArrayAccessor */
+
+   /* Begin ILinearAccessor */
+
+   /**
+    * Gets the leaf array holding the element at the given linear index, and sets
+    * <code>leafStart</code> accordingly.
+    */
+   final Object getLeaf(final long linear) {
+      final Object var = leaf;
+      if (var != null && linear >= leafStart && linear - leafStart < lengths[rank - 1]) {
+         return var;
+      }
+      if (lengths == null) {
+         lengths = getLengths();
+      }
+      final int end = rank - 1;
+      if (linear < 0 || lengths[end] == 0) {
+         throw new ArrayIndexOutOfBoundsException();
+      }
+      long row = linear / lengths[end];
+      final int[] index = new int[rank];
+      for (int ii = end - 1; ii >= 0; ii--) {
+         index[ii] = (int) (row % lengths[ii]);
+         row /= lengths[ii];
+      }
+      if (row != 0) {
+         throw new ArrayIndexOutOfBoundsException();
+      }
+      final Object oo = getLastButOneArray(index);
+      leaf = oo;
+      leafStart = linear - linear % lengths[end];
+      return oo;
+   }
+
+   /**
+    * Gets the number of elements of the leaf array holding the element at the given linear index,
+    * from this element.
+    */
+   private int getLeafRemaining(final long linear) {
+      return (int) (leafStart + lengths[rank - 1] - linear);
+   }
+
+   /**
+    * @see ILinearAccessor#getDouble(long)
+    */
+   public double getDouble(final long linear) {
+      final Object row = getLeaf(linear);
+      return Array.getDouble(row, (int) (linear - leafStart));
+   }
+
+   /**
+    * @see ILinearAccessor#getFloat(long)
+    */
+   public float getFloat(final long linear) {
+      final Object row = getLeaf(linear);
+      return Array.getFloat(row, (int) (linear - leafStart));
+   }
+
+   /**
+    * @see ILinearAccessor#getLong(long)
+    */
+   public long getLong(final long linear) {
+      final Object row = getLeaf(linear);
+      return Array.getLong(row, (int) (linear - leafStart));
+   }
+
+   /**
+    * @see ILinearAccessor#getInt(long)
+    */
+   public int getInt(final long linear) {
+      final Object row = getLeaf(linear);
+      return Array.getInt(row, (int) (linear - leafStart));
+   }
+
+   /**
+    * @see ILinearAccessor#getShort(long)
+    */
+   public short getShort(final long linear) {
+      final Object row = getLeaf(linear);
+      return Array.getShort(row, (int) (linear - leafStart));
+   }
+
+   /**
+    * @see ILinearAccessor#getByte(long)
+    */
+   public byte getByte(final long linear) {
+      final Object row = getLeaf(linear);
+      return Array.getByte(row, (int) (linear - leafStart));
+   }
+
+   /**
+    * @see ILinearAccessor#setDouble(long, double)
+    */
+   public void setDouble(final long linear, final double value) {
+      final Object row = getLeaf(linear);
+      Array.setDouble(row, (int) (linear - leafStart), value);
+   }
+
+   /**
+    * @see ILinearAccessor#setFloat(long, float)
+    */
+   public void setFloat(final long linear, final float value) {
+      final Object row = getLeaf(linear);
+      Array.setFloat(row, (int) (linear - leafStart), value);
+   }
+
+   /**
+    * @see ILinearAccessor#setLong(long, long)
+    */
+   public void setLong(final long linear, final long value) {
+      final Object row = getLeaf(linear);
+      Array.setLong(row, (int) (linear - leafStart), value);
+   }
+
+   /**
+    * @see ILinearAccessor#setInt(long, int)
+    */
+   public void setInt(final long linear, final int value) {
+      final Object row = getLeaf(linear);
+      Array.setInt(row, (int) (linear - leafStart), value);
+   }
+
+   /**
+    * @see ILinearAccessor#setShort(long, short)
+    */
+   public void setShort(final long linear, final short value) {
+      final Object row = getLeaf(linear);
+      Array.setShort(row, (int) (linear - leafStart), value);
+   }
+
+   /**
+    * @see ILinearAccessor#setByte(long, byte)
+    */
+   public void setByte(final long linear, final byte value) {
+      final Object row = getLeaf(linear);
+      Array.setByte(row, (int) (linear - leafStart), value);
+   }
+
+   /**
+    * Copies <code>len</code> elements from the given linear index into the given array, which
+    * must be of the component type, one leaf array at a time.
+    */
+   private void copyOut(long linear, final Object dst, int off, int len) {
+      if (len < 0) {
+         throw new ArrayIndexOutOfBoundsException();
+      }
+      while (len > 0) {
+         final Object row = getLeaf(linear);
+         final int count = Math.min(len, getLeafRemaining(linear));
+         System.arraycopy(row, (int) (linear - leafStart), dst, off, count);
+         linear += count;
+         off += count;
+         len -= count;
+      }
+   }
+
+   /**
+    * Copies <code>len</code> elements of the given array, which must be of the component type,
+    * from the given linear index, one leaf array at a time.
+    */
+   private void copyIn(long linear, final Object src, int off, int len) {
+      if (len < 0) {
+         throw new ArrayIndexOutOfBoundsException();
+      }
+      while (len > 0) {
+         final Object row = getLeaf(linear);
+         final int count = Math.min(len, getLeafRemaining(linear));
+         System.arraycopy(src, off, row, (int) (linear - leafStart), count);
+         linear += count;
+         off += count;
+         len -= count;
+      }
+   }
+
+   /**
+    * @see ILinearAccessor#getDoubles(long, double[], int, int)
+    */
+   public final void getDoubles(final long linear, final double[] dst, final int off,
+         final int len) {
+      copyOut(linear, dst, off, len);
+   }
+
+   /**
+    * @see ILinearAccessor#getFloats(long, float[], int, int)
+    */
+   public final void getFloats(final long linear, final float[] dst, final int off, final int len) {
+      copyOut(linear, dst, off, len);
+   }
+
+   /**
+    * @see ILinearAccessor#getLongs(long, long[], int, int)
+    */
+   public final void getLongs(final long linear, final long[] dst, final int off, final int len) {
+      copyOut(linear, dst, off, len);
+   }
+
+   /**
+    * @see ILinearAccessor#getInts(long, int[], int, int)
+    */
+   public final void getInts(final long linear, final int[] dst, final int off, final int len) {
+      copyOut(linear, dst, off, len);
+   }
+
+   /**
+    * @see ILinearAccessor#getShorts(long, short[], int, int)
+    */
+   public final void getShorts(final long linear, final short[] dst, final int off, final int len) {
+      copyOut(linear, dst, off, len);
+   }
+
+   /**
+    * @see ILinearAccessor#getBytes(long, byte[], int, int)
+    */
+   public final void getBytes(final long linear, final byte[] dst, final int off, final int len) {
+      copyOut(linear, dst, off, len);
+   }
+
+   /**
+    * @see ILinearAccessor#setDoubles(long, double[], int, int)
+    */
+   public final void setDoubles(final long linear, final double[] src, final int off,
+         final int len) {
+      copyIn(linear, src, off, len);
+   }
+
+   /**
+    * @see ILinearAccessor#setFloats(long, float[], int, int)
+    */
+   public final void setFloats(final long linear, final float[] src, final int off, final int len) {
+      copyIn(linear, src, off, len);
+   }
+
+   /**
+    * @see ILinearAccessor#setLongs(long, long[], int, int)
+    */
+   public final void setLongs(final long linear, final long[] src, final int off, final int len) {
+      copyIn(linear, src, off, len);
+   }
+
+   /**
+    * @see ILinearAccessor#setInts(long, int[], int, int)
+    */
+   public final void setInts(final long linear, final int[] src, final int off, final int len) {
+      copyIn(linear, src, off, len);
+   }
+
+   /**
+    * @see ILinearAccessor#setShorts(long, short[], int, int)
+    */
+   public final void setShorts(final long linear, final short[] src, final int off, final int len) {
+      copyIn(linear, src, off, len);
+   }
+
+   /**
+    * @see ILinearAccessor#setBytes(long, byte[], int, int)
+    */
+   public final void setBytes(final long linear, final byte[] src, final int off, final int len) {
+      copyIn(linear, src, off, len);
+   }
+
+   /* End ILinearAccessor */
 }
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.common.multiarray;
+
+/**
+ * {@link MultiArrayJava} specialized for <code>float</code> arrays of rank 1 to 4. Holds typed
+ * references on the wrapped array, so that the nested arrays are looked up and the
+ * <code>float</code> elements accessed without reflection. See {@link MultiArrayJava#newInstance}.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+final class MultiArrayJavaFloat extends MultiArrayJava {
+
+   private final float[] a1;
+
+   private final float[][] a2;
+
+   private final float[][][] a3;
+
+   private final float[][][][] a4;
+
+   MultiArrayJavaFloat(Object storage, int rank) {
+      super(storage, rank, float.class);
+      a1 = (rank == 1) ? (float[]) storage : null;
+      a2 = (rank == 2) ? (float[][]) storage : null;
+      a3 = (rank == 3) ? (float[][][]) storage : null;
+      a4 = (rank == 4) ? (float[][][][]) storage : null;
+   }
+
+   private float[] getRowFloat(final int[] index) {
+      if (index.length < rank) {
+         throw new IllegalArgumentException();
+      }
+      switch (rank) {
+      case 1:
+         return a1;
+      case 2:
+         return a2[index[0]];
+      case 3:
+         return a3[index[0]][index[1]];
+      default:
+         return a4[index[0]][index[1]][index[2]];
+      }
+   }
+
+   @Override
+   Object getLastButOneArray(final int[] index) {
+      return getRowFloat(index);
+   }
+
+   @Override
+   public float getFloat(final int[] index) {
+      return getRowFloat(index)[index[rank - 1]];
+   }
+
+   @Override
+   public void setFloat(final int[] index, float value) {
+      getRowFloat(index)[index[rank - 1]] = value;
+   }
+
+   @Override
+   public float getFloat(final long linear) {
+      final float[] row = (float[]) getLeaf(linear);
+      return row[(int) (linear - leafStart)];
+   }
+
+   @Override
+   public void setFloat(final long linear, final float value) {
+      final float[] row = (float[]) getLeaf(linear);
+      row[(int) (linear - leafStart)] = value;
+   }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.common.multiarray;
+
+/**
+ * {@link MultiArrayJava} specialized for <code>short</code> arrays of rank 1 to 4. Holds typed
+ * references on the wrapped array, so that the nested arrays are looked up and the
+ * <code>short</code> elements accessed without reflection. See {@link MultiArrayJava#newInstance}.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+final class MultiArrayJavaShort extends MultiArrayJava {
+
+   private final short[] a1;
+
+   private final short[][] a2;
+
+   private final short[][][] a3;
+
+   private final short[][][][] a4;
+
+   MultiArrayJavaShort(Object storage, int rank) {
+      super(storage, rank, short.class);
+      a1 = (rank == 1) ? (short[]) storage : null;
+      a2 = (rank == 2) ? (short[][]) storage : null;
+      a3 = (rank == 3) ? (short[][][]) storage : null;
+      a4 = (rank == 4) ? (short[][][][]) storage : null;
+   }
+
+   private short[] getRowShort(final int[] index) {
+      if (index.length < rank) {
+         throw new IllegalArgumentException();
+      }
+      switch (rank) {
+      case 1:
+         return a1;
+      case 2:
+         return a2[index[0]];
+      case 3:
+         return a3[index[0]][index[1]];
+      default:
+         return a4[index[0]][index[1]][index[2]];
+      }
+   }
+
+   @Override
+   Object getLastButOneArray(final int[] index) {
+      return getRowShort(index);
+   }
+
+   @Override
+   public short getShort(final int[] index) {
+      return getRowShort(index)[index[rank - 1]];
+   }
+
+   @Override
+   public void setShort(final int[] index, short value) {
+      getRowShort(index)[index[rank - 1]] = value;
+   }
+
+   @Override
+   public short getShort(final long linear) {
+      final short[] row = (short[]) getLeaf(linear);
+      return row[(int) (linear - leafStart)];
+   }
+
+   @Override
+   public void setShort(final long linear, final short value) {
+      final short[] row = (short[]) getLeaf(linear);
+      row[(int) (linear - leafStart)] = value;
+   }
+}
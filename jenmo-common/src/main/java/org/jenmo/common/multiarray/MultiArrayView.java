@@ -0,0 +1,441 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.common.multiarray;
+
+/**
+ * A view over an {@link IMultiArray}, selecting some of its elements without copying them. Each
+ * axis of the view maps to an axis of the viewed array, with an offset and a stride, while the
+ * other axes of the viewed array are fixed. Views are made with {@link #section}, {@link #sample},
+ * {@link #reduce}, {@link #permute} and {@link #transpose}, which may be chained.
+ * <p>
+ * Every access is forwarded to the viewed array with the matching index, so that an
+ * <code>IMultiArray</code> reading its elements lazily (like the accessor of a split blob) only
+ * reads the elements of the view. The view is only as thread safe as the viewed array, and is not
+ * thread safe anyway as it reuses the index given to the viewed array.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public class MultiArrayView implements IMultiArray {
+
+   /**
+    * The viewed array.
+    */
+   private final IMultiArray array;
+
+   /**
+    * The index in the viewed array of the first element of this view.
+    */
+   private final int[] offset;
+
+   /**
+    * For each axis of this view, the matching axis of the viewed array.
+    */
+   private final int[] axes;
+
+   /**
+    * For each axis of this view, the step between two elements in the viewed array.
+    */
+   private final int[] strides;
+
+   /**
+    * The lengths of the dimensions of this view.
+    */
+   private final int[] lengths;
+
+   /**
+    * The index in the viewed array of the last accessed element.
+    */
+   private final int[] target;
+
+   /**
+    * Creates a view of all the elements of the given array, with the same shape.
+    */
+   public MultiArrayView(IMultiArray array) {
+      this(array, new int[array.getRank()], identity(array.getRank()), ones(array.getRank()),
+            array.getLengths());
+   }
+
+   private MultiArrayView(IMultiArray array, int[] offset, int[] axes, int[] strides,
+         int[] lengths) {
+      this.array = array;
+      this.offset = offset;
+      this.axes = axes;
+      this.strides = strides;
+      this.lengths = lengths;
+      this.target = offset.clone();
+   }
+
+   private static int[] identity(final int rank) {
+      int[] out = new int[rank];
+      for (int i = 0; i < rank; i++) {
+         out[i] = i;
+      }
+      return out;
+   }
+
+   private static int[] ones(final int rank) {
+      int[] out = new int[rank];
+      for (int i = 0; i < rank; i++) {
+         out[i] = 1;
+      }
+      return out;
+   }
+
+   /**
+    * Gets a view of a region of this view, taking every <code>steps[i]</code>th element along the
+    * axis <code>i</code>.
+    * 
+    * @param fromPos
+    *           the index of the first element of the region
+    * @param counts
+    *           the number of elements to take along each axis
+    * @param steps
+    *           the step between two elements along each axis, must be > 0
+    */
+   public MultiArrayView section(final int[] fromPos, final int[] counts, final int[] steps) {
+      final int rank = lengths.length;
+      if (fromPos.length != rank || counts.length != rank || steps.length != rank) {
+         throw new IllegalArgumentException("Rank=" + rank + ", must be the rank of the view");
+      }
+      int[] newOffset = offset.clone();
+      int[] newStrides = new int[rank];
+      for (int i = 0; i < rank; i++) {
+         if (steps[i] <= 0) {
+            throw new IllegalArgumentException("Step=" + steps[i] + ", must be > 0");
+         }
+         if (counts[i] < 0 || fromPos[i] < 0
+               || (counts[i] > 0 && fromPos[i] + (long) (counts[i] - 1) * steps[i] >= lengths[i])) {
+            throw new ArrayIndexOutOfBoundsException("Axis " + i + " out of view: from="
+                  + fromPos[i] + ", count=" + counts[i] + ", step=" + steps[i] + ", length="
+                  + lengths[i]);
+         }
+         newOffset[axes[i]] += fromPos[i] * strides[i];
+         newStrides[i] = strides[i] * steps[i];
+      }
+      return new MultiArrayView(array, newOffset, axes.clone(), newStrides, counts.clone());
+   }
+
+   /**
+    * Gets a view of a region of this view.
+    * 
+    * @param fromPos
+    *           the index of the first element of the region
+    * @param counts
+    *           the number of elements to take along each axis
+    */
+   public MultiArrayView section(final int[] fromPos, final int[] counts) {
+      return section(fromPos, counts, ones(lengths.length));
+   }
+
+   /**
+    * Gets a view of every <code>steps[i]</code>th element along the axis <code>i</code> of this
+    * view, starting from the first element. Useful for previews.
+    */
+   public MultiArrayView sample(final int[] steps) {
+      final int rank = lengths.length;
+      if (steps.length != rank) {
+         throw new IllegalArgumentException("Rank=" + steps.length + ", must be " + rank);
+      }
+      int[] counts = new int[rank];
+      for (int i = 0; i < rank; i++) {
+         if (steps[i] <= 0) {
+            throw new IllegalArgumentException("Step=" + steps[i] + ", must be > 0");
+         }
+         counts[i] = (lengths[i] + steps[i] - 1) / steps[i];
+      }
+      return section(new int[rank], counts, steps);
+   }
+
+   /**
+    * Gets a view with the given axis removed, fixed at the given position. The rank of the returned
+    * view is one less than the rank of this view.
+    */
+   public MultiArrayView reduce(final int axis, final int pos) {
+      final int rank = lengths.length;
+      if (axis < 0 || axis >= rank) {
+         throw new IllegalArgumentException("Axis=" + axis + ", must be in [0, " + rank + "[");
+      }
+      if (pos < 0 || pos >= lengths[axis]) {
+         throw new ArrayIndexOutOfBoundsException("Position=" + pos + ", length="
+               + lengths[axis]);
+      }
+      int[] newOffset = offset.clone();
+      newOffset[axes[axis]] += pos * strides[axis];
+      return new MultiArrayView(array, newOffset, remove(axes, axis), remove(strides, axis),
+            remove(lengths, axis));
+   }
+
+   private static int[] remove(final int[] values, final int i) {
+      int[] out = new int[values.length - 1];
+      System.arraycopy(values, 0, out, 0, i);
+      System.arraycopy(values, i + 1, out, i, out.length - i);
+      return out;
+   }
+
+   /**
+    * Gets a view with the axes in the given order: the axis <code>i</code> of the returned view is
+    * the axis <code>order[i]</code> of this view.
+    */
+   public MultiArrayView permute(final int[] order) {
+      final int rank = lengths.length;
+      if (order.length != rank) {
+         throw new IllegalArgumentException("Rank=" + order.length + ", must be " + rank);
+      }
+      int[] newAxes = new int[rank];
+      int[] newStrides = new int[rank];
+      int[] newLengths = new int[rank];
+      boolean[] seen = new boolean[rank];
+      for (int i = 0; i < rank; i++) {
+         final int from = order[i];
+         if (from < 0 || from >= rank || seen[from]) {
+            throw new IllegalArgumentException("Order is not a permutation of the axes");
+         }
+         seen[from] = true;
+         newAxes[i] = axes[from];
+         newStrides[i] = strides[from];
+         newLengths[i] = lengths[from];
+      }
+      return new MultiArrayView(array, offset.clone(), newAxes, newStrides, newLengths);
+   }
+
+   /**
+    * Gets a view with the axes in reverse order.
+    */
+   public MultiArrayView transpose() {
+      final int rank = lengths.length;
+      int[] order = new int[rank];
+      for (int i = 0; i < rank; i++) {
+         order[i] = rank - 1 - i;
+      }
+      return permute(order);
+   }
+
+   /**
+    * Gets the viewed array.
+    */
+   public IMultiArray getArray() {
+      return array;
+   }
+
+   /**
+    * Gets the index in the viewed array of the element at the given index of this view. N.B. Not a
+    * copy!
+    */
+   private int[] toTarget(final int[] index) {
+      final int rank = lengths.length;
+      if (index.length < rank) {
+         throw new IllegalArgumentException();
+      }
+      for (int i = 0; i < rank; i++) {
+         final int pos = index[i];
+         if (pos < 0 || pos >= lengths[i]) {
+            throw new ArrayIndexOutOfBoundsException(pos);
+         }
+         target[axes[i]] = offset[axes[i]] + pos * strides[i];
+      }
+      return target;
+   }
+
+   /* Begin IMultiArray Inquiry methods from IMultiArrayInfo */
+
+   /**
+    * @see IMultiArrayInfo#getComponentType
+    */
+   @Override
+   public Class<?> getComponentType() {
+      return array.getComponentType();
+   }
+
+   /**
+    * @see IMultiArrayInfo#getRank
+    */
+   @Override
+   public int getRank() {
+      return lengths.length;
+   }
+
+   /**
+    * @see IMultiArrayInfo#getLengths
+    */
+   @Override
+   public int[] getLengths() {
+      return lengths.clone();
+   }
+
+   /**
+    * Always returns <code>false</code> for this class.
+    * 
+    * @see IMultiArrayInfo#isUnlimited
+    */
+   @Override
+   public boolean isUnlimited() {
+      return false;
+   }
+
+   /**
+    * @see IMultiArrayInfo#isScalar
+    */
+   @Override
+   public boolean isScalar() {
+      return lengths.length == 0;
+   }
+
+   /* End IMultiArrayInfo */
+
+   /* Begin IMultiArray Access methods from IMultiArrayAccessor */
+
+   /**
+    * @see IAccessor#get
+    */
+   public Object get(final int[] index) {
+      return array.get(toTarget(index));
+   }
+
+   /**
+    * @see IAccessor#getBoolean
+    */
+   public boolean getBoolean(final int[] index) {
+      return array.getBoolean(toTarget(index));
+   }
+
+   /**
+    * @see IAccessor#getChar
+    */
+   public char getChar(final int[] index) {
+      return array.getChar(toTarget(index));
+   }
+
+   /**
+    * @see IAccessor#getByte
+    */
+   public byte getByte(final int[] index) {
+      return array.getByte(toTarget(index));
+   }
+
+   /**
+    * @see IAccessor#getShort
+    */
+   public short getShort(final int[] index) {
+      return array.getShort(toTarget(index));
+   }
+
+   /**
+    * @see IAccessor#getInt
+    */
+   public int getInt(final int[] index) {
+      return array.getInt(toTarget(index));
+   }
+
+   /**
+    * @see IAccessor#getLong
+    */
+   public long getLong(final int[] index) {
+      return array.getLong(toTarget(index));
+   }
+
+   /**
+    * @see IAccessor#getFloat
+    */
+   public float getFloat(final int[] index) {
+      return array.getFloat(toTarget(index));
+   }
+
+   /**
+    * @see IAccessor#getDouble
+    */
+   public double getDouble(final int[] index) {
+      return array.getDouble(toTarget(index));
+   }
+
+   /**
+    * @see IAccessor#set
+    */
+   public void set(final int[] index, Object value) {
+      array.set(toTarget(index), value);
+   }
+
+   /**
+    * @see IAccessor#setBoolean
+    */
+   public void setBoolean(final int[] index, boolean value) {
+      array.setBoolean(toTarget(index), value);
+   }
+
+   /**
+    * @see IAccessor#setChar
+    */
+   public void setChar(final int[] index, char value) {
+      array.setChar(toTarget(index), value);
+   }
+
+   /**
+    * @see IAccessor#setByte
+    */
+   public void setByte(final int[] index, byte value) {
+      array.setByte(toTarget(index), value);
+   }
+
+   /**
+    * @see IAccessor#setShort
+    */
+   public void setShort(final int[] index, short value) {
+      array.setShort(toTarget(index), value);
+   }
+
+   /**
+    * @see IAccessor#setInt
+    */
+   public void setInt(final int[] index, int value) {
+      array.setInt(toTarget(index), value);
+   }
+
+   /**
+    * @see IAccessor#setLong
+    */
+   public void setLong(final int[] index, long value) {
+      array.setLong(toTarget(index), value);
+   }
+
+   /**
+    * @see IAccessor#setFloat
+    */
+   public void setFloat(final int[] index, float value) {
+      array.setFloat(toTarget(index), value);
+   }
+
+   /**
+    * @see IAccessor#setDouble
+    */
+   public void setDouble(final int[] index, double value) {
+      array.setDouble(toTarget(index), value);
+   }
+
+   /**
+    * Returns the storage of the viewed array, i.e. all its elements and not only those of this
+    * view.
+    * 
+    * @see IMultiArray#getStorage
+    */
+   public Object getStorage() {
+      return array.getStorage();
+   }
+
+   /* End IMultiArrayAccessor */
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.common.multiarray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCaseIndexIterator {
+   @Test
+   public void testAdvanceAndJump() {
+      final int[] fromPos = new int[] { 1, 0, 2 };
+      final int[] toPosExcl = new int[] { 3, 4, 5 };
+      IndexIterator expected = new IndexIterator(fromPos, toPosExcl);
+      for (int nsteps = 0; nsteps < 2 * 4 * 3; nsteps++) {
+         IndexIterator ii = new IndexIterator(fromPos, toPosExcl);
+         ii.advance(nsteps);
+         Assert.assertArrayEquals(expected.value(), ii.value());
+         Assert.assertEquals(nsteps, ii.position());
+         Assert.assertTrue(ii.notDone());
+
+         IndexIterator jj = new IndexIterator(fromPos, toPosExcl);
+         jj.jumpTo(nsteps);
+         Assert.assertArrayEquals(expected.value(), jj.value());
+         expected.incr();
+      }
+      Assert.assertFalse(expected.notDone());
+
+      // Rolls over as with incr()
+      IndexIterator ii = new IndexIterator(fromPos, toPosExcl);
+      ii.advance(2 * 4 * 3 + 5);
+      Assert.assertFalse(ii.notDone());
+      Assert.assertEquals(5, ii.position());
+      ii.jumpTo(2 * 4 * 3);
+      Assert.assertFalse(ii.notDone());
+      Assert.assertEquals(0, ii.remaining());
+
+      // Rewinds after rolling over, repeated jumps past the end do not accumulate
+      ii.jumpTo(0);
+      Assert.assertTrue(ii.notDone());
+      Assert.assertArrayEquals(fromPos, ii.value());
+      Assert.assertEquals(2 * 4 * 3, ii.remaining());
+      ii.jumpTo(2 * 4 * 3);
+      ii.jumpTo(2 * 4 * 3);
+      Assert.assertFalse(ii.notDone());
+      ii.jumpTo(1);
+      Assert.assertTrue(ii.notDone());
+      Assert.assertEquals(1, ii.position());
+
+      // Empty box
+      Assert.assertFalse(new IndexIterator(new int[] { 2, 0 }).notDone());
+   }
+
+   @Test
+   public void testSplit() {
+      final int[] shape = new int[] { 3, 5, 7 };
+      IndexIterator ii = new IndexIterator(shape);
+      ii.advance(4);
+      List<IndexIterator> all = new ArrayList<IndexIterator>();
+      all.add(ii);
+      for (int i = 0; i < all.size(); i++) {
+         IndexIterator split;
+         while ((split = all.get(i).trySplit()) != null) {
+            all.add(split);
+         }
+      }
+      Assert.assertNull(ii.trySplit());
+
+      boolean[] visited = new boolean[3 * 5 * 7];
+      for (IndexIterator each : all) {
+         for (; each.notDone(); each.incr()) {
+            int[] value = each.value();
+            int linear = (value[0] * 5 + value[1]) * 7 + value[2];
+            Assert.assertEquals(each.position(), linear);
+            Assert.assertFalse(visited[linear]);
+            visited[linear] = true;
+         }
+      }
+      for (int i = 0; i < visited.length; i++) {
+         Assert.assertEquals(i >= 4, visited[i]);
+      }
+   }
+
+   @Test
+   public void testSplitInExecutor() throws Exception {
+      final double[][] values = new double[40][30];
+      final MultiArrayJava array = new MultiArrayJava(values);
+      IndexIterator ii = new IndexIterator(array.getLengths());
+      List<IndexIterator> parts = new ArrayList<IndexIterator>();
+      parts.add(ii);
+      for (int i = 0; i < 3; i++) {
+         for (int j = parts.size() - 1; j >= 0; j--) {
+            parts.add(parts.get(j).trySplit());
+         }
+      }
+      Assert.assertEquals(8, parts.size());
+
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+         List<Future<Double>> sums = new ArrayList<Future<Double>>();
+         for (final IndexIterator part : parts) {
+            sums.add(executor.submit(new Callable<Double>() {
+               public Double call() {
+                  double sum = 0;
+                  for (; part.notDone(); part.incr()) {
+                     int[] index = part.value();
+                     double value = index[0] * 30 + index[1];
+                     values[index[0]][index[1]] = value;
+                     sum += value;
+                  }
+                  return sum;
+               }
+            }));
+         }
+         double total = 0;
+         for (Future<Double> sum : sums) {
+            total += sum.get();
+         }
+         Assert.assertEquals(1200.0 * 1199.0 / 2, total, 0);
+      } finally {
+         executor.shutdown();
+      }
+      Assert.assertEquals(1199.0, values[39][29], 0);
+   }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.common.multiarray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCaseMultiArrayJava {
+   @Test
+   public void testLinearAccess() {
+      double[][][] values = new double[3][4][5];
+      MultiArrayJava array = new MultiArrayJava(values);
+      for (long linear = 0; linear < 3 * 4 * 5; linear++) {
+         array.setDouble(linear, linear);
+      }
+      Assert.assertEquals(27, values[1][1][2], 0);
+      Assert.assertEquals(59, array.getDouble(new int[] { 2, 3, 4 }), 0);
+      // Backwards, through the cached row and across rows
+      for (long linear = 3 * 4 * 5 - 1; linear >= 0; linear--) {
+         Assert.assertEquals(linear, array.getDouble(linear), 0);
+      }
+
+      // Bulk copies spanning several rows
+      double[] buff = new double[12];
+      array.getDoubles(3, buff, 1, 11);
+      for (int i = 0; i < 11; i++) {
+         Assert.assertEquals(3 + i, buff[1 + i], 0);
+      }
+      array.setDoubles(48, new double[] { -1, -2, -3, -4, -5, -6, -7 }, 0, 7);
+      Assert.assertEquals(-1, values[2][1][3], 0);
+      Assert.assertEquals(-7, values[2][2][4], 0);
+      Assert.assertEquals(55, values[2][3][0], 0);
+
+      MultiArrayJava ints = new MultiArrayJava(new int[] { 1, 2, 3 });
+      Assert.assertEquals(3, ints.getInt(2L));
+      Assert.assertEquals(3.0, ints.getDouble(2L), 0);
+   }
+
+   @Test
+   public void testNewInstance() {
+      double[][][][] doubles = new double[2][3][4][5];
+      MultiArrayJava array = MultiArrayJava.newInstance(doubles);
+      Assert.assertNotSame(MultiArrayJava.class, array.getClass());
+      Assert.assertEquals(4, array.getRank());
+      Assert.assertEquals(double.class, array.getComponentType());
+      for (long linear = 0; linear < 2 * 3 * 4 * 5; linear++) {
+         array.setDouble(linear, linear);
+      }
+      Assert.assertEquals(47, doubles[0][2][1][2], 0);
+      Assert.assertEquals(47, array.getDouble(new int[] { 0, 2, 1, 2 }), 0);
+      array.setDouble(new int[] { 1, 0, 3, 4 }, -1);
+      Assert.assertEquals(-1, doubles[1][0][3][4], 0);
+      Assert.assertSame(doubles[1][2][0], array.getRow(new int[] { 1, 2, 0, 0 }));
+      Assert.assertEquals(-1, array.getDouble(79L), 0);
+
+      float[] floats = new float[] { 1, 2, 3 };
+      array = MultiArrayJava.newInstance(floats);
+      array.setFloat(new int[] { 1 }, 5);
+      Assert.assertEquals(5, floats[1], 0);
+      Assert.assertEquals(3, array.getFloat(2L), 0);
+      Assert.assertSame(floats, array.getRow(new int[] { 0 }));
+
+      long[][] longs = new long[2][2];
+      MultiArrayJava.newInstance(longs).setLong(3L, 7);
+      Assert.assertEquals(7, longs[1][1]);
+
+      int[][][] ints = new int[2][2][2];
+      array = MultiArrayJava.newInstance(ints);
+      array.setInt(new int[] { 1, 0, 1 }, 9);
+      Assert.assertEquals(9, array.getInt(5L));
+      // Other types than the component type are still supported
+      Assert.assertEquals(9.0, array.getDouble(new int[] { 1, 0, 1 }), 0);
+
+      short[] shorts = new short[2];
+      MultiArrayJava.newInstance(shorts).setShort(1L, (short) 4);
+      Assert.assertEquals(4, shorts[1]);
+
+      byte[][] bytes = new byte[2][3];
+      MultiArrayJava.newInstance(bytes).setByte(new int[] { 1, 2 }, (byte) 6);
+      Assert.assertEquals(6, MultiArrayJava.newInstance(bytes).getByte(5L));
+
+      // Not specialized
+      Assert.assertSame(MultiArrayJava.class,
+            MultiArrayJava.newInstance(new double[1][1][1][1][1]).getClass());
+      Assert.assertSame(MultiArrayJava.class, MultiArrayJava.newInstance(new boolean[2])
+            .getClass());
+   }
+
+   @Test(expected = ArrayIndexOutOfBoundsException.class)
+   public void testLinearOutOfBounds() {
+      new MultiArrayJava(new int[2][3]).getInt(6L);
+   }
+}
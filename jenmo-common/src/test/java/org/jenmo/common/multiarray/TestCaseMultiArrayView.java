@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.common.multiarray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCaseMultiArrayView {
+   private static int[][][] newInts() {
+      int[][][] values = new int[4][5][6];
+      for (int i = 0; i < 4; i++) {
+         for (int j = 0; j < 5; j++) {
+            for (int k = 0; k < 6; k++) {
+               values[i][j][k] = i * 100 + j * 10 + k;
+            }
+         }
+      }
+      return values;
+   }
+
+   @Test
+   public void testViews() {
+      int[][][] values = newInts();
+      MultiArrayView all = new MultiArrayView(MultiArrayJava.newInstance(values));
+      Assert.assertArrayEquals(new int[] { 4, 5, 6 }, all.getLengths());
+      Assert.assertEquals(int.class, all.getComponentType());
+      Assert.assertSame(values, all.getStorage());
+
+      // Every 2nd cell along the first axis, every 4th along the last one
+      MultiArrayView sampled = all.sample(new int[] { 2, 1, 4 });
+      Assert.assertArrayEquals(new int[] { 2, 5, 2 }, sampled.getLengths());
+      Assert.assertEquals(234, sampled.getInt(new int[] { 1, 3, 1 }));
+
+      // A 2D section, then chained
+      MultiArrayView section = all.reduce(1, 2);
+      Assert.assertEquals(2, section.getRank());
+      Assert.assertEquals(325, section.getInt(new int[] { 3, 5 }));
+      MultiArrayView sub = section.section(new int[] { 1, 1 }, new int[] { 2, 2 }, new int[] { 2,
+            3 });
+      Assert.assertEquals(324, sub.getInt(new int[] { 1, 1 }));
+      MultiArrayView transposed = sub.transpose();
+      Assert.assertArrayEquals(new int[] { 2, 2 }, transposed.getLengths());
+      Assert.assertEquals(124, transposed.getInt(new int[] { 1, 0 }));
+
+      // Axes in a different order, written through
+      MultiArrayView permuted = all.permute(new int[] { 2, 0, 1 });
+      Assert.assertArrayEquals(new int[] { 6, 4, 5 }, permuted.getLengths());
+      Assert.assertEquals(341, permuted.getInt(new int[] { 1, 3, 4 }));
+      permuted.setInt(new int[] { 5, 0, 1 }, -1);
+      Assert.assertEquals(-1, values[0][1][5]);
+      Assert.assertEquals(-1, permuted.reduce(0, 5).reduce(0, 0).getInt(new int[] { 1 }));
+
+      // Down to a scalar
+      MultiArrayView scalar = sampled.reduce(0, 1).reduce(0, 4).reduce(0, 1);
+      Assert.assertTrue(scalar.isScalar());
+      Assert.assertEquals(244, scalar.getInt(new int[0]));
+   }
+
+   @Test(expected = ArrayIndexOutOfBoundsException.class)
+   public void testOutOfView() {
+      MultiArrayView view = new MultiArrayView(new MultiArrayJava(newInts())).section(new int[] {
+            0, 0, 0 }, new int[] { 2, 2, 2 });
+      // Inside the viewed array but not inside the view
+      view.getInt(new int[] { 0, 2, 0 });
+   }
+
+   @Test(expected = ArrayIndexOutOfBoundsException.class)
+   public void testSectionTooLarge() {
+      new MultiArrayView(new MultiArrayJava(newInts())).section(new int[] { 1, 0, 0 }, new int[] {
+            2, 1, 1 }, new int[] { 3, 1, 1 });
+   }
+}
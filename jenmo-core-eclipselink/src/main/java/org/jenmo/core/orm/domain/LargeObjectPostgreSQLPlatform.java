@@ -11,15 +11,20 @@ import org.eclipse.persistence.platform.database.PostgreSQLPlatform;
 public class LargeObjectPostgreSQLPlatform extends PostgreSQLPlatform {
    private static final long serialVersionUID = 8007091077580108773L;
 
+   /** The large object column of SPLITBLOBPART */
+   private static final String DATA_COLUMN = "DATA";
+
    @Override
    public Object getObjectFromResultSet(ResultSet resultSet, int columnNumber, int type,
          AbstractSession session) throws SQLException {
-      if (type == Types.BIGINT && columnNumber == 4) {
+      // Do not rely on the column position as it depends on the mapped columns (CODEC, ...)
+      if (type == Types.BIGINT
+            && DATA_COLUMN.equalsIgnoreCase(resultSet.getMetaData().getColumnName(columnNumber))) {
          Connection conn = resultSet.getStatement().getConnection();
          boolean previous = conn.getAutoCommit();
          conn.setAutoCommit(false);
          
-         Object out = resultSet.getBytes(4);
+         Object out = resultSet.getBytes(columnNumber);
          
          conn.setAutoCommit(previous);
          return out;
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jenmo.common.config.IConfiguration;
+import org.jenmo.core.config.JenmoConfig;
+
+/**
+ * A pool of direct <code>ByteBuffer</code>s, used for the decoded bytes of encoded
+ * {@link org.jenmo.core.domain.SplitBlobPart}s. Decoding a part into a recycled off-heap buffer
+ * avoids allocating a large heap array for each opened part, which otherwise puts a lot of pressure
+ * on the garbage collector when scanning big blobs.
+ * <p>
+ * Buffers are grouped by size classes (powers of two, from 4KB). Only released buffers are kept by
+ * the pool, and their total capacity is bounded: buffers released beyond this bound are left to
+ * the garbage collector. Buffers in use are bounded by the number of opened parts.
+ * <p>
+ * The default instance is configured by the {@link JenmoConfig#OPTION_PART_POOL_SIZE} option.
+ * There is no default instance (i.e. heap buffers are used) if this option is 0.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public final class DirectBufferPool {
+   /** The smallest size class is 2^MIN_SHIFT bytes. */
+   private static final int MIN_SHIFT = 12;
+
+   /** The largest size class is 2^MAX_SHIFT bytes, larger buffers are not pooled. */
+   private static final int MAX_SHIFT = 30;
+
+   /** Used to clear buffers. */
+   private static final byte[] ZEROS = new byte[1 << MIN_SHIFT];
+
+   /** The default instance, may be null */
+   private static volatile DirectBufferPool singleton = loadDefault();
+
+   private final long maxSize;
+
+   /** Released buffers by size class */
+   private final List<Queue<ByteBuffer>> classes;
+
+   /** The total capacity of the released buffers */
+   private final AtomicLong size = new AtomicLong();
+
+   /**
+    * Creates a new instance.
+    * 
+    * @param maxSize
+    *           the maximum total capacity in bytes of the buffers kept by this pool
+    */
+   public DirectBufferPool(long maxSize) {
+      if (maxSize <= 0) {
+         throw new IllegalArgumentException("MaxSize=" + maxSize + ", must be > 0");
+      }
+      this.maxSize = maxSize;
+      this.classes = new ArrayList<Queue<ByteBuffer>>(MAX_SHIFT - MIN_SHIFT + 1);
+      for (int i = MIN_SHIFT; i <= MAX_SHIFT; i++) {
+         classes.add(new ConcurrentLinkedQueue<ByteBuffer>());
+      }
+   }
+
+   /**
+    * Gets the default instance, <code>null</code> if heap buffers must be used.
+    */
+   public static DirectBufferPool getInstance() {
+      return singleton;
+   }
+
+   /**
+    * Sets the default instance, <code>null</code> to use heap buffers.
+    */
+   public static void setInstance(DirectBufferPool pool) {
+      singleton = pool;
+   }
+
+   private static DirectBufferPool loadDefault() {
+      IConfiguration conf = JenmoConfig.getInstance();
+      if (conf == null || conf.getValue(JenmoConfig.OPTION_PART_POOL_SIZE) == null) {
+         return null;
+      }
+      Long maxSize = (Long) conf.getValue(JenmoConfig.OPTION_PART_POOL_SIZE).get();
+      if (maxSize == 0) {
+         return null;
+      }
+      return new DirectBufferPool(maxSize);
+   }
+
+   /**
+    * Gets a direct buffer whose limit is the given size and position is 0. Its content is
+    * undefined.
+    */
+   public ByteBuffer acquire(int size) {
+      if (size < 0) {
+         throw new IllegalArgumentException("Size=" + size + ", must be >= 0");
+      }
+      int shift = shiftOf(size);
+      if (shift > MAX_SHIFT) {
+         return ByteBuffer.allocateDirect(size);
+      }
+      ByteBuffer out = classes.get(shift - MIN_SHIFT).poll();
+      if (out == null) {
+         out = ByteBuffer.allocateDirect(1 << shift);
+      } else {
+         this.size.addAndGet(-out.capacity());
+      }
+      out.clear();
+      out.limit(size);
+      return out;
+   }
+
+   /**
+    * Same as {@link #acquire(int)}, but the content of the returned buffer is all zeros.
+    */
+   public ByteBuffer acquireZeroed(int size) {
+      ByteBuffer out = acquire(size);
+      while (out.hasRemaining()) {
+         out.put(ZEROS, 0, Math.min(ZEROS.length, out.remaining()));
+      }
+      out.rewind();
+      return out;
+   }
+
+   /**
+    * Gives back a buffer got from {@link #acquire(int)}. It must not be used any more by the caller.
+    */
+   public void release(ByteBuffer buffer) {
+      int capacity = buffer.capacity();
+      if (!buffer.isDirect() || buffer.isReadOnly() || Integer.bitCount(capacity) != 1
+            || capacity < (1 << MIN_SHIFT)) {
+         return;
+      }
+      if (size.addAndGet(capacity) > maxSize) {
+         size.addAndGet(-capacity);
+         return;
+      }
+      buffer.clear();
+      classes.get(shiftOf(capacity) - MIN_SHIFT).offer(buffer);
+   }
+
+   /**
+    * Gets the total capacity in bytes of the buffers kept by this pool.
+    */
+   public long getSize() {
+      return size.get();
+   }
+
+   public long getMaxSize() {
+      return maxSize;
+   }
+
+   /**
+    * Gets the smallest shift of a size class holding the given size.
+    */
+   private static int shiftOf(int size) {
+      if (size <= (1 << MIN_SHIFT)) {
+         return MIN_SHIFT;
+      }
+      return 32 - Integer.numberOfLeadingZeros(size - 1);
+   }
+}
@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.jenmo.common.config.IConfiguration;
+import org.jenmo.core.config.JenmoConfig;
+
+/**
+ * A local on-disk cache for the decoded bytes of {@link org.jenmo.core.domain.SplitBlobPart}s,
+ * keyed by the content hash of their stored bytes (see
+ * {@link org.jenmo.core.domain.SplitBlobPart#getContentHash()}). Cached parts are served as
+ * read-only memory-mapped buffers, so reading again the same blob costs page cache reads instead
+ * of large object transfers from database.
+ * <p>
+ * Part ids and versions are not a content identity: a version may be rolled back and written
+ * again with other data, and ids are reused once a schema is recreated. Entries are then keyed by
+ * content, and parts having the same content share the same entry.
+ * <p>
+ * Each entry is a file in the cache directory. The total size of the files is bounded, the least
+ * recently used entries being removed first. Entries are kept between runs.
+ * <p>
+ * The default instance is configured by the {@link JenmoConfig#OPTION_PART_CACHE_DIR} and
+ * {@link JenmoConfig#OPTION_PART_CACHE_SIZE} options. There is no default instance (i.e. parts are
+ * not cached) if the directory option is empty.
+ * <p>
+ * This class is thread safe. I/O errors are logged and reported as cache misses.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public final class PartFileCache {
+   /** The logger. */
+   private static final Logger LOGGER = Logger.getLogger(PartFileCache.class);
+
+   private static final String SUFFIX = ".part";
+
+   private static final String TMP_SUFFIX = ".tmp";
+
+   /** The default instance, may be null */
+   private static volatile PartFileCache singleton = loadDefault();
+
+   private final File dir;
+
+   private final long maxSize;
+
+   /** File sizes by key, in access order */
+   private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f,
+         true);
+
+   private long size;
+
+   /**
+    * Creates a new instance, indexing the entries already in the given directory.
+    * 
+    * @param maxSize
+    *           the maximum size of the cache in bytes
+    */
+   public PartFileCache(File dir, long maxSize) {
+      if (dir == null) {
+         throw new NullPointerException("Dir cannot be null");
+      }
+      if (maxSize <= 0) {
+         throw new IllegalArgumentException("MaxSize=" + maxSize + ", must be > 0");
+      }
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+         throw new IllegalArgumentException("Cannot create cache directory: " + dir);
+      }
+      this.dir = dir;
+      this.maxSize = maxSize;
+      init();
+   }
+
+   /**
+    * Gets the default instance, <code>null</code> if parts must not be cached.
+    */
+   public static PartFileCache getInstance() {
+      return singleton;
+   }
+
+   /**
+    * Sets the default instance, <code>null</code> to disable caching.
+    */
+   public static void setInstance(PartFileCache cache) {
+      singleton = cache;
+   }
+
+   private static PartFileCache loadDefault() {
+      IConfiguration conf = JenmoConfig.getInstance();
+      if (conf == null || conf.getValue(JenmoConfig.OPTION_PART_CACHE_DIR) == null) {
+         return null;
+      }
+      String dir = (String) conf.getValue(JenmoConfig.OPTION_PART_CACHE_DIR).get();
+      if (dir.length() == 0) {
+         return null;
+      }
+      Long maxSize = (Long) conf.getValue(JenmoConfig.OPTION_PART_CACHE_SIZE).get();
+      return new PartFileCache(new File(dir), maxSize);
+   }
+
+   private void init() {
+      File[] files = dir.listFiles(new FileFilter() {
+         public boolean accept(File f) {
+            if (f.getName().endsWith(TMP_SUFFIX)) {
+               // Left by a previous run
+               f.delete();
+               return false;
+            }
+            return f.isFile() && f.getName().endsWith(SUFFIX);
+         }
+      });
+      // Oldest first, so that they are evicted first
+      Arrays.sort(files, new Comparator<File>() {
+         public int compare(File o1, File o2) {
+            long m1 = o1.lastModified();
+            long m2 = o2.lastModified();
+            return (m1 < m2) ? -1 : ((m1 == m2) ? 0 : 1);
+         }
+      });
+      synchronized (this) {
+         for (File each : files) {
+            String name = each.getName();
+            String key = name.substring(0, name.length() - SUFFIX.length());
+            entries.put(key, each.length());
+            size += each.length();
+         }
+         evict();
+      }
+   }
+
+   private File file(String key) {
+      return new File(dir, key + SUFFIX);
+   }
+
+   /**
+    * Gets the cached bytes of the given content as a read-only buffer, <code>null</code> if not
+    * cached.
+    * 
+    * @param key
+    *           the content hash of the stored bytes
+    */
+   public ByteBuffer get(String key) {
+      synchronized (this) {
+         if (entries.get(key) == null) {
+            return null;
+         }
+      }
+      RandomAccessFile raf = null;
+      try {
+         raf = new RandomAccessFile(file(key), "r");
+         FileChannel channel = raf.getChannel();
+         // The mapping remains valid once the channel is closed
+         return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } catch (IOException e) {
+         // Evicted in the meantime, or removed by hand
+         LOGGER.warn("Cannot read cached blob part: " + key, e);
+         remove(key);
+         return null;
+      } finally {
+         close(raf);
+      }
+   }
+
+   /**
+    * Tells if the given content is cached.
+    */
+   public synchronized boolean contains(String key) {
+      return entries.containsKey(key);
+   }
+
+   /**
+    * Caches the decoded bytes of the given content. Does nothing if these bytes are larger than
+    * the cache.
+    */
+   public void put(String key, byte[] raw) {
+      put(key, ByteBuffer.wrap(raw));
+   }
+
+   /**
+    * Caches the decoded bytes of the given content, from index 0 to the limit of the given buffer
+    * (whose position is left unchanged). Does nothing if these bytes are larger than the cache.
+    * 
+    * @param key
+    *           the content hash of the stored bytes
+    */
+   public void put(String key, ByteBuffer raw) {
+      final int length = raw.limit();
+      if (length > maxSize) {
+         return;
+      }
+      synchronized (this) {
+         if (entries.containsKey(key)) {
+            return;
+         }
+      }
+      // Write a temporary file first, so that readers never see a partial file
+      File tmp = new File(dir, key + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+      FileOutputStream out = null;
+      try {
+         out = new FileOutputStream(tmp);
+         ByteBuffer src = raw.duplicate();
+         src.rewind();
+         FileChannel channel = out.getChannel();
+         while (src.hasRemaining()) {
+            channel.write(src);
+         }
+         out.close();
+         out = null;
+         synchronized (this) {
+            if (entries.containsKey(key) || !tmp.renameTo(file(key))) {
+               tmp.delete();
+               return;
+            }
+            entries.put(key, (long) length);
+            size += length;
+            evict();
+         }
+      } catch (IOException e) {
+         LOGGER.warn("Cannot cache blob part: " + key, e);
+         tmp.delete();
+      } finally {
+         close(out);
+      }
+   }
+
+   /**
+    * Removes the given content from this cache.
+    */
+   public synchronized void remove(String key) {
+      Long length = entries.remove(key);
+      if (length != null) {
+         size -= length;
+         file(key).delete();
+      }
+   }
+
+   /**
+    * Removes all the entries of this cache.
+    */
+   public synchronized void clear() {
+      for (String each : entries.keySet()) {
+         file(each).delete();
+      }
+      entries.clear();
+      size = 0;
+   }
+
+   /**
+    * Gets the number of bytes currently cached.
+    */
+   public synchronized long getSize() {
+      return size;
+   }
+
+   /**
+    * Gets the maximum number of bytes cached.
+    */
+   public long getMaxSize() {
+      return maxSize;
+   }
+
+   private void evict() {
+      Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+      while (size > maxSize && it.hasNext()) {
+         Map.Entry<String, Long> eldest = it.next();
+         it.remove();
+         size -= eldest.getValue();
+         if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Evicting cached blob part: " + eldest.getKey());
+         }
+         file(eldest.getKey()).delete();
+      }
+   }
+
+   private static void close(Closeable c) {
+      if (c != null) {
+         try {
+            c.close();
+         } catch (IOException ignore) {
+         }
+      }
+   }
+}
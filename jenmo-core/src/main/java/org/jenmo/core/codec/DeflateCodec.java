@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.jenmo.core.util.SplitBlobUtils.PType;
+
+/**
+ * A codec using the <i>deflate</i> algorithm of <code>java.util.zip</code>. Gives good ratios, but
+ * is much slower than {@link Lz4Codec}.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public class DeflateCodec implements IPartCodec {
+   /** The name of this codec. */
+   public static final String NAME = "deflate";
+
+   /** The size of the chunks used to stage direct buffers. */
+   private static final int CHUNK_SIZE = 64 * 1024;
+
+   private final int level;
+
+   /**
+    * Creates a new instance favoring speed over compression ratio.
+    */
+   public DeflateCodec() {
+      this(Deflater.BEST_SPEED);
+   }
+
+   /**
+    * Creates a new instance with the given compression level (0-9).
+    */
+   public DeflateCodec(int level) {
+      if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+         throw new IllegalArgumentException("Level=" + level + ", must be in [0-9]");
+      }
+      this.level = level;
+   }
+
+   @Override
+   public String getName() {
+      return NAME;
+   }
+
+   @Override
+   public byte[] encode(ByteBuffer raw, PType type) {
+      Deflater deflater = new Deflater(level);
+      try {
+         // Direct buffers are fed by chunks
+         byte[] array = PartCodecs.arrayOf(raw);
+         ByteBuffer src = null;
+         byte[] chunk = null;
+         if (array != null) {
+            deflater.setInput(array);
+            deflater.finish();
+         } else {
+            src = raw.duplicate();
+            src.rewind();
+            chunk = new byte[Math.min(CHUNK_SIZE, raw.limit())];
+         }
+         byte[] out = new byte[raw.limit() / 2 + 64];
+         int len = 0;
+         while (!deflater.finished()) {
+            if (src != null && deflater.needsInput()) {
+               if (src.hasRemaining()) {
+                  int n = Math.min(chunk.length, src.remaining());
+                  src.get(chunk, 0, n);
+                  deflater.setInput(chunk, 0, n);
+               } else {
+                  deflater.finish();
+               }
+            }
+            if (len == out.length) {
+               out = Arrays.copyOf(out, 2 * out.length);
+            }
+            len += deflater.deflate(out, len, out.length - len);
+         }
+         return Arrays.copyOf(out, len);
+      } finally {
+         deflater.end();
+      }
+   }
+
+   @Override
+   public void decode(byte[] stored, int off, ByteBuffer raw, PType type) {
+      Inflater inflater = new Inflater();
+      try {
+         inflater.setInput(stored, off, stored.length - off);
+         // Direct buffers are filled by chunks
+         byte[] array = PartCodecs.arrayOf(raw);
+         ByteBuffer dst = null;
+         byte[] chunk = null;
+         if (array == null) {
+            dst = raw.duplicate();
+            dst.rewind();
+            chunk = new byte[Math.min(CHUNK_SIZE, raw.limit())];
+         }
+         int total = raw.limit();
+         // One more byte is only read if the stream is longer than expected
+         byte[] extra = new byte[1];
+         int len = 0;
+         while (!inflater.finished()) {
+            int n;
+            if (len == total) {
+               n = inflater.inflate(extra);
+            } else if (dst == null) {
+               n = inflater.inflate(array, len, total - len);
+            } else {
+               n = inflater.inflate(chunk, 0, Math.min(chunk.length, total - len));
+               dst.put(chunk, 0, n);
+            }
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+               throw new PartCodecException(PartCodecs.corrupted(NAME));
+            }
+            len += n;
+            if (len > total) {
+               throw new PartCodecException(PartCodecs.corrupted(NAME));
+            }
+         }
+         if (len != total) {
+            throw new PartCodecException(PartCodecs.corrupted(NAME));
+         }
+      } catch (DataFormatException e) {
+         throw new PartCodecException(PartCodecs.corrupted(NAME), e);
+      } finally {
+         inflater.end();
+      }
+   }
+}
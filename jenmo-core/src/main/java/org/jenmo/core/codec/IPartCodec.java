@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.codec;
+
+import java.nio.ByteBuffer;
+
+import org.jenmo.core.util.SplitBlobUtils.PType;
+
+/**
+ * Encodes the raw bytes of a {@link org.jenmo.core.domain.SplitBlobPart} before they are stored
+ * into database, and decodes them back when the part is opened.
+ * <p>
+ * Implementations must be thread safe as parts may be decoded concurrently. They are registered
+ * by name in {@link PartCodecs}, and this name is stored along with each part.
+ * <p>
+ * The raw bytes of a part are those of a <code>ByteBuffer</code> from index 0 to its limit. It may
+ * be a heap or a direct buffer, and its position and limit must be left unchanged. Its byte order
+ * is the one of the blob, codecs reading elements must use it.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public interface IPartCodec {
+   /**
+    * Gets the name of this codec, as stored in database.
+    */
+   String getName();
+
+   /**
+    * Encodes the given raw bytes.
+    * 
+    * @param raw
+    *           the raw bytes of the part
+    * @param type
+    *           the type of the elements of the part
+    * @return the bytes to store, may be <code>raw</code> itself
+    */
+   byte[] encode(ByteBuffer raw, PType type);
+
+   /**
+    * Decodes the given stored bytes into <code>raw</code>, whose limit is the expected raw size.
+    * 
+    * @param stored
+    *           the stored bytes, from <code>off</code> to the end of the array
+    * @param off
+    *           the index of the first stored byte, so that codecs wrapping others do not copy
+    *           their header out
+    * @throws PartCodecException
+    *            if the stored bytes cannot be decoded
+    */
+   void decode(byte[] stored, int off, ByteBuffer raw, PType type);
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.jenmo.core.util.SplitBlobUtils.PType;
+
+/**
+ * A fast codec writing the LZ4 block format (see <a
+ * href="http://code.google.com/p/lz4/">http://code.google.com/p/lz4/</a>). Compression ratios are
+ * lower than with {@link DeflateCodec} but both encoding and decoding are several times faster,
+ * which matters when the database transfer is not the bottleneck.
+ * <p>
+ * This is a plain Java implementation of the greedy LZ4 compressor, with a 64KB window.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public class Lz4Codec implements IPartCodec {
+   /** The name of this codec. */
+   public static final String NAME = "lz4";
+
+   private static final int MIN_MATCH = 4;
+
+   /** The last bytes of a block are always literals. */
+   private static final int LAST_LITERALS = 5;
+
+   /** The last match must start at least that many bytes before the end of the block. */
+   private static final int MF_LIMIT = 12;
+
+   private static final int MAX_DISTANCE = 65535;
+
+   private static final int HASH_LOG = 14;
+
+   /** Misses before increasing the search step, to skip quickly over incompressible data. */
+   private static final int SKIP_TRIGGER = 6;
+
+   private static final int RUN_MASK = 15;
+
+   @Override
+   public String getName() {
+      return NAME;
+   }
+
+   @Override
+   public byte[] encode(ByteBuffer buffer, PType type) {
+      final byte[] raw = PartCodecs.toArray(buffer);
+      final int n = raw.length;
+      byte[] out = new byte[n + n / 255 + 16];
+      int dOff = 0;
+      int anchor = 0;
+      if (n > MF_LIMIT) {
+         final int[] table = new int[1 << HASH_LOG];
+         Arrays.fill(table, -1);
+         final int limit = n - MF_LIMIT;
+         final int matchLimit = n - LAST_LITERALS;
+         int sOff = 0;
+         int misses = 1 << SKIP_TRIGGER;
+         while (sOff < limit) {
+            int seq = readInt(raw, sOff);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = sOff;
+            if (ref < 0 || sOff - ref > MAX_DISTANCE || readInt(raw, ref) != seq) {
+               sOff += (misses++ >>> SKIP_TRIGGER);
+               continue;
+            }
+            misses = 1 << SKIP_TRIGGER;
+            while (sOff > anchor && ref > 0 && raw[sOff - 1] == raw[ref - 1]) {
+               sOff--;
+               ref--;
+            }
+            int matchLen = MIN_MATCH;
+            while (sOff + matchLen < matchLimit && raw[sOff + matchLen] == raw[ref + matchLen]) {
+               matchLen++;
+            }
+            dOff = writeSequence(raw, anchor, sOff - anchor, sOff - ref, matchLen, out, dOff);
+            sOff += matchLen;
+            anchor = sOff;
+         }
+      }
+      dOff = writeLiterals(raw, anchor, n - anchor, out, dOff);
+      return Arrays.copyOf(out, dOff);
+   }
+
+   @Override
+   public void decode(byte[] stored, int off, ByteBuffer raw, PType type) {
+      // Bulk operations of the buffer are used so that direct buffers are handled efficiently
+      final ByteBuffer dst = raw.duplicate();
+      // Matches are copied within the array of heap buffers, or through a single view otherwise
+      final byte[] array = raw.hasArray() ? raw.array() : null;
+      final int base = (array == null) ? 0 : raw.arrayOffset();
+      final ByteBuffer src = (array == null) ? raw.duplicate() : null;
+      final int dLen = raw.limit();
+      final int sLen = stored.length;
+      int sOff = off;
+      int dOff = 0;
+      while (true) {
+         if (sOff >= sLen) {
+            throw new PartCodecException(PartCodecs.corrupted(NAME));
+         }
+         final int token = stored[sOff++] & 0xFF;
+
+         // Literals
+         int litLen = token >>> 4;
+         if (litLen == RUN_MASK) {
+            int b;
+            do {
+               if (sOff >= sLen) {
+                  throw new PartCodecException(PartCodecs.corrupted(NAME));
+               }
+               b = stored[sOff++] & 0xFF;
+               litLen += b;
+            } while (b == 255);
+         }
+         if (litLen > sLen - sOff || litLen > dLen - dOff) {
+            throw new PartCodecException(PartCodecs.corrupted(NAME));
+         }
+         dst.position(dOff);
+         dst.put(stored, sOff, litLen);
+         sOff += litLen;
+         dOff += litLen;
+         if (sOff == sLen) {
+            // The last sequence has no match
+            break;
+         }
+
+         // Match
+         if (sOff + 2 > sLen) {
+            throw new PartCodecException(PartCodecs.corrupted(NAME));
+         }
+         final int offset = (stored[sOff] & 0xFF) | ((stored[sOff + 1] & 0xFF) << 8);
+         sOff += 2;
+         if (offset == 0 || offset > dOff) {
+            throw new PartCodecException(PartCodecs.corrupted(NAME));
+         }
+         int matchLen = token & RUN_MASK;
+         if (matchLen == RUN_MASK) {
+            int b;
+            do {
+               if (sOff >= sLen) {
+                  throw new PartCodecException(PartCodecs.corrupted(NAME));
+               }
+               b = stored[sOff++] & 0xFF;
+               matchLen += b;
+            } while (b == 255);
+         }
+         matchLen += MIN_MATCH;
+         if (matchLen > dLen - dOff) {
+            throw new PartCodecException(PartCodecs.corrupted(NAME));
+         }
+         // An overlapping match repeats a pattern: copy it by non overlapping blocks, whose size
+         // doubles at each step as the pattern is found from 'ref' onward
+         final int ref = dOff - offset;
+         final int end = dOff + matchLen;
+         while (dOff < end) {
+            int n = Math.min(end - dOff, dOff - ref);
+            if (array != null) {
+               System.arraycopy(array, base + ref, array, base + dOff, n);
+            } else {
+               src.clear();
+               src.position(ref);
+               src.limit(ref + n);
+               dst.position(dOff);
+               dst.put(src);
+            }
+            dOff += n;
+         }
+      }
+      if (dOff != dLen) {
+         throw new PartCodecException(PartCodecs.corrupted(NAME));
+      }
+   }
+
+   private static int readInt(byte[] buf, int off) {
+      return (buf[off] & 0xFF) | ((buf[off + 1] & 0xFF) << 8) | ((buf[off + 2] & 0xFF) << 16)
+            | ((buf[off + 3] & 0xFF) << 24);
+   }
+
+   private static int hash(int seq) {
+      return (seq * -1640531535) >>> (32 - HASH_LOG);
+   }
+
+   private static int writeLength(int len, byte[] out, int dOff) {
+      while (len >= 255) {
+         out[dOff++] = (byte) 255;
+         len -= 255;
+      }
+      out[dOff++] = (byte) len;
+      return dOff;
+   }
+
+   private static int writeSequence(byte[] src, int litOff, int litLen, int offset, int matchLen,
+         byte[] out, int dOff) {
+      final int ml = matchLen - MIN_MATCH;
+      out[dOff++] = (byte) ((Math.min(litLen, RUN_MASK) << 4) | Math.min(ml, RUN_MASK));
+      if (litLen >= RUN_MASK) {
+         dOff = writeLength(litLen - RUN_MASK, out, dOff);
+      }
+      System.arraycopy(src, litOff, out, dOff, litLen);
+      dOff += litLen;
+      out[dOff++] = (byte) offset;
+      out[dOff++] = (byte) (offset >>> 8);
+      if (ml >= RUN_MASK) {
+         dOff = writeLength(ml - RUN_MASK, out, dOff);
+      }
+      return dOff;
+   }
+
+   private static int writeLiterals(byte[] src, int litOff, int litLen, byte[] out, int dOff) {
+      out[dOff++] = (byte) (Math.min(litLen, RUN_MASK) << 4);
+      if (litLen >= RUN_MASK) {
+         dOff = writeLength(litLen - RUN_MASK, out, dOff);
+      }
+      System.arraycopy(src, litOff, out, dOff, litLen);
+      return dOff + litLen;
+   }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.codec;
+
+import java.nio.ByteBuffer;
+
+import org.jenmo.core.util.SplitBlobUtils.PType;
+
+/**
+ * The identity codec: raw bytes are stored as is.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public class NoneCodec implements IPartCodec {
+   /** The name of this codec. */
+   public static final String NAME = "none";
+
+   @Override
+   public String getName() {
+      return NAME;
+   }
+
+   @Override
+   public byte[] encode(ByteBuffer raw, PType type) {
+      return PartCodecs.toArray(raw);
+   }
+
+   @Override
+   public void decode(byte[] stored, int off, ByteBuffer raw, PType type) {
+      if (stored.length - off != raw.limit()) {
+         throw new PartCodecException(PartCodecs.corrupted(NAME));
+      }
+      ByteBuffer dst = raw.duplicate();
+      dst.rewind();
+      dst.put(stored, off, raw.limit());
+   }
+}
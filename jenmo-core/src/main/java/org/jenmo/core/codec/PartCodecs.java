@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jenmo.common.localizer.Localizer;
+
+/**
+ * The registry of {@link IPartCodec}s, by name. The following codecs are always available:
+ * <ul>
+ * <li><code>none</code>: raw bytes are stored as is (the default)</li>
+ * <li><code>deflate</code>: see {@link DeflateCodec}</li>
+ * <li><code>lz4</code>: see {@link Lz4Codec}</li>
+ * <li><code>shuffle+deflate</code>, <code>shuffle+lz4</code>: see {@link ShuffleCodec}</li>
+ * <li><code>sparse</code>, <code>sparse+lz4</code>: see {@link SparseCodec}</li>
+ * <li><code>numeric</code>: see {@link NumericCodec}</li>
+ * </ul>
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public final class PartCodecs {
+   private static final Localizer LOC = Localizer.forPackage(PartCodecs.class);
+
+   public static final IPartCodec NONE = new NoneCodec();
+
+   public static final IPartCodec DEFLATE = new DeflateCodec();
+
+   public static final IPartCodec LZ4 = new Lz4Codec();
+
+   public static final IPartCodec SHUFFLE_DEFLATE = new ShuffleCodec(DEFLATE);
+
+   public static final IPartCodec SHUFFLE_LZ4 = new ShuffleCodec(LZ4);
+
+   public static final IPartCodec SPARSE = new SparseCodec(NONE);
+
+   public static final IPartCodec SPARSE_LZ4 = new SparseCodec(LZ4);
+
+   public static final IPartCodec NUMERIC = new NumericCodec();
+
+   /** Size of the pattern used to fill buffers. */
+   private static final int FILL_CHUNK_SIZE = 8192;
+
+   private static final Map<String, IPartCodec> CODECS = new ConcurrentHashMap<String, IPartCodec>();
+
+   static {
+      register(NONE);
+      register(DEFLATE);
+      register(LZ4);
+      register(SHUFFLE_DEFLATE);
+      register(SHUFFLE_LZ4);
+      register(SPARSE);
+      register(SPARSE_LZ4);
+      register(NUMERIC);
+   }
+
+   private PartCodecs() {
+   }
+
+   /**
+    * Registers the given codec, replacing any codec with the same name. Codecs must be registered
+    * before reading parts encoded with them.
+    */
+   public static void register(IPartCodec codec) {
+      if (codec == null) {
+         throw new NullPointerException("Codec cannot be null");
+      }
+      CODECS.put(codec.getName(), codec);
+   }
+
+   /**
+    * Gets the codec with the given name, {@link #NONE} for <code>null</code>.
+    * 
+    * @throws PartCodecException
+    *            if no codec is registered with this name
+    */
+   public static IPartCodec get(String name) {
+      if (name == null) {
+         return NONE;
+      }
+      IPartCodec out = CODECS.get(name);
+      if (out == null) {
+         throw new PartCodecException(LOC.get("UNKNOWN_CODEC_$1", name).getMessage());
+      }
+      return out;
+   }
+
+   /**
+    * Tells if the given codec name is the identity (i.e. <code>null</code> or <code>none</code>).
+    */
+   public static boolean isNone(String name) {
+      return (name == null || NoneCodec.NAME.equals(name));
+   }
+
+   /**
+    * Gets the value of all the elements of the given stored bytes, encoded with the given codec, as
+    * a buffer holding this single element. Returns <code>null</code> if the elements are not known
+    * to be all equal without decoding (see {@link SparseCodec}).
+    */
+   public static ByteBuffer constantOf(String name, byte[] stored) {
+      IPartCodec codec = get(name);
+      if (codec instanceof SparseCodec) {
+         return ((SparseCodec) codec).constantOf(stored);
+      }
+      return null;
+   }
+
+   /**
+    * Gets the backing array of the given buffer if its content is exactly this array (from 0 to
+    * the limit), <code>null</code> otherwise.
+    */
+   public static byte[] arrayOf(ByteBuffer raw) {
+      if (raw.hasArray() && raw.arrayOffset() == 0 && raw.array().length == raw.limit()) {
+         return raw.array();
+      }
+      return null;
+   }
+
+   /**
+    * Gets the content of the given buffer (from 0 to the limit) as an array, copied only if needed.
+    */
+   public static byte[] toArray(ByteBuffer raw) {
+      byte[] out = arrayOf(raw);
+      if (out == null) {
+         out = new byte[raw.limit()];
+         ByteBuffer src = raw.duplicate();
+         src.rewind();
+         src.get(out);
+      }
+      return out;
+   }
+
+   /**
+    * Fills the given buffer (from 0 to its limit) by repeating the given element (from its position
+    * to its limit). The positions of both buffers are left unchanged.
+    */
+   public static void fill(ByteBuffer raw, ByteBuffer element) {
+      int size = element.remaining();
+      int length = raw.limit();
+      if (size == 0 || length == 0) {
+         return;
+      }
+      int chunk = Math.min(length, Math.max(size, FILL_CHUNK_SIZE / size * size));
+      byte[] pattern = new byte[chunk];
+      element.duplicate().get(pattern, 0, Math.min(size, chunk));
+      for (int filled = size; filled < chunk; filled *= 2) {
+         System.arraycopy(pattern, 0, pattern, filled, Math.min(filled, chunk - filled));
+      }
+      ByteBuffer out = raw.duplicate();
+      out.clear();
+      while (out.hasRemaining()) {
+         out.put(pattern, 0, Math.min(chunk, out.remaining()));
+      }
+   }
+
+   static String corrupted(String name) {
+      return LOC.get("CORRUPTED_PART_$1", name).getMessage();
+   }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.codec;
+
+import java.nio.ByteBuffer;
+
+import org.jenmo.core.util.SplitBlobUtils;
+import org.jenmo.core.util.SplitBlobUtils.PType;
+
+/**
+ * A byte-shuffle filter applied before another codec. The first bytes of all the elements are
+ * grouped together, then the second bytes, and so on. For floating point values, sign and exponent
+ * bytes of neighbouring elements are often equal, and this makes them much easier to compress.
+ * <p>
+ * The name of this codec is <code>"shuffle+"</code> followed by the name of the wrapped codec.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public class ShuffleCodec implements IPartCodec {
+   /** The prefix of the name of this codec. */
+   public static final String PREFIX = "shuffle+";
+
+   private final IPartCodec delegate;
+
+   private final String name;
+
+   public ShuffleCodec(IPartCodec delegate) {
+      if (delegate == null) {
+         throw new NullPointerException("Delegate cannot be null");
+      }
+      this.delegate = delegate;
+      this.name = PREFIX + delegate.getName();
+   }
+
+   @Override
+   public String getName() {
+      return name;
+   }
+
+   @Override
+   public byte[] encode(ByteBuffer buffer, PType type) {
+      int size = SplitBlobUtils.sizeOf(type);
+      if (size == 1) {
+         return delegate.encode(buffer, type);
+      }
+      byte[] raw = PartCodecs.toArray(buffer);
+      byte[] shuffled = new byte[raw.length];
+      int count = raw.length / size;
+      for (int e = 0; e < count; e++) {
+         int from = e * size;
+         for (int b = 0; b < size; b++) {
+            shuffled[b * count + e] = raw[from + b];
+         }
+      }
+      // Trailing bytes (if any) are left unchanged
+      int tail = count * size;
+      System.arraycopy(raw, tail, shuffled, tail, raw.length - tail);
+      return delegate.encode(ByteBuffer.wrap(shuffled), type);
+   }
+
+   @Override
+   public void decode(byte[] stored, int off, ByteBuffer buffer, PType type) {
+      int size = SplitBlobUtils.sizeOf(type);
+      if (size == 1) {
+         delegate.decode(stored, off, buffer, type);
+         return;
+      }
+      int length = buffer.limit();
+      byte[] shuffled = new byte[length];
+      delegate.decode(stored, off, ByteBuffer.wrap(shuffled), type);
+      int count = length / size;
+      int tail = count * size;
+      byte[] raw = PartCodecs.arrayOf(buffer);
+      if (raw != null) {
+         for (int b = 0; b < size; b++) {
+            int from = b * count;
+            for (int e = 0; e < count; e++) {
+               raw[e * size + b] = shuffled[from + e];
+            }
+         }
+         System.arraycopy(shuffled, tail, raw, tail, length - tail);
+      } else {
+         // Direct buffer: absolute operations leave its position unchanged
+         for (int b = 0; b < size; b++) {
+            int from = b * count;
+            for (int e = 0; e < count; e++) {
+               buffer.put(e * size + b, shuffled[from + e]);
+            }
+         }
+         for (int i = tail; i < length; i++) {
+            buffer.put(i, shuffled[i]);
+         }
+      }
+   }
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.codec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import org.jenmo.core.util.SplitBlobUtils;
+import org.jenmo.core.util.SplitBlobUtils.PType;
+
+/**
+ * A codec for parts made mostly of a single fill value (the majority element), such as masked
+ * grids. Each part is stored in one of the following forms:
+ * <ul>
+ * <li>constant: all the elements have the fill value, only this value is stored. Such a part is
+ * not even decoded when opened (see {@link PartCodecs#constantOf(String, byte[])})</li>
+ * <li>sparse: the fraction of elements differing from the fill value is below the density
+ * threshold, the fill value is stored along with the positions and the values of these elements</li>
+ * <li>dense: otherwise, the raw bytes are encoded with the wrapped codec</li>
+ * </ul>
+ * Elements are compared bitwise, so that NaN may be a fill value too.
+ * <p>
+ * The name of this codec is <code>"sparse"</code> when the wrapped codec is
+ * {@link PartCodecs#NONE}, <code>"sparse+"</code> followed by the name of the wrapped codec
+ * otherwise.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public class SparseCodec implements IPartCodec {
+   /** The name of this codec when no codec is wrapped, and the prefix of the name otherwise. */
+   public static final String NAME = "sparse";
+
+   /** The default maximum fraction of elements differing from the fill value in sparse form. */
+   public static final double DEFAULT_MAX_DENSITY = 0.25;
+
+   private static final byte CONSTANT = 0;
+
+   private static final byte SPARSE = 1;
+
+   private static final byte DENSE = 2;
+
+   /** Size of the header of constant and sparse forms: form and raw length. */
+   private static final int HEADER_SIZE = 5;
+
+   private final IPartCodec delegate;
+
+   private final double maxDensity;
+
+   private final String name;
+
+   public SparseCodec(IPartCodec delegate) {
+      this(delegate, DEFAULT_MAX_DENSITY);
+   }
+
+   /**
+    * Creates a new instance.
+    * 
+    * @param maxDensity
+    *           the maximum fraction of elements differing from the fill value for a part to be
+    *           stored in sparse form
+    */
+   public SparseCodec(IPartCodec delegate, double maxDensity) {
+      if (delegate == null) {
+         throw new NullPointerException("Delegate cannot be null");
+      }
+      if (!(maxDensity >= 0 && maxDensity < 0.5)) {
+         throw new IllegalArgumentException("MaxDensity=" + maxDensity + ", must be in [0, 0.5[");
+      }
+      this.delegate = delegate;
+      this.maxDensity = maxDensity;
+      this.name = (delegate == PartCodecs.NONE) ? NAME : NAME + "+" + delegate.getName();
+   }
+
+   @Override
+   public String getName() {
+      return name;
+   }
+
+   @Override
+   public byte[] encode(ByteBuffer buffer, PType type) {
+      byte[] raw = PartCodecs.toArray(buffer);
+      int size = SplitBlobUtils.sizeOf(type);
+      int count = raw.length / size;
+      if (count == 0 || count * size != raw.length) {
+         return dense(buffer, type);
+      }
+      // The fill value is the majority element if any (Boyer-Moore vote), which is enough as
+      // sparse form requires more than half of the elements to have the fill value
+      int fill = 0;
+      int votes = 0;
+      for (int from = 0; from < raw.length; from += size) {
+         if (votes == 0) {
+            fill = from;
+            votes = 1;
+         } else if (same(raw, from, raw, fill, size)) {
+            votes++;
+         } else {
+            votes--;
+         }
+      }
+      int diffs = 0;
+      for (int from = 0; from < raw.length; from += size) {
+         if (!same(raw, from, raw, fill, size)) {
+            diffs++;
+         }
+      }
+      if (diffs == 0) {
+         byte[] out = new byte[HEADER_SIZE + size];
+         ByteBuffer.wrap(out).put(CONSTANT).putInt(raw.length).put(raw, fill, size);
+         return out;
+      }
+      long sparseSize = HEADER_SIZE + size + 4 + (long) diffs * (4 + size);
+      if (diffs > maxDensity * count || sparseSize >= raw.length) {
+         return dense(buffer, type);
+      }
+      byte[] out = new byte[(int) sparseSize];
+      ByteBuffer indices = ByteBuffer.wrap(out);
+      indices.put(SPARSE).putInt(raw.length).put(raw, fill, size).putInt(diffs);
+      ByteBuffer values = ByteBuffer.wrap(out);
+      values.position(indices.position() + diffs * 4);
+      for (int e = 0, from = 0; e < count; e++, from += size) {
+         if (!same(raw, from, raw, fill, size)) {
+            indices.putInt(e);
+            values.put(raw, from, size);
+         }
+      }
+      return out;
+   }
+
+   private byte[] dense(ByteBuffer buffer, PType type) {
+      byte[] encoded = delegate.encode(buffer, type);
+      byte[] out = new byte[encoded.length + 1];
+      out[0] = DENSE;
+      System.arraycopy(encoded, 0, out, 1, encoded.length);
+      return out;
+   }
+
+   @Override
+   public void decode(byte[] stored, int off, ByteBuffer buffer, PType type) {
+      if (stored.length == off) {
+         throw new PartCodecException(PartCodecs.corrupted(name));
+      }
+      if (stored[off] == DENSE) {
+         delegate.decode(stored, off + 1, buffer, type);
+         return;
+      }
+      int size = SplitBlobUtils.sizeOf(type);
+      try {
+         // Positions of this buffer are those of the stored bytes
+         ByteBuffer in = ByteBuffer.wrap(stored, off, stored.length - off);
+         byte form = in.get();
+         if ((form != CONSTANT && form != SPARSE) || in.getInt() != buffer.limit()) {
+            throw new PartCodecException(PartCodecs.corrupted(name));
+         }
+         PartCodecs.fill(buffer, ByteBuffer.wrap(stored, in.position(), size));
+         if (form == CONSTANT) {
+            return;
+         }
+         in.position(in.position() + size);
+         int diffs = in.getInt();
+         if (diffs < 0 || in.remaining() != (long) diffs * (4 + size)) {
+            throw new PartCodecException(PartCodecs.corrupted(name));
+         }
+         int count = buffer.limit() / size;
+         ByteBuffer out = buffer.duplicate();
+         int from = in.position() + diffs * 4;
+         for (int i = 0; i < diffs; i++, from += size) {
+            int e = in.getInt();
+            if (e < 0 || e >= count) {
+               throw new PartCodecException(PartCodecs.corrupted(name));
+            }
+            out.position(e * size);
+            out.put(stored, from, size);
+         }
+      } catch (BufferUnderflowException e) {
+         throw new PartCodecException(PartCodecs.corrupted(name), e);
+      }
+   }
+
+   /**
+    * Gets the value of all the elements of the given stored bytes if in constant form, as a buffer
+    * holding this single element, <code>null</code> otherwise.
+    */
+   ByteBuffer constantOf(byte[] stored) {
+      if (stored.length < HEADER_SIZE || stored[0] != CONSTANT) {
+         return null;
+      }
+      return ByteBuffer.wrap(stored, HEADER_SIZE, stored.length - HEADER_SIZE).slice();
+   }
+
+   private static boolean same(byte[] a, int aOff, byte[] b, int bOff, int size) {
+      for (int i = 0; i < size; i++) {
+         if (a[aOff + i] != b[bOff + i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+}
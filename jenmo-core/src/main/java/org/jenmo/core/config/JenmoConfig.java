@@ -52,6 +52,27 @@ public final class JenmoConfig extends AbstractConfiguration {
     */
    public static final String OPTION_JPA_PROVIDER = "jenmo.option.jpa.provider";
 
+   /**
+    * Option for runtime to choose the codec of new split blob parts.
+    */
+   public static final String OPTION_PART_CODEC = "jenmo.option.part.codec";
+
+   /**
+    * Option for runtime to cache decoded split blob parts in a local directory (empty to disable).
+    */
+   public static final String OPTION_PART_CACHE_DIR = "jenmo.option.part.cache.dir";
+
+   /**
+    * Option for runtime to bound the size (in bytes) of the local split blob part cache.
+    */
+   public static final String OPTION_PART_CACHE_SIZE = "jenmo.option.part.cache.size";
+
+   /**
+    * Option for runtime to bound the size (in bytes) of the pool of direct buffers used for
+    * decoded split blob parts (0 to disable).
+    */
+   public static final String OPTION_PART_POOL_SIZE = "jenmo.option.part.pool.size";
+
    /**
     * In order to validate options.
     */
@@ -77,6 +98,42 @@ public final class JenmoConfig extends AbstractConfiguration {
             return true;
          }
       });
+      VALIDATORS.put(OPTION_PART_CODEC, new IProcedure1<String>() {
+         public boolean execute(String arg) throws ProcedureException {
+            // Codecs may be registered later, so only check the name is not empty
+            if (arg.length() == 0) {
+               throw new IllegalArgumentException("Option for " + OPTION_PART_CODEC
+                     + " must be a codec name (none|deflate|lz4|shuffle+deflate|shuffle+lz4|sparse|sparse+lz4|numeric|...)");
+            }
+            return true;
+         }
+      });
+      VALIDATORS.put(OPTION_PART_CACHE_SIZE, new IProcedure1<String>() {
+         public boolean execute(String arg) throws ProcedureException {
+            try {
+               if (Long.parseLong(arg) > 0) {
+                  return true;
+               }
+            } catch (NumberFormatException e) {
+               // Thrown below
+            }
+            throw new IllegalArgumentException("Option for " + OPTION_PART_CACHE_SIZE
+                  + " must be a number of bytes > 0");
+         }
+      });
+      VALIDATORS.put(OPTION_PART_POOL_SIZE, new IProcedure1<String>() {
+         public boolean execute(String arg) throws ProcedureException {
+            try {
+               if (Long.parseLong(arg) >= 0) {
+                  return true;
+               }
+            } catch (NumberFormatException e) {
+               // Thrown below
+            }
+            throw new IllegalArgumentException("Option for " + OPTION_PART_POOL_SIZE
+                  + " must be a number of bytes >= 0");
+         }
+      });
    }
 
    /** The singleton */
@@ -109,6 +166,44 @@ public final class JenmoConfig extends AbstractConfiguration {
       }
       options.put(key, new ConfValue<String>(key, def, valueStr));
 
+      key = OPTION_PART_CODEC; // default to none
+      def = "none";
+      valueStr = "none";
+      if (props != null && props.get(key) != null) {
+         String str = props.get(key).trim();
+         VALIDATORS.get(key).execute(str);
+         valueStr = str;
+      }
+      options.put(key, new ConfValue<String>(key, def, valueStr));
+
+      key = OPTION_PART_CACHE_DIR; // default to disabled
+      def = "";
+      valueStr = "";
+      if (props != null && props.get(key) != null) {
+         valueStr = props.get(key).trim();
+      }
+      options.put(key, new ConfValue<String>(key, def, valueStr));
+
+      key = OPTION_PART_CACHE_SIZE; // default to 256MB
+      def = "268435456";
+      Long valueLong = 268435456L;
+      if (props != null && props.get(key) != null) {
+         String str = props.get(key).trim();
+         VALIDATORS.get(key).execute(str);
+         valueLong = Long.parseLong(str);
+      }
+      options.put(key, new ConfValue<Long>(key, def, valueLong));
+
+      key = OPTION_PART_POOL_SIZE; // default to disabled
+      def = "0";
+      valueLong = 0L;
+      if (props != null && props.get(key) != null) {
+         String str = props.get(key).trim();
+         VALIDATORS.get(key).execute(str);
+         valueLong = Long.parseLong(str);
+      }
+      options.put(key, new ConfValue<Long>(key, def, valueLong));
+
       fromProperties(options);
    }
 
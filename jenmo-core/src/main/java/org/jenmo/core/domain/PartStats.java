@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.domain;
+
+import java.nio.ByteBuffer;
+
+import org.jenmo.common.multiarray.IndexIterator;
+import org.jenmo.core.multiarray.BlobLayout;
+import org.jenmo.core.util.SplitBlobUtils;
+import org.jenmo.core.util.SplitBlobUtils.PType;
+
+/**
+ * Statistics about the values of a {@link SplitBlobPart}, or of a whole {@link SplitBlob}. They
+ * are computed when a part is written and stored along with it, so that questions like the range
+ * of the values can be answered without reading any large object.
+ * <p>
+ * Values are handled as doubles whatever the element type: the sum of long values may thus be
+ * rounded. NaN values (floating point types only) are counted apart and ignored otherwise. The
+ * padding of the parts of a chunked blob (see {@link BlobLayout}) is ignored too.
+ * <p>
+ * Instances are immutable.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public final class PartStats {
+   private final double min;
+
+   private final double max;
+
+   private final double sum;
+
+   private final long count;
+
+   private final long nanCount;
+
+   /**
+    * Creates a new instance.
+    * 
+    * @param min
+    *           the minimum value, NaN if count is 0
+    * @param max
+    *           the maximum value, NaN if count is 0
+    * @param sum
+    *           the sum of the values
+    * @param count
+    *           the number of values, NaN values excepted
+    * @param nanCount
+    *           the number of NaN values
+    */
+   public PartStats(double min, double max, double sum, long count, long nanCount) {
+      if (count < 0 || nanCount < 0) {
+         throw new IllegalArgumentException("Count=" + count + ", NanCount=" + nanCount
+               + ", must be >= 0");
+      }
+      this.min = (count == 0) ? Double.NaN : min;
+      this.max = (count == 0) ? Double.NaN : max;
+      this.sum = sum;
+      this.count = count;
+      this.nanCount = nanCount;
+   }
+
+   /**
+    * Gets the minimum value, NaN if there is no value.
+    */
+   public double getMin() {
+      return min;
+   }
+
+   /**
+    * Gets the maximum value, NaN if there is no value.
+    */
+   public double getMax() {
+      return max;
+   }
+
+   public double getSum() {
+      return sum;
+   }
+
+   /**
+    * Gets the mean value, NaN if there is no value.
+    */
+   public double getMean() {
+      return (count == 0) ? Double.NaN : sum / count;
+   }
+
+   /**
+    * Gets the number of values, NaN values excepted.
+    */
+   public long getCount() {
+      return count;
+   }
+
+   public long getNanCount() {
+      return nanCount;
+   }
+
+   /**
+    * Tells if some values may be in the given range (bounds included). Returns false only if it is
+    * sure there is none.
+    */
+   public boolean mayContain(double from, double to) {
+      return count > 0 && max >= from && min <= to;
+   }
+
+   /**
+    * Gets the statistics of the union of the values of this instance and of the given one.
+    */
+   public PartStats merge(PartStats other) {
+      if (other.count == 0) {
+         return new PartStats(min, max, sum + other.sum, count, nanCount + other.nanCount);
+      }
+      if (count == 0) {
+         return new PartStats(other.min, other.max, sum + other.sum, other.count, nanCount
+               + other.nanCount);
+      }
+      return new PartStats(Math.min(min, other.min), Math.max(max, other.max), sum + other.sum,
+            count + other.count, nanCount + other.nanCount);
+   }
+
+   @Override
+   public String toString() {
+      return "PartStats[min=" + min + ", max=" + max + ", sum=" + sum + ", count=" + count
+            + ", nanCount=" + nanCount + "]";
+   }
+
+   /**
+    * Computes the statistics of the given decoded part.
+    * 
+    * @param raw
+    *           the bytes of the part, from index 0
+    * @param layout
+    *           the layout of the blob, in order to skip padding
+    * @param partIdx
+    *           the index of the part
+    */
+   static PartStats compute(ByteBuffer raw, PType type, BlobLayout layout, int partIdx) {
+      Builder builder = new Builder();
+      int[] validShape = layout.getValidShape(partIdx);
+      int validCount = (int) SplitBlobUtils.computeSize(validShape);
+      if (!layout.isChunked() || validCount == layout.getSizeForParts()) {
+         builder.add(raw, type, 0, validCount);
+         return builder.build();
+      }
+      // Rows of the tile are only partially valid
+      final int[] chunkShape = layout.getChunkShape();
+      final int last = chunkShape.length - 1;
+      final long[] products = new long[chunkShape.length];
+      SplitBlobUtils.numberOfElements(chunkShape, products);
+      final int rowLength = validShape[last];
+      validShape[last] = 1;
+      IndexIterator ii = new IndexIterator(new int[validShape.length], validShape);
+      for (; ii.notDone(); ii.incr()) {
+         int[] index = ii.value();
+         int from = 0;
+         for (int i = 0; i < last; i++) {
+            from += index[i] * (int) products[i];
+         }
+         builder.add(raw, type, from, rowLength);
+      }
+      return builder.build();
+   }
+
+   /**
+    * Accumulates values.
+    */
+   private static final class Builder {
+      private double min = Double.POSITIVE_INFINITY;
+
+      private double max = Double.NEGATIVE_INFINITY;
+
+      private double sum;
+
+      private long count;
+
+      private long nanCount;
+
+      /**
+       * Adds <code>len</code> elements of the given buffer, from the element <code>from</code>.
+       */
+      private void add(ByteBuffer raw, PType type, int from, int len) {
+         final int to = from + len;
+         switch (type) {
+         case PDOUBLE:
+            for (int i = from; i < to; i++) {
+               add(raw.getDouble(i * 8));
+            }
+            break;
+         case PFLOAT:
+            for (int i = from; i < to; i++) {
+               add(raw.getFloat(i * 4));
+            }
+            break;
+         case PLONG:
+            for (int i = from; i < to; i++) {
+               add(raw.getLong(i * 8));
+            }
+            break;
+         case PINTEGER:
+            for (int i = from; i < to; i++) {
+               add(raw.getInt(i * 4));
+            }
+            break;
+         case PSHORT:
+            for (int i = from; i < to; i++) {
+               add(raw.getShort(i * 2));
+            }
+            break;
+         case PBYTE:
+            for (int i = from; i < to; i++) {
+               add(raw.get(i));
+            }
+            break;
+         default:
+            throw new IllegalArgumentException();
+         }
+      }
+
+      private void add(double value) {
+         if (value != value) {
+            nanCount++;
+            return;
+         }
+         if (value < min) {
+            min = value;
+         }
+         if (value > max) {
+            max = value;
+         }
+         sum += value;
+         count++;
+      }
+
+      private PartStats build() {
+         return new PartStats(min, max, sum, count, nanCount);
+      }
+   }
+}
@@ -19,30 +19,61 @@
 package org.jenmo.core.domain;
 
 import java.lang.reflect.Array;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import javax.persistence.Basic;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityManager;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
 import javax.persistence.OrderBy;
+import javax.persistence.Query;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 import javax.persistence.Version;
 
+import org.apache.log4j.Logger;
+import org.jenmo.common.config.ConfValue;
+import org.jenmo.common.config.IConfiguration;
 import org.jenmo.common.marker.ICopyable;
-import org.jenmo.common.multiarray.IAccessor;
+import org.jenmo.common.multiarray.ILinearAccessor;
 import org.jenmo.common.multiarray.IndexIterator;
 import org.jenmo.common.multiarray.MultiArrayJava;
+import org.jenmo.core.codec.IPartCodec;
+import org.jenmo.core.codec.PartCodecs;
+import org.jenmo.core.config.JenmoConfig;
 import org.jenmo.core.listener.IListener;
 import org.jenmo.core.listener.SplitBlobEvent;
+import org.jenmo.core.multiarray.BlobAggregate;
+import org.jenmo.core.multiarray.BlobAggregator;
+import org.jenmo.core.multiarray.BlobCursor;
+import org.jenmo.core.multiarray.BlobLayout;
+import org.jenmo.core.multiarray.BlobPartTaskRunner;
+import org.jenmo.core.multiarray.ByteCursor;
+import org.jenmo.core.multiarray.DoubleCursor;
+import org.jenmo.core.multiarray.FloatCursor;
 import org.jenmo.core.multiarray.IBlobPartAccessor;
+import org.jenmo.core.multiarray.IBlobPartTask;
+import org.jenmo.core.multiarray.IntCursor;
+import org.jenmo.core.multiarray.LongCursor;
 import org.jenmo.core.multiarray.MultiArrayBlobPart;
+import org.jenmo.core.multiarray.ShortCursor;
+import org.jenmo.core.orm.JpaSpiActions;
 import org.jenmo.core.util.SplitBlobUtils;
 import org.jenmo.core.util.SplitBlobUtils.PType;
 
@@ -51,9 +82,27 @@ import org.jenmo.core.util.SplitBlobUtils.PType;
  * {@link SplitBlobPart}s and the size of the {@link SplitBlobPart} is configurable using the
  * <code>elmtCountForPart</code> attribute.
  * <p>
+ * By default, elements are split in row-major order. A chunk shape may be given instead, each
+ * {@link SplitBlobPart} then holds a n-dimensional tile of the array, so that reading a sub-region
+ * only fetches the intersecting tiles (see {@link BlobLayout}).
+ * <p>
+ * When reading a small region of a persistent blob, the needed parts may be fetched at once with
+ * their data using {@link #fetchParts(EntityManager, int[], int[])}.
+ * <p>
  * Client code may be notified when extracting a new {@link SplitBlobPart} from database using a
  * {@link IListener} (see <code>getValues</code>/<code>setValues</code> methods or
  * {@link IBlobPartAccessor}).
+ * <p>
+ * New parts are encoded with the codec given by {@link #setPartCodec(String)}, or by the
+ * {@link JenmoConfig#OPTION_PART_CODEC} option by default (see {@link IPartCodec}).
+ * <p>
+ * The elements of the parts are stored in little-endian byte order, which is the native order of
+ * the usual platforms. Blobs stored before the byte order was versioned use big-endian byte order
+ * and remain readable (see {@link #getByteOrder()}).
+ * <p>
+ * A copy shares the stored data of the parts of the copied blob instead of duplicating them, and
+ * parts having the same content may share their stored data in database using
+ * {@link #deduplicate(EntityManager)} (see {@link SplitBlobPayload}).
  * 
  * @author Nicolas Ocquidant
  * @since 1.0
@@ -64,6 +113,28 @@ public class SplitBlob implements ICopyable {
    /** Default element count in each part */
    public static final int DEFAULT_PART_COUNT = 1000000;
 
+   /** Storage format of blobs stored before the format was versioned: big-endian elements */
+   public static final int FORMAT_BIG_ENDIAN = 0;
+
+   /** Storage format with little-endian elements, the one of new blobs */
+   public static final int FORMAT_LITTLE_ENDIAN = 1;
+
+   /** The logger. */
+   private static final Logger LOGGER = Logger.getLogger(SplitBlob.class);
+
+   private static final String QUERY_PARTS = "SELECT p FROM SplitBlobPart p"
+         + " WHERE p.parent = :theBlob AND p.ordr IN :theOrdrs";
+
+   private static final String QUERY_STATS = "SELECT MIN(p.statMin), MAX(p.statMax),"
+         + " SUM(p.statSum), SUM(p.statCount), SUM(p.nanCount), COUNT(p), COUNT(p.statCount)"
+         + " FROM SplitBlobPart p WHERE p.parent = :theBlob";
+
+   private static final String QUERY_PAYLOAD = "SELECT p FROM SplitBlobPayload p"
+         + " WHERE p.contentHash = :theHash";
+
+   /** The maximum number of parts selected by a single query */
+   private static final int FETCH_BATCH_SIZE = 500;
+
    @Id
    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "SplitBlobSeq")
    @SequenceGenerator(name = "SplitBlobSeq", sequenceName = "SPLITBLOB_ID_SEQ", allocationSize = 10)
@@ -94,11 +165,33 @@ public class SplitBlob implements ICopyable {
    @Column(name = "SHAPE", nullable = false, updatable = false)
    private String shape;
 
+   /** The shape of each part (as String, separator = ';'), null if parts are not chunked */
+   @Basic
+   @Column(name = "CHUNKSHAPE", updatable = false)
+   private String chunkShape;
+
+   /** The storage format of parts (FORMAT_XXX), null for FORMAT_BIG_ENDIAN */
+   @Basic
+   @Column(name = "STORAGEFORMAT", updatable = false)
+   private Integer storageFormat;
+
    /** The parts of this blobs */
    @OneToMany(mappedBy = "parent", cascade = CascadeType.PERSIST, orphanRemoval = true)
    @OrderBy(value = "ordr")
    private List<SplitBlobPart> parts;
 
+   /** The codec of new parts, null for the default one (each part stores its own codec) */
+   @Transient
+   private String partCodec;
+
+   /** Parts fetched by fetchParts, by position, null if none */
+   @Transient
+   private volatile Map<Integer, SplitBlobPart> fetchedParts;
+
+   /** Ids of the parts flushed by evictParts, null if none */
+   @Transient
+   private Set<Long> flushedParts;
+
    private SplitBlob() {
    }
 
@@ -133,6 +226,15 @@ public class SplitBlob implements ICopyable {
     *           an array of <code>int</code> representing the dimensions of the new array
     */
    public static SplitBlob newInstance(int elmtCountForPart, Class<?> elmtType, int[] shape) {
+      return newInstance(elmtCountForPart, null, elmtType, shape);
+   }
+
+   /**
+    * Creates new empty instance, whose parts are tiles of the given shape if not null. The shape
+    * of parts is set before they are created.
+    */
+   private static SplitBlob newInstance(int elmtCountForPart, int[] chunkShape, Class<?> elmtType,
+         int[] shape) {
       if (elmtCountForPart <= 0) {
          throw new IllegalArgumentException("elmtCountForPart cannot be <= 0");
       }
@@ -143,14 +245,55 @@ public class SplitBlob implements ICopyable {
          throw new IllegalArgumentException("shape cannot be null or length = 0");
       }
       SplitBlob instance = new SplitBlob();
+      instance.storageFormat = FORMAT_LITTLE_ENDIAN;
       instance.elmtCountEachPart = elmtCountForPart;
       instance.elmtCount = SplitBlobUtils.computeSize(shape);
       instance.ptype = SplitBlobUtils.extractType(elmtType);
       instance.shape = encodeShape(shape);
+      instance.chunkShape = (chunkShape == null) ? null : encodeShape(chunkShape);
       instance.preinitParts();
       return instance;
    }
 
+   /**
+    * Creates new empty instance, whose parts are tiles of the given shape.
+    * 
+    * @param chunkShape
+    *           the number of elements in each dimension of a part
+    * @param elmtType
+    *           the <code>Class</code> object representing the component type of the new array
+    * @param shape
+    *           an array of <code>int</code> representing the dimensions of the new array
+    */
+   public static SplitBlob newInstance(int[] chunkShape, Class<?> elmtType, int[] shape) {
+      if (chunkShape == null || shape == null || chunkShape.length != shape.length) {
+         throw new IllegalArgumentException("chunkShape must have the rank of shape");
+      }
+      return newInstance((int) SplitBlobUtils.computeSize(chunkShape), chunkShape, elmtType, shape);
+   }
+
+   /**
+    * Creates a new instance, whose parts are tiles of the given shape, and fill it with the given
+    * array.
+    * 
+    * @param chunkShape
+    *           the number of elements in each dimension of a part
+    */
+   public static SplitBlob newInstance(int[] chunkShape, Object values) {
+      if (chunkShape == null) {
+         throw new IllegalArgumentException("chunkShape cannot be null");
+      }
+      if (values == null) {
+         throw new IllegalArgumentException("Values cannot be null");
+      }
+      SplitBlob instance = new SplitBlob();
+      instance.storageFormat = FORMAT_LITTLE_ENDIAN;
+      instance.elmtCountEachPart = (int) SplitBlobUtils.computeSize(chunkShape);
+      instance.chunkShape = encodeShape(chunkShape);
+      instance.setValues(values);
+      return instance;
+   }
+
    /**
     * Creates a new instance and fill it with the given array.
     * 
@@ -165,13 +308,15 @@ public class SplitBlob implements ICopyable {
          throw new IllegalArgumentException("Values cannot be null");
       }
       SplitBlob instance = new SplitBlob();
+      instance.storageFormat = FORMAT_LITTLE_ENDIAN;
       instance.elmtCountEachPart = elmtCountForPart;
       instance.setValues(values);
       return instance;
    }
 
    /**
-    * The copy factory.
+    * The copy factory. The stored data of the parts are shared with the copied blob, and copied
+    * only when written (see {@link SplitBlobPart}).
     */
    public static SplitBlob copy(SplitBlob toCopy) {
       if (toCopy == null) {
@@ -181,7 +326,11 @@ public class SplitBlob implements ICopyable {
       instance.ptype = toCopy.ptype;
       instance.elmtCountEachPart = toCopy.elmtCountEachPart;
       instance.shape = toCopy.shape;
+      instance.chunkShape = toCopy.chunkShape;
+      // Stored data of parts are shared
+      instance.storageFormat = toCopy.storageFormat;
       instance.elmtCount = toCopy.elmtCount;
+      instance.partCodec = toCopy.partCodec;
       instance.parts = new ArrayList<SplitBlobPart>(toCopy.parts.size());
       for (SplitBlobPart each : toCopy.parts) {
          instance.parts.add(SplitBlobPart.copy(instance, each));
@@ -189,11 +338,19 @@ public class SplitBlob implements ICopyable {
       return instance;
    }
 
+   /**
+    * Gets the parts list as is (parts not yet created are <code>null</code>).
+    */
+   List<SplitBlobPart> getParts() {
+      return parts;
+   }
+
+   void setParts(List<SplitBlobPart> parts) {
+      this.parts = parts;
+   }
+
    private void preinitParts() {
-      int numPart = (int) (elmtCount / elmtCountEachPart);
-      if ((elmtCount % elmtCountEachPart) != 0) {
-         numPart++;
-      }
+      int numPart = getLayout().getPartCount();
       parts = new ArrayList<SplitBlobPart>(numPart);
       for (int i = 0; i < numPart; i++) {
          parts.add(null);
@@ -232,6 +389,21 @@ public class SplitBlob implements ICopyable {
       return decodeShape(shape);
    }
 
+   /**
+    * Gets the number of elements in each dimension of a {@link SplitBlobPart}, <code>null</code> if
+    * parts are not chunked.
+    */
+   public int[] getChunkShape() {
+      return (chunkShape == null) ? null : decodeShape(chunkShape);
+   }
+
+   /**
+    * Gets the layout of the elements in the {@link SplitBlobPart}s.
+    */
+   public BlobLayout getLayout() {
+      return new BlobLayout(getShape(), getChunkShape(), elmtCountEachPart);
+   }
+
    /**
     * Gets the number of elements for each {@link SplitBlobPart}, in this {@link SplitBlob}.
     */
@@ -241,9 +413,12 @@ public class SplitBlob implements ICopyable {
 
    /**
     * Gets the number of elements for the last {@link SplitBlobPart}as it could be different from
-    * the previous ones.
+    * the previous ones (never with chunked parts, as tiles at the edges are padded).
     */
    public int getElmtCountLastPart() {
+      if (chunkShape != null) {
+         return elmtCountEachPart;
+      }
       int out = (int) (elmtCount % elmtCountEachPart);
       if (out == 0) {
          out = elmtCountEachPart;
@@ -258,11 +433,57 @@ public class SplitBlob implements ICopyable {
       return ptype;
    }
 
+   /**
+    * Gets the storage format of the parts of this blob (<code>FORMAT_XXX</code>).
+    */
+   public int getStorageFormat() {
+      return (storageFormat == null) ? FORMAT_BIG_ENDIAN : storageFormat;
+   }
+
+   /**
+    * Gets the byte order of the elements in the parts of this blob, given by its storage format.
+    */
+   public ByteOrder getByteOrder() {
+      return (getStorageFormat() == FORMAT_BIG_ENDIAN) ? ByteOrder.BIG_ENDIAN
+            : ByteOrder.LITTLE_ENDIAN;
+   }
+
+   /**
+    * Gets the name of the codec used to encode new {@link SplitBlobPart}s.
+    */
+   public String getPartCodec() {
+      String out = partCodec;
+      if (out == null) {
+         IConfiguration conf = JenmoConfig.getInstance();
+         ConfValue<?> value = (conf == null) ? null : conf.getValue(JenmoConfig.OPTION_PART_CODEC);
+         out = (value == null) ? PartCodecs.NONE.getName() : (String) value.get();
+      }
+      return out;
+   }
+
+   /**
+    * Sets the codec used to encode new {@link SplitBlobPart}s, i.e. parts created after this call.
+    * Parts already stored keep their own codec.
+    * 
+    * @param codecName
+    *           the name of a codec registered in {@link PartCodecs}, null for the default one
+    */
+   public void setPartCodec(String codecName) {
+      partCodec = (codecName == null) ? null : PartCodecs.get(codecName).getName();
+   }
+
    /**
     * Gets the {@link SplitBlobPart} at the given position in this {@link SplitBlob}.
     */
    // Thread safe method (!= SplitBlobPart methods not thread safe)
    public SplitBlobPart getPart(int index) {
+      Map<Integer, SplitBlobPart> fetched = fetchedParts;
+      if (fetched != null) {
+         SplitBlobPart out = fetched.get(index);
+         if (out != null) {
+            return out;
+         }
+      }
       SplitBlobPart out = parts.get(index);
       // Must initialize part i?
       if (out == null) { // First check (no locking)
@@ -272,7 +493,7 @@ public class SplitBlob implements ICopyable {
                int elmtCountForPart = (index == (parts.size() - 1)) ? getElmtCountLastPart()
                      : elmtCountEachPart;
                int sizeForPart = (int) (elmtCountForPart) * SplitBlobUtils.sizeOf(ptype);
-               out = SplitBlobPart.newInstance(this, index, sizeForPart);
+               out = SplitBlobPart.newInstance(this, index, sizeForPart, getPartCodec());
                parts.set(index, out);
             }
          }
@@ -280,6 +501,268 @@ public class SplitBlob implements ICopyable {
       return out;
    }
 
+   /**
+    * Gets the {@link SplitBlobPart} at the given position in this {@link SplitBlob}, looking it up
+    * by query (along with its data) rather than through the list of parts, so that this list does
+    * not keep a reference to it. Same as {@link #getPart(int)} if this blob is not persistent.
+    * 
+    * @param em
+    *           the entity manager of this blob
+    */
+   public SplitBlobPart getPart(EntityManager em, int index) {
+      Map<Integer, SplitBlobPart> fetched = fetchedParts;
+      if (fetched != null) {
+         SplitBlobPart out = fetched.get(index);
+         if (out != null) {
+            return out;
+         }
+      }
+      if (id == 0) {
+         return getPart(index);
+      }
+      if (LOGGER.isDebugEnabled()) {
+         LOGGER.debug(QUERY_PARTS + " (part " + index + ")");
+      }
+      Query query = em.createQuery(QUERY_PARTS);
+      query.setParameter("theBlob", this);
+      query.setParameter("theOrdrs", Collections.singletonList(index));
+      JpaSpiActions.getInstance().addFetchField(query, SplitBlobPart.class, "data");
+      List<?> result = query.getResultList();
+      if (result.isEmpty()) {
+         // Not yet stored
+         return getPart(index);
+      }
+      return (SplitBlobPart) result.get(0);
+   }
+
+   /**
+    * Evicts the given parts of this {@link SplitBlob}: their buffers are closed and, if this blob
+    * is persistent, they are detached from the given entity manager and their data are released
+    * so that they can be garbage collected. Pending changes are flushed first. Evicted parts must
+    * not be used any more: use {@link #getPart(EntityManager, int)} to get them again.
+    * 
+    * @param em
+    *           the entity manager of this blob
+    */
+   public void evictParts(EntityManager em, Collection<SplitBlobPart> toEvict) {
+      List<SplitBlobPart> persistent = new ArrayList<SplitBlobPart>(toEvict.size());
+      List<SplitBlobPayload> payloads = new ArrayList<SplitBlobPayload>();
+      boolean modified = false;
+      for (SplitBlobPart each : toEvict) {
+         each.closeBuffer();
+         // Data of new parts are the only copy
+         if (each.getId() != 0) {
+            persistent.add(each);
+            if (each.isModified()) {
+               modified = true;
+               markFlushed(each.getId());
+            }
+            if (each.getPayload() != null) {
+               payloads.add(each.getPayload());
+            }
+         }
+      }
+      if (id == 0 || persistent.isEmpty()) {
+         return;
+      }
+      if (modified) {
+         em.flush();
+      }
+      JpaSpiActions.getInstance().detachAll(em, persistent);
+      if (!payloads.isEmpty()) {
+         // Written parts never reference a payload (copy-on-write)
+         JpaSpiActions.getInstance().detachAll(em, payloads);
+      }
+      for (SplitBlobPart each : persistent) {
+         each.release();
+      }
+   }
+
+   /**
+    * Records that the row of the given part has been flushed, and may then be rolled back.
+    */
+   private synchronized void markFlushed(long partId) {
+      if (flushedParts == null) {
+         flushedParts = new HashSet<Long>();
+      }
+      flushedParts.add(partId);
+   }
+
+   /**
+    * Tells if the row of the given part has been flushed by {@link #evictParts(EntityManager,
+    * Collection)} through this instance. Such a part read again is not cached (see
+    * {@link org.jenmo.core.cache.PartFileCache}): data of the current transaction may be rolled
+    * back.
+    */
+   final synchronized boolean isFlushed(long partId) {
+      return (flushedParts != null) && flushedParts.contains(partId);
+   }
+
+   /**
+    * Shares the stored data of the parts of this {@link SplitBlob} with the parts (of any blob)
+    * having the same content, so that identical data are stored only once. The data of each part
+    * are moved to a {@link SplitBlobPayload} found by content hash, or created (and persisted) if
+    * none. Buffers are closed first.
+    * <p>
+    * A shared part gets its own copy of the data when written again. Payloads not used any more
+    * are removed by {@link SplitBlobPayload#removeUnused(EntityManager)}.
+    * 
+    * @param em
+    *           the entity manager of this blob
+    * @return the number of parts whose data are shared
+    */
+   public int deduplicate(EntityManager em) {
+      Map<String, SplitBlobPayload> known = new HashMap<String, SplitBlobPayload>();
+      int out = 0;
+      for (SplitBlobPart each : parts) {
+         String hash = (each == null) ? null : each.computeContentHash();
+         if (hash == null) {
+            // Never written
+            continue;
+         }
+         SplitBlobPayload payload = each.getPayload();
+         if (payload == null) {
+            payload = known.get(hash);
+            if (payload == null) {
+               payload = findPayload(em, hash, each.getStoredSize());
+            }
+            if (payload == null) {
+               payload = each.share(null);
+               em.persist(payload);
+            } else {
+               each.share(payload);
+            }
+         }
+         known.put(hash, payload);
+         out++;
+      }
+      return out;
+   }
+
+   private static SplitBlobPayload findPayload(EntityManager em, String hash, int storedSize) {
+      if (LOGGER.isDebugEnabled()) {
+         LOGGER.debug(QUERY_PAYLOAD + " (" + hash + ")");
+      }
+      Query query = em.createQuery(QUERY_PAYLOAD);
+      query.setParameter("theHash", hash);
+      for (Object each : query.getResultList()) {
+         SplitBlobPayload payload = (SplitBlobPayload) each;
+         if (payload.getDataSize() == storedSize) {
+            return payload;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Fetches from database, along with their data, the parts holding the elements of the given
+    * region, without initializing the whole list of parts. These parts are then used by
+    * {@link #getPart(int)} (and so by all read methods) until {@link #releaseFetchedParts()} is
+    * called.
+    * <p>
+    * Parts are selected by batches of positions (<code>ORDR IN (...)</code>), with their large
+    * object prefetched when supported by the JPA provider (see
+    * {@link JpaSpiActions#addFetchField(Query, Class, String)}). Does nothing if this blob is not
+    * persistent.
+    * 
+    * @param em
+    *           the entity manager of this blob
+    */
+   public void fetchParts(EntityManager em, int[] fromPos, int[] lengths) {
+      if (id == 0) {
+         return;
+      }
+      int[] ordrs = getLayout().getPartIndices(fromPos, lengths);
+      Map<Integer, SplitBlobPart> fetched = new HashMap<Integer, SplitBlobPart>(ordrs.length * 2);
+      for (int from = 0; from < ordrs.length; from += FETCH_BATCH_SIZE) {
+         int to = Math.min(ordrs.length, from + FETCH_BATCH_SIZE);
+         List<Integer> batch = new ArrayList<Integer>(to - from);
+         for (int i = from; i < to; i++) {
+            batch.add(ordrs[i]);
+         }
+         if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(QUERY_PARTS + " (" + batch.size() + " parts)");
+         }
+         Query query = em.createQuery(QUERY_PARTS);
+         query.setParameter("theBlob", this);
+         query.setParameter("theOrdrs", batch);
+         JpaSpiActions.getInstance().addFetchField(query, SplitBlobPart.class, "data");
+         for (Object each : query.getResultList()) {
+            SplitBlobPart part = (SplitBlobPart) each;
+            fetched.put(part.getOrdr(), part);
+         }
+      }
+      fetchedParts = fetched;
+   }
+
+   /**
+    * Gets the statistics of the values of the {@link SplitBlobPart} at the given position, null if
+    * not computed or if the part does not exist yet. The data of the part are not loaded, and the
+    * part is not created.
+    */
+   public PartStats getPartStats(int index) {
+      Map<Integer, SplitBlobPart> fetched = fetchedParts;
+      SplitBlobPart part = (fetched == null) ? null : fetched.get(index);
+      if (part == null) {
+         part = parts.get(index);
+      }
+      return (part == null) ? null : part.getStats();
+   }
+
+   /**
+    * Gets the statistics of all the values of this {@link SplitBlob}, merged from the statistics
+    * of its parts. Returns null if the statistics of some part are not computed. The data of the
+    * parts are not loaded.
+    */
+   public PartStats getStats() {
+      PartStats out = null;
+      for (int i = 0; i < parts.size(); i++) {
+         PartStats stats = getPartStats(i);
+         if (stats == null) {
+            return null;
+         }
+         out = (out == null) ? stats : out.merge(stats);
+      }
+      return out;
+   }
+
+   /**
+    * Same as {@link #getStats()}, but the statistics of the stored parts are aggregated by a
+    * single query, without loading the parts.
+    * 
+    * @param em
+    *           the entity manager of this blob
+    */
+   public PartStats getStats(EntityManager em) {
+      if (id == 0) {
+         return getStats();
+      }
+      if (LOGGER.isDebugEnabled()) {
+         LOGGER.debug(QUERY_STATS);
+      }
+      Query query = em.createQuery(QUERY_STATS);
+      query.setParameter("theBlob", this);
+      Object[] row = (Object[]) query.getSingleResult();
+      long partCount = ((Number) row[5]).longValue();
+      if (partCount != getLayout().getPartCount() || partCount != ((Number) row[6]).longValue()) {
+         return null;
+      }
+      long count = ((Number) row[3]).longValue();
+      return new PartStats(toDouble(row[0]), toDouble(row[1]), toDouble(row[2]), count,
+            ((Number) row[4]).longValue());
+   }
+
+   private static double toDouble(Object value) {
+      return (value == null) ? Double.NaN : ((Number) value).doubleValue();
+   }
+
+   /**
+    * Forgets the parts fetched by {@link #fetchParts(EntityManager, int[], int[])}.
+    */
+   public void releaseFetchedParts() {
+      fetchedParts = null;
+   }
+
    private static String encodeShape(final int[] shape) {
       String out = "";
       for (int each : shape) {
@@ -314,6 +797,114 @@ public class SplitBlob implements ICopyable {
       return out;
    }
 
+   /**
+    * Gets a {@link IBlobPartAccessor} over this {@link SplitBlob} keeping at most
+    * <code>maxResidentParts</code> parts opened. The least recently used part is evicted when
+    * another one is needed (see {@link #evictParts(EntityManager, Collection)}), so that memory is
+    * bounded whatever the size of the blob.
+    * <p>
+    * With an entity manager, parts are looked up by query (see
+    * {@link #getPart(EntityManager, int)}) and evicted parts are detached from it. Without one,
+    * evicted parts are only closed.
+    * 
+    * @param em
+    *           the entity manager of this blob, may be null
+    */
+   public IBlobPartAccessor getAccessor(final EntityManager em, final int maxResidentParts) {
+      return new MultiArrayBlobPart(this, em, maxResidentParts);
+   }
+
+   /**
+    * Same as {@link #getAccessor(EntityManager, int)} but the <code>readAhead</code> parts
+    * following each newly opened part are opened in advance by the given executor, so that
+    * sequential scans decode the next parts while the current one is consumed. Parts are still
+    * fetched from database by the accessing thread. Parts read ahead but not accessed yet are
+    * cancelled when the accessor is closed.
+    * 
+    * @param em
+    *           the entity manager of this blob, may be null
+    * @param executor
+    *           the executor opening the parts read ahead
+    * @param readAhead
+    *           the number of parts to read ahead
+    */
+   public IBlobPartAccessor getAccessor(final EntityManager em, final int maxResidentParts,
+         final Executor executor, final int readAhead) {
+      return new MultiArrayBlobPart(this, em, maxResidentParts, executor, readAhead);
+   }
+
+   /**
+    * Gets a cursor over the double elements of this {@link SplitBlob}, in storage order (see
+    * {@link BlobCursor}).
+    * 
+    * @param em
+    *           the entity manager of this blob, parts are then looked up by query and evicted once
+    *           read (may be null)
+    */
+   public DoubleCursor getDoubleCursor(final EntityManager em) {
+      return new DoubleCursor(this, em);
+   }
+
+   /**
+    * Gets a cursor over the float elements of this {@link SplitBlob}, in storage order (see
+    * {@link BlobCursor}).
+    * 
+    * @param em
+    *           the entity manager of this blob, parts are then looked up by query and evicted once
+    *           read (may be null)
+    */
+   public FloatCursor getFloatCursor(final EntityManager em) {
+      return new FloatCursor(this, em);
+   }
+
+   /**
+    * Gets a cursor over the long elements of this {@link SplitBlob}, in storage order (see
+    * {@link BlobCursor}).
+    * 
+    * @param em
+    *           the entity manager of this blob, parts are then looked up by query and evicted once
+    *           read (may be null)
+    */
+   public LongCursor getLongCursor(final EntityManager em) {
+      return new LongCursor(this, em);
+   }
+
+   /**
+    * Gets a cursor over the int elements of this {@link SplitBlob}, in storage order (see
+    * {@link BlobCursor}).
+    * 
+    * @param em
+    *           the entity manager of this blob, parts are then looked up by query and evicted once
+    *           read (may be null)
+    */
+   public IntCursor getIntCursor(final EntityManager em) {
+      return new IntCursor(this, em);
+   }
+
+   /**
+    * Gets a cursor over the short elements of this {@link SplitBlob}, in storage order (see
+    * {@link BlobCursor}).
+    * 
+    * @param em
+    *           the entity manager of this blob, parts are then looked up by query and evicted once
+    *           read (may be null)
+    */
+   public ShortCursor getShortCursor(final EntityManager em) {
+      return new ShortCursor(this, em);
+   }
+
+   /**
+    * Gets a cursor over the byte elements of this {@link SplitBlob}, in storage order (see
+    * {@link BlobCursor}).
+    * 
+    * @param em
+    *           the entity manager of this blob, parts are then looked up by query and evicted once
+    *           read (may be null)
+    */
+   public ByteCursor getByteCursor(final EntityManager em) {
+      return new ByteCursor(this, em);
+   }
+
    /**
     * Set values of this {@link SplitBlob}.
     */
@@ -335,38 +926,40 @@ public class SplitBlob implements ICopyable {
       }
       Class<?> componentType = SplitBlobUtils.getComponentType(values.getClass());
 
-      this.ptype = SplitBlobUtils.extractType(componentType);
       int[] lengths = SplitBlobUtils.getShape(values, rank);
+      if (chunkShape != null && decodeShape(chunkShape).length != rank) {
+         throw new IllegalArgumentException("Rank=" + rank + ", must be the rank of chunk shape");
+      }
+      this.ptype = SplitBlobUtils.extractType(componentType);
       int[] fromPos = new int[rank];
       this.elmtCount = SplitBlobUtils.numberOfElements(lengths);
       this.shape = encodeShape(lengths);
 
       preinitParts();
-      IAccessor reader = new MultiArrayJava(values);
+      MultiArrayJava reader = MultiArrayJava.newInstance(values);
       IBlobPartAccessor writer = getAccessor();
       writer.setPartListener(clientListener);
 
-      switch (ptype) {
-      case PDOUBLE:
-         rwValuesDouble(fromPos, lengths, reader, writer, null);
-         break;
-      case PFLOAT:
-         rwValuesFloat(fromPos, lengths, reader, writer, null);
-         break;
-      case PLONG:
-         rwValuesLong(fromPos, lengths, reader, writer, null);
-         break;
-      case PINTEGER:
-         rwValuesInteger(fromPos, lengths, reader, writer, null);
-         break;
-      case PSHORT:
-         rwValuesShort(fromPos, lengths, reader, writer, null);
-         break;
-      case PBYTE:
-         rwValuesByte(fromPos, lengths, reader, writer, null);
-         break;
-      default:
-         throw new IllegalArgumentException();
+      // Copy whole rows (i.e. along the last dimension) at once
+      final int last = rank - 1;
+      final int rowLength = lengths[last];
+      final int[] toPosExcl = lengths.clone();
+      toPosExcl[last] = 1;
+      if (elmtCount > 0) {
+         IndexIterator ii = new IndexIterator(fromPos, toPosExcl);
+         if (chunkShape == null) {
+            // Same layout as the array: rows follow each other, no index to map
+            long linear = 0;
+            for (; ii.notDone(); ii.incr()) {
+               writeRow(writer, linear, reader.getRow(ii.value()), rowLength);
+               linear += rowLength;
+            }
+         } else {
+            for (; ii.notDone(); ii.incr()) {
+               int[] index = ii.value();
+               writeRow(writer, index, reader.getRow(index), rowLength);
+            }
+         }
       }
 
       writer.close();
@@ -411,138 +1004,394 @@ public class SplitBlob implements ICopyable {
          throw new IllegalArgumentException();
       }
       Class<?> componentType = SplitBlobUtils.getComponentType(clazz);
+      if (SplitBlobUtils.extractType(componentType) != ptype) {
+         throw new IllegalArgumentException("Cannot read " + ptype + " elements as "
+               + componentType);
+      }
       T values = (T) Array.newInstance(componentType, lengths);
+      if (SplitBlobUtils.computeSize(lengths) == 0) {
+         return values;
+      }
 
-      IAccessor writer = new MultiArrayJava(values);
+      MultiArrayJava writer = MultiArrayJava.newInstance(values);
       IBlobPartAccessor reader = getAccessor();
       reader.setPartListener(clientListener);
 
+      // Copy whole rows (i.e. along the last dimension) at once
       final int rank = fromPos.length;
+      final int last = rank - 1;
       final int[] toPosExcl = new int[rank];
       for (int i = 0; i < rank; i++) {
          toPosExcl[i] = fromPos[i] + lengths[i];
       }
+      toPosExcl[last] = fromPos[last] + 1;
+
+      final int[] buff = new int[rank];
+      IndexIterator ii = new IndexIterator(fromPos, toPosExcl);
+      if (isContiguous(fromPos, lengths)) {
+         // Same layout as the array: rows follow each other, no index to map
+         long linear = getLayout().indexMap(fromPos);
+         for (; ii.notDone(); ii.incr()) {
+            int[] index = ii.value();
+            for (int i = 0; i < last; i++) {
+               buff[i] = index[i] - fromPos[i];
+            }
+            readRow(reader, linear, writer.getRow(buff), lengths[last]);
+            linear += lengths[last];
+         }
+      } else {
+         for (; ii.notDone(); ii.incr()) {
+            int[] index = ii.value();
+            for (int i = 0; i < last; i++) {
+               buff[i] = index[i] - fromPos[i];
+            }
+            readRow(reader, index, writer.getRow(buff), lengths[last]);
+         }
+      }
+
+      reader.close();
+      return values;
+   }
+
+   /**
+    * Gets values as <code>T</code> object of this {@link SplitBlob}, from <code>fromPos</code>
+    * positions, to <code>fromPos</code>. Only the needed parts are fetched from database, with a
+    * few queries (see {@link #fetchParts(EntityManager, int[], int[])}).
+    * 
+    * @param em
+    *           the entity manager of this blob
+    */
+   public <T> T getValues(final EntityManager em, final Class<T> clazz, final int[] fromPos,
+         final int[] lengths) {
+      fetchParts(em, fromPos, lengths);
+      try {
+         return getValues(clazz, fromPos, lengths, null);
+      } finally {
+         releaseFetchedParts();
+      }
+   }
 
-      ITransformationIndex transf = new ITransformationIndex() {
-         final int[] buff = new int[rank];
+   /**
+    * Aggregates (sum, mean, min, max, variance) the values of this {@link SplitBlob} along the
+    * given axes, part by part, without building the array of its values (see
+    * {@link BlobAggregator}). Give all the axes to aggregate the whole blob.
+    */
+   public BlobAggregate aggregate(final int[] axes, final Executor executor) {
+      return new BlobAggregator(this, executor).aggregate(axes);
+   }
 
-         @Override
-         public int[] transform(int[] index) {
-            for (int i = 0; i < buff.length; i++) {
+   /**
+    * Same as {@link #aggregate(int[], Executor)}, but the parts are looked up by query and evicted
+    * once reduced, so that memory does not grow with the size of this blob.
+    * 
+    * @param em
+    *           the entity manager of this blob
+    */
+   public BlobAggregate aggregate(final EntityManager em, final int[] axes,
+         final Executor executor) {
+      return new BlobAggregator(this, em, executor).aggregate(axes);
+   }
+
+   /**
+    * Computes the histogram of the values of this {@link SplitBlob}, part by part (see
+    * {@link BlobAggregator#histogram(double, double, int)}).
+    */
+   public long[] histogram(final double from, final double to, final int binCount,
+         final Executor executor) {
+      return new BlobAggregator(this, executor).histogram(from, to, binCount);
+   }
+
+   /**
+    * Same as {@link #histogram(double, double, int, Executor)}, but the parts are looked up by
+    * query and evicted once reduced, so that memory does not grow with the size of this blob.
+    * 
+    * @param em
+    *           the entity manager of this blob
+    */
+   public long[] histogram(final EntityManager em, final double from, final double to,
+         final int binCount, final Executor executor) {
+      return new BlobAggregator(this, em, executor).histogram(from, to, binCount);
+   }
+
+   /**
+    * Gets values as <code>T</code> object of this {@link SplitBlob}, decoding parts concurrently
+    * with the given executor.
+    * 
+    * @see #getValues(Class, int[], int[], IListener, Executor)
+    */
+   public <T> T getValues(final Class<T> clazz, final Executor executor) {
+      int[] lengths = getShape();
+      int[] fromPos = new int[lengths.length];
+      return getValues(clazz, fromPos, lengths, null, executor);
+   }
+
+   /**
+    * Gets values as <code>T</code> object of this {@link SplitBlob}, from <code>fromPos</code>
+    * positions, to <code>fromPos</code>, decoding parts concurrently with the given executor.
+    * <p>
+    * Parts are still fetched from database by the calling thread, in order, and the listener is
+    * notified there as for the sequential version (see {@link BlobPartTaskRunner}). Each part is
+    * then copied into its slice of the returned array by an executor thread.
+    */
+   @SuppressWarnings("unchecked")
+   public <T> T getValues(final Class<T> clazz, final int[] fromPos, final int[] lengths,
+         final IListener<SplitBlobEvent> clientListener, final Executor executor) {
+      if (fromPos.length != lengths.length) {
+         throw new IllegalArgumentException();
+      }
+      Class<?> componentType = SplitBlobUtils.getComponentType(clazz);
+      if (SplitBlobUtils.extractType(componentType) != ptype) {
+         throw new IllegalArgumentException("Cannot read " + ptype + " elements as "
+               + componentType);
+      }
+      T values = (T) Array.newInstance(componentType, lengths);
+      if (SplitBlobUtils.computeSize(lengths) == 0) {
+         return values;
+      }
+
+      MultiArrayJava writer = MultiArrayJava.newInstance(values);
+      BlobPartTaskRunner runner = new BlobPartTaskRunner(this, executor);
+      runner.setPartListener(clientListener);
+
+      final int rank = fromPos.length;
+      final int last = rank - 1;
+      final int[] blobShape = getShape();
+      final BlobLayout layout = getLayout();
+      final int[] toPosExcl = new int[rank];
+      for (int i = 0; i < rank; i++) {
+         if (fromPos[i] < 0 || fromPos[i] + lengths[i] > blobShape[i]) {
+            throw new ArrayIndexOutOfBoundsException();
+         }
+         toPosExcl[i] = fromPos[i] + lengths[i];
+      }
+      if (layout.isChunked()) {
+         submitTiles(runner, layout, writer, fromPos, toPosExcl);
+         runner.await();
+         return values;
+      }
+      toPosExcl[last] = fromPos[last] + 1;
+
+      // Rows are visited in storage order, so each part is submitted once
+      RowSegmentsTask task = null;
+      final int[] buff = new int[rank];
+      IndexIterator ii = new IndexIterator(fromPos, toPosExcl);
+      for (; ii.notDone(); ii.incr()) {
+         int[] index = ii.value();
+         long linear = layout.indexMap(index);
+         for (int i = 0; i < last; i++) {
+            buff[i] = index[i] - fromPos[i];
+         }
+         Object row = writer.getRow(buff);
+         int done = 0;
+         while (done < lengths[last]) {
+            final int partIdx = (int) (linear / elmtCountEachPart);
+            final int inPart = (int) (linear % elmtCountEachPart);
+            final int count = Math.min(lengths[last] - done, elmtCountEachPart - inPart);
+            if (task == null || task.partIdx != partIdx) {
+               if (task != null) {
+                  runner.submit(task.partIdx, task);
+               }
+               task = new RowSegmentsTask(partIdx);
+            }
+            task.add(inPart, row, done, count);
+            linear += count;
+            done += count;
+         }
+      }
+      runner.submit(task.partIdx, task);
+      runner.await();
+      return values;
+   }
+
+   /**
+    * Submits a task for each tile intersecting the given region, in part order. Within a tile, the
+    * elements of a row of the region are contiguous.
+    */
+   private void submitTiles(final BlobPartTaskRunner runner, final BlobLayout layout,
+         final MultiArrayJava writer, final int[] fromPos, final int[] toPosExcl) {
+      final int rank = fromPos.length;
+      final int last = rank - 1;
+      final int[] chunk = layout.getChunkShape();
+      final int[] tileFrom = new int[rank];
+      final int[] tileTo = new int[rank];
+      for (int i = 0; i < rank; i++) {
+         tileFrom[i] = fromPos[i] / chunk[i];
+         tileTo[i] = (toPosExcl[i] - 1) / chunk[i] + 1;
+      }
+      final int[] lo = new int[rank];
+      final int[] hi = new int[rank];
+      final int[] buff = new int[rank];
+      IndexIterator tiles = new IndexIterator(tileFrom, tileTo);
+      for (; tiles.notDone(); tiles.incr()) {
+         int[] tile = tiles.value();
+         for (int i = 0; i < rank; i++) {
+            lo[i] = Math.max(fromPos[i], tile[i] * chunk[i]);
+            hi[i] = Math.min(toPosExcl[i], (tile[i] + 1) * chunk[i]);
+         }
+         final int off = lo[last] - fromPos[last];
+         final int len = hi[last] - lo[last];
+         hi[last] = lo[last] + 1;
+         RowSegmentsTask task = null;
+         IndexIterator ii = new IndexIterator(lo, hi);
+         for (; ii.notDone(); ii.incr()) {
+            int[] index = ii.value();
+            long pos = layout.indexMap(index);
+            if (task == null) {
+               task = new RowSegmentsTask((int) (pos / elmtCountEachPart));
+            }
+            for (int i = 0; i < last; i++) {
                buff[i] = index[i] - fromPos[i];
             }
-            return buff;
+            task.add((int) (pos % elmtCountEachPart), writer.getRow(buff), off, len);
          }
-      };
+         runner.submit(task.partIdx, task);
+      }
+   }
 
+   /**
+    * Tells if the given region is stored in consecutive elements of the parts, i.e. this blob has
+    * the linear layout and the region spans all the dimensions but the first one.
+    */
+   private boolean isContiguous(final int[] fromPos, final int[] lengths) {
+      if (chunkShape != null) {
+         return false;
+      }
+      final int[] blobShape = getShape();
+      for (int i = 1; i < fromPos.length; i++) {
+         if (fromPos[i] != 0 || lengths[i] != blobShape[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private void writeRow(final ILinearAccessor writer, final long linear, final Object row,
+         final int len) {
       switch (ptype) {
       case PDOUBLE:
-         rwValuesDouble(fromPos, toPosExcl, reader, writer, transf);
+         writer.setDoubles(linear, (double[]) row, 0, len);
          break;
       case PFLOAT:
-         rwValuesFloat(fromPos, toPosExcl, reader, writer, transf);
+         writer.setFloats(linear, (float[]) row, 0, len);
          break;
       case PLONG:
-         rwValuesLong(fromPos, toPosExcl, reader, writer, transf);
+         writer.setLongs(linear, (long[]) row, 0, len);
          break;
       case PINTEGER:
-         rwValuesInteger(fromPos, toPosExcl, reader, writer, transf);
+         writer.setInts(linear, (int[]) row, 0, len);
          break;
       case PSHORT:
-         rwValuesShort(fromPos, toPosExcl, reader, writer, transf);
+         writer.setShorts(linear, (short[]) row, 0, len);
          break;
       case PBYTE:
-         rwValuesByte(fromPos, toPosExcl, reader, writer, transf);
+         writer.setBytes(linear, (byte[]) row, 0, len);
          break;
       default:
          throw new IllegalArgumentException();
       }
-
-      reader.close();
-      return values;
-   }
-
-   private void rwValuesDouble(final int[] fromPos, final int[] toPosExcl, final IAccessor reader,
-         final IAccessor writer, final ITransformationIndex beforeWrite) {
-      IndexIterator ii = new IndexIterator(fromPos, toPosExcl);
-      for (; ii.notDone(); ii.incr()) {
-         int[] index = ii.value();
-         double value = reader.getDouble(index);
-         int[] transfIndex = index;
-         if (beforeWrite != null) {
-            transfIndex = beforeWrite.transform(index);
-         }
-         writer.setDouble(transfIndex, value);
-      }
    }
 
-   private void rwValuesFloat(final int[] fromPos, final int[] toPosExcl, final IAccessor reader,
-         final IAccessor writer, final ITransformationIndex beforeWrite) {
-      IndexIterator ii = new IndexIterator(fromPos, toPosExcl);
-      for (; ii.notDone(); ii.incr()) {
-         int[] index = ii.value();
-         float value = reader.getFloat(index);
-         int[] transfIndex = index;
-         if (beforeWrite != null) {
-            transfIndex = beforeWrite.transform(index);
-         }
-         writer.setFloat(transfIndex, value);
-      }
-   }
-
-   private void rwValuesLong(final int[] fromPos, final int[] toPosExcl, final IAccessor reader,
-         final IAccessor writer, final ITransformationIndex beforeWrite) {
-      IndexIterator ii = new IndexIterator(fromPos, toPosExcl);
-      for (; ii.notDone(); ii.incr()) {
-         int[] index = ii.value();
-         long value = reader.getLong(index);
-         int[] transfIndex = index;
-         if (beforeWrite != null) {
-            transfIndex = beforeWrite.transform(index);
-         }
-         writer.setLong(transfIndex, value);
+   private void readRow(final ILinearAccessor reader, final long linear, final Object row,
+         final int len) {
+      switch (ptype) {
+      case PDOUBLE:
+         reader.getDoubles(linear, (double[]) row, 0, len);
+         break;
+      case PFLOAT:
+         reader.getFloats(linear, (float[]) row, 0, len);
+         break;
+      case PLONG:
+         reader.getLongs(linear, (long[]) row, 0, len);
+         break;
+      case PINTEGER:
+         reader.getInts(linear, (int[]) row, 0, len);
+         break;
+      case PSHORT:
+         reader.getShorts(linear, (short[]) row, 0, len);
+         break;
+      case PBYTE:
+         reader.getBytes(linear, (byte[]) row, 0, len);
+         break;
+      default:
+         throw new IllegalArgumentException();
       }
    }
 
-   private void rwValuesInteger(final int[] fromPos, final int[] toPosExcl, final IAccessor reader,
-         final IAccessor writer, final ITransformationIndex beforeWrite) {
-      IndexIterator ii = new IndexIterator(fromPos, toPosExcl);
-      for (; ii.notDone(); ii.incr()) {
-         int[] index = ii.value();
-         int value = reader.getInt(index);
-         int[] transfIndex = index;
-         if (beforeWrite != null) {
-            transfIndex = beforeWrite.transform(index);
-         }
-         writer.setInt(transfIndex, value);
+   private void writeRow(final IBlobPartAccessor writer, final int[] index, final Object row,
+         final int len) {
+      switch (ptype) {
+      case PDOUBLE:
+         writer.setDoubles(index, (double[]) row, 0, len);
+         break;
+      case PFLOAT:
+         writer.setFloats(index, (float[]) row, 0, len);
+         break;
+      case PLONG:
+         writer.setLongs(index, (long[]) row, 0, len);
+         break;
+      case PINTEGER:
+         writer.setInts(index, (int[]) row, 0, len);
+         break;
+      case PSHORT:
+         writer.setShorts(index, (short[]) row, 0, len);
+         break;
+      case PBYTE:
+         writer.setBytes(index, (byte[]) row, 0, len);
+         break;
+      default:
+         throw new IllegalArgumentException();
       }
    }
 
-   private void rwValuesShort(final int[] fromPos, final int[] toPosExcl, final IAccessor reader,
-         final IAccessor writer, final ITransformationIndex beforeWrite) {
-      IndexIterator ii = new IndexIterator(fromPos, toPosExcl);
-      for (; ii.notDone(); ii.incr()) {
-         int[] index = ii.value();
-         short value = reader.getShort(index);
-         int[] transfIndex = index;
-         if (beforeWrite != null) {
-            transfIndex = beforeWrite.transform(index);
-         }
-         writer.setShort(transfIndex, value);
+   private void readRow(final IBlobPartAccessor reader, final int[] index, final Object row,
+         final int len) {
+      switch (ptype) {
+      case PDOUBLE:
+         reader.getDoubles(index, (double[]) row, 0, len);
+         break;
+      case PFLOAT:
+         reader.getFloats(index, (float[]) row, 0, len);
+         break;
+      case PLONG:
+         reader.getLongs(index, (long[]) row, 0, len);
+         break;
+      case PINTEGER:
+         reader.getInts(index, (int[]) row, 0, len);
+         break;
+      case PSHORT:
+         reader.getShorts(index, (short[]) row, 0, len);
+         break;
+      case PBYTE:
+         reader.getBytes(index, (byte[]) row, 0, len);
+         break;
+      default:
+         throw new IllegalArgumentException();
       }
    }
 
-   private void rwValuesByte(final int[] fromPos, final int[] toPosExcl, final IAccessor reader,
-         final IAccessor writer, final ITransformationIndex beforeWrite) {
-      IndexIterator ii = new IndexIterator(fromPos, toPosExcl);
-      for (; ii.notDone(); ii.incr()) {
-         int[] index = ii.value();
-         byte value = reader.getByte(index);
-         int[] transfIndex = index;
-         if (beforeWrite != null) {
-            transfIndex = beforeWrite.transform(index);
-         }
-         writer.setByte(transfIndex, value);
+   private void readSegment(final SplitBlobPart part, final int inPart, final Object row,
+         final int off, final int len) {
+      switch (ptype) {
+      case PDOUBLE:
+         part.getDoubles(inPart * 8, (double[]) row, off, len);
+         break;
+      case PFLOAT:
+         part.getFloats(inPart * 4, (float[]) row, off, len);
+         break;
+      case PLONG:
+         part.getLongs(inPart * 8, (long[]) row, off, len);
+         break;
+      case PINTEGER:
+         part.getInts(inPart * 4, (int[]) row, off, len);
+         break;
+      case PSHORT:
+         part.getShorts(inPart * 2, (short[]) row, off, len);
+         break;
+      case PBYTE:
+         part.getBytes(inPart, (byte[]) row, off, len);
+         break;
+      default:
+         throw new IllegalArgumentException();
       }
    }
 
@@ -551,7 +1400,38 @@ public class SplitBlob implements ICopyable {
       return (super.toString() + "(pk=" + id + ")");
    }
 
-   private static interface ITransformationIndex {
-      int[] transform(int[] index);
+   /**
+    * Copies the segments of a part into rows of a Java array.
+    */
+   private class RowSegmentsTask implements IBlobPartTask {
+      private final int partIdx;
+
+      private final List<Object> rows = new ArrayList<Object>();
+
+      // (element offset in part, offset in row, length) for each row
+      private int[] segments = new int[3 * 16];
+
+      private RowSegmentsTask(int partIdx) {
+         this.partIdx = partIdx;
+      }
+
+      private void add(int inPart, Object row, int off, int len) {
+         int i = 3 * rows.size();
+         if (i == segments.length) {
+            segments = Arrays.copyOf(segments, 2 * segments.length);
+         }
+         segments[i] = inPart;
+         segments[i + 1] = off;
+         segments[i + 2] = len;
+         rows.add(row);
+      }
+
+      @Override
+      public void execute(SplitBlobPart part) {
+         for (int i = 0; i < rows.size(); i++) {
+            readSegment(part, segments[3 * i], rows.get(i), segments[3 * i + 1],
+                  segments[3 * i + 2]);
+         }
+      }
    }
-}
+}
\ No newline at end of file
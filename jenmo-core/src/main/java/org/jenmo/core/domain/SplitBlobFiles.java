@@ -0,0 +1,450 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.domain;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.persistence.EntityManager;
+
+import org.jenmo.core.multiarray.BlobLayout;
+import org.jenmo.core.util.SplitBlobUtils;
+import org.jenmo.core.util.SplitBlobUtils.PType;
+
+/**
+ * Exports {@link SplitBlob}s to, and imports them from, files in the NumPy <code>.npy</code> format:
+ * a header giving the element type, the byte order and the shape, followed by the raw elements in
+ * row-major order. Such files can be read with <code>numpy.load</code>, or memory mapped by most
+ * solvers.
+ * <p>
+ * The copy goes part by part between the buffers of the parts and a {@link FileChannel}, without
+ * building Java arrays. Elements are written in the byte order of the blob (see
+ * {@link SplitBlob#getByteOrder()}), and converted when read from a file of another byte order.
+ * Only one part is opened at a time, and exported parts are evicted when an
+ * <code>EntityManager</code> is given (see {@link SplitBlob#evictParts(EntityManager,
+ * java.util.Collection)}).
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public final class SplitBlobFiles {
+   private static final byte[] MAGIC = { (byte) 0x93, 'N', 'U', 'M', 'P', 'Y' };
+
+   /** Header (with preamble) lengths are multiples of this value */
+   private static final int HEADER_ALIGNMENT = 64;
+
+   private static final int MAX_HEADER_LENGTH = 256 * 1024;
+
+   private static final Pattern DESCR = Pattern
+         .compile("'descr'\\s*:\\s*'([<>|=])([a-z])([0-9]+)'");
+
+   private static final Pattern FORTRAN_ORDER = Pattern
+         .compile("'fortran_order'\\s*:\\s*(True|False)");
+
+   private static final Pattern SHAPE = Pattern.compile("'shape'\\s*:\\s*\\(([^)]*)\\)");
+
+   private SplitBlobFiles() {
+      // Utility class
+   }
+
+   /**
+    * Exports the given blob to the given file, overwritten if it exists.
+    */
+   public static void exportNpy(SplitBlob blob, File file) throws IOException {
+      exportNpy(null, blob, file);
+   }
+
+   /**
+    * Exports the given blob to the given file, overwritten if it exists. Parts are looked up by
+    * query and evicted once written if an entity manager is given.
+    * 
+    * @param em
+    *           the entity manager of the blob, may be null
+    */
+   public static void exportNpy(EntityManager em, SplitBlob blob, File file) throws IOException {
+      final PType ptype = blob.getElmtType();
+      final int size = SplitBlobUtils.sizeOf(ptype);
+      final int[] shape = blob.getShape();
+      final BlobLayout layout = blob.getLayout();
+      final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+         raf.setLength(0);
+         final FileChannel channel = raf.getChannel();
+         final ByteBuffer header = newHeader(ptype, blob.getByteOrder(), shape);
+         final long start = header.remaining();
+         writeFully(channel, header, 0);
+         for (int p = 0; p < layout.getPartCount(); p++) {
+            final SplitBlobPart part = (em == null) ? blob.getPart(p) : blob.getPart(em, p);
+            part.openBuffer();
+            try {
+               final ByteBuffer src = part.asByteBuffer();
+               if (!layout.isChunked()) {
+                  src.limit(layout.getValidCount(p) * size);
+                  writeFully(channel, src, start + (long) p * layout.getSizeForParts() * size);
+                  continue;
+               }
+               final Run run = new Run(layout, shape, p);
+               do {
+                  src.limit((run.offset + run.length) * size).position(run.offset * size);
+                  writeFully(channel, src, start + run.linear * size);
+               } while (run.next());
+            } finally {
+               if (em == null) {
+                  part.closeBuffer();
+               } else {
+                  blob.evictParts(em, Collections.singleton(part));
+               }
+            }
+         }
+      } finally {
+         raf.close();
+      }
+   }
+
+   /**
+    * Imports a new blob from the given file, with the linear layout (see
+    * {@link SplitBlob#newInstance(int, Class, int[])}). The blob is held in memory, parts being
+    * encoded with the default codec if any.
+    * 
+    * @throws IllegalArgumentException
+    *            if the file holds elements of a type not supported by {@link SplitBlob}, or in
+    *            column-major order
+    */
+   public static SplitBlob importNpy(File file, int elmtCountForPart) throws IOException {
+      return importNpy(file, elmtCountForPart, null);
+   }
+
+   /**
+    * Imports a new blob from the given file, whose parts are tiles of the given shape (see
+    * {@link SplitBlob#newInstance(int[], Class, int[])}). The blob is held in memory, parts being
+    * encoded with the default codec if any.
+    * 
+    * @throws IllegalArgumentException
+    *            if the file holds elements of a type not supported by {@link SplitBlob}, or in
+    *            column-major order
+    */
+   public static SplitBlob importNpy(File file, int[] chunkShape) throws IOException {
+      if (chunkShape == null) {
+         throw new NullPointerException("ChunkShape cannot be null");
+      }
+      return importNpy(file, 0, chunkShape);
+   }
+
+   private static SplitBlob importNpy(File file, int elmtCountForPart, int[] chunkShape)
+         throws IOException {
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         final FileChannel channel = raf.getChannel();
+         final Header header = readHeader(channel);
+         final Class<?> clazz = SplitBlobUtils.getClassFor(header.ptype);
+         final SplitBlob blob = (chunkShape == null) ? SplitBlob.newInstance(elmtCountForPart,
+               clazz, header.shape) : SplitBlob.newInstance(chunkShape, clazz, header.shape);
+         final int size = SplitBlobUtils.sizeOf(header.ptype);
+         final long end = header.start + blob.getElmtCount() * size;
+         if (channel.size() < end) {
+            throw new EOFException("File " + file + " is truncated, size is " + channel.size()
+                  + " instead of " + end);
+         }
+         final BlobLayout layout = blob.getLayout();
+         final boolean swap = (header.order != blob.getByteOrder()) && (size > 1);
+         // Elements of another byte order are read here first, then converted
+         final ByteBuffer scratch = swap ? ByteBuffer.allocateDirect(
+               layout.getSizeForParts() * size).order(header.order) : null;
+         for (int p = 0; p < layout.getPartCount(); p++) {
+            final SplitBlobPart part = blob.getPart(p);
+            part.openBuffer();
+            try {
+               final ByteBuffer dst = part.writableView();
+               if (!layout.isChunked()) {
+                  dst.limit(layout.getValidCount(p) * size);
+                  read(channel, header.start + (long) p * layout.getSizeForParts() * size, dst,
+                        scratch, header.ptype);
+                  continue;
+               }
+               final Run run = new Run(layout, header.shape, p);
+               do {
+                  dst.limit((run.offset + run.length) * size).position(run.offset * size);
+                  read(channel, header.start + run.linear * size, dst, scratch, header.ptype);
+               } while (run.next());
+            } finally {
+               part.closeBuffer();
+            }
+         }
+         return blob;
+      } finally {
+         raf.close();
+      }
+   }
+
+   /**
+    * Reads the remaining bytes of <code>dst</code> from the given position, through the scratch
+    * buffer if not null in order to convert the byte order.
+    */
+   private static void read(FileChannel channel, long pos, ByteBuffer dst, ByteBuffer scratch,
+         PType ptype) throws IOException {
+      if (scratch == null) {
+         readFully(channel, dst, pos);
+         return;
+      }
+      scratch.clear().limit(dst.remaining());
+      readFully(channel, scratch, pos);
+      scratch.flip();
+      switch (ptype) {
+      case PDOUBLE:
+         dst.asDoubleBuffer().put(scratch.asDoubleBuffer());
+         break;
+      case PFLOAT:
+         dst.asFloatBuffer().put(scratch.asFloatBuffer());
+         break;
+      case PLONG:
+         dst.asLongBuffer().put(scratch.asLongBuffer());
+         break;
+      case PINTEGER:
+         dst.asIntBuffer().put(scratch.asIntBuffer());
+         break;
+      case PSHORT:
+         dst.asShortBuffer().put(scratch.asShortBuffer());
+         break;
+      default:
+         dst.put(scratch);
+         break;
+      }
+   }
+
+   private static void writeFully(FileChannel channel, ByteBuffer src, long pos)
+         throws IOException {
+      while (src.hasRemaining()) {
+         pos += channel.write(src, pos);
+      }
+   }
+
+   private static void readFully(FileChannel channel, ByteBuffer dst, long pos)
+         throws IOException {
+      while (dst.hasRemaining()) {
+         final int count = channel.read(dst, pos);
+         if (count < 0) {
+            throw new EOFException();
+         }
+         pos += count;
+      }
+   }
+
+   private static ByteBuffer newHeader(PType ptype, ByteOrder order, int[] shape) {
+      final StringBuilder dict = new StringBuilder("{'descr': '");
+      final int size = SplitBlobUtils.sizeOf(ptype);
+      dict.append((size == 1) ? '|' : ((order == ByteOrder.LITTLE_ENDIAN) ? '<' : '>'));
+      dict.append((ptype == PType.PDOUBLE || ptype == PType.PFLOAT) ? 'f' : 'i').append(size);
+      dict.append("', 'fortran_order': False, 'shape': (");
+      for (int each : shape) {
+         dict.append(each).append(", ");
+      }
+      if (shape.length > 1) {
+         dict.setLength(dict.length() - 2);
+      } else if (shape.length == 1) {
+         dict.setLength(dict.length() - 1);
+      }
+      dict.append("), }");
+      // Version 1.0 preamble: magic, version, little-endian unsigned short header length
+      int total = MAGIC.length + 4 + dict.length() + 1;
+      total = (total + HEADER_ALIGNMENT - 1) / HEADER_ALIGNMENT * HEADER_ALIGNMENT;
+      final int length = total - MAGIC.length - 4;
+      while (dict.length() < length - 1) {
+         dict.append(' ');
+      }
+      dict.append('\n');
+      final ByteBuffer out = ByteBuffer.allocate(total).order(ByteOrder.LITTLE_ENDIAN);
+      out.put(MAGIC).put((byte) 1).put((byte) 0).putShort((short) length);
+      for (int i = 0; i < dict.length(); i++) {
+         out.put((byte) dict.charAt(i));
+      }
+      out.flip();
+      return out;
+   }
+
+   private static Header readHeader(FileChannel channel) throws IOException {
+      final ByteBuffer preamble = ByteBuffer.allocate(MAGIC.length + 2 + 4).order(
+            ByteOrder.LITTLE_ENDIAN);
+      readFully(channel, preamble, 0);
+      preamble.flip();
+      for (byte each : MAGIC) {
+         if (preamble.get() != each) {
+            throw new IOException("Not a NumPy file");
+         }
+      }
+      final int major = preamble.get();
+      preamble.get();
+      final long length;
+      final long start;
+      if (major == 1) {
+         length = preamble.getShort() & 0xFFFF;
+         start = MAGIC.length + 4 + length;
+      } else if (major == 2 || major == 3) {
+         length = preamble.getInt() & 0xFFFFFFFFL;
+         start = MAGIC.length + 6 + length;
+      } else {
+         throw new IOException("Unsupported NumPy file version: " + major);
+      }
+      if (length > MAX_HEADER_LENGTH) {
+         throw new IOException("NumPy header is too long: " + length);
+      }
+      final ByteBuffer raw = ByteBuffer.allocate((int) length);
+      readFully(channel, raw, start - length);
+      final String dict = new String(raw.array(), "ISO-8859-1");
+
+      final Matcher descr = DESCR.matcher(dict);
+      final Matcher fortran = FORTRAN_ORDER.matcher(dict);
+      final Matcher shape = SHAPE.matcher(dict);
+      if (!descr.find() || !fortran.find() || !shape.find()) {
+         throw new IOException("Invalid NumPy header: " + dict.trim());
+      }
+      if (fortran.group(1).equals("True")) {
+         throw new IllegalArgumentException("Column-major (Fortran) order is not supported");
+      }
+      final Header out = new Header();
+      out.start = start;
+      out.ptype = toPType(descr.group(2).charAt(0), Integer.parseInt(descr.group(3)));
+      final char order = descr.group(1).charAt(0);
+      if (order == '>') {
+         out.order = ByteOrder.BIG_ENDIAN;
+      } else if (order == '=') {
+         out.order = ByteOrder.nativeOrder();
+      } else {
+         out.order = ByteOrder.LITTLE_ENDIAN;
+      }
+      final String[] dims = shape.group(1).split(",");
+      int rank = 0;
+      final int[] lengths = new int[dims.length];
+      for (String each : dims) {
+         if (each.trim().length() > 0) {
+            lengths[rank++] = Integer.parseInt(each.trim());
+         }
+      }
+      if (rank == 0) {
+         throw new IllegalArgumentException("Scalar arrays are not supported");
+      }
+      out.shape = new int[rank];
+      System.arraycopy(lengths, 0, out.shape, 0, rank);
+      return out;
+   }
+
+   private static PType toPType(char kind, int size) {
+      if (kind == 'f' && size == 8) {
+         return PType.PDOUBLE;
+      }
+      if (kind == 'f' && size == 4) {
+         return PType.PFLOAT;
+      }
+      if (kind == 'i') {
+         switch (size) {
+         case 8:
+            return PType.PLONG;
+         case 4:
+            return PType.PINTEGER;
+         case 2:
+            return PType.PSHORT;
+         case 1:
+            return PType.PBYTE;
+         default:
+            break;
+         }
+      }
+      throw new IllegalArgumentException("Unsupported NumPy element type: " + kind + size);
+   }
+
+   /**
+    * The content of a NumPy header.
+    */
+   private static final class Header {
+      private PType ptype;
+
+      private ByteOrder order;
+
+      private int[] shape;
+
+      /** The position of the first element in the file */
+      private long start;
+   }
+
+   /**
+    * Iterates over the runs of a tile (i.e. its rows along the last dimension, clipped to the
+    * bounds of the blob).
+    */
+   private static final class Run {
+      private final int[] shape;
+
+      private final int[] chunkShape;
+
+      private final int[] origin;
+
+      private final int[] valid;
+
+      private final int[] row;
+
+      /** The linear index in the blob of the first element of the run */
+      private long linear;
+
+      /** The offset in the part of the first element of the run */
+      private int offset;
+
+      private final int length;
+
+      Run(BlobLayout layout, int[] shape, int partIdx) {
+         this.shape = shape;
+         this.chunkShape = layout.getChunkShape();
+         this.origin = layout.getOrigin(partIdx);
+         this.valid = layout.getValidShape(partIdx);
+         this.row = new int[shape.length];
+         this.length = valid[shape.length - 1];
+         locate();
+      }
+
+      /**
+       * Moves to the next run, returns false if none.
+       */
+      boolean next() {
+         int i = shape.length - 2;
+         while (i >= 0 && ++row[i] == valid[i]) {
+            row[i] = 0;
+            i--;
+         }
+         if (i < 0) {
+            return false;
+         }
+         locate();
+         return true;
+      }
+
+      private void locate() {
+         linear = 0;
+         offset = 0;
+         for (int i = 0; i < shape.length; i++) {
+            linear = linear * shape[i] + origin[i] + row[i];
+            offset = offset * chunkShape[i] + row[i];
+         }
+      }
+   }
+}
@@ -19,6 +19,13 @@
 package org.jenmo.core.domain;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
 
 import javax.persistence.Basic;
 import javax.persistence.Column;
@@ -30,14 +37,20 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
+import javax.persistence.PrePersist;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import javax.persistence.Version;
 
 import org.jenmo.common.marker.ICopyable;
+import org.jenmo.core.cache.DirectBufferPool;
+import org.jenmo.core.cache.PartFileCache;
+import org.jenmo.core.codec.IPartCodec;
+import org.jenmo.core.codec.PartCodecs;
 import org.jenmo.core.listener.IListener;
 import org.jenmo.core.multiarray.IBlobPartAccessor;
+import org.jenmo.core.util.SplitBlobUtils.PType;
 
 /**
  * A {@link SplitBlobPart} entity is a part of a {@link SplitBlob}. For very heavy blobs, having
@@ -46,6 +59,32 @@ import org.jenmo.core.multiarray.IBlobPartAccessor;
  * <p>
  * Client code may be notified when extracting a new part from database using a {@link IListener}
  * (see {@link SplitBlob} or {@link IBlobPartAccessor}).
+ * <p>
+ * The bytes of a part may be encoded with a {@link IPartCodec} (compression for instance). The
+ * codec is stored along with the part, and the bytes are decoded when the buffer is opened, and
+ * encoded again when the buffer is closed if it has been written.
+ * <p>
+ * If a {@link PartFileCache} is configured, the decoded bytes of persistent parts are cached on
+ * local disk by content hash, and the buffer of a cached part is a read-only mapping of the cache
+ * file: data are then not fetched from database at all. Such a buffer is copied in memory on the
+ * first write.
+ * <p>
+ * Elements are stored in the byte order of the {@link SplitBlob} (see
+ * {@link SplitBlob#getByteOrder()}). Bulk consumers may read a whole opened part using typed views
+ * such as {@link #asDoubleBuffer()}.
+ * <p>
+ * If all the elements of a part are known to be equal without decoding (see
+ * {@link PartCodecs#constantOf(String, byte[])}), the buffer holds a single element which is
+ * returned by all the <i>get</i> methods. The whole buffer is only allocated on the first write.
+ * <p>
+ * Statistics of the values ({@link PartStats}) are computed when the buffer is closed after being
+ * written, and stored along with the part.
+ * <p>
+ * The content hash of the stored data (see {@link SplitBlobPayload#hash(String, byte[])}) is
+ * stored along with the part too. Parts having the same content may share their stored data, held
+ * by a {@link SplitBlobPayload}, either when copied or when their {@link SplitBlob} is
+ * deduplicated. Shared data are never written: a part gets its own copy of the data on the first
+ * write (copy-on-write).
  * 
  * @author Nicolas Ocquidant
  * @since 1.0
@@ -53,10 +92,16 @@ import org.jenmo.core.multiarray.IBlobPartAccessor;
 @Entity
 @Table(name = "SPLITBLOBPART")
 public class SplitBlobPart implements ICopyable {
+   /** The sequence of the identities */
+   static final String ID_SEQUENCE = "SPLITBLOBPART_ID_SEQ";
+
+   /** The number of identities reserved from the sequence at once */
+   static final int ID_ALLOCATION_SIZE = 10;
 
    @Id
    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "SplitBlobPartSeq")
-   @SequenceGenerator(name = "SplitBlobPartSeq", sequenceName = "SPLITBLOBPART_ID_SEQ", allocationSize = 10)
+   @SequenceGenerator(name = "SplitBlobPartSeq", sequenceName = ID_SEQUENCE,
+         allocationSize = ID_ALLOCATION_SIZE)
    @Column(name = "ID")
    private long id;
 
@@ -69,7 +114,6 @@ public class SplitBlobPart implements ICopyable {
    @Column(name = "ORDR", updatable = false)
    private int ordr;
 
-   @SuppressWarnings("unused")
    @ManyToOne(fetch = FetchType.LAZY)
    @JoinColumn(name = "PARENT_ID", nullable = false, updatable = false)
    private SplitBlob parent;
@@ -83,12 +127,85 @@ public class SplitBlobPart implements ICopyable {
    @Column(name = "DATA", columnDefinition = "OID")
    private byte[] data;
 
+   /** The data shared with other parts, null if data are not shared (see SplitBlobPayload) */
+   @ManyToOne(fetch = FetchType.LAZY)
+   @JoinColumn(name = "PAYLOAD_ID")
+   private SplitBlobPayload payload;
+
+   /** The content hash of the stored data, null if never written */
+   @Basic
+   @Column(name = "CONTENTHASH", length = 64)
+   private String contentHash;
+
+   /** The name of the codec of data, null for none */
+   @Basic
+   @Column(name = "CODEC", length = 32, updatable = false)
+   private String codec;
+
+   /** Statistics of the values (see PartStats), all null if not computed */
+   @Basic
+   @Column(name = "STATMIN")
+   private Double statMin;
+
+   @Basic
+   @Column(name = "STATMAX")
+   private Double statMax;
+
+   @Basic
+   @Column(name = "STATSUM")
+   private Double statSum;
+
+   @Basic
+   @Column(name = "STATCOUNT")
+   private Integer statCount;
+
+   @Basic
+   @Column(name = "NANCOUNT")
+   private Integer nanCount;
+
    @Transient
    // We don't synchronize buffer are we want best perfs...
    private ByteBuffer buffer;
 
+   @Transient
+   // Applied to indices when reading buffer: 0 if it holds a single element for all, -1 otherwise
+   private int indexMask = -1;
+
+   @Transient
+   // Resolved from parent before opening in another thread (see prefetch)
+   private ByteOrder order;
+
+   @Transient
+   // True if buffer has been written since opened (only matters with a codec)
+   private boolean dirty;
+
+   @Transient
+   // Resolved from parent before decoding in another thread (see prefetch)
+   private PType elmtType;
+
+   @Transient
+   // True if written since loaded, data may then differ from the stored ones
+   private boolean modified;
+
+   @Transient
+   // Cached buffer mapped by prefetch, consumed by openBuffer
+   private ByteBuffer mapped;
+
+   @Transient
+   // True if data (without codec) are shared with a copy, and must be copied before written
+   private boolean shared;
+
+   @Transient
+   // True if buffer has been taken from the DirectBufferPool, and must be given back
+   private boolean pooled;
+
+   @Transient
+   // True once data have been released (see release), the part must not be used any more
+   private boolean released;
+
    private SplitBlobPart() {
       buffer = null;
+      indexMask = -1;
    }
 
    private SplitBlobPart(int wantedDataSize) {
@@ -97,6 +214,17 @@ public class SplitBlobPart implements ICopyable {
    }
 
    protected static SplitBlobPart newInstance(SplitBlob parent, int ordr, int wantedDataSize) {
+      return newInstance(parent, ordr, wantedDataSize, null);
+   }
+
+   /**
+    * Creates a new instance whose data will be encoded with the given codec.
+    * 
+    * @param codecName
+    *           the name of a codec registered in {@link PartCodecs}, null for none
+    */
+   protected static SplitBlobPart newInstance(SplitBlob parent, int ordr, int wantedDataSize,
+         String codecName) {
       if (parent == null) {
          throw new NullPointerException("Parent cannot be null");
       }
@@ -109,6 +237,7 @@ public class SplitBlobPart implements ICopyable {
       SplitBlobPart instance = new SplitBlobPart(wantedDataSize);
       instance.parent = parent;
       instance.ordr = ordr;
+      instance.codec = PartCodecs.isNone(codecName) ? null : PartCodecs.get(codecName).getName();
       return instance;
    }
 
@@ -122,11 +251,37 @@ public class SplitBlobPart implements ICopyable {
       if (toCopy == null) {
          throw new NullPointerException("Cannot copy null");
       }
+      // Pending writes are encoded first, so that data, stats and content hash agree
+      ByteBuffer var = toCopy.buffer;
+      if (var != null && toCopy.dirty) {
+         toCopy.encode(var);
+      }
       SplitBlobPart instance = new SplitBlobPart();
       instance.ordr = toCopy.ordr;
       instance.parent = newParent;
       instance.dataSize = toCopy.dataSize;
-      instance.data = toCopy.data.clone();
+      instance.codec = toCopy.codec;
+      instance.statMin = toCopy.statMin;
+      instance.statMax = toCopy.statMax;
+      instance.statSum = toCopy.statSum;
+      instance.statCount = toCopy.statCount;
+      instance.nanCount = toCopy.nanCount;
+      instance.contentHash = toCopy.contentHash;
+      if (toCopy.payload != null) {
+         instance.payload = toCopy.payload;
+      } else if (toCopy.data != null) {
+         if (toCopy.codec != null) {
+            // Encoded data (with pending writes, see above) are replaced when written, never
+            // modified
+            instance.data = toCopy.data;
+         } else if (toCopy.buffer == null) {
+            instance.data = toCopy.data;
+            instance.shared = toCopy.shared = true;
+         } else {
+            // Opened buffer of the copied part wraps its data
+            instance.data = toCopy.data.clone();
+         }
+      }
       return instance;
    }
 
@@ -149,33 +304,464 @@ public class SplitBlobPart implements ICopyable {
       return ordr;
    }
 
+   /**
+    * Gets the name of the codec of the stored data, <code>null</code> for none.
+    */
+   public final String getCodec() {
+      return codec;
+   }
+
+   /**
+    * Gets the size of the stored data, which is less than the buffer size when data are
+    * compressed. Returns -1 if the part has never been written.
+    */
+   public final int getStoredSize() {
+      if (payload != null) {
+         return payload.getDataSize();
+      }
+      return (data == null) ? -1 : data.length;
+   }
+
+   /**
+    * Gets the content hash of the stored data (see {@link SplitBlobPayload#hash(String, byte[])}),
+    * null if this part has never been written. Data are not loaded.
+    */
+   public final String getContentHash() {
+      return contentHash;
+   }
+
+   /**
+    * Gets the payload holding the data of this part if shared with other parts, null if none.
+    */
+   public final SplitBlobPayload getPayload() {
+      return payload;
+   }
+
+   /**
+    * Gets the statistics of the values of this part, computed when it has been written. Returns
+    * null if this part has never been written. Data are not loaded.
+    */
+   public final PartStats getStats() {
+      if (statCount == null) {
+         return null;
+      }
+      return new PartStats((statMin == null) ? Double.NaN : statMin,
+            (statMax == null) ? Double.NaN : statMax, statSum, statCount, nanCount);
+   }
+
    public final boolean isBufferOpen() {
       return (buffer != null);
    }
 
    /**
-    * Opens the underlying buffer in order to be able to put/get values.
+    * Loads the stored data of this part from database (or from the {@link PartFileCache}) without
+    * opening the buffer. This allows to fetch the part in the thread owning the
+    * <code>EntityManager</code>, and to open (i.e. decode) it in another thread.
+    */
+   public final void prefetch() {
+      if (buffer != null || mapped != null) {
+         return;
+      }
+      getByteOrder();
+      PartFileCache cache = getCache();
+      if (cache != null) {
+         mapped = getCached(cache);
+         if (mapped != null) {
+            return;
+         }
+      }
+      // Loads data (shared or not) in the calling thread
+      if (getStored() != null && codec != null) {
+         getElmtType();
+      }
+   }
+
+   /**
+    * Opens the underlying buffer in order to be able to put/get values. Data are decoded if a
+    * codec is set, into a direct buffer of the {@link DirectBufferPool} if any (given back by
+    * {@link #closeBuffer()}).
     */
    public final void openBuffer() {
       ByteBuffer var = buffer;
+      if (var == null && released) {
+         throw new IllegalStateException("Part " + ordr + " has been released");
+      }
       if (var == null) { // First check (no locking)
          synchronized (this) {
             var = buffer;
             if (var == null) { // Second check (with locking)
-               if (data == null) {
-                  data = new byte[dataSize];
+               PartFileCache cache = getCache();
+               int mask = -1;
+               var = mapped;
+               mapped = null;
+               if (var == null && cache != null) {
+                  var = getCached(cache);
+               }
+               if (var == null) {
+                  byte[] stored = getStored();
+                  if (codec == null) {
+                     if (stored == null) {
+                        var = ByteBuffer.wrap(data = new byte[dataSize]);
+                     } else if (shared || payload != null) {
+                        // Copied on first write (see writable)
+                        var = ByteBuffer.wrap(stored).asReadOnlyBuffer();
+                     } else {
+                        var = ByteBuffer.wrap(stored);
+                     }
+                     var.order(getByteOrder());
+                  } else if (stored != null
+                        && (var = PartCodecs.constantOf(codec, stored)) != null) {
+                     // Not decoded, and not cached as there is nothing to fetch
+                     mask = 0;
+                     var = var.asReadOnlyBuffer().order(getByteOrder());
+                     cache = null;
+                  } else {
+                     var = allocate(stored == null);
+                     if (stored != null) {
+                        try {
+                           PartCodecs.get(codec).decode(stored, 0, var, getElmtType());
+                        } catch (RuntimeException e) {
+                           recycle(var);
+                           throw e;
+                        }
+                     }
+                  }
+                  if (cache != null && stored != null) {
+                     cache.put(contentHash, var);
+                  }
                }
-               var = buffer = ByteBuffer.wrap(data);
+               // Buffers are in the byte order of the blob, whatever their origin
+               var.order(getByteOrder());
+               dirty = false;
+               indexMask = mask;
+               buffer = var;
             }
          }
       }
    }
 
    /**
-    * Closes the underlying buffer if not needed any more.
+    * Closes the underlying buffer if not needed any more. Data are encoded if a codec is set and
+    * the buffer has been written.
     */
    public final void closeBuffer() {
+      ByteBuffer var = buffer;
+      if (var != null && dirty) {
+         encode(var);
+      }
       buffer = null;
+      if (var != null) {
+         recycle(var);
+      }
+   }
+
+   /**
+    * Tells if this part has been written since loaded.
+    */
+   final boolean isModified() {
+      return modified;
+   }
+
+   /**
+    * Releases the data of this part, once stored and detached, so that it can be garbage
+    * collected. The part cannot be read any more.
+    */
+   final void release() {
+      ByteBuffer var = buffer;
+      buffer = null;
+      if (var != null) {
+         recycle(var);
+      }
+      mapped = null;
+      data = null;
+      payload = null;
+      released = true;
+   }
+
+   /**
+    * Gets the values of the columns of this part for an insertion outside of JPA, in the order of
+    * the columns of {@link SplitBlobPartInserter}. The buffer must be closed.
+    */
+   final Object[] getInsertValues() {
+      return new Object[] { ordr, parent.getId(), dataSize, getStored(), contentHash, codec,
+            statMin, statMax, statSum, statCount, nanCount };
+   }
+
+   /**
+    * Sets the identity given to this part when inserted outside of JPA (see
+    * {@link SplitBlobPartInserter}). The part is then like a detached one.
+    */
+   final void setInserted(long newId) {
+      id = newId;
+      version = 1;
+   }
+
+   @PrePersist
+   @SuppressWarnings("unused")
+   private void encodeBeforePersist() {
+      ByteBuffer var = buffer;
+      if (var != null && dirty) {
+         encode(var);
+      }
+   }
+
+   private void encode(ByteBuffer raw) {
+      dirty = false;
+      updateStats(raw);
+      if (codec != null) {
+         data = PartCodecs.get(codec).encode(raw, getElmtType());
+      }
+      contentHash = SplitBlobPayload.hash(codec, data);
+   }
+
+   private void updateStats(ByteBuffer raw) {
+      PartStats stats = PartStats.compute(raw, getElmtType(), parent.getLayout(), ordr);
+      boolean empty = (stats.getCount() == 0);
+      statMin = empty ? null : stats.getMin();
+      statMax = empty ? null : stats.getMax();
+      statSum = stats.getSum();
+      statCount = (int) stats.getCount();
+      nanCount = (int) stats.getNanCount();
+   }
+
+   /**
+    * Gets the stored data, shared or not, null if never written.
+    */
+   private byte[] getStored() {
+      SplitBlobPayload var = payload;
+      return (var == null) ? data : var.getData();
+   }
+
+   /**
+    * Gets the content hash of the stored data, computed first if needed (parts written by previous
+    * versions). The buffer is closed first. Returns null if this part has never been written.
+    */
+   final String computeContentHash() {
+      closeBuffer();
+      if (contentHash == null) {
+         byte[] stored = getStored();
+         if (stored != null) {
+            contentHash = SplitBlobPayload.hash(codec, stored);
+         }
+      }
+      return contentHash;
+   }
+
+   /**
+    * Shares the stored data of this part with other parts having the same content (see
+    * {@link #computeContentHash()}) using the given payload, or using a new payload holding the
+    * data of this part if null.
+    * 
+    * @return the payload of this part
+    */
+   final SplitBlobPayload share(SplitBlobPayload existing) {
+      SplitBlobPayload out = existing;
+      if (out == null) {
+         out = SplitBlobPayload.newInstance(computeContentHash(), data);
+      }
+      payload = out;
+      data = null;
+      shared = false;
+      return out;
+   }
+
+   /**
+    * Gets the cache to use for this part, null if none or if this part is not persistent, has been
+    * modified, has no content hash (written by previous versions) or has been flushed in the
+    * current transaction (see {@link SplitBlob#isFlushed(long)}).
+    */
+   private PartFileCache getCache() {
+      if (id == 0 || modified || contentHash == null || parent.isFlushed(id)) {
+         return null;
+      }
+      return PartFileCache.getInstance();
+   }
+
+   /**
+    * Gets the cached bytes of this part, null if not cached or not of the size of this part.
+    */
+   private ByteBuffer getCached(PartFileCache cache) {
+      ByteBuffer out = cache.get(contentHash);
+      if (out != null && out.capacity() != dataSize) {
+         return null;
+      }
+      return out;
+   }
+
+   /**
+    * Gets the buffer to write to, copying it in memory first if it is a read-only cached mapping.
+    */
+   private ByteBuffer writable() {
+      ByteBuffer var = buffer;
+      if (indexMask == 0) {
+         var = expand();
+      } else if (var.isReadOnly()) {
+         // Cached mapping or shared data
+         ByteBuffer view = var.duplicate();
+         view.clear();
+         if (codec == null) {
+            byte[] raw = new byte[dataSize];
+            view.get(raw);
+            data = raw;
+            var = ByteBuffer.wrap(raw).order(getByteOrder());
+         } else {
+            var = allocate(false);
+            var.put(view);
+            var.rewind();
+         }
+         buffer = var;
+         shared = false;
+      }
+      if (!dirty) {
+         // Shared data are never written, this part now has its own data. Done once until
+         // encoded, since writing the persistent payload field goes through the enhancer
+         payload = null;
+         dirty = true;
+         modified = true;
+      }
+      return var;
+   }
+
+   /**
+    * Allocates the whole buffer of a part whose buffer holds a single element for all.
+    */
+   private ByteBuffer expand() {
+      ByteBuffer var = allocate(false);
+      PartCodecs.fill(var, buffer);
+      buffer = var;
+      indexMask = -1;
+      return var;
+   }
+
+   /**
+    * Allocates a buffer for the decoded bytes of this part, taken from the {@link DirectBufferPool}
+    * if any.
+    */
+   private ByteBuffer allocate(boolean zeroed) {
+      DirectBufferPool pool = DirectBufferPool.getInstance();
+      ByteBuffer out;
+      if (pool == null) {
+         out = ByteBuffer.allocate(dataSize);
+      } else {
+         pooled = true;
+         out = zeroed ? pool.acquireZeroed(dataSize) : pool.acquire(dataSize);
+      }
+      return out.order(getByteOrder());
+   }
+
+   /**
+    * Gives back the given buffer to the {@link DirectBufferPool} if it has been taken from it.
+    */
+   private void recycle(ByteBuffer var) {
+      if (pooled) {
+         pooled = false;
+         DirectBufferPool pool = DirectBufferPool.getInstance();
+         if (pool != null) {
+            pool.release(var);
+         }
+      }
+   }
+
+   private PType getElmtType() {
+      PType out = elmtType;
+      if (out == null) {
+         out = elmtType = parent.getElmtType();
+      }
+      return out;
+   }
+
+   private ByteOrder getByteOrder() {
+      ByteOrder out = order;
+      if (out == null) {
+         out = order = parent.getByteOrder();
+      }
+      return out;
+   }
+
+   /**
+    * Gets a read-only view of the opened buffer, in the byte order of the blob, from 0 to the size
+    * of the part. The whole buffer is allocated first if it holds a single element for all.
+    */
+   private ByteBuffer readView() {
+      ByteBuffer var = buffer;
+      if (indexMask == 0) {
+         var = expand();
+      }
+      ByteBuffer out = var.asReadOnlyBuffer().order(var.order());
+      // Not the capacity, pooled buffers may be larger than the part
+      out.position(0);
+      out.limit(dataSize);
+      return out;
+   }
+
+   /**
+    * Gets a writable view of the opened buffer, in the byte order of the blob, from 0 to the size
+    * of the part, for bulk writes without intermediate arrays (see {@link SplitBlobFiles}). The
+    * part is considered as written.
+    */
+   final ByteBuffer writableView() {
+      ByteBuffer var = writable();
+      ByteBuffer out = var.duplicate().order(var.order());
+      out.position(0);
+      out.limit(dataSize);
+      return out;
+   }
+
+   /**
+    * Gets a duplicate of the given buffer, in the same byte order, positioned at the given index.
+    */
+   private static ByteBuffer view(ByteBuffer var, int index) {
+      ByteBuffer out = var.duplicate().order(var.order());
+      out.position(index);
+      return out;
+   }
+
+   /**
+    * Gets a read-only view of the opened buffer as double values, for bulk reads. The view is only
+    * valid until the buffer is closed or written.
+    */
+   public final DoubleBuffer asDoubleBuffer() {
+      return readView().asDoubleBuffer();
+   }
+
+   /**
+    * Gets a read-only view of the opened buffer as float values, for bulk reads. The view is only
+    * valid until the buffer is closed or written.
+    */
+   public final FloatBuffer asFloatBuffer() {
+      return readView().asFloatBuffer();
+   }
+
+   /**
+    * Gets a read-only view of the opened buffer as long values, for bulk reads. The view is only
+    * valid until the buffer is closed or written.
+    */
+   public final LongBuffer asLongBuffer() {
+      return readView().asLongBuffer();
+   }
+
+   /**
+    * Gets a read-only view of the opened buffer as int values, for bulk reads. The view is only
+    * valid until the buffer is closed or written.
+    */
+   public final IntBuffer asIntBuffer() {
+      return readView().asIntBuffer();
+   }
+
+   /**
+    * Gets a read-only view of the opened buffer as short values, for bulk reads. The view is only
+    * valid until the buffer is closed or written.
+    */
+   public final ShortBuffer asShortBuffer() {
+      return readView().asShortBuffer();
+   }
+
+   /**
+    * Gets a read-only view of the opened buffer as byte values, for bulk reads. The view is only
+    * valid until the buffer is closed or written.
+    */
+   public final ByteBuffer asByteBuffer() {
+      return readView();
    }
 
    /**
@@ -185,7 +771,7 @@ public class SplitBlobPart implements ICopyable {
     *           The index at which the bytes will be written
     */
    public final void putDouble(final int index, final double v) {
-      buffer.putDouble(index, v);
+      writable().putDouble(index, v);
    }
 
    /**
@@ -195,7 +781,7 @@ public class SplitBlobPart implements ICopyable {
     *           The index at which the bytes will be written
     */
    public final void putFloat(final int index, final float v) {
-      buffer.putFloat(index, v);
+      writable().putFloat(index, v);
    }
 
    /**
@@ -205,7 +791,7 @@ public class SplitBlobPart implements ICopyable {
     *           The index at which the bytes will be written
     */
    public final void putInt(final int index, final int v) {
-      buffer.putInt(index, v);
+      writable().putInt(index, v);
    }
 
    /**
@@ -215,7 +801,7 @@ public class SplitBlobPart implements ICopyable {
     *           The index at which the bytes will be written
     */
    public final void putLong(final int index, final long v) {
-      buffer.putLong(index, v);
+      writable().putLong(index, v);
    }
 
    /**
@@ -225,7 +811,7 @@ public class SplitBlobPart implements ICopyable {
     *           The index at which the bytes will be written
     */
    public final void putShort(final int index, final short v) {
-      buffer.putShort(index, v);
+      writable().putShort(index, v);
    }
 
    /**
@@ -235,7 +821,7 @@ public class SplitBlobPart implements ICopyable {
     *           The index at which the bytes will be written
     */
    public final void putByte(final int index, final byte v) {
-      buffer.put(index, v);
+      writable().put(index, v);
    }
 
    /**
@@ -265,7 +851,7 @@ public class SplitBlobPart implements ICopyable {
     *           The index from which the bytes will be read
     */
    public final double getDouble(final int index) {
-      return buffer.getDouble(index);
+      return buffer.getDouble(index & indexMask);
    }
 
    /**
@@ -275,7 +861,7 @@ public class SplitBlobPart implements ICopyable {
     *           The index from which the bytes will be read
     */
    public final float getFloat(final int index) {
-      return buffer.getFloat(index);
+      return buffer.getFloat(index & indexMask);
    }
 
    /**
@@ -285,7 +871,7 @@ public class SplitBlobPart implements ICopyable {
     *           The index from which the bytes will be read
     */
    public final int getInt(final int index) {
-      return buffer.getInt(index);
+      return buffer.getInt(index & indexMask);
    }
 
    /**
@@ -295,7 +881,7 @@ public class SplitBlobPart implements ICopyable {
     *           The index from which the bytes will be read
     */
    public final long getLong(final int index) {
-      return buffer.getLong(index);
+      return buffer.getLong(index & indexMask);
    }
 
    /**
@@ -305,7 +891,7 @@ public class SplitBlobPart implements ICopyable {
     *           The index from which the bytes will be read
     */
    public final short getShort(final int index) {
-      return buffer.getShort(index);
+      return buffer.getShort(index & indexMask);
    }
 
    /**
@@ -315,7 +901,7 @@ public class SplitBlobPart implements ICopyable {
     *           The index from which the bytes will be read
     */
    public final byte getByte(final int index) {
-      return buffer.get(index);
+      return buffer.get(index & indexMask);
    }
 
    /**
@@ -325,7 +911,7 @@ public class SplitBlobPart implements ICopyable {
     *           The index from which the bytes will be read
     */
    public final boolean getBoolean(final int index) {
-      byte out = buffer.get(index);
+      byte out = buffer.get(index & indexMask);
       return (out == 0) ? false : true;
    }
 
@@ -339,6 +925,222 @@ public class SplitBlobPart implements ICopyable {
       throw new UnsupportedOperationException();
    }
 
+   /**
+    * Bulk <i>put</i> method for writing <code>len</code> consecutive double values.
+    * 
+    * @param index
+    *           The index at which the bytes will be written
+    * @param src
+    *           The array from which values are to be read
+    * @param off
+    *           The offset within the array of the first value to be read
+    * @param len
+    *           The number of values to be read from the given array
+    */
+   public final void putDoubles(final int index, final double[] src, final int off, final int len) {
+      view(writable(), index).asDoubleBuffer().put(src, off, len);
+   }
+
+   /**
+    * Bulk <i>put</i> method for writing <code>len</code> consecutive float values.
+    * 
+    * @param index
+    *           The index at which the bytes will be written
+    * @param src
+    *           The array from which values are to be read
+    * @param off
+    *           The offset within the array of the first value to be read
+    * @param len
+    *           The number of values to be read from the given array
+    */
+   public final void putFloats(final int index, final float[] src, final int off, final int len) {
+      view(writable(), index).asFloatBuffer().put(src, off, len);
+   }
+
+   /**
+    * Bulk <i>put</i> method for writing <code>len</code> consecutive long values.
+    * 
+    * @param index
+    *           The index at which the bytes will be written
+    * @param src
+    *           The array from which values are to be read
+    * @param off
+    *           The offset within the array of the first value to be read
+    * @param len
+    *           The number of values to be read from the given array
+    */
+   public final void putLongs(final int index, final long[] src, final int off, final int len) {
+      view(writable(), index).asLongBuffer().put(src, off, len);
+   }
+
+   /**
+    * Bulk <i>put</i> method for writing <code>len</code> consecutive int values.
+    * 
+    * @param index
+    *           The index at which the bytes will be written
+    * @param src
+    *           The array from which values are to be read
+    * @param off
+    *           The offset within the array of the first value to be read
+    * @param len
+    *           The number of values to be read from the given array
+    */
+   public final void putInts(final int index, final int[] src, final int off, final int len) {
+      view(writable(), index).asIntBuffer().put(src, off, len);
+   }
+
+   /**
+    * Bulk <i>put</i> method for writing <code>len</code> consecutive short values.
+    * 
+    * @param index
+    *           The index at which the bytes will be written
+    * @param src
+    *           The array from which values are to be read
+    * @param off
+    *           The offset within the array of the first value to be read
+    * @param len
+    *           The number of values to be read from the given array
+    */
+   public final void putShorts(final int index, final short[] src, final int off, final int len) {
+      view(writable(), index).asShortBuffer().put(src, off, len);
+   }
+
+   /**
+    * Bulk <i>put</i> method for writing <code>len</code> consecutive byte values.
+    * 
+    * @param index
+    *           The index at which the bytes will be written
+    * @param src
+    *           The array from which values are to be read
+    * @param off
+    *           The offset within the array of the first value to be read
+    * @param len
+    *           The number of values to be read from the given array
+    */
+   public final void putBytes(final int index, final byte[] src, final int off, final int len) {
+      view(writable(), index).put(src, off, len);
+   }
+
+   /**
+    * Bulk <i>get</i> method for reading <code>len</code> consecutive double values.
+    * 
+    * @param index
+    *           The index from which the bytes will be read
+    * @param dst
+    *           The array into which values are to be written
+    * @param off
+    *           The offset within the array of the first value to be written
+    * @param len
+    *           The number of values to be written to the given array
+    */
+   public final void getDoubles(final int index, final double[] dst, final int off, final int len) {
+      if (indexMask == 0) {
+         Arrays.fill(dst, off, off + len, buffer.getDouble(0));
+         return;
+      }
+      view(buffer, index).asDoubleBuffer().get(dst, off, len);
+   }
+
+   /**
+    * Bulk <i>get</i> method for reading <code>len</code> consecutive float values.
+    * 
+    * @param index
+    *           The index from which the bytes will be read
+    * @param dst
+    *           The array into which values are to be written
+    * @param off
+    *           The offset within the array of the first value to be written
+    * @param len
+    *           The number of values to be written to the given array
+    */
+   public final void getFloats(final int index, final float[] dst, final int off, final int len) {
+      if (indexMask == 0) {
+         Arrays.fill(dst, off, off + len, buffer.getFloat(0));
+         return;
+      }
+      view(buffer, index).asFloatBuffer().get(dst, off, len);
+   }
+
+   /**
+    * Bulk <i>get</i> method for reading <code>len</code> consecutive long values.
+    * 
+    * @param index
+    *           The index from which the bytes will be read
+    * @param dst
+    *           The array into which values are to be written
+    * @param off
+    *           The offset within the array of the first value to be written
+    * @param len
+    *           The number of values to be written to the given array
+    */
+   public final void getLongs(final int index, final long[] dst, final int off, final int len) {
+      if (indexMask == 0) {
+         Arrays.fill(dst, off, off + len, buffer.getLong(0));
+         return;
+      }
+      view(buffer, index).asLongBuffer().get(dst, off, len);
+   }
+
+   /**
+    * Bulk <i>get</i> method for reading <code>len</code> consecutive int values.
+    * 
+    * @param index
+    *           The index from which the bytes will be read
+    * @param dst
+    *           The array into which values are to be written
+    * @param off
+    *           The offset within the array of the first value to be written
+    * @param len
+    *           The number of values to be written to the given array
+    */
+   public final void getInts(final int index, final int[] dst, final int off, final int len) {
+      if (indexMask == 0) {
+         Arrays.fill(dst, off, off + len, buffer.getInt(0));
+         return;
+      }
+      view(buffer, index).asIntBuffer().get(dst, off, len);
+   }
+
+   /**
+    * Bulk <i>get</i> method for reading <code>len</code> consecutive short values.
+    * 
+    * @param index
+    *           The index from which the bytes will be read
+    * @param dst
+    *           The array into which values are to be written
+    * @param off
+    *           The offset within the array of the first value to be written
+    * @param len
+    *           The number of values to be written to the given array
+    */
+   public final void getShorts(final int index, final short[] dst, final int off, final int len) {
+      if (indexMask == 0) {
+         Arrays.fill(dst, off, off + len, buffer.getShort(0));
+         return;
+      }
+      view(buffer, index).asShortBuffer().get(dst, off, len);
+   }
+
+   /**
+    * Bulk <i>get</i> method for reading <code>len</code> consecutive byte values.
+    * 
+    * @param index
+    *           The index from which the bytes will be read
+    * @param dst
+    *           The array into which values are to be written
+    * @param off
+    *           The offset within the array of the first value to be written
+    * @param len
+    *           The number of values to be written to the given array
+    */
+   public final void getBytes(final int index, final byte[] dst, final int off, final int len) {
+      if (indexMask == 0) {
+         Arrays.fill(dst, off, off + len, buffer.get(0));
+         return;
+      }
+      view(buffer, index).get(dst, off, len);
+   }
+
    @Override
    public String toString() {
       return (super.toString() + "(pk=" + id + ")");
@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.domain;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+import org.apache.log4j.Logger;
+import org.jenmo.core.orm.JpaSpiActions;
+
+/**
+ * Inserts new {@link SplitBlobPart}s with JDBC batch statements, on the connection of an
+ * <code>EntityManager</code> (see {@link JpaSpiActions#getConnection(EntityManager)}), rather than
+ * one by one through <code>EntityManager.persist</code>. Parts are queued until a batch is full,
+ * then inserted with a single round trip.
+ * <p>
+ * With PostgreSQL, the identities are reserved first from <code>SPLITBLOBPART_ID_SEQ</code>, by
+ * blocks of {@link SplitBlobPart#ID_ALLOCATION_SIZE} as the JPA provider does (see
+ * {@link JpaSpiActions#getFirstAllocatedId(long, int)}), since the JDBC driver does not return
+ * the generated keys of a batch. The rest of a block is used by the next batches. The large
+ * objects are created by the server within the same statement (<code>lo_from_bytea</code>).
+ * Supported versions are PostgreSQL 9.4 (for <code>lo_from_bytea</code>) to 11 (tables are created
+ * <code>WITH (OIDS=TRUE)</code>). Other databases (i.e. MySQL) give the generated identities.
+ * <p>
+ * Parts must be closed (i.e. encoded) and their parent persistent. Once inserted, parts are like
+ * detached ones and their data are released. The JPA lifecycle callbacks of the parts are not
+ * invoked.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+final class SplitBlobPartInserter {
+   /** The logger. */
+   private static final Logger LOGGER = Logger.getLogger(SplitBlobPartInserter.class);
+
+   /** The inserted columns, in the order of SplitBlobPart.getInsertValues() */
+   private static final String[] COLUMNS = { "ORDR", "PARENT_ID", "DATASIZE", "DATA", "CONTENTHASH",
+         "CODEC", "STATMIN", "STATMAX", "STATSUM", "STATCOUNT", "NANCOUNT" };
+
+   /** The SQL types of the columns, for null values */
+   private static final int[] TYPES = { Types.INTEGER, Types.BIGINT, Types.INTEGER, Types.BINARY,
+         Types.VARCHAR, Types.VARCHAR, Types.DOUBLE, Types.DOUBLE, Types.DOUBLE, Types.INTEGER,
+         Types.INTEGER };
+
+   private static final int DATA_COLUMN = 3;
+
+   /** Reserves blocks of identities for the parts */
+   private static final String QUERY_IDS = "SELECT nextval('" + SplitBlobPart.ID_SEQUENCE
+         + "') FROM generate_series(1, ?)";
+
+   private final EntityManager em;
+
+   private final int batchSize;
+
+   private final List<SplitBlobPart> pending;
+
+   /** The next reserved identity, not yet given */
+   private long nextId;
+
+   /** The end of the block of the reserved identities (exclusive) */
+   private long endId;
+
+   SplitBlobPartInserter(EntityManager em, int batchSize) {
+      if (em == null) {
+         throw new NullPointerException("EntityManager cannot be null");
+      }
+      if (batchSize <= 0) {
+         throw new IllegalArgumentException("BatchSize=" + batchSize + ", must be > 0");
+      }
+      this.em = em;
+      this.batchSize = batchSize;
+      this.pending = new ArrayList<SplitBlobPart>(batchSize);
+   }
+
+   /**
+    * Queues the given part, and inserts the queued parts if the batch is full.
+    */
+   void add(SplitBlobPart part) {
+      pending.add(part);
+      if (pending.size() >= batchSize) {
+         flush();
+      }
+   }
+
+   /**
+    * Inserts the queued parts.
+    */
+   void flush() {
+      if (pending.isEmpty()) {
+         return;
+      }
+      if (LOGGER.isDebugEnabled()) {
+         LOGGER.debug("Inserting " + pending.size() + " blob parts");
+      }
+      final JpaSpiActions actions = JpaSpiActions.getInstance();
+      final Connection conn = actions.getConnection(em);
+      try {
+         insert(conn);
+      } catch (SQLException e) {
+         throw new PersistenceException(e);
+      } finally {
+         actions.releaseConnection(em, conn);
+      }
+      for (SplitBlobPart each : pending) {
+         each.release();
+      }
+      pending.clear();
+   }
+
+   private void insert(final Connection conn) throws SQLException {
+      final boolean postgres = conn.getMetaData().getDatabaseProductName().toLowerCase().contains(
+            "postgresql");
+      final long[] ids = postgres ? reserveIds(conn) : null;
+      final PreparedStatement ps = postgres ? conn.prepareStatement(getSql(true)) : conn
+            .prepareStatement(getSql(false), Statement.RETURN_GENERATED_KEYS);
+      try {
+         // With reserved identities, the first parameter is the identity
+         final int first = postgres ? 2 : 1;
+         for (int p = 0; p < pending.size(); p++) {
+            final Object[] values = pending.get(p).getInsertValues();
+            if (postgres) {
+               ps.setLong(1, ids[p]);
+            }
+            for (int i = 0; i < values.length; i++) {
+               if (values[i] == null) {
+                  ps.setNull(i + first, TYPES[i]);
+               } else if (i == DATA_COLUMN) {
+                  ps.setBytes(i + first, (byte[]) values[i]);
+               } else {
+                  ps.setObject(i + first, values[i], TYPES[i]);
+               }
+            }
+            ps.addBatch();
+         }
+         ps.executeBatch();
+         if (postgres) {
+            for (int p = 0; p < pending.size(); p++) {
+               pending.get(p).setInserted(ids[p]);
+            }
+            return;
+         }
+         final ResultSet keys = ps.getGeneratedKeys();
+         try {
+            for (SplitBlobPart each : pending) {
+               if (!keys.next()) {
+                  throw new SQLException("Missing generated key for blob part");
+               }
+               each.setInserted(keys.getLong(1));
+            }
+         } finally {
+            keys.close();
+         }
+      } finally {
+         ps.close();
+      }
+   }
+
+   /**
+    * Gets an identity for each pending part, from the block reserved by a previous batch first,
+    * then from the blocks reserved from the sequence of the parts.
+    */
+   private long[] reserveIds(final Connection conn) throws SQLException {
+      final int allocationSize = SplitBlobPart.ID_ALLOCATION_SIZE;
+      final long[] out = new long[pending.size()];
+      int i = 0;
+      while (i < out.length && nextId < endId) {
+         out[i++] = nextId++;
+      }
+      if (i == out.length) {
+         return out;
+      }
+      final JpaSpiActions actions = JpaSpiActions.getInstance();
+      final PreparedStatement ps = conn.prepareStatement(QUERY_IDS);
+      try {
+         ps.setInt(1, (out.length - i + allocationSize - 1) / allocationSize);
+         final ResultSet rs = ps.executeQuery();
+         try {
+            while (i < out.length && rs.next()) {
+               nextId = actions.getFirstAllocatedId(rs.getLong(1), allocationSize);
+               endId = nextId + allocationSize;
+               while (i < out.length && nextId < endId) {
+                  out[i++] = nextId++;
+               }
+            }
+            if (i < out.length) {
+               throw new SQLException("Missing sequence values for blob parts");
+            }
+         } finally {
+            rs.close();
+         }
+      } finally {
+         ps.close();
+      }
+      return out;
+   }
+
+   private static String getSql(final boolean postgres) {
+      final StringBuilder columns = new StringBuilder(postgres ? "ID, VERSION" : "VERSION");
+      final StringBuilder values = new StringBuilder(postgres ? "?, 1" : "1");
+      for (int i = 0; i < COLUMNS.length; i++) {
+         columns.append(", ").append(COLUMNS[i]);
+         values.append(", ").append((i == DATA_COLUMN && postgres) ? "lo_from_bytea(0, ?)" : "?");
+      }
+      return "INSERT INTO SPLITBLOBPART (" + columns + ") VALUES (" + values + ")";
+   }
+}
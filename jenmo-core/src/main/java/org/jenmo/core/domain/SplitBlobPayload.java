@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.domain;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+import org.jenmo.common.marker.IImmutable;
+
+/**
+ * A {@link SplitBlobPayload} entity holds stored data shared by several {@link SplitBlobPart}s
+ * having the same content, so that identical data are stored only once (see
+ * {@link SplitBlob#deduplicate(EntityManager)}). A payload is identified by the
+ * content hash of its data, which is the SHA-256 digest of the name of the codec of the data and of
+ * the stored bytes (see {@link #hash(String, byte[])}).
+ * <p>
+ * A payload is never modified: a part sharing a payload gets its own copy of the data when written
+ * (copy-on-write). Payloads not referenced any more by a part are removed by
+ * {@link #removeUnused(EntityManager)}.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+@Entity
+@Table(name = "SPLITBLOBPAYLOAD")
+public class SplitBlobPayload implements IImmutable {
+   /** The algorithm of the content hash */
+   private static final String HASH_ALGORITHM = "SHA-256";
+
+   private static final String QUERY_REMOVE_UNUSED = "DELETE FROM SplitBlobPayload p"
+         + " WHERE NOT EXISTS (SELECT q FROM SplitBlobPart q WHERE q.payload = p)";
+
+   private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+   @Id
+   @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "SplitBlobPayloadSeq")
+   @SequenceGenerator(name = "SplitBlobPayloadSeq", sequenceName = "SPLITBLOBPAYLOAD_ID_SEQ", allocationSize = 10)
+   @Column(name = "ID")
+   private long id;
+
+   // No version field as this class is immutable
+
+   /** The content hash of data (see hash) */
+   @Basic(optional = false)
+   @Column(name = "CONTENTHASH", length = 64, nullable = false, updatable = false)
+   private String contentHash;
+
+   /** The size of the stored data */
+   @Basic
+   @Column(name = "DATASIZE", updatable = false)
+   private int dataSize;
+
+   @Lob
+   @Basic(fetch = FetchType.LAZY)
+   @Column(name = "DATA", columnDefinition = "OID", updatable = false)
+   private byte[] data;
+
+   private SplitBlobPayload() {
+   }
+
+   /**
+    * Creates a new instance for the given stored data, which are not copied.
+    */
+   static SplitBlobPayload newInstance(String contentHash, byte[] data) {
+      if (contentHash == null) {
+         throw new NullPointerException("Hash cannot be null");
+      }
+      if (data == null) {
+         throw new NullPointerException("Data cannot be null");
+      }
+      SplitBlobPayload instance = new SplitBlobPayload();
+      instance.contentHash = contentHash;
+      instance.dataSize = data.length;
+      instance.data = data;
+      return instance;
+   }
+
+   /**
+    * Removes from database the payloads not referenced any more by a {@link SplitBlobPart}.
+    * 
+    * @return the number of removed payloads
+    */
+   public static int removeUnused(EntityManager em) {
+      return em.createQuery(QUERY_REMOVE_UNUSED).executeUpdate();
+   }
+
+   /**
+    * Computes the content hash of the given stored data, encoded with the given codec (null for
+    * none). Same data encoded with different codecs have different hashes.
+    */
+   static String hash(String codec, byte[] stored) {
+      MessageDigest digest;
+      try {
+         digest = MessageDigest.getInstance(HASH_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(HASH_ALGORITHM + " not supported", e);
+      }
+      if (codec != null) {
+         for (int i = 0; i < codec.length(); i++) {
+            digest.update((byte) codec.charAt(i));
+         }
+      }
+      // Separates the codec name from data
+      digest.update((byte) 0);
+      byte[] bytes = digest.digest(stored);
+      char[] out = new char[bytes.length * 2];
+      for (int i = 0; i < bytes.length; i++) {
+         out[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+         out[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+      }
+      return new String(out);
+   }
+
+   /**
+    * Gets the persistent identity of the instance.
+    */
+   public long getId() {
+      return id;
+   }
+
+   /**
+    * Gets the content hash of the data of this payload.
+    */
+   public String getContentHash() {
+      return contentHash;
+   }
+
+   /**
+    * Gets the size of the stored data. Data are not loaded.
+    */
+   public int getDataSize() {
+      return dataSize;
+   }
+
+   /**
+    * Gets the stored data, which must not be modified.
+    */
+   byte[] getData() {
+      return data;
+   }
+
+   @Override
+   public String toString() {
+      return (super.toString() + "(pk=" + id + ")");
+   }
+}
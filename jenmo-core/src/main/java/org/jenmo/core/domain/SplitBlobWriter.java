@@ -0,0 +1,437 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.domain;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.jenmo.common.multiarray.IndexIterator;
+import org.jenmo.common.multiarray.MultiArrayJava;
+import org.jenmo.core.multiarray.BlobLayout;
+import org.jenmo.core.orm.JpaSpiActions;
+import org.jenmo.core.util.SplitBlobUtils;
+import org.jenmo.core.util.SplitBlobUtils.PType;
+
+/**
+ * Fills a new {@link SplitBlob} in storage order, without ever holding the whole array in memory.
+ * Values are appended either as flat primitive arrays, or as slabs (i.e. successive slices along
+ * the first axis). Each {@link SplitBlobPart} is written as soon as it is complete (with chunked
+ * parts, all the tiles along the first axis are complete at the same time):
+ * <ul>
+ * <li>with an <code>EntityManager</code>, the part is persisted, flushed and detached from the
+ * persistence context, then its data are released. Peak memory is then about one part (or one
+ * layer of tiles). The blob
+ * itself is persisted and detached when the writer is created, so it must be read back with
+ * <code>EntityManager.find</code> once the writer is closed</li>
+ * <li>without <code>EntityManager</code>, the part is only closed (and encoded), and the blob can
+ * be read right away</li>
+ * </ul>
+ * For large imports, parts can rather be inserted by JDBC batches of a given size (see
+ * {@link #newInstance(EntityManager, SplitBlob, int)}), instead of one persist and flush for each
+ * part. Peak memory is then about one batch of (encoded) parts.
+ * Elements not written when the writer is closed are zeros.
+ * <p>
+ * Instances are not thread safe.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public class SplitBlobWriter {
+   private final EntityManager em;
+
+   private final SplitBlob blob;
+
+   private final PType ptype;
+
+   private final int size;
+
+   private final int[] shape;
+
+   private final BlobLayout layout;
+
+   /** The number of elements written so far */
+   private long position;
+
+   /** The index of the next element to write */
+   private final int[] index;
+
+   /** The parts being written, by part index */
+   private final Map<Integer, SplitBlobPart> opened = new HashMap<Integer, SplitBlobPart>();
+
+   /** The number of elements still to write in each opened part */
+   private final Map<Integer, Integer> remaining = new HashMap<Integer, Integer>();
+
+   /** The part where the next segment is written, and the offset in this part */
+   private SplitBlobPart current;
+
+   private int currentIdx;
+
+   private int currentOffset;
+
+   private boolean closed;
+
+   /** Inserts the completed parts by batches, null to persist them one by one */
+   private final SplitBlobPartInserter inserter;
+
+   private SplitBlobWriter(EntityManager em, SplitBlob blob, SplitBlobPartInserter inserter) {
+      this.em = em;
+      this.inserter = inserter;
+      this.blob = blob;
+      this.ptype = blob.getElmtType();
+      this.size = SplitBlobUtils.sizeOf(ptype);
+      this.shape = blob.getShape();
+      this.layout = blob.getLayout();
+      this.index = new int[shape.length];
+   }
+
+   /**
+    * Creates a new writer for the given blob, which must be new and empty (see
+    * {@link SplitBlob#newInstance(int, Class, int[])}).
+    * 
+    * @param em
+    *           the entity manager used to persist the blob and its parts, within an active
+    *           transaction, or <code>null</code> to only fill the blob in memory
+    */
+   public static SplitBlobWriter newInstance(EntityManager em, SplitBlob blob) {
+      check(blob);
+      persist(em, blob);
+      return new SplitBlobWriter(em, blob, null);
+   }
+
+   /**
+    * Creates a new writer for the given blob, which must be new and empty, inserting the parts by
+    * JDBC batches of <code>batchSize</code> parts rather than persisting them one by one (see
+    * {@link SplitBlobPartInserter}). The remaining parts are inserted when the writer is closed.
+    * With PostgreSQL, versions 9.4 to 11 are supported.
+    * 
+    * @param em
+    *           the entity manager used to persist the blob and its parts, within an active
+    *           transaction
+    */
+   public static SplitBlobWriter newInstance(EntityManager em, SplitBlob blob, int batchSize) {
+      check(blob);
+      SplitBlobPartInserter inserter = new SplitBlobPartInserter(em, batchSize);
+      persist(em, blob);
+      return new SplitBlobWriter(em, blob, inserter);
+   }
+
+   private static void check(SplitBlob blob) {
+      if (blob == null) {
+         throw new NullPointerException("Blob cannot be null");
+      }
+      if (blob.getId() != 0) {
+         throw new IllegalArgumentException("Blob must be new");
+      }
+      List<SplitBlobPart> parts = blob.getParts();
+      for (SplitBlobPart each : parts) {
+         if (each != null) {
+            throw new IllegalArgumentException("Blob must be empty");
+         }
+      }
+   }
+
+   private static void persist(EntityManager em, SplitBlob blob) {
+      if (em != null) {
+         List<SplitBlobPart> parts = blob.getParts();
+         // Parts are written as they complete, so persist the blob without them
+         blob.setParts(new ArrayList<SplitBlobPart>());
+         em.persist(blob);
+         em.flush();
+         JpaSpiActions.getInstance().detachAll(em, Collections.singleton(blob));
+         blob.setParts(parts);
+      }
+   }
+
+   /**
+    * Gets the blob being written.
+    */
+   public SplitBlob getBlob() {
+      return blob;
+   }
+
+   /**
+    * Gets the number of elements written so far.
+    */
+   public long getPosition() {
+      return position;
+   }
+
+   /**
+    * Appends the values of the given array, in storage order. The array must hold elements of the
+    * type of the blob, and either:
+    * <ul>
+    * <li>be one-dimensional (flat chunk of any length)</li>
+    * <li>be a slab of rank <code>r &gt; 1</code>, whose dimensions but the first one are the last
+    * <code>r - 1</code> dimensions of the blob</li>
+    * </ul>
+    */
+   public void append(Object values) {
+      if (values == null || values.getClass().isArray() == false) {
+         throw new IllegalArgumentException("Only arrays are supported");
+      }
+      int rank = SplitBlobUtils.getRank(values.getClass());
+      checkType(SplitBlobUtils.extractType(SplitBlobUtils.getComponentType(values.getClass())));
+      if (rank == 1) {
+         appendRow(values, 0, Array.getLength(values));
+         return;
+      }
+      if (rank > shape.length) {
+         throw new IllegalArgumentException("Rank=" + rank + ", must be <= " + shape.length);
+      }
+      int[] lengths = SplitBlobUtils.getShape(values, rank);
+      for (int i = 1; i < rank; i++) {
+         if (lengths[i] != shape[shape.length - rank + i]) {
+            throw new IllegalArgumentException("Slab dimension " + i + " is " + lengths[i]
+                  + ", must be " + shape[shape.length - rank + i]);
+         }
+      }
+      if (SplitBlobUtils.computeSize(lengths) == 0) {
+         return;
+      }
+      checkRemaining(SplitBlobUtils.computeSize(lengths));
+
+      MultiArrayJava reader = MultiArrayJava.newInstance(values);
+      final int last = rank - 1;
+      final int[] fromPos = new int[rank];
+      final int[] toPosExcl = lengths.clone();
+      toPosExcl[last] = 1;
+      IndexIterator ii = new IndexIterator(fromPos, toPosExcl);
+      for (; ii.notDone(); ii.incr()) {
+         appendRow(reader.getRow(ii.value()), 0, lengths[last]);
+      }
+   }
+
+   /**
+    * Appends <code>len</code> double values of the given array.
+    */
+   public void appendDoubles(final double[] src, int off, int len) {
+      checkType(PType.PDOUBLE);
+      checkRemaining(len);
+      while (len > 0) {
+         int count = openSegment(len);
+         current.putDoubles(currentOffset * size, src, off, count);
+         advance(count);
+         off += count;
+         len -= count;
+      }
+   }
+
+   /**
+    * Appends <code>len</code> float values of the given array.
+    */
+   public void appendFloats(final float[] src, int off, int len) {
+      checkType(PType.PFLOAT);
+      checkRemaining(len);
+      while (len > 0) {
+         int count = openSegment(len);
+         current.putFloats(currentOffset * size, src, off, count);
+         advance(count);
+         off += count;
+         len -= count;
+      }
+   }
+
+   /**
+    * Appends <code>len</code> long values of the given array.
+    */
+   public void appendLongs(final long[] src, int off, int len) {
+      checkType(PType.PLONG);
+      checkRemaining(len);
+      while (len > 0) {
+         int count = openSegment(len);
+         current.putLongs(currentOffset * size, src, off, count);
+         advance(count);
+         off += count;
+         len -= count;
+      }
+   }
+
+   /**
+    * Appends <code>len</code> int values of the given array.
+    */
+   public void appendInts(final int[] src, int off, int len) {
+      checkType(PType.PINTEGER);
+      checkRemaining(len);
+      while (len > 0) {
+         int count = openSegment(len);
+         current.putInts(currentOffset * size, src, off, count);
+         advance(count);
+         off += count;
+         len -= count;
+      }
+   }
+
+   /**
+    * Appends <code>len</code> short values of the given array.
+    */
+   public void appendShorts(final short[] src, int off, int len) {
+      checkType(PType.PSHORT);
+      checkRemaining(len);
+      while (len > 0) {
+         int count = openSegment(len);
+         current.putShorts(currentOffset * size, src, off, count);
+         advance(count);
+         off += count;
+         len -= count;
+      }
+   }
+
+   /**
+    * Appends <code>len</code> byte values of the given array.
+    */
+   public void appendBytes(final byte[] src, int off, int len) {
+      checkType(PType.PBYTE);
+      checkRemaining(len);
+      while (len > 0) {
+         int count = openSegment(len);
+         current.putBytes(currentOffset * size, src, off, count);
+         advance(count);
+         off += count;
+         len -= count;
+      }
+   }
+
+   /**
+    * Completes the remaining parts (with zeros) and closes this writer.
+    */
+   public void close() {
+      if (closed) {
+         return;
+      }
+      for (int i = 0; i < layout.getPartCount(); i++) {
+         SplitBlobPart part = opened.remove(i);
+         if (part == null && blob.getParts().get(i) == null) {
+            part = blob.getPart(i);
+            part.openBuffer();
+         }
+         if (part != null) {
+            complete(part);
+         }
+      }
+      if (inserter != null) {
+         inserter.flush();
+      }
+      position = blob.getElmtCount();
+      closed = true;
+   }
+
+   private void appendRow(final Object row, final int off, final int len) {
+      switch (ptype) {
+      case PDOUBLE:
+         appendDoubles((double[]) row, off, len);
+         break;
+      case PFLOAT:
+         appendFloats((float[]) row, off, len);
+         break;
+      case PLONG:
+         appendLongs((long[]) row, off, len);
+         break;
+      case PINTEGER:
+         appendInts((int[]) row, off, len);
+         break;
+      case PSHORT:
+         appendShorts((short[]) row, off, len);
+         break;
+      case PBYTE:
+         appendBytes((byte[]) row, off, len);
+         break;
+      default:
+         throw new IllegalArgumentException();
+      }
+   }
+
+   /**
+    * Opens the part of the next element if not yet done, and sets the current part and offset.
+    * 
+    * @return the number of elements (up to <code>len</code>) which can be written contiguously
+    */
+   private int openSegment(final int len) {
+      final int last = shape.length - 1;
+      final long pos = layout.indexMap(index);
+      currentIdx = (int) (pos / blob.getElmtCountEachPart());
+      currentOffset = (int) (pos % blob.getElmtCountEachPart());
+      current = opened.get(currentIdx);
+      if (current == null) {
+         current = blob.getPart(currentIdx);
+         current.openBuffer();
+         opened.put(currentIdx, current);
+         remaining.put(currentIdx, layout.getValidCount(currentIdx));
+      }
+      return Math.min(len, layout.runLength(pos, index[last]));
+   }
+
+   /**
+    * Moves forward after writing <code>count</code> elements in the current part.
+    */
+   private void advance(final int count) {
+      position += count;
+      int left = remaining.get(currentIdx) - count;
+      if (left == 0) {
+         remaining.remove(currentIdx);
+         opened.remove(currentIdx);
+         complete(current);
+      } else {
+         remaining.put(currentIdx, left);
+      }
+      current = null;
+      // Increment index, with carry
+      int digit = shape.length - 1;
+      index[digit] += count;
+      while (digit > 0 && index[digit] >= shape[digit]) {
+         index[digit - 1] += index[digit] / shape[digit];
+         index[digit] = index[digit] % shape[digit];
+         digit--;
+      }
+   }
+
+   private void complete(SplitBlobPart part) {
+      part.closeBuffer();
+      if (inserter != null) {
+         inserter.add(part);
+      } else if (em != null) {
+         em.persist(part);
+         em.flush();
+         JpaSpiActions.getInstance().detachAll(em, Collections.singleton(part));
+         part.release();
+      }
+   }
+
+   private void checkType(PType type) {
+      if (closed) {
+         throw new IllegalStateException("Writer is closed");
+      }
+      if (type != ptype) {
+         throw new IllegalArgumentException("Cannot write " + type + " elements into " + ptype
+               + " blob");
+      }
+   }
+
+   private void checkRemaining(long len) {
+      if (len < 0 || len > blob.getElmtCount() - position) {
+         throw new IllegalArgumentException("Cannot write " + len + " elements, only "
+               + (blob.getElmtCount() - position) + " remaining");
+      }
+   }
+}
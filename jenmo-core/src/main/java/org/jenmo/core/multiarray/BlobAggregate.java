@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.multiarray;
+
+/**
+ * The result of a {@link BlobAggregator}: count, sum, min, max, mean and variance of the values of
+ * a {@link org.jenmo.core.domain.SplitBlob}, for each cell of the array made of the axes which have
+ * not been reduced. A whole blob aggregate has an empty shape and a single cell (0).
+ * <p>
+ * NaN values are ignored, but counted. Cells are numbered in row-major order, and cells without any
+ * value have a NaN min, max, mean and variance.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public final class BlobAggregate {
+   private final int[] shape;
+
+   private final long[] count;
+
+   private final double[] sum;
+
+   private final double[] min;
+
+   private final double[] max;
+
+   private final double[] mean;
+
+   /** Sum of squares of differences from the mean */
+   private final double[] m2;
+
+   private final long nanCount;
+
+   BlobAggregate(int[] shape, long[] count, double[] sum, double[] min, double[] max,
+         double[] mean, double[] m2, long nanCount) {
+      this.shape = shape;
+      this.count = count;
+      this.sum = sum;
+      this.min = min;
+      this.max = max;
+      this.mean = mean;
+      this.m2 = m2;
+      this.nanCount = nanCount;
+   }
+
+   /**
+    * Gets the shape of the result, i.e. the lengths of the axes which have not been reduced.
+    */
+   public int[] getShape() {
+      return shape.clone();
+   }
+
+   public int getCellCount() {
+      return count.length;
+   }
+
+   /**
+    * Gets the number of values of the given cell, NaN values excepted.
+    */
+   public long getCount(int cell) {
+      return count[cell];
+   }
+
+   public double getSum(int cell) {
+      return sum[cell];
+   }
+
+   public double getMin(int cell) {
+      return (count[cell] == 0) ? Double.NaN : min[cell];
+   }
+
+   public double getMax(int cell) {
+      return (count[cell] == 0) ? Double.NaN : max[cell];
+   }
+
+   public double getMean(int cell) {
+      return (count[cell] == 0) ? Double.NaN : mean[cell];
+   }
+
+   /**
+    * Gets the (population) variance of the values of the given cell.
+    */
+   public double getVariance(int cell) {
+      return (count[cell] == 0) ? Double.NaN : m2[cell] / count[cell];
+   }
+
+   /**
+    * Gets the number of NaN values, for all the cells.
+    */
+   public long getNanCount() {
+      return nanCount;
+   }
+
+   /**
+    * Gets the sums of all the cells, in row-major order.
+    */
+   public double[] getSums() {
+      return sum.clone();
+   }
+
+   /**
+    * Gets the means of all the cells, in row-major order.
+    */
+   public double[] getMeans() {
+      double[] out = new double[count.length];
+      for (int i = 0; i < out.length; i++) {
+         out[i] = getMean(i);
+      }
+      return out;
+   }
+
+   /**
+    * Gets the minimums of all the cells, in row-major order.
+    */
+   public double[] getMins() {
+      double[] out = new double[count.length];
+      for (int i = 0; i < out.length; i++) {
+         out[i] = getMin(i);
+      }
+      return out;
+   }
+
+   /**
+    * Gets the maximums of all the cells, in row-major order.
+    */
+   public double[] getMaxs() {
+      double[] out = new double[count.length];
+      for (int i = 0; i < out.length; i++) {
+         out[i] = getMax(i);
+      }
+      return out;
+   }
+
+   /**
+    * Gets the variances of all the cells, in row-major order.
+    */
+   public double[] getVariances() {
+      double[] out = new double[count.length];
+      for (int i = 0; i < out.length; i++) {
+         out[i] = getVariance(i);
+      }
+      return out;
+   }
+}
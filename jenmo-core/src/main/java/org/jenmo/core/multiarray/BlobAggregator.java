@@ -0,0 +1,413 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.multiarray;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import javax.persistence.EntityManager;
+
+import org.jenmo.common.multiarray.IndexIterator;
+import org.jenmo.core.domain.SplitBlob;
+import org.jenmo.core.domain.SplitBlobPart;
+import org.jenmo.core.util.SplitBlobUtils.PType;
+
+/**
+ * Computes reductions (sum, mean, min, max, variance, histogram) over the values of a
+ * {@link SplitBlob}, either over the whole blob or along some axes, without building the Java
+ * array of its values.
+ * <p>
+ * Parts are streamed through a {@link BlobPartTaskRunner}: they are fetched by the calling thread
+ * and reduced concurrently by the executor threads. Each running task accumulates into its own
+ * partial result, so that memory is bounded by the size of the result times the number of parts
+ * being processed, whatever the size of the blob. Partial results are merged at the end (with the
+ * parallel algorithm of Chan et al. for the variance). For a persistent blob, give the entity
+ * manager so that the parts are evicted once reduced.
+ * <p>
+ * NaN values are ignored. For a chunked blob, the padding of the parts is ignored too.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public class BlobAggregator {
+   private final SplitBlob storage;
+
+   private final EntityManager em;
+
+   private final Executor executor;
+
+   private final BlobLayout layout;
+
+   private final int[] lengths;
+
+   private final PType type;
+
+   /**
+    * Creates a new instance.
+    * 
+    * @param executor
+    *           the executor reducing parts
+    */
+   public BlobAggregator(SplitBlob storage, Executor executor) {
+      this(storage, null, executor);
+   }
+
+   /**
+    * Creates a new instance.
+    * 
+    * @param em
+    *           the entity manager of the blob, parts are then looked up by query and evicted once
+    *           reduced (may be null)
+    * @param executor
+    *           the executor reducing parts
+    */
+   public BlobAggregator(SplitBlob storage, EntityManager em, Executor executor) {
+      if (storage == null) {
+         throw new NullPointerException("Storage cannot be null");
+      }
+      if (executor == null) {
+         throw new NullPointerException("Executor cannot be null");
+      }
+      this.storage = storage;
+      this.em = em;
+      this.executor = executor;
+      this.layout = storage.getLayout();
+      this.lengths = storage.getShape();
+      this.type = storage.getElmtType();
+   }
+
+   /**
+    * Aggregates all the values of the blob.
+    */
+   public BlobAggregate aggregate() {
+      int[] axes = new int[lengths.length];
+      for (int i = 0; i < axes.length; i++) {
+         axes[i] = i;
+      }
+      return aggregate(axes);
+   }
+
+   /**
+    * Aggregates the values of the blob along the given axes. The shape of the result is the shape
+    * of the blob without these axes: for instance, reducing the axis 0 of a <code>[nz][ny][nx]</code>
+    * blob gives <code>ny * nx</code> cells (i.e. vertical aggregates).
+    * 
+    * @param axes
+    *           the axes to reduce
+    */
+   public BlobAggregate aggregate(int[] axes) {
+      final int rank = lengths.length;
+      final boolean[] reduced = new boolean[rank];
+      for (int axis : axes) {
+         if (axis < 0 || axis >= rank || reduced[axis]) {
+            throw new IllegalArgumentException("Axes=" + Arrays.toString(axes)
+                  + ", must be distinct axes in [0-" + (rank - 1) + "]");
+         }
+         reduced[axis] = true;
+      }
+      final int[] shape = new int[rank - axes.length];
+      final int[] cellProducts = new int[rank];
+      long product = 1;
+      for (int i = rank - 1, j = shape.length - 1; i >= 0; i--) {
+         if (!reduced[i]) {
+            cellProducts[i] = (int) product;
+            shape[j--] = lengths[i];
+            product *= lengths[i];
+         }
+      }
+      if (product > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException("Result size=" + product + ", too large");
+      }
+      final int cellCount = (int) product;
+      Moments out = (Moments) run(cellProducts, new Moments(cellCount));
+      return new BlobAggregate(shape, out.count, out.sum, out.min, out.max, out.mean, out.m2,
+            out.nanCount);
+   }
+
+   /**
+    * Computes the histogram of the values of the blob. Values out of <code>[from-to]</code> are
+    * ignored, and the last bin includes <code>to</code>.
+    * 
+    * @param binCount
+    *           the number of bins, of equal widths
+    * @return the number of values in each bin
+    */
+   public long[] histogram(double from, double to, int binCount) {
+      if (!(from < to)) {
+         throw new IllegalArgumentException("From=" + from + ", To=" + to + ", must be from < to");
+      }
+      if (binCount <= 0) {
+         throw new IllegalArgumentException("BinCount=" + binCount + ", must be > 0");
+      }
+      Histogram out = (Histogram) run(new int[lengths.length], new Histogram(from, to, binCount));
+      return out.bins;
+   }
+
+   /**
+    * Reduces all the parts with accumulators created from the given one, and merges them.
+    * 
+    * @param cellProducts
+    *           for each axis, the product to apply to the index to get the cell, 0 if reduced
+    */
+   private Accumulator run(final int[] cellProducts, final Accumulator first) {
+      final Queue<Accumulator> idle = new ConcurrentLinkedQueue<Accumulator>();
+      idle.add(first);
+      BlobPartTaskRunner runner = new BlobPartTaskRunner(storage, em, executor);
+      for (int i = 0; i < layout.getPartCount(); i++) {
+         final int partIdx = i;
+         runner.submit(partIdx, new IBlobPartTask() {
+            public void execute(SplitBlobPart part) {
+               Accumulator acc = idle.poll();
+               if (acc == null) {
+                  acc = first.create();
+               }
+               try {
+                  accumulate(part, partIdx, cellProducts, acc);
+               } finally {
+                  idle.add(acc);
+               }
+            }
+         });
+      }
+      runner.await();
+      Accumulator out = idle.poll();
+      for (Accumulator each = idle.poll(); each != null; each = idle.poll()) {
+         out.merge(each);
+      }
+      return out;
+   }
+
+   private void accumulate(final SplitBlobPart part, final int partIdx, final int[] cellProducts,
+         final Accumulator acc) {
+      final int rank = lengths.length;
+      final int last = rank - 1;
+      final int[] index = layout.getOrigin(partIdx);
+      if (!layout.isChunked()) {
+         // Valid elements are contiguous, from the origin, in row-major order
+         int remaining = layout.getValidCount(partIdx);
+         int off = 0;
+         while (remaining > 0) {
+            final int len = Math.min(remaining, lengths[last] - index[last]);
+            addRow(part, off, cellOf(index, cellProducts), cellProducts[last], len, acc);
+            off += len;
+            remaining -= len;
+            index[last] += len;
+            for (int i = last; i > 0 && index[i] >= lengths[i]; i--) {
+               index[i] = 0;
+               index[i - 1]++;
+            }
+         }
+         return;
+      }
+      final int[] chunkShape = layout.getChunkShape();
+      final int[] chunkProducts = new int[rank];
+      int product = 1;
+      for (int i = last; i >= 0; i--) {
+         chunkProducts[i] = product;
+         product *= chunkShape[i];
+      }
+      final int[] valid = layout.getValidShape(partIdx);
+      final int len = valid[last];
+      valid[last] = 1;
+      final int[] rowIndex = new int[rank];
+      IndexIterator ii = new IndexIterator(new int[rank], valid);
+      for (; ii.notDone(); ii.incr()) {
+         final int[] inTile = ii.value();
+         int off = 0;
+         for (int i = 0; i < rank; i++) {
+            rowIndex[i] = index[i] + inTile[i];
+            off += inTile[i] * chunkProducts[i];
+         }
+         addRow(part, off, cellOf(rowIndex, cellProducts), cellProducts[last], len, acc);
+      }
+   }
+
+   private static int cellOf(final int[] index, final int[] cellProducts) {
+      int out = 0;
+      for (int i = 0; i < index.length; i++) {
+         out += index[i] * cellProducts[i];
+      }
+      return out;
+   }
+
+   /**
+    * Adds <code>len</code> elements of the part, from the element <code>off</code>, whose cells
+    * are <code>cell + k * stride</code>.
+    */
+   private void addRow(final SplitBlobPart part, final int off, final int cell, final int stride,
+         final int len, final Accumulator acc) {
+      switch (type) {
+      case PDOUBLE:
+         for (int k = 0; k < len; k++) {
+            acc.add(cell + k * stride, part.getDouble((off + k) * 8));
+         }
+         break;
+      case PFLOAT:
+         for (int k = 0; k < len; k++) {
+            acc.add(cell + k * stride, part.getFloat((off + k) * 4));
+         }
+         break;
+      case PLONG:
+         for (int k = 0; k < len; k++) {
+            acc.add(cell + k * stride, part.getLong((off + k) * 8));
+         }
+         break;
+      case PINTEGER:
+         for (int k = 0; k < len; k++) {
+            acc.add(cell + k * stride, part.getInt((off + k) * 4));
+         }
+         break;
+      case PSHORT:
+         for (int k = 0; k < len; k++) {
+            acc.add(cell + k * stride, part.getShort((off + k) * 2));
+         }
+         break;
+      case PBYTE:
+         for (int k = 0; k < len; k++) {
+            acc.add(cell + k * stride, part.getByte(off + k));
+         }
+         break;
+      default:
+         throw new IllegalArgumentException();
+      }
+   }
+
+   /**
+    * A partial result, only used by one task at a time.
+    */
+   private abstract static class Accumulator {
+      /** Creates a new empty accumulator of the same kind. */
+      abstract Accumulator create();
+
+      abstract void add(int cell, double value);
+
+      abstract void merge(Accumulator other);
+   }
+
+   private static final class Moments extends Accumulator {
+      private final long[] count;
+
+      private final double[] sum;
+
+      private final double[] min;
+
+      private final double[] max;
+
+      private final double[] mean;
+
+      private final double[] m2;
+
+      private long nanCount;
+
+      private Moments(int cellCount) {
+         count = new long[cellCount];
+         sum = new double[cellCount];
+         min = new double[cellCount];
+         max = new double[cellCount];
+         mean = new double[cellCount];
+         m2 = new double[cellCount];
+         Arrays.fill(min, Double.POSITIVE_INFINITY);
+         Arrays.fill(max, Double.NEGATIVE_INFINITY);
+      }
+
+      @Override
+      Accumulator create() {
+         return new Moments(count.length);
+      }
+
+      @Override
+      void add(int cell, double value) {
+         if (value != value) {
+            nanCount++;
+            return;
+         }
+         // Welford's online algorithm
+         final long n = ++count[cell];
+         final double delta = value - mean[cell];
+         mean[cell] += delta / n;
+         m2[cell] += delta * (value - mean[cell]);
+         sum[cell] += value;
+         if (value < min[cell]) {
+            min[cell] = value;
+         }
+         if (value > max[cell]) {
+            max[cell] = value;
+         }
+      }
+
+      @Override
+      void merge(Accumulator other) {
+         Moments that = (Moments) other;
+         for (int i = 0; i < count.length; i++) {
+            final long nb = that.count[i];
+            if (nb == 0) {
+               continue;
+            }
+            final long na = count[i];
+            final long n = na + nb;
+            final double delta = that.mean[i] - mean[i];
+            mean[i] += delta * nb / n;
+            m2[i] += that.m2[i] + delta * delta * ((double) na * nb / n);
+            count[i] = n;
+            sum[i] += that.sum[i];
+            min[i] = Math.min(min[i], that.min[i]);
+            max[i] = Math.max(max[i], that.max[i]);
+         }
+         nanCount += that.nanCount;
+      }
+   }
+
+   private static final class Histogram extends Accumulator {
+      private final double from;
+
+      private final double to;
+
+      private final long[] bins;
+
+      private Histogram(double from, double to, int binCount) {
+         this.from = from;
+         this.to = to;
+         this.bins = new long[binCount];
+      }
+
+      @Override
+      Accumulator create() {
+         return new Histogram(from, to, bins.length);
+      }
+
+      @Override
+      void add(int cell, double value) {
+         // False for NaN values too
+         if (value >= from && value <= to) {
+            int bin = (int) ((value - from) / (to - from) * bins.length);
+            bins[Math.min(bin, bins.length - 1)]++;
+         }
+      }
+
+      @Override
+      void merge(Accumulator other) {
+         long[] those = ((Histogram) other).bins;
+         for (int i = 0; i < bins.length; i++) {
+            bins[i] += those[i];
+         }
+      }
+   }
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.multiarray;
+
+import java.util.Collections;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+
+import org.apache.log4j.Logger;
+import org.jenmo.core.domain.SplitBlob;
+import org.jenmo.core.domain.SplitBlobPart;
+import org.jenmo.core.listener.IListener;
+import org.jenmo.core.listener.SplitBlobEvent;
+import org.jenmo.core.util.SplitBlobUtils.PType;
+
+/**
+ * Base class of the primitive cursors over the elements of a {@link SplitBlob}, in storage order:
+ * part after part, and within a part in the order of its buffer (padding elements of tiles being
+ * skipped). Hence the order is the row-major order for the linear layout only.
+ * <p>
+ * A single part is opened at a time, and is only changed at part boundaries: the listener (if
+ * any) is notified then, exactly as with {@link IBlobPartAccessor}. Elements are read straight from
+ * the buffer of the part, and moving to the next element does not allocate. The index of the last
+ * returned element is computed on demand (see {@link #getIndex(int[])}).
+ * <p>
+ * Cursors must be closed once done. Instances are not thread safe.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public abstract class BlobCursor {
+   /** The logger. */
+   private static final Logger LOGGER = Logger.getLogger(BlobCursor.class);
+
+   private final SplitBlob storage;
+
+   /** The entity manager evicted parts are detached from, may be null. */
+   private final EntityManager em;
+
+   private final BlobLayout layout;
+
+   private final int[] shape;
+
+   /** The number of elements of the blob */
+   private final long count;
+
+   /** The number of elements returned so far */
+   private long consumed;
+
+   private int partIdx = -1;
+
+   private SplitBlobPart part;
+
+   /** The offset in the current part of the next element */
+   private int pos;
+
+   /** The offset in the current part of the end of the current run */
+   private int runEnd;
+
+   /** For tiles: the origin and valid shape of the current tile, and the current row in it */
+   private final int[] chunkShape;
+
+   private final int[] origin;
+
+   private final int[] valid;
+
+   private final int[] row;
+
+   /** Source of the events sent to the listener. */
+   private final MultiArrayBlobPart source;
+
+   /** The listener of blob part changes. */
+   private IListener<SplitBlobEvent> listener;
+
+   /**
+    * Creates a new instance.
+    * 
+    * @param em
+    *           the entity manager of the storage, parts are then looked up by query and evicted
+    *           once read (may be null)
+    * @param type
+    *           the element type read by this cursor
+    */
+   protected BlobCursor(SplitBlob storage, EntityManager em, PType type) {
+      if (storage == null) {
+         throw new NullPointerException("Storage cannot be null");
+      }
+      if (storage.getElmtType() != type) {
+         throw new IllegalArgumentException("Cannot read " + storage.getElmtType()
+               + " elements as " + type);
+      }
+      this.storage = storage;
+      this.em = em;
+      this.layout = storage.getLayout();
+      this.shape = storage.getShape();
+      this.count = storage.getElmtCount();
+      this.chunkShape = layout.getChunkShape();
+      this.origin = (chunkShape == null) ? null : new int[shape.length];
+      this.valid = (chunkShape == null) ? null : new int[shape.length];
+      this.row = (chunkShape == null) ? null : new int[shape.length];
+      this.source = new MultiArrayBlobPart(storage);
+   }
+
+   /**
+    * Sets listener to be notified for part rollings.
+    */
+   public void setPartListener(IListener<SplitBlobEvent> l) {
+      listener = l;
+   }
+
+   /**
+    * Removes the listener associated with this cursor.
+    */
+   public void removePartListener() {
+      listener = null;
+   }
+
+   /**
+    * Tells if there are elements left.
+    */
+   public final boolean hasNext() {
+      return consumed < count;
+   }
+
+   /**
+    * Moves to the next element.
+    * 
+    * @return the offset of this element in the current part
+    * @throws NoSuchElementException
+    *            if there is no element left
+    */
+   protected final int advance() {
+      if (consumed >= count) {
+         throw new NoSuchElementException();
+      }
+      if (pos == runEnd) {
+         nextRun();
+      }
+      consumed++;
+      return pos++;
+   }
+
+   /**
+    * Called when the part changes, in order to get the buffer elements are read from.
+    */
+   protected abstract void onPart(SplitBlobPart newPart);
+
+   /**
+    * Gets the index in the blob of the last returned element.
+    * 
+    * @param index
+    *           the array to fill, of the rank of the blob
+    * @return <code>index</code>
+    * @throws IllegalStateException
+    *            if no element has been returned yet
+    */
+   public final int[] getIndex(final int[] index) {
+      if (consumed == 0) {
+         throw new IllegalStateException("No element returned yet");
+      }
+      final int last = shape.length - 1;
+      if (chunkShape == null) {
+         long rest = (long) partIdx * layout.getSizeForParts() + pos - 1;
+         for (int i = last; i >= 0; i--) {
+            index[i] = (int) (rest % shape[i]);
+            rest /= shape[i];
+         }
+         return index;
+      }
+      int rest = pos - 1;
+      for (int i = last; i >= 0; i--) {
+         index[i] = origin[i] + rest % chunkShape[i];
+         rest /= chunkShape[i];
+      }
+      return index;
+   }
+
+   /**
+    * Gets the index in the blob of the last returned element, in a new array.
+    */
+   public final int[] getIndex() {
+      return getIndex(new int[shape.length]);
+   }
+
+   /**
+    * Closes the current part.
+    */
+   public void close() {
+      if (part != null) {
+         release(part);
+         part = null;
+      }
+      listener = null;
+   }
+
+   /**
+    * Moves to the next run of elements, in the current part or in the next one.
+    */
+   private void nextRun() {
+      if (chunkShape != null && part != null) {
+         final int last = shape.length - 1;
+         int i = last - 1;
+         while (i >= 0 && ++row[i] == valid[i]) {
+            row[i] = 0;
+            i--;
+         }
+         if (i >= 0) {
+            int offset = 0;
+            for (int j = 0; j <= last; j++) {
+               offset = offset * chunkShape[j] + row[j];
+            }
+            pos = offset;
+            runEnd = offset + valid[last];
+            return;
+         }
+      }
+      nextPart();
+   }
+
+   private void nextPart() {
+      final SplitBlobPart previousPart = part;
+      if (previousPart != null) {
+         release(previousPart);
+      }
+      partIdx++;
+      if (LOGGER.isDebugEnabled()) {
+         LOGGER.debug("Getting blob part: " + partIdx);
+      }
+      part = (em == null) ? storage.getPart(partIdx) : storage.getPart(em, partIdx);
+      if (listener != null) {
+         listener.update(new SplitBlobEvent(source, previousPart, part), null);
+      }
+      part.openBuffer();
+      onPart(part);
+      pos = 0;
+      if (chunkShape == null) {
+         runEnd = layout.getValidCount(partIdx);
+         return;
+      }
+      final int[] tileOrigin = layout.getOrigin(partIdx);
+      final int[] tileValid = layout.getValidShape(partIdx);
+      System.arraycopy(tileOrigin, 0, origin, 0, origin.length);
+      System.arraycopy(tileValid, 0, valid, 0, valid.length);
+      for (int i = 0; i < row.length; i++) {
+         row[i] = 0;
+      }
+      runEnd = valid[valid.length - 1];
+   }
+
+   private void release(SplitBlobPart toRelease) {
+      if (em == null) {
+         toRelease.closeBuffer();
+      } else {
+         storage.evictParts(em, Collections.singleton(toRelease));
+      }
+   }
+}
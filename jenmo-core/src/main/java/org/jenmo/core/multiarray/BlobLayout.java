@@ -0,0 +1,360 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.multiarray;
+
+import java.util.BitSet;
+
+import org.jenmo.common.multiarray.IndexIterator;
+import org.jenmo.core.domain.SplitBlob;
+import org.jenmo.core.domain.SplitBlobPart;
+import org.jenmo.core.util.SplitBlobUtils;
+
+/**
+ * Maps the indices of a {@link SplitBlob} to positions in its {@link SplitBlobPart}s. Two layouts
+ * are supported:
+ * <ul>
+ * <li>linear: elements are stored in row-major order and split every
+ * <code>elmtCountEachPart</code> elements</li>
+ * <li>chunked: each part holds a n-dimensional tile (chunk) of the array, itself stored in
+ * row-major order. Tiles are numbered in row-major order too. Tiles at the edges of the array are
+ * padded so that all parts have the same size</li>
+ * </ul>
+ * A position is <code>partIndex * elmtCountEachPart + offsetInPart</code>, so that the part and the
+ * offset are respectively the quotient and the remainder of the division of the position by
+ * <code>elmtCountEachPart</code>. With the linear layout, the position is simply the row-major
+ * (linear) index. Positions are <code>long</code> values, since blobs may hold more than 2^31
+ * elements.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public final class BlobLayout {
+   private final int[] lengths;
+
+   /** Null for the linear layout */
+   private final int[] chunkShape;
+
+   private final int sizeForParts;
+
+   /** The number of elements of the blob */
+   private final long count;
+
+   /** Right to left products of lengths (linear) or of chunkShape (chunked) */
+   private final long[] products;
+
+   /** Right to left products of the number of tiles along each dimension (chunked) */
+   private final long[] tileProducts;
+
+   /** Number of tiles along each dimension (chunked) */
+   private final int[] tileCounts;
+
+   private final int partCount;
+
+   private final int last;
+
+   /**
+    * Creates a new layout.
+    * 
+    * @param lengths
+    *           the shape of the blob
+    * @param chunkShape
+    *           the shape of the tiles, <code>null</code> for the linear layout
+    * @param sizeForParts
+    *           the number of elements in each part (must be the product of the chunk shape for
+    *           the chunked layout)
+    */
+   public BlobLayout(int[] lengths, int[] chunkShape, int sizeForParts) {
+      this.lengths = lengths.clone();
+      this.last = lengths.length - 1;
+      this.sizeForParts = sizeForParts;
+      this.products = new long[lengths.length];
+      this.count = SplitBlobUtils.computeSize(lengths);
+      if (chunkShape == null) {
+         this.chunkShape = null;
+         this.tileProducts = null;
+         this.tileCounts = null;
+         SplitBlobUtils.numberOfElements(lengths, products);
+         long numPart = count / sizeForParts;
+         if ((count % sizeForParts) != 0) {
+            numPart++;
+         }
+         this.partCount = checkPartCount(numPart);
+      } else {
+         if (chunkShape.length != lengths.length) {
+            throw new IllegalArgumentException("ChunkShape rank=" + chunkShape.length
+                  + ", must be " + lengths.length);
+         }
+         this.chunkShape = chunkShape.clone();
+         if (SplitBlobUtils.numberOfElements(chunkShape, products) != sizeForParts) {
+            throw new IllegalArgumentException("SizeForParts=" + sizeForParts
+                  + ", must be the chunk size");
+         }
+         this.tileCounts = new int[lengths.length];
+         for (int i = 0; i < lengths.length; i++) {
+            if (chunkShape[i] <= 0) {
+               throw new IllegalArgumentException("ChunkShape[" + i + "]=" + chunkShape[i]
+                     + ", must be > 0");
+            }
+            tileCounts[i] = (lengths[i] + chunkShape[i] - 1) / chunkShape[i];
+         }
+         this.tileProducts = new long[lengths.length];
+         this.partCount = checkPartCount(SplitBlobUtils.numberOfElements(tileCounts, tileProducts));
+      }
+   }
+
+   private static int checkPartCount(long partCount) {
+      if (partCount > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException("PartCount=" + partCount + ", must be <= "
+               + Integer.MAX_VALUE + " (use larger parts)");
+      }
+      return (int) partCount;
+   }
+
+   /**
+    * Tells if this layout is chunked.
+    */
+   public boolean isChunked() {
+      return (chunkShape != null);
+   }
+
+   /**
+    * Gets the shape of the tiles, <code>null</code> for the linear layout.
+    */
+   public int[] getChunkShape() {
+      return (chunkShape == null) ? null : chunkShape.clone();
+   }
+
+   /**
+    * Gets the number of elements in each part.
+    */
+   public int getSizeForParts() {
+      return sizeForParts;
+   }
+
+   /**
+    * Gets the number of parts.
+    */
+   public int getPartCount() {
+      return partCount;
+   }
+
+   /**
+    * Gets the number of elements of the given part which are elements of the blob (i.e. not
+    * padding).
+    */
+   public int getValidCount(final int partIdx) {
+      if (chunkShape == null) {
+         if (partIdx == partCount - 1) {
+            int out = (int) (count % sizeForParts);
+            return (out == 0) ? sizeForParts : out;
+         }
+         return sizeForParts;
+      }
+      int out = 1;
+      for (int each : getValidShape(partIdx)) {
+         out *= each;
+      }
+      return out;
+   }
+
+   /**
+    * Gets the shape of the elements of the given part which are elements of the blob. For the
+    * chunked layout, this is the shape of the tile clipped to the bounds of the blob (valid
+    * elements are at the beginning of each dimension of the tile). For the linear layout, this is
+    * the valid count as a rank 1 shape.
+    */
+   public int[] getValidShape(final int partIdx) {
+      if (chunkShape == null) {
+         return new int[] { getValidCount(partIdx) };
+      }
+      final int[] out = new int[lengths.length];
+      long rest = partIdx;
+      for (int i = 0; i < lengths.length; i++) {
+         final int tile = (int) (rest / tileProducts[i]);
+         rest = rest % tileProducts[i];
+         out[i] = Math.min(chunkShape[i], lengths[i] - tile * chunkShape[i]);
+      }
+      return out;
+   }
+
+   /**
+    * Gets the index in the blob of the first element of the given part. For the chunked layout,
+    * this is the origin of the tile.
+    */
+   public int[] getOrigin(final int partIdx) {
+      final int[] out = new int[lengths.length];
+      if (chunkShape == null) {
+         long rest = (long) partIdx * sizeForParts;
+         for (int i = last; i >= 0; i--) {
+            out[i] = (int) (rest % lengths[i]);
+            rest /= lengths[i];
+         }
+         return out;
+      }
+      long rest = partIdx;
+      for (int i = 0; i < lengths.length; i++) {
+         out[i] = (int) (rest / tileProducts[i]) * chunkShape[i];
+         rest = rest % tileProducts[i];
+      }
+      return out;
+   }
+
+   /**
+    * Gets the indices of the parts holding the elements of the given region, in increasing order.
+    * 
+    * @param fromPos
+    *           the first index of the region
+    * @param lengths
+    *           the lengths of the region in each dimension
+    */
+   public int[] getPartIndices(final int[] fromPos, final int[] lengths) {
+      final int rank = lengths.length;
+      final int[] toPosExcl = new int[rank];
+      for (int i = 0; i < rank; i++) {
+         if (fromPos[i] < 0 || lengths[i] < 0 || fromPos[i] + lengths[i] > this.lengths[i]) {
+            throw new ArrayIndexOutOfBoundsException();
+         }
+         if (lengths[i] == 0) {
+            return new int[0];
+         }
+         toPosExcl[i] = fromPos[i] + lengths[i];
+      }
+      BitSet parts = new BitSet(partCount);
+      if (chunkShape == null) {
+         // Each row covers a range of parts
+         toPosExcl[last] = fromPos[last] + 1;
+         IndexIterator ii = new IndexIterator(fromPos, toPosExcl);
+         for (; ii.notDone(); ii.incr()) {
+            final long first = indexMap(ii.value());
+            parts.set((int) (first / sizeForParts),
+                  (int) ((first + lengths[last] - 1) / sizeForParts) + 1);
+         }
+      } else {
+         final int[] tileFrom = new int[rank];
+         final int[] tileTo = new int[rank];
+         for (int i = 0; i < rank; i++) {
+            tileFrom[i] = fromPos[i] / chunkShape[i];
+            tileTo[i] = (toPosExcl[i] - 1) / chunkShape[i] + 1;
+         }
+         IndexIterator ii = new IndexIterator(tileFrom, tileTo);
+         for (; ii.notDone(); ii.incr()) {
+            final int[] tile = ii.value();
+            long partIdx = 0;
+            for (int i = 0; i < rank; i++) {
+               partIdx += tile[i] * tileProducts[i];
+            }
+            parts.set((int) partIdx);
+         }
+      }
+      int[] out = new int[parts.cardinality()];
+      int j = 0;
+      for (int i = parts.nextSetBit(0); i >= 0; i = parts.nextSetBit(i + 1)) {
+         out[j++] = i;
+      }
+      return out;
+   }
+
+   /**
+    * Gets the position of the element at the given index.
+    * 
+    * @throws ArrayIndexOutOfBoundsException
+    *            if the index is out of the bounds of the blob
+    */
+   public long indexMap(final int[] index) {
+      if (chunkShape == null) {
+         long value = 0;
+         for (int ii = 0; ii < lengths.length; ii++) {
+            final int thisIndex = index[ii];
+            if (thisIndex < 0 || thisIndex >= lengths[ii])
+               throw new ArrayIndexOutOfBoundsException();
+            value += thisIndex * products[ii];
+         }
+         return value;
+      }
+      long tile = 0;
+      long value = 0;
+      for (int ii = 0; ii < lengths.length; ii++) {
+         final int thisIndex = index[ii];
+         if (thisIndex < 0 || thisIndex >= lengths[ii])
+            throw new ArrayIndexOutOfBoundsException();
+         tile += (thisIndex / chunkShape[ii]) * tileProducts[ii];
+         value += (thisIndex % chunkShape[ii]) * products[ii];
+      }
+      return tile * sizeForParts + value;
+   }
+
+   /**
+    * Gets the position of the element at the given linear (row-major) index.
+    * 
+    * @throws ArrayIndexOutOfBoundsException
+    *            if the index is out of the bounds of the blob
+    */
+   public long linearMap(final long linear) {
+      if (linear < 0 || linear >= count)
+         throw new ArrayIndexOutOfBoundsException();
+      if (chunkShape == null) {
+         return linear;
+      }
+      long rest = linear;
+      long tile = 0;
+      long value = 0;
+      for (int ii = last; ii >= 0; ii--) {
+         final int thisIndex = (int) (rest % lengths[ii]);
+         rest /= lengths[ii];
+         tile += (thisIndex / chunkShape[ii]) * tileProducts[ii];
+         value += (thisIndex % chunkShape[ii]) * products[ii];
+      }
+      return tile * sizeForParts + value;
+   }
+
+   /**
+    * Gets the number of elements stored contiguously, in the same part, from the given position
+    * along the last dimension.
+    * 
+    * @param pos
+    *           the position of the element
+    * @param col
+    *           the index of the element in the last dimension
+    */
+   public int runLength(final long pos, final int col) {
+      if (chunkShape == null) {
+         return sizeForParts - (int) (pos % sizeForParts);
+      }
+      return Math.min(chunkShape[last] - (col % chunkShape[last]), lengths[last] - col);
+   }
+
+   /**
+    * Gets the position of the element <code>count</code> elements after the given one, along the
+    * last dimension. <code>count</code> must not be greater than the run length.
+    * 
+    * @param pos
+    *           the position of the element
+    * @param count
+    *           the number of elements to skip
+    * @param col
+    *           the index in the last dimension of the element after skipping
+    */
+   public long next(final long pos, final int count, final int col) {
+      if (chunkShape == null || (col % chunkShape[last]) != 0) {
+         return pos + count;
+      }
+      // Jump to the same row of the next tile
+      return pos + count - chunkShape[last] + sizeForParts;
+   }
+}
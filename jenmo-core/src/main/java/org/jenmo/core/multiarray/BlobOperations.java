@@ -0,0 +1,482 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.multiarray;
+
+import java.util.Arrays;
+
+import org.jenmo.core.domain.SplitBlob;
+import org.jenmo.core.domain.SplitBlobPart;
+import org.jenmo.core.util.SplitBlobUtils;
+import org.jenmo.core.util.SplitBlobUtils.PType;
+
+/**
+ * Element-wise operations between {@link SplitBlob}s of equal shape.
+ * <p>
+ * The result is a new {@link SplitBlob} with the element type, layout and part codec of the
+ * primary operand, computed part by part: each output part is filled from the matching elements of
+ * the operands, so that at most one part of each blob is held as a working array at the same time.
+ * When an operand has the same layout as the result, its parts are read directly with the bulk
+ * getters of {@link SplitBlobPart}; otherwise it is read through a {@link MultiArrayBlobPart} in
+ * runs of consecutive elements.
+ * <p>
+ * Values are computed as doubles by plain counted loops over the working arrays, which the JIT
+ * compiles to SIMD instructions where the hardware allows it, and then converted to the element
+ * type of the result as by a Java cast. Hence long values greater than 2^53 (in absolute value)
+ * may lose precision.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public final class BlobOperations {
+   /** out = a + b */
+   private static final Kernel ADD = new Kernel() {
+      @Override
+      void apply(final double[][] in, final double[] out, final int len) {
+         final double[] a = in[0];
+         final double[] b = in[1];
+         for (int i = 0; i < len; i++) {
+            out[i] = a[i] + b[i];
+         }
+      }
+   };
+
+   /** out = a - b */
+   private static final Kernel SUBTRACT = new Kernel() {
+      @Override
+      void apply(final double[][] in, final double[] out, final int len) {
+         final double[] a = in[0];
+         final double[] b = in[1];
+         for (int i = 0; i < len; i++) {
+            out[i] = a[i] - b[i];
+         }
+      }
+   };
+
+   /** out = a * b */
+   private static final Kernel MULTIPLY = new Kernel() {
+      @Override
+      void apply(final double[][] in, final double[] out, final int len) {
+         final double[] a = in[0];
+         final double[] b = in[1];
+         for (int i = 0; i < len; i++) {
+            out[i] = a[i] * b[i];
+         }
+      }
+   };
+
+   /** out = cond != 0 ? a : b */
+   private static final Kernel WHERE = new Kernel() {
+      @Override
+      void apply(final double[][] in, final double[] out, final int len) {
+         final double[] cond = in[0];
+         final double[] a = in[1];
+         final double[] b = in[2];
+         for (int i = 0; i < len; i++) {
+            out[i] = (cond[i] != 0) ? a[i] : b[i];
+         }
+      }
+   };
+
+   private BlobOperations() {
+      // Utility class
+   }
+
+   /**
+    * Returns <code>a + b</code>, with the element type and layout of <code>a</code>.
+    */
+   public static SplitBlob add(final SplitBlob a, final SplitBlob b) {
+      return apply(ADD, a, a, b);
+   }
+
+   /**
+    * Returns <code>a - b</code>, with the element type and layout of <code>a</code>.
+    */
+   public static SplitBlob subtract(final SplitBlob a, final SplitBlob b) {
+      return apply(SUBTRACT, a, a, b);
+   }
+
+   /**
+    * Returns <code>a * b</code>, with the element type and layout of <code>a</code>.
+    */
+   public static SplitBlob multiply(final SplitBlob a, final SplitBlob b) {
+      return apply(MULTIPLY, a, a, b);
+   }
+
+   /**
+    * Returns <code>alpha * a</code>, with the element type and layout of <code>a</code>.
+    */
+   public static SplitBlob scale(final SplitBlob a, final double alpha) {
+      return apply(new Kernel() {
+         @Override
+         void apply(final double[][] in, final double[] out, final int len) {
+            final double[] x = in[0];
+            for (int i = 0; i < len; i++) {
+               out[i] = alpha * x[i];
+            }
+         }
+      }, a, a);
+   }
+
+   /**
+    * Returns <code>alpha * x + y</code>, with the element type and layout of <code>y</code>.
+    */
+   public static SplitBlob axpy(final double alpha, final SplitBlob x, final SplitBlob y) {
+      return apply(new Kernel() {
+         @Override
+         void apply(final double[][] in, final double[] out, final int len) {
+            final double[] a = in[0];
+            final double[] b = in[1];
+            for (int i = 0; i < len; i++) {
+               out[i] = alpha * a[i] + b[i];
+            }
+         }
+      }, y, x, y);
+   }
+
+   /**
+    * Returns <code>a</code> clamped to <code>[min, max]</code>, with the element type and layout of
+    * <code>a</code>. NaN values are left unchanged.
+    */
+   public static SplitBlob clamp(final SplitBlob a, final double min, final double max) {
+      if (!(min <= max)) {
+         throw new IllegalArgumentException("Min=" + min + ", max=" + max + ", must be min <= max");
+      }
+      return apply(new Kernel() {
+         @Override
+         void apply(final double[][] in, final double[] out, final int len) {
+            final double[] x = in[0];
+            for (int i = 0; i < len; i++) {
+               final double v = x[i];
+               out[i] = (v < min) ? min : ((v > max) ? max : v);
+            }
+         }
+      }, a, a);
+   }
+
+   /**
+    * Returns the elements of <code>a</code> where <code>condition</code> is not zero, and those of
+    * <code>b</code> elsewhere, with the element type and layout of <code>a</code>.
+    */
+   public static SplitBlob where(final SplitBlob condition, final SplitBlob a, final SplitBlob b) {
+      return apply(WHERE, a, condition, a, b);
+   }
+
+   private static SplitBlob apply(final Kernel kernel, final SplitBlob template,
+         final SplitBlob... operands) {
+      final int[] shape = template.getShape();
+      for (SplitBlob each : operands) {
+         if (!Arrays.equals(shape, each.getShape())) {
+            throw new IllegalArgumentException("Shapes differ: " + Arrays.toString(shape) + " and "
+                  + Arrays.toString(each.getShape()));
+         }
+      }
+      final SplitBlob out = newLike(template, shape);
+      final BlobLayout layout = out.getLayout();
+      final int size = layout.getSizeForParts();
+      final Operand[] ops = new Operand[operands.length];
+      final double[][] in = new double[operands.length][size];
+      final double[] result = new double[size];
+      final Operand writer = new Operand(out, layout, shape);
+      try {
+         for (int i = 0; i < operands.length; i++) {
+            ops[i] = new Operand(operands[i], layout, shape);
+         }
+         for (int p = 0; p < layout.getPartCount(); p++) {
+            // Tiles are padded, the last part of the linear layout is not
+            final int len = layout.isChunked() ? size : layout.getValidCount(p);
+            for (int i = 0; i < ops.length; i++) {
+               ops[i].read(p, in[i], len);
+            }
+            kernel.apply(in, result, len);
+            writer.write(p, result, len);
+         }
+      } finally {
+         for (Operand each : ops) {
+            if (each != null) {
+               each.close();
+            }
+         }
+      }
+      return out;
+   }
+
+   private static SplitBlob newLike(final SplitBlob template, final int[] shape) {
+      final Class<?> type = SplitBlobUtils.getClassFor(template.getElmtType());
+      final int[] chunkShape = template.getChunkShape();
+      final SplitBlob out;
+      if (chunkShape == null) {
+         out = SplitBlob.newInstance(template.getElmtCountEachPart(), type, shape);
+      } else {
+         out = SplitBlob.newInstance(chunkShape, type, shape);
+      }
+      out.setPartCodec(template.getPartCodec());
+      return out;
+   }
+
+   /**
+    * Computes the values of a part of the result from the values of the matching part of each
+    * operand.
+    */
+   private static abstract class Kernel {
+      abstract void apply(double[][] in, double[] out, int len);
+   }
+
+   /**
+    * Reads (or writes) the elements of a blob matching each part of the result as doubles.
+    */
+   private static final class Operand {
+      private final SplitBlob blob;
+
+      private final PType type;
+
+      /** The layout of the result. */
+      private final BlobLayout layout;
+
+      private final int[] shape;
+
+      /** True if the blob has the layout of the result. */
+      private final boolean direct;
+
+      private final int size;
+
+      /** The accessor used when the layouts differ, lazily created. */
+      private MultiArrayBlobPart accessor;
+
+      /** The array used to convert values, lazily created. */
+      private Object tmp;
+
+      Operand(final SplitBlob blob, final BlobLayout layout, final int[] shape) {
+         this.blob = blob;
+         this.type = blob.getElmtType();
+         this.layout = layout;
+         this.shape = shape;
+         this.direct = sameLayout(blob.getLayout(), layout);
+         this.size = layout.getSizeForParts();
+      }
+
+      private static boolean sameLayout(final BlobLayout l1, final BlobLayout l2) {
+         return (l1.getSizeForParts() == l2.getSizeForParts())
+               && Arrays.equals(l1.getChunkShape(), l2.getChunkShape());
+      }
+
+      void read(final int partIdx, final double[] dst, final int len) {
+         if (direct) {
+            final SplitBlobPart part = blob.getPart(partIdx);
+            part.openBuffer();
+            try {
+               get(part, dst, len);
+            } finally {
+               part.closeBuffer();
+            }
+            return;
+         }
+         if (accessor == null) {
+            accessor = new MultiArrayBlobPart(blob);
+         }
+         if (!layout.isChunked()) {
+            get((long) partIdx * size, dst, 0, len);
+            return;
+         }
+         // Padding elements are zeros, as in a new part
+         Arrays.fill(dst, 0, len, 0);
+         // One run for each row of the tile along the last dimension
+         final int[] chunkShape = layout.getChunkShape();
+         final int[] origin = layout.getOrigin(partIdx);
+         final int[] valid = layout.getValidShape(partIdx);
+         final int last = shape.length - 1;
+         final int[] row = new int[shape.length];
+         while (true) {
+            long linear = 0;
+            int off = 0;
+            for (int i = 0; i <= last; i++) {
+               linear = linear * shape[i] + origin[i] + row[i];
+               off = off * chunkShape[i] + row[i];
+            }
+            get(linear, dst, off, valid[last]);
+            int i = last - 1;
+            while (i >= 0 && ++row[i] == valid[i]) {
+               row[i] = 0;
+               i--;
+            }
+            if (i < 0) {
+               break;
+            }
+         }
+      }
+
+      void write(final int partIdx, final double[] src, final int len) {
+         final SplitBlobPart part = blob.getPart(partIdx);
+         part.openBuffer();
+         try {
+            put(part, src, len);
+         } finally {
+            part.closeBuffer();
+         }
+      }
+
+      void close() {
+         if (accessor != null) {
+            accessor.close();
+            accessor = null;
+         }
+      }
+
+      private void get(final SplitBlobPart part, final double[] dst, final int len) {
+         switch (type) {
+         case PDOUBLE:
+            part.getDoubles(0, dst, 0, len);
+            break;
+         case PFLOAT:
+            final float[] floats = (float[]) tmp(Float.TYPE);
+            part.getFloats(0, floats, 0, len);
+            for (int i = 0; i < len; i++) {
+               dst[i] = floats[i];
+            }
+            break;
+         case PLONG:
+            final long[] longs = (long[]) tmp(Long.TYPE);
+            part.getLongs(0, longs, 0, len);
+            for (int i = 0; i < len; i++) {
+               dst[i] = longs[i];
+            }
+            break;
+         case PINTEGER:
+            final int[] ints = (int[]) tmp(Integer.TYPE);
+            part.getInts(0, ints, 0, len);
+            for (int i = 0; i < len; i++) {
+               dst[i] = ints[i];
+            }
+            break;
+         case PSHORT:
+            final short[] shorts = (short[]) tmp(Short.TYPE);
+            part.getShorts(0, shorts, 0, len);
+            for (int i = 0; i < len; i++) {
+               dst[i] = shorts[i];
+            }
+            break;
+         case PBYTE:
+            final byte[] bytes = (byte[]) tmp(Byte.TYPE);
+            part.getBytes(0, bytes, 0, len);
+            for (int i = 0; i < len; i++) {
+               dst[i] = bytes[i];
+            }
+            break;
+         default:
+            throw new IllegalArgumentException("Unsupported element type: " + type);
+         }
+      }
+
+      private void get(final long linear, final double[] dst, final int off, final int len) {
+         switch (type) {
+         case PDOUBLE:
+            accessor.getDoubles(linear, dst, off, len);
+            break;
+         case PFLOAT:
+            final float[] floats = (float[]) tmp(Float.TYPE);
+            accessor.getFloats(linear, floats, 0, len);
+            for (int i = 0; i < len; i++) {
+               dst[off + i] = floats[i];
+            }
+            break;
+         case PLONG:
+            final long[] longs = (long[]) tmp(Long.TYPE);
+            accessor.getLongs(linear, longs, 0, len);
+            for (int i = 0; i < len; i++) {
+               dst[off + i] = longs[i];
+            }
+            break;
+         case PINTEGER:
+            final int[] ints = (int[]) tmp(Integer.TYPE);
+            accessor.getInts(linear, ints, 0, len);
+            for (int i = 0; i < len; i++) {
+               dst[off + i] = ints[i];
+            }
+            break;
+         case PSHORT:
+            final short[] shorts = (short[]) tmp(Short.TYPE);
+            accessor.getShorts(linear, shorts, 0, len);
+            for (int i = 0; i < len; i++) {
+               dst[off + i] = shorts[i];
+            }
+            break;
+         case PBYTE:
+            final byte[] bytes = (byte[]) tmp(Byte.TYPE);
+            accessor.getBytes(linear, bytes, 0, len);
+            for (int i = 0; i < len; i++) {
+               dst[off + i] = bytes[i];
+            }
+            break;
+         default:
+            throw new IllegalArgumentException("Unsupported element type: " + type);
+         }
+      }
+
+      private void put(final SplitBlobPart part, final double[] src, final int len) {
+         switch (type) {
+         case PDOUBLE:
+            part.putDoubles(0, src, 0, len);
+            break;
+         case PFLOAT:
+            final float[] floats = (float[]) tmp(Float.TYPE);
+            for (int i = 0; i < len; i++) {
+               floats[i] = (float) src[i];
+            }
+            part.putFloats(0, floats, 0, len);
+            break;
+         case PLONG:
+            final long[] longs = (long[]) tmp(Long.TYPE);
+            for (int i = 0; i < len; i++) {
+               longs[i] = (long) src[i];
+            }
+            part.putLongs(0, longs, 0, len);
+            break;
+         case PINTEGER:
+            final int[] ints = (int[]) tmp(Integer.TYPE);
+            for (int i = 0; i < len; i++) {
+               ints[i] = (int) src[i];
+            }
+            part.putInts(0, ints, 0, len);
+            break;
+         case PSHORT:
+            final short[] shorts = (short[]) tmp(Short.TYPE);
+            for (int i = 0; i < len; i++) {
+               shorts[i] = (short) src[i];
+            }
+            part.putShorts(0, shorts, 0, len);
+            break;
+         case PBYTE:
+            final byte[] bytes = (byte[]) tmp(Byte.TYPE);
+            for (int i = 0; i < len; i++) {
+               bytes[i] = (byte) src[i];
+            }
+            part.putBytes(0, bytes, 0, len);
+            break;
+         default:
+            throw new IllegalArgumentException("Unsupported element type: " + type);
+         }
+      }
+
+      private Object tmp(final Class<?> componentType) {
+         if (tmp == null) {
+            tmp = java.lang.reflect.Array.newInstance(componentType, size);
+         }
+         return tmp;
+      }
+   }
+}
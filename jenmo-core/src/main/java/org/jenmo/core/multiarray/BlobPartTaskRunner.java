@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.multiarray;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+import javax.persistence.EntityManager;
+
+import org.apache.log4j.Logger;
+import org.jenmo.core.domain.SplitBlob;
+import org.jenmo.core.domain.SplitBlobPart;
+import org.jenmo.core.listener.IListener;
+import org.jenmo.core.listener.SplitBlobEvent;
+
+/**
+ * Runs {@link IBlobPartTask}s over the {@link SplitBlobPart}s of a {@link SplitBlob} using an
+ * {@link Executor}.
+ * <p>
+ * Parts are fetched from database by the thread calling {@link #submit(int, IBlobPartTask)}, in
+ * submission order, since an <code>EntityManager</code> is not thread safe. The listener (if any)
+ * is notified in that thread too, exactly as with {@link IBlobPartAccessor}. Only the tasks
+ * themselves run in the executor threads, including the decoding of the part if it has been encoded
+ * with a codec (see {@link org.jenmo.core.codec.IPartCodec}). The number
+ * of parts opened at the same time is bounded so that memory does not grow with the blob size.
+ * <p>
+ * If an <code>EntityManager</code> is given, parts are looked up by query (see
+ * {@link SplitBlob#getPart(EntityManager, int)}) and evicted by the calling thread once their task
+ * has completed (see {@link SplitBlob#evictParts(EntityManager, java.util.Collection)}), so that
+ * neither the list of parts nor the persistence context keep them. Each part must then be
+ * submitted once.
+ * <p>
+ * Instances are not thread safe and must not be reused once {@link #await()} has been called.
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public class BlobPartTaskRunner {
+   /** The logger. */
+   private static final Logger LOGGER = Logger.getLogger(BlobPartTaskRunner.class);
+
+   /** Default number of opened parts for each available processor. */
+   private static final int PENDING_PER_PROCESSOR = 2;
+
+   private final SplitBlob storage;
+
+   private final EntityManager em;
+
+   private final CompletionService<SplitBlobPart> service;
+
+   private final int maxPending;
+
+   /** The number of submitted tasks not yet completed. */
+   private int pending;
+
+   /** The first failure of a task, if any. */
+   private Throwable failure;
+
+   /** Source of the events sent to the listener. */
+   private final MultiArrayBlobPart source;
+
+   /** The listener of blob part changes. */
+   private IListener<SplitBlobEvent> listener;
+
+   /** The last submitted part. */
+   private SplitBlobPart previousPart;
+
+   /**
+    * Creates a new instance with a default bound for opened parts.
+    */
+   public BlobPartTaskRunner(SplitBlob storage, Executor executor) {
+      this(storage, null, executor);
+   }
+
+   /**
+    * Creates a new instance with a default bound for opened parts.
+    * 
+    * @param em
+    *           the entity manager of the blob, parts are then looked up by query and evicted once
+    *           processed (may be null)
+    */
+   public BlobPartTaskRunner(SplitBlob storage, EntityManager em, Executor executor) {
+      this(storage, em, executor, Runtime.getRuntime().availableProcessors()
+            * PENDING_PER_PROCESSOR);
+   }
+
+   /**
+    * Creates a new instance.
+    * 
+    * @param maxPending
+    *           the maximum number of parts being processed at the same time
+    */
+   public BlobPartTaskRunner(SplitBlob storage, Executor executor, int maxPending) {
+      this(storage, null, executor, maxPending);
+   }
+
+   /**
+    * Creates a new instance.
+    * 
+    * @param em
+    *           the entity manager of the blob, parts are then looked up by query and evicted once
+    *           processed (may be null)
+    * @param maxPending
+    *           the maximum number of parts being processed at the same time
+    */
+   public BlobPartTaskRunner(SplitBlob storage, EntityManager em, Executor executor,
+         int maxPending) {
+      if (storage == null) {
+         throw new NullPointerException("Storage cannot be null");
+      }
+      if (executor == null) {
+         throw new NullPointerException("Executor cannot be null");
+      }
+      if (maxPending <= 0) {
+         throw new IllegalArgumentException("MaxPending=" + maxPending + ", must be > 0");
+      }
+      this.storage = storage;
+      this.em = em;
+      this.service = new ExecutorCompletionService<SplitBlobPart>(executor);
+      this.maxPending = maxPending;
+      this.source = new MultiArrayBlobPart(storage);
+   }
+
+   /**
+    * Sets listener to be notified for part rollings.
+    */
+   public void setPartListener(IListener<SplitBlobEvent> l) {
+      listener = l;
+   }
+
+   /**
+    * Fetches the part at the given position and submits the given task for it. Blocks while too
+    * many parts are being processed.
+    * 
+    * @throws RuntimeException
+    *            the failure of a previously submitted task, if any
+    */
+   public void submit(final int partIdx, final IBlobPartTask task) {
+      while (pending >= maxPending && failure == null) {
+         waitOne();
+      }
+      if (failure != null) {
+         await();
+      }
+      if (LOGGER.isDebugEnabled()) {
+         LOGGER.debug("Getting blob part: " + partIdx);
+      }
+      final SplitBlobPart part = (em == null) ? storage.getPart(partIdx) : storage.getPart(em,
+            partIdx);
+      if (listener != null) {
+         listener.update(new SplitBlobEvent(source, previousPart, part), null);
+      }
+      previousPart = part;
+      part.prefetch();
+      service.submit(new Callable<SplitBlobPart>() {
+         public SplitBlobPart call() throws Exception {
+            try {
+               part.openBuffer();
+               task.execute(part);
+            } finally {
+               part.closeBuffer();
+            }
+            return part;
+         }
+      });
+      pending++;
+   }
+
+   /**
+    * Waits for all the submitted tasks to complete.
+    * 
+    * @throws RuntimeException
+    *            the first failure of a submitted task, if any
+    */
+   public void await() {
+      while (pending > 0) {
+         waitOne();
+      }
+      previousPart = null;
+      if (failure instanceof RuntimeException) {
+         throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+         throw (Error) failure;
+      }
+      if (failure != null) {
+         throw new IllegalStateException(failure);
+      }
+   }
+
+   private void waitOne() {
+      Future<SplitBlobPart> done;
+      try {
+         done = service.take();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while waiting for blob part tasks", e);
+      }
+      pending--;
+      try {
+         SplitBlobPart part = done.get();
+         if (em != null) {
+            storage.evictParts(em, Collections.singleton(part));
+         }
+      } catch (InterruptedException e) {
+         // Cannot happen as the task is done
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+         if (failure == null) {
+            failure = e.getCause();
+         }
+      }
+   }
+}
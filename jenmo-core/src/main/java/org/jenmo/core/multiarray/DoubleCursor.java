@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.multiarray;
+
+import java.nio.DoubleBuffer;
+
+import javax.persistence.EntityManager;
+
+import org.jenmo.core.domain.SplitBlob;
+import org.jenmo.core.domain.SplitBlobPart;
+import org.jenmo.core.util.SplitBlobUtils.PType;
+
+/**
+ * A cursor over the double elements of a {@link SplitBlob}, in storage order (see
+ * {@link BlobCursor}).
+ * 
+ * @author Nicolas Ocquidant
+ * @since 1.0
+ */
+public class DoubleCursor extends BlobCursor {
+   /** The elements of the current part */
+   private DoubleBuffer values;
+
+   /**
+    * Creates a new instance.
+    * 
+    * @param em
+    *           the entity manager of the storage, parts are then looked up by query and evicted
+    *           once read (may be null)
+    */
+   public DoubleCursor(SplitBlob storage, EntityManager em) {
+      super(storage, em, PType.PDOUBLE);
+   }
+
+   @Override
+   protected final void onPart(SplitBlobPart newPart) {
+      values = newPart.asDoubleBuffer();
+   }
+
+   /**
+    * Returns the next element.
+    * 
+    * @throws java.util.NoSuchElementException
+    *            if there is no element left
+    */
+   public final double nextDouble() {
+      final int offset = advance();
+      return values.get(offset);
+   }
+}
@@ -19,6 +19,7 @@
 package org.jenmo.core.multiarray;
 
 import org.jenmo.common.multiarray.ICloseableAccessor;
+import org.jenmo.common.multiarray.ILinearAccessor;
 import org.jenmo.core.domain.SplitBlob;
 import org.jenmo.core.listener.IListener;
 import org.jenmo.core.listener.SplitBlobEvent;
@@ -26,11 +27,14 @@ import org.jenmo.core.listener.SplitBlobEvent;
 
 /**
  * Interface for {@link SplitBlob} data access. One can set a listener on this accessor.
+ * <p>
+ * Elements can also be accessed by their linear (i.e. row-major) index (see
+ * {@link ILinearAccessor}).
  * 
  * @author Nicolas Ocquidant
  * @since 1.0
  */
-public interface IBlobPartAccessor extends ICloseableAccessor {
+public interface IBlobPartAccessor extends ICloseableAccessor, ILinearAccessor {
    /**
     * Sets listener to be notified for part rollings during access.
     */
@@ -40,4 +44,76 @@ public interface IBlobPartAccessor extends ICloseableAccessor {
     * Removes the listener associated with this accessor.
     */
    public void removePartListener();
+
+   /**
+    * Bulk <i>get</i> of <code>len</code> consecutive double values along the last dimension,
+    * starting at <code>index</code>.
+    */
+   void getDoubles(int[] index, double[] dst, int off, int len);
+
+   /**
+    * Bulk <i>get</i> of <code>len</code> consecutive float values along the last dimension,
+    * starting at <code>index</code>.
+    */
+   void getFloats(int[] index, float[] dst, int off, int len);
+
+   /**
+    * Bulk <i>get</i> of <code>len</code> consecutive long values along the last dimension,
+    * starting at <code>index</code>.
+    */
+   void getLongs(int[] index, long[] dst, int off, int len);
+
+   /**
+    * Bulk <i>get</i> of <code>len</code> consecutive int values along the last dimension,
+    * starting at <code>index</code>.
+    */
+   void getInts(int[] index, int[] dst, int off, int len);
+
+   /**
+    * Bulk <i>get</i> of <code>len</code> consecutive short values along the last dimension,
+    * starting at <code>index</code>.
+    */
+   void getShorts(int[] index, short[] dst, int off, int len);
+
+   /**
+    * Bulk <i>get</i> of <code>len</code> consecutive byte values along the last dimension,
+    * starting at <code>index</code>.
+    */
+   void getBytes(int[] index, byte[] dst, int off, int len);
+
+   /**
+    * Bulk <i>set</i> of <code>len</code> consecutive double values along the last dimension,
+    * starting at <code>index</code>.
+    */
+   void setDoubles(int[] index, double[] src, int off, int len);
+
+   /**
+    * Bulk <i>set</i> of <code>len</code> consecutive float values along the last dimension,
+    * starting at <code>index</code>.
+    */
+   void setFloats(int[] index, float[] src, int off, int len);
+
+   /**
+    * Bulk <i>set</i> of <code>len</code> consecutive long values along the last dimension,
+    * starting at <code>index</code>.
+    */
+   void setLongs(int[] index, long[] src, int off, int len);
+
+   /**
+    * Bulk <i>set</i> of <code>len</code> consecutive int values along the last dimension,
+    * starting at <code>index</code>.
+    */
+   void setInts(int[] index, int[] src, int off, int len);
+
+   /**
+    * Bulk <i>set</i> of <code>len</code> consecutive short values along the last dimension,
+    * starting at <code>index</code>.
+    */
+   void setShorts(int[] index, short[] src, int off, int len);
+
+   /**
+    * Bulk <i>set</i> of <code>len</code> consecutive byte values along the last dimension,
+    * starting at <code>index</code>.
+    */
+   void setBytes(int[] index, byte[] src, int off, int len);
 }
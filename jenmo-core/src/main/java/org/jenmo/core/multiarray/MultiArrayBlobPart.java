@@ -19,9 +19,21 @@
 package org.jenmo.core.multiarray;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import javax.persistence.EntityManager;
 
 import org.apache.log4j.Logger;
 import org.jenmo.common.multiarray.IAccessor;
+import org.jenmo.common.multiarray.ILinearAccessor;
 import org.jenmo.common.multiarray.IMultiArray;
 import org.jenmo.common.multiarray.IMultiArrayInfo;
 import org.jenmo.core.domain.SplitBlob;
@@ -32,6 +44,16 @@ import org.jenmo.core.util.SplitBlobUtils;
 
 /**
  * A {@link SplitBlob} implementation of the IMultiArray interface.
+ * <p>
+ * At most <code>maxResidentParts</code> parts are kept opened, the least recently used one being
+ * evicted when another part is needed (see {@link SplitBlob#evictParts(EntityManager,
+ * java.util.Collection)}). By default, only the current part is kept opened.
+ * <p>
+ * With an {@link Executor}, the <code>readAhead</code> parts following a newly opened part are
+ * opened in advance, so that a sequential scan decodes the next parts while the current one is
+ * consumed. Parts are still fetched from database by the accessing thread, since an
+ * <code>EntityManager</code> is not thread safe (see {@link SplitBlobPart#prefetch()}). Parts read
+ * ahead but not accessed yet are cancelled (and closed) by {@link #close()}.
  * 
  * @author Nicolas Ocquidant
  * @since 1.0
@@ -40,11 +62,8 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
    /** The logger. */
    private static final Logger LOGGER = Logger.getLogger(MultiArrayBlobPart.class);
 
-   /**
-    * Right to left products used in indexMap() to compute offset into the array. When incrementing
-    * index[ii], one jumps through storage by products[ii].
-    */
-   private final int[] products;
+   /** Maps indices to positions in parts. */
+   private final BlobLayout layout;
 
    private final int[] lengths;
 
@@ -62,6 +81,22 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
    /** The listener of blob part changes. */
    private WeakReference<IListener<SplitBlobEvent>> listener;
 
+   /** The entity manager evicted parts are detached from, may be null. */
+   private final EntityManager em;
+
+   private final int maxResidentParts;
+
+   /** The opened parts by index, in access order. */
+   private final LinkedHashMap<Integer, SplitBlobPart> resident;
+
+   /** The executor opening the parts read ahead, may be null. */
+   private final Executor executor;
+
+   private final int readAhead;
+
+   /** The parts being read ahead by index, in submission order. */
+   private final LinkedHashMap<Integer, ReadAhead> ahead;
+
    /**
     * Create a new MultiArrayImpl of the given shape accessing externally created storage. It is up
     * to the client to to mitigate conflicting access to the external storage.
@@ -70,10 +105,62 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     *           array Object which is storage
     */
    public MultiArrayBlobPart(SplitBlob storage) {
+      this(storage, null, 1);
+   }
+
+   /**
+    * Create a new MultiArrayImpl keeping at most <code>maxResidentParts</code> parts opened.
+    * 
+    * @param storage
+    *           array Object which is storage
+    * @param em
+    *           the entity manager of the storage, evicted parts are detached from it (may be null)
+    * @param maxResidentParts
+    *           the maximum number of opened parts
+    */
+   public MultiArrayBlobPart(SplitBlob storage, EntityManager em, int maxResidentParts) {
+      this(storage, em, maxResidentParts, null, 0);
+   }
+
+   /**
+    * Create a new MultiArrayImpl keeping at most <code>maxResidentParts</code> parts opened and
+    * opening the <code>readAhead</code> parts following each newly opened part with the given
+    * executor.
+    * 
+    * @param storage
+    *           array Object which is storage
+    * @param em
+    *           the entity manager of the storage, evicted parts are detached from it (may be null)
+    * @param maxResidentParts
+    *           the maximum number of opened parts (not counting parts read ahead)
+    * @param executor
+    *           the executor opening the parts read ahead (may be null if <code>readAhead</code> is
+    *           0)
+    * @param readAhead
+    *           the number of parts to read ahead
+    */
+   public MultiArrayBlobPart(SplitBlob storage, EntityManager em, int maxResidentParts,
+         Executor executor, int readAhead) {
+      if (maxResidentParts <= 0) {
+         throw new IllegalArgumentException("MaxResidentParts=" + maxResidentParts
+               + ", must be > 0");
+      }
+      if (readAhead < 0) {
+         throw new IllegalArgumentException("ReadAhead=" + readAhead + ", must be >= 0");
+      }
+      if (readAhead > 0 && executor == null) {
+         throw new NullPointerException("Executor cannot be null");
+      }
+      this.em = em;
+      this.maxResidentParts = maxResidentParts;
+      this.resident = new LinkedHashMap<Integer, SplitBlobPart>(16, 0.75f, true);
+      this.executor = (readAhead == 0) ? null : executor;
+      this.readAhead = readAhead;
+      this.ahead = new LinkedHashMap<Integer, ReadAhead>();
       this.lengths = storage.getShape();
       this.sizeForParts = storage.getElmtCountEachPart();
-      this.products = new int[lengths.length];
-      final int length = SplitBlobUtils.numberOfElements(this.lengths, this.products);
+      this.layout = storage.getLayout();
+      final long length = SplitBlobUtils.numberOfElements(this.lengths);
       if (length > storage.getElmtCount())
          throw new IllegalArgumentException("Inadequate storage");
       this.storage = storage;
@@ -123,41 +210,134 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
 
    /* MultiArray Access methods from IMultiArrayAccessor */
 
-   private int indexMap(final int[] index) {
-      int value = 0;
-      for (int ii = 0; ii < lengths.length; ii++) {
-         final int thisIndex = index[ii];
-         if (thisIndex < 0 || thisIndex >= lengths[ii])
-            throw new ArrayIndexOutOfBoundsException();
-         value += thisIndex * products[ii];
-      }
+   /**
+    * Gets the position of the element at the given index (see {@link BlobLayout}).
+    */
+   private long indexMap(final int[] index) {
+      return layout.indexMap(index);
+   }
+
+   /**
+    * Same as indexMap() but also checks that <code>len</code> elements starting at
+    * <code>index</code> stay in the last dimension (i.e. in the same row).
+    */
+   private long rowMap(final int[] index, final int len) {
+      final long value = indexMap(index);
+      final int last = lengths.length - 1;
+      if (len < 0 || index[last] + len > lengths[last])
+         throw new ArrayIndexOutOfBoundsException();
       return value;
    }
 
+   /**
+    * Checks that <code>len</code> elements starting at the given linear index are in the blob.
+    */
+   private void checkLinear(final long linear, final int len) {
+      if (linear < 0 || len < 0 || linear + len > storage.getElmtCount())
+         throw new ArrayIndexOutOfBoundsException();
+   }
+
+   /**
+    * Gets the number of elements stored contiguously, in the same part, from the given linear
+    * index whose position is <code>pos</code>. With the linear layout, runs may span several rows.
+    */
+   private int linearRunLength(final long linear, final long pos) {
+      final int last = lengths.length - 1;
+      final int col = (last < 0) ? 0 : (int) (linear % lengths[last]);
+      return layout.runLength(pos, col);
+   }
+
    private SplitBlobPart getPart(int index) {
       if (currentPartIdx != index) {
-         if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Getting blob part: " + index);
+         final SplitBlobPart previousPart = currentPart;
+         SplitBlobPart part = resident.get(index);
+         if (part == null) {
+            if (resident.size() >= maxResidentParts) {
+               evictEldest();
+            }
+            final ReadAhead pending = ahead.remove(index);
+            if (pending == null) {
+               part = fetchPart(index);
+               onPartChange(previousPart, part);
+               // Open new part
+               part.openBuffer();
+            } else {
+               part = pending.await();
+               onPartChange(previousPart, part);
+            }
+            resident.put(index, part);
+            if (executor != null) {
+               readAhead(index);
+            }
+         } else {
+            onPartChange(previousPart, part);
          }
-         SplitBlobPart part = storage.getPart(index);
-         onPartChange(currentPart, part);
          currentPart = part;
          currentPartIdx = index;
       }
       return currentPart;
    }
 
-   private void onPartChange(SplitBlobPart previousPart, SplitBlobPart newPart) {
-      // Very first part?
-      if (previousPart != null) {
-         previousPart.closeBuffer();
+   private SplitBlobPart fetchPart(int index) {
+      if (LOGGER.isDebugEnabled()) {
+         LOGGER.debug("Getting blob part: " + index);
+      }
+      return (em == null) ? storage.getPart(index) : storage.getPart(em, index);
+   }
+
+   /**
+    * Reads ahead the parts following the given one, and cancels the parts read ahead which do not
+    * follow it any more.
+    */
+   private void readAhead(int index) {
+      final int to = Math.min(index + readAhead, layout.getPartCount() - 1);
+      Iterator<Map.Entry<Integer, ReadAhead>> it = ahead.entrySet().iterator();
+      while (it.hasNext()) {
+         Map.Entry<Integer, ReadAhead> entry = it.next();
+         if (entry.getKey() <= index || entry.getKey() > to) {
+            it.remove();
+            release(entry.getValue().cancel());
+         }
+      }
+      for (int i = index + 1; i <= to; i++) {
+         if (!resident.containsKey(i) && !ahead.containsKey(i)) {
+            // Data are fetched in this thread, only decoding is done by the executor
+            final SplitBlobPart part = fetchPart(i);
+            part.prefetch();
+            final ReadAhead task = new ReadAhead(part);
+            ahead.put(i, task);
+            executor.execute(task.future);
+         }
       }
+   }
+
+   private void onPartChange(SplitBlobPart previousPart, SplitBlobPart newPart) {
       // Here previousPart is null at first time
       if (listener != null) {
          listener.get().update(new SplitBlobEvent(this, previousPart, newPart), null);
       }
-      // Open new part
-      newPart.openBuffer();
+   }
+
+   /**
+    * Evicts the least recently used part.
+    */
+   private void evictEldest() {
+      Iterator<Map.Entry<Integer, SplitBlobPart>> it = resident.entrySet().iterator();
+      SplitBlobPart part = it.next().getValue();
+      it.remove();
+      if (part == currentPart) {
+         currentPart = null;
+         currentPartIdx = -1;
+      }
+      release(part);
+   }
+
+   private void release(SplitBlobPart part) {
+      if (em == null) {
+         part.closeBuffer();
+      } else {
+         storage.evictParts(em, Collections.singleton(part));
+      }
    }
 
    /**
@@ -171,9 +351,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#getBoolean
     */
    public final boolean getBoolean(final int[] index) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 1;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 1;
       return getPart(idx1).getBoolean(idx2);
    }
 
@@ -181,9 +361,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#getChar
     */
    public final char getChar(final int[] index) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 1;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 1;
       return getPart(idx1).getChar(idx2);
    }
 
@@ -191,9 +371,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#getByte
     */
    public final byte getByte(final int[] index) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 1;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 1;
       return getPart(idx1).getByte(idx2);
    }
 
@@ -201,9 +381,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#getShort
     */
    public final short getShort(final int[] index) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 2;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 2;
       return getPart(idx1).getShort(idx2);
    }
 
@@ -211,9 +391,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#getInt
     */
    public final int getInt(final int[] index) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 4;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 4;
       return getPart(idx1).getInt(idx2);
    }
 
@@ -221,9 +401,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#getLong
     */
    public final long getLong(final int[] index) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 8;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 8;
       return getPart(idx1).getLong(idx2);
    }
 
@@ -231,9 +411,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#getFloat
     */
    public final float getFloat(final int[] index) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 4;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 4;
       return getPart(idx1).getFloat(idx2);
    }
 
@@ -241,9 +421,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#getDouble
     */
    public final double getDouble(final int[] index) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 8;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 8;
       return getPart(idx1).getDouble(idx2);
    }
 
@@ -258,9 +438,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#setBoolean
     */
    public final void setBoolean(final int[] index, final boolean value) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 1;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 1;
       getPart(idx1).putBoolean(idx2, value);
    }
 
@@ -268,9 +448,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#setChar
     */
    public final void setChar(final int[] index, final char value) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 1;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 1;
       getPart(idx1).putChar(idx2, value);
    }
 
@@ -278,9 +458,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#setByte
     */
    public final void setByte(final int[] index, final byte value) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 1;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 1;
       getPart(idx1).putByte(idx2, value);
    }
 
@@ -288,9 +468,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#setShort
     */
    public final void setShort(final int[] index, final short value) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 2;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 2;
       getPart(idx1).putShort(idx2, value);
    }
 
@@ -298,9 +478,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#setInt
     */
    public final void setInt(final int[] index, final int value) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 4;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 4;
       getPart(idx1).putInt(idx2, value);
    }
 
@@ -308,9 +488,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#setLong
     */
    public final void setLong(final int[] index, final long value) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 8;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 8;
       getPart(idx1).putLong(idx2, value);
    }
 
@@ -318,9 +498,9 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#setFloat
     */
    public final void setFloat(final int[] index, final float value) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 4;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 4;
       getPart(idx1).putFloat(idx2, value);
    }
 
@@ -328,12 +508,528 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
     * @see IAccessor#setDouble
     */
    public final void setDouble(final int[] index, final double value) {
-      final int idx = indexMap(index);
-      final int idx1 = idx / sizeForParts;
-      final int idx2 = (idx % sizeForParts) * 8;
+      final long idx = indexMap(index);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 8;
       getPart(idx1).putDouble(idx2, value);
    }
 
+   /**
+    * @see IBlobPartAccessor#getDoubles
+    */
+   public final void getDoubles(final int[] index, final double[] dst, final int off, final int len) {
+      long idx = rowMap(index, len);
+      final int col = index[lengths.length - 1];
+      int done = 0;
+      while (done < len) {
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, layout.runLength(idx, col + done));
+         getPart(idx1).getDoubles(idx2 * 8, dst, off + done, count);
+         done += count;
+         idx = layout.next(idx, count, col + done);
+      }
+   }
+
+   /**
+    * @see IBlobPartAccessor#getFloats
+    */
+   public final void getFloats(final int[] index, final float[] dst, final int off, final int len) {
+      long idx = rowMap(index, len);
+      final int col = index[lengths.length - 1];
+      int done = 0;
+      while (done < len) {
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, layout.runLength(idx, col + done));
+         getPart(idx1).getFloats(idx2 * 4, dst, off + done, count);
+         done += count;
+         idx = layout.next(idx, count, col + done);
+      }
+   }
+
+   /**
+    * @see IBlobPartAccessor#getLongs
+    */
+   public final void getLongs(final int[] index, final long[] dst, final int off, final int len) {
+      long idx = rowMap(index, len);
+      final int col = index[lengths.length - 1];
+      int done = 0;
+      while (done < len) {
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, layout.runLength(idx, col + done));
+         getPart(idx1).getLongs(idx2 * 8, dst, off + done, count);
+         done += count;
+         idx = layout.next(idx, count, col + done);
+      }
+   }
+
+   /**
+    * @see IBlobPartAccessor#getInts
+    */
+   public final void getInts(final int[] index, final int[] dst, final int off, final int len) {
+      long idx = rowMap(index, len);
+      final int col = index[lengths.length - 1];
+      int done = 0;
+      while (done < len) {
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, layout.runLength(idx, col + done));
+         getPart(idx1).getInts(idx2 * 4, dst, off + done, count);
+         done += count;
+         idx = layout.next(idx, count, col + done);
+      }
+   }
+
+   /**
+    * @see IBlobPartAccessor#getShorts
+    */
+   public final void getShorts(final int[] index, final short[] dst, final int off, final int len) {
+      long idx = rowMap(index, len);
+      final int col = index[lengths.length - 1];
+      int done = 0;
+      while (done < len) {
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, layout.runLength(idx, col + done));
+         getPart(idx1).getShorts(idx2 * 2, dst, off + done, count);
+         done += count;
+         idx = layout.next(idx, count, col + done);
+      }
+   }
+
+   /**
+    * @see IBlobPartAccessor#getBytes
+    */
+   public final void getBytes(final int[] index, final byte[] dst, final int off, final int len) {
+      long idx = rowMap(index, len);
+      final int col = index[lengths.length - 1];
+      int done = 0;
+      while (done < len) {
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, layout.runLength(idx, col + done));
+         getPart(idx1).getBytes(idx2 * 1, dst, off + done, count);
+         done += count;
+         idx = layout.next(idx, count, col + done);
+      }
+   }
+
+   /**
+    * @see IBlobPartAccessor#setDoubles
+    */
+   public final void setDoubles(final int[] index, final double[] src, final int off, final int len) {
+      long idx = rowMap(index, len);
+      final int col = index[lengths.length - 1];
+      int done = 0;
+      while (done < len) {
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, layout.runLength(idx, col + done));
+         getPart(idx1).putDoubles(idx2 * 8, src, off + done, count);
+         done += count;
+         idx = layout.next(idx, count, col + done);
+      }
+   }
+
+   /**
+    * @see IBlobPartAccessor#setFloats
+    */
+   public final void setFloats(final int[] index, final float[] src, final int off, final int len) {
+      long idx = rowMap(index, len);
+      final int col = index[lengths.length - 1];
+      int done = 0;
+      while (done < len) {
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, layout.runLength(idx, col + done));
+         getPart(idx1).putFloats(idx2 * 4, src, off + done, count);
+         done += count;
+         idx = layout.next(idx, count, col + done);
+      }
+   }
+
+   /**
+    * @see IBlobPartAccessor#setLongs
+    */
+   public final void setLongs(final int[] index, final long[] src, final int off, final int len) {
+      long idx = rowMap(index, len);
+      final int col = index[lengths.length - 1];
+      int done = 0;
+      while (done < len) {
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, layout.runLength(idx, col + done));
+         getPart(idx1).putLongs(idx2 * 8, src, off + done, count);
+         done += count;
+         idx = layout.next(idx, count, col + done);
+      }
+   }
+
+   /**
+    * @see IBlobPartAccessor#setInts
+    */
+   public final void setInts(final int[] index, final int[] src, final int off, final int len) {
+      long idx = rowMap(index, len);
+      final int col = index[lengths.length - 1];
+      int done = 0;
+      while (done < len) {
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, layout.runLength(idx, col + done));
+         getPart(idx1).putInts(idx2 * 4, src, off + done, count);
+         done += count;
+         idx = layout.next(idx, count, col + done);
+      }
+   }
+
+   /**
+    * @see IBlobPartAccessor#setShorts
+    */
+   public final void setShorts(final int[] index, final short[] src, final int off, final int len) {
+      long idx = rowMap(index, len);
+      final int col = index[lengths.length - 1];
+      int done = 0;
+      while (done < len) {
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, layout.runLength(idx, col + done));
+         getPart(idx1).putShorts(idx2 * 2, src, off + done, count);
+         done += count;
+         idx = layout.next(idx, count, col + done);
+      }
+   }
+
+   /**
+    * @see IBlobPartAccessor#setBytes
+    */
+   public final void setBytes(final int[] index, final byte[] src, final int off, final int len) {
+      long idx = rowMap(index, len);
+      final int col = index[lengths.length - 1];
+      int done = 0;
+      while (done < len) {
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, layout.runLength(idx, col + done));
+         getPart(idx1).putBytes(idx2 * 1, src, off + done, count);
+         done += count;
+         idx = layout.next(idx, count, col + done);
+      }
+   }
+
+   /**
+    * @see ILinearAccessor#getDouble(long)
+    */
+   public final double getDouble(final long linear) {
+      final long idx = layout.linearMap(linear);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 8;
+      return getPart(idx1).getDouble(idx2);
+   }
+
+   /**
+    * @see ILinearAccessor#getFloat(long)
+    */
+   public final float getFloat(final long linear) {
+      final long idx = layout.linearMap(linear);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 4;
+      return getPart(idx1).getFloat(idx2);
+   }
+
+   /**
+    * @see ILinearAccessor#getLong(long)
+    */
+   public final long getLong(final long linear) {
+      final long idx = layout.linearMap(linear);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 8;
+      return getPart(idx1).getLong(idx2);
+   }
+
+   /**
+    * @see ILinearAccessor#getInt(long)
+    */
+   public final int getInt(final long linear) {
+      final long idx = layout.linearMap(linear);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 4;
+      return getPart(idx1).getInt(idx2);
+   }
+
+   /**
+    * @see ILinearAccessor#getShort(long)
+    */
+   public final short getShort(final long linear) {
+      final long idx = layout.linearMap(linear);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 2;
+      return getPart(idx1).getShort(idx2);
+   }
+
+   /**
+    * @see ILinearAccessor#getByte(long)
+    */
+   public final byte getByte(final long linear) {
+      final long idx = layout.linearMap(linear);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 1;
+      return getPart(idx1).getByte(idx2);
+   }
+
+   /**
+    * @see ILinearAccessor#setDouble(long, double)
+    */
+   public final void setDouble(final long linear, final double value) {
+      final long idx = layout.linearMap(linear);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 8;
+      getPart(idx1).putDouble(idx2, value);
+   }
+
+   /**
+    * @see ILinearAccessor#setFloat(long, float)
+    */
+   public final void setFloat(final long linear, final float value) {
+      final long idx = layout.linearMap(linear);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 4;
+      getPart(idx1).putFloat(idx2, value);
+   }
+
+   /**
+    * @see ILinearAccessor#setLong(long, long)
+    */
+   public final void setLong(final long linear, final long value) {
+      final long idx = layout.linearMap(linear);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 8;
+      getPart(idx1).putLong(idx2, value);
+   }
+
+   /**
+    * @see ILinearAccessor#setInt(long, int)
+    */
+   public final void setInt(final long linear, final int value) {
+      final long idx = layout.linearMap(linear);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 4;
+      getPart(idx1).putInt(idx2, value);
+   }
+
+   /**
+    * @see ILinearAccessor#setShort(long, short)
+    */
+   public final void setShort(final long linear, final short value) {
+      final long idx = layout.linearMap(linear);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 2;
+      getPart(idx1).putShort(idx2, value);
+   }
+
+   /**
+    * @see ILinearAccessor#setByte(long, byte)
+    */
+   public final void setByte(final long linear, final byte value) {
+      final long idx = layout.linearMap(linear);
+      final int idx1 = (int) (idx / sizeForParts);
+      final int idx2 = (int) (idx % sizeForParts) * 1;
+      getPart(idx1).putByte(idx2, value);
+   }
+
+   /**
+    * @see ILinearAccessor#getDoubles(long, double[], int, int)
+    */
+   public final void getDoubles(final long linear, final double[] dst, final int off, final int len) {
+      checkLinear(linear, len);
+      int done = 0;
+      while (done < len) {
+         final long idx = layout.linearMap(linear + done);
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, linearRunLength(linear + done, idx));
+         getPart(idx1).getDoubles(idx2 * 8, dst, off + done, count);
+         done += count;
+      }
+   }
+
+   /**
+    * @see ILinearAccessor#getFloats(long, float[], int, int)
+    */
+   public final void getFloats(final long linear, final float[] dst, final int off, final int len) {
+      checkLinear(linear, len);
+      int done = 0;
+      while (done < len) {
+         final long idx = layout.linearMap(linear + done);
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, linearRunLength(linear + done, idx));
+         getPart(idx1).getFloats(idx2 * 4, dst, off + done, count);
+         done += count;
+      }
+   }
+
+   /**
+    * @see ILinearAccessor#getLongs(long, long[], int, int)
+    */
+   public final void getLongs(final long linear, final long[] dst, final int off, final int len) {
+      checkLinear(linear, len);
+      int done = 0;
+      while (done < len) {
+         final long idx = layout.linearMap(linear + done);
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, linearRunLength(linear + done, idx));
+         getPart(idx1).getLongs(idx2 * 8, dst, off + done, count);
+         done += count;
+      }
+   }
+
+   /**
+    * @see ILinearAccessor#getInts(long, int[], int, int)
+    */
+   public final void getInts(final long linear, final int[] dst, final int off, final int len) {
+      checkLinear(linear, len);
+      int done = 0;
+      while (done < len) {
+         final long idx = layout.linearMap(linear + done);
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, linearRunLength(linear + done, idx));
+         getPart(idx1).getInts(idx2 * 4, dst, off + done, count);
+         done += count;
+      }
+   }
+
+   /**
+    * @see ILinearAccessor#getShorts(long, short[], int, int)
+    */
+   public final void getShorts(final long linear, final short[] dst, final int off, final int len) {
+      checkLinear(linear, len);
+      int done = 0;
+      while (done < len) {
+         final long idx = layout.linearMap(linear + done);
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, linearRunLength(linear + done, idx));
+         getPart(idx1).getShorts(idx2 * 2, dst, off + done, count);
+         done += count;
+      }
+   }
+
+   /**
+    * @see ILinearAccessor#getBytes(long, byte[], int, int)
+    */
+   public final void getBytes(final long linear, final byte[] dst, final int off, final int len) {
+      checkLinear(linear, len);
+      int done = 0;
+      while (done < len) {
+         final long idx = layout.linearMap(linear + done);
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, linearRunLength(linear + done, idx));
+         getPart(idx1).getBytes(idx2 * 1, dst, off + done, count);
+         done += count;
+      }
+   }
+
+   /**
+    * @see ILinearAccessor#setDoubles(long, double[], int, int)
+    */
+   public final void setDoubles(final long linear, final double[] src, final int off, final int len) {
+      checkLinear(linear, len);
+      int done = 0;
+      while (done < len) {
+         final long idx = layout.linearMap(linear + done);
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, linearRunLength(linear + done, idx));
+         getPart(idx1).putDoubles(idx2 * 8, src, off + done, count);
+         done += count;
+      }
+   }
+
+   /**
+    * @see ILinearAccessor#setFloats(long, float[], int, int)
+    */
+   public final void setFloats(final long linear, final float[] src, final int off, final int len) {
+      checkLinear(linear, len);
+      int done = 0;
+      while (done < len) {
+         final long idx = layout.linearMap(linear + done);
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, linearRunLength(linear + done, idx));
+         getPart(idx1).putFloats(idx2 * 4, src, off + done, count);
+         done += count;
+      }
+   }
+
+   /**
+    * @see ILinearAccessor#setLongs(long, long[], int, int)
+    */
+   public final void setLongs(final long linear, final long[] src, final int off, final int len) {
+      checkLinear(linear, len);
+      int done = 0;
+      while (done < len) {
+         final long idx = layout.linearMap(linear + done);
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, linearRunLength(linear + done, idx));
+         getPart(idx1).putLongs(idx2 * 8, src, off + done, count);
+         done += count;
+      }
+   }
+
+   /**
+    * @see ILinearAccessor#setInts(long, int[], int, int)
+    */
+   public final void setInts(final long linear, final int[] src, final int off, final int len) {
+      checkLinear(linear, len);
+      int done = 0;
+      while (done < len) {
+         final long idx = layout.linearMap(linear + done);
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, linearRunLength(linear + done, idx));
+         getPart(idx1).putInts(idx2 * 4, src, off + done, count);
+         done += count;
+      }
+   }
+
+   /**
+    * @see ILinearAccessor#setShorts(long, short[], int, int)
+    */
+   public final void setShorts(final long linear, final short[] src, final int off, final int len) {
+      checkLinear(linear, len);
+      int done = 0;
+      while (done < len) {
+         final long idx = layout.linearMap(linear + done);
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, linearRunLength(linear + done, idx));
+         getPart(idx1).putShorts(idx2 * 2, src, off + done, count);
+         done += count;
+      }
+   }
+
+   /**
+    * @see ILinearAccessor#setBytes(long, byte[], int, int)
+    */
+   public final void setBytes(final long linear, final byte[] src, final int off, final int len) {
+      checkLinear(linear, len);
+      int done = 0;
+      while (done < len) {
+         final long idx = layout.linearMap(linear + done);
+         final int idx1 = (int) (idx / sizeForParts);
+         final int idx2 = (int) (idx % sizeForParts);
+         final int count = Math.min(len - done, linearRunLength(linear + done, idx));
+         getPart(idx1).putBytes(idx2 * 1, src, off + done, count);
+         done += count;
+      }
+   }
+
    /**
     * @see IMultiArray#getStorage
     */
@@ -355,11 +1051,76 @@ public class MultiArrayBlobPart implements IMultiArray, IBlobPartAccessor {
 
    @Override
    public void close() {
-      if (currentPart != null) {
-         currentPart.closeBuffer();
+      for (ReadAhead each : ahead.values()) {
+         release(each.cancel());
+      }
+      ahead.clear();
+      if (em == null) {
+         for (SplitBlobPart each : resident.values()) {
+            each.closeBuffer();
+         }
+      } else {
+         // Evicted all at once, so that modified parts are flushed only once
+         storage.evictParts(em, new ArrayList<SplitBlobPart>(resident.values()));
       }
+      resident.clear();
       this.listener = null;
       this.currentPartIdx = -1;
       this.currentPart = null;
    }
+
+   /**
+    * Opens a part read ahead, unless cancelled first.
+    */
+   private static final class ReadAhead implements Callable<SplitBlobPart> {
+      private final SplitBlobPart part;
+
+      private final FutureTask<SplitBlobPart> future;
+
+      private boolean cancelled;
+
+      ReadAhead(SplitBlobPart part) {
+         this.part = part;
+         this.future = new FutureTask<SplitBlobPart>(this);
+      }
+
+      public synchronized SplitBlobPart call() {
+         if (!cancelled) {
+            part.openBuffer();
+         }
+         return part;
+      }
+
+      /**
+       * Waits for the part to be opened, opening it in the calling thread if not yet started.
+       */
+      SplitBlobPart await() {
+         future.run();
+         try {
+            return future.get();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading ahead blob part", e);
+         } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+               throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+               throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+         }
+      }
+
+      /**
+       * Cancels the opening of the part, waiting for it if in progress. Returns the part, which
+       * must be released.
+       */
+      synchronized SplitBlobPart cancel() {
+         cancelled = true;
+         future.cancel(false);
+         return part;
+      }
+   }
 }
@@ -1,10 +1,14 @@
 package org.jenmo.core.orm;
 
+import java.lang.reflect.Method;
+import java.sql.Connection;
 import java.util.Collection;
 
 import javax.persistence.EntityManager;
 
 public class EclipseLinkActions extends JpaSpiActions {
+   private static final String strEclipseLinkPersistence = "org.eclipse.persistence.jpa.JpaHelper";
+
    @Override
    public EntityManager getEntityManager(Object pc) {
       throw new UnsupportedOperationException("TODO");
@@ -23,4 +27,33 @@ public class EclipseLinkActions extends JpaSpiActions {
          em.persist(o);
       }
    }
+
+   @Override
+   public Connection getConnection(EntityManager em) {
+      // UnitOfWork uow = JpaHelper.getEntityManager(em).getUnitOfWork();
+      // uow.beginEarlyTransaction();
+      // return ((AbstractSession) uow).getAccessor().getConnection();
+      try {
+         Method getEntityManager = Class.forName(strEclipseLinkPersistence).getMethod(
+               "getEntityManager", EntityManager.class);
+         Object eclipseLinkEm = getEntityManager.invoke(null, em);
+         Method getUnitOfWork = eclipseLinkEm.getClass().getMethod("getUnitOfWork");
+         Object uow = getUnitOfWork.invoke(eclipseLinkEm);
+         // The connection of the transaction, so that flushed changes are seen
+         Method beginEarlyTransaction = uow.getClass().getMethod("beginEarlyTransaction");
+         beginEarlyTransaction.invoke(uow);
+         Method getAccessor = uow.getClass().getMethod("getAccessor");
+         Object accessor = getAccessor.invoke(uow);
+         Method getConnection = accessor.getClass().getMethod("getConnection");
+         return (Connection) getConnection.invoke(accessor);
+      } catch (Exception e) {
+         throw new IllegalJpaSpiActionException(e);
+      }
+   }
+
+   @Override
+   public long getFirstAllocatedId(long sequenceValue, int allocationSize) {
+      // EclipseLink allocates the identities up to the value of the sequence
+      return sequenceValue - allocationSize + 1;
+   }
 }
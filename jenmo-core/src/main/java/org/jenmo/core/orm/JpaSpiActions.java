@@ -18,9 +18,11 @@
  */
 package org.jenmo.core.orm;
 
+import java.sql.Connection;
 import java.util.Collection;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
 
 import org.jenmo.core.config.JenmoConfig;
 
@@ -75,4 +77,49 @@ public abstract class JpaSpiActions {
          em.remove(each);
       }
    }
+
+   /**
+    * Detach the given objects from the persistence context. Unflushed changes will not be
+    * synchronized to the database.
+    */
+   public void detachAll(EntityManager em, Collection<?> pcs) {
+      for (Object each : pcs) {
+         em.detach(each);
+      }
+   }
+
+   /**
+    * Asks the given query to load the given (lazy) field of the selected objects along with them.
+    * Does nothing by default, the field is then loaded as specified by the mapping.
+    */
+   public void addFetchField(Query query, Class<?> clazz, String field) {
+   }
+
+   /**
+    * Gets the JDBC connection used by the given entity manager in its current transaction, in
+    * order to run statements along with the flushed changes. It must be given back with
+    * {@link #releaseConnection(EntityManager, Connection)}. Unwrapped from the entity manager by
+    * default.
+    */
+   public Connection getConnection(EntityManager em) {
+      return em.unwrap(Connection.class);
+   }
+
+   /**
+    * Gives back a connection got with {@link #getConnection(EntityManager)}. Does nothing by
+    * default, the connection then belongs to the entity manager.
+    */
+   public void releaseConnection(EntityManager em, Connection conn) {
+   }
+
+   /**
+    * Gets the first of the identities reserved by the given value of a database sequence, whose
+    * increment is <code>allocationSize</code>, in the way the JPA provider allocates the
+    * identities of a <code>SequenceGenerator</code>. Identities reserved outside of JPA (see
+    * <code>SplitBlobPartInserter</code>) then never collide with the ones allocated by the
+    * provider. By default, the value is the first identity of the block.
+    */
+   public long getFirstAllocatedId(long sequenceValue, int allocationSize) {
+      return sequenceValue;
+   }
 }
@@ -19,10 +19,13 @@
 package org.jenmo.core.orm;
 
 import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.Collection;
 import java.util.Map;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
 
 import org.jenmo.common.cache.SoftValueMap;
 
@@ -93,4 +96,62 @@ public class OpenJpaActions extends JpaSpiActions {
          throw new IllegalJpaSpiActionException(e);
       }
    }
+
+   @Override
+   public void addFetchField(Query query, Class<?> clazz, String field) {
+      // OpenJPAPersistence.cast(query).getFetchPlan().addField(clazz, field);
+      try {
+         Method castQuery = methodsCache.get("castQuery");
+         if (castQuery == null) {
+            castQuery = Class.forName(strOpenJPAPersistence).getMethod("cast", Query.class);
+            methodsCache.put("castQuery", castQuery);
+         }
+         Object openJpaQuery = castQuery.invoke(null, query);
+         Method getFetchPlan = methodsCache.get("getFetchPlan");
+         if (getFetchPlan == null) {
+            getFetchPlan = openJpaQuery.getClass().getMethod("getFetchPlan");
+            methodsCache.put("getFetchPlan", getFetchPlan);
+         }
+         Object fetchPlan = getFetchPlan.invoke(openJpaQuery);
+         Method addField = methodsCache.get("addField");
+         if (addField == null) {
+            addField = fetchPlan.getClass().getMethod("addField", Class.class, String.class);
+            methodsCache.put("addField", addField);
+         }
+         addField.invoke(fetchPlan, clazz, field);
+      } catch (Exception e) {
+         throw new IllegalJpaSpiActionException(e);
+      }
+   }
+
+   @Override
+   public Connection getConnection(EntityManager em) {
+      // (Connection) OpenJPAPersistence.cast(em).getConnection();
+      try {
+         Method cast = methodsCache.get("cast");
+         if (cast == null) {
+            cast = Class.forName(strOpenJPAPersistence).getMethod("cast", EntityManager.class);
+            methodsCache.put("cast", cast);
+         }
+         Object openJpaEm = cast.invoke(null, em);
+         Method getConnection = methodsCache.get("getConnection");
+         if (getConnection == null) {
+            getConnection = openJpaEm.getClass().getMethod("getConnection");
+            methodsCache.put("getConnection", getConnection);
+         }
+         return (Connection) getConnection.invoke(openJpaEm);
+      } catch (Exception e) {
+         throw new IllegalJpaSpiActionException(e);
+      }
+   }
+
+   @Override
+   public void releaseConnection(EntityManager em, Connection conn) {
+      // Gives the connection back to OpenJPA, the transaction goes on
+      try {
+         conn.close();
+      } catch (SQLException e) {
+         throw new IllegalJpaSpiActionException(e);
+      }
+   }
 }
@@ -39,8 +39,8 @@ public abstract class SplitBlobUtils {
     *           the shape.
     * @return product of the dimensions.
     */
-   public static int numberOfElements(final int[] dimensions) {
-      int product = 1;
+   public static long numberOfElements(final int[] dimensions) {
+      long product = 1;
       for (int ii = dimensions.length - 1; ii >= 0; ii--) {
          product *= dimensions[ii];
       }
@@ -58,8 +58,8 @@ public abstract class SplitBlobUtils {
     * @param products
     *           modified upon return to contain the intermediate products
     */
-   public static int numberOfElements(int[] dimensions, int[] products) {
-      int product = 1;
+   public static long numberOfElements(int[] dimensions, long[] products) {
+      long product = 1;
       for (int ii = dimensions.length - 1; ii >= 0; ii--) {
          final int thisDim = dimensions[ii];
          if (thisDim < 0)
@@ -163,6 +163,9 @@ public abstract class SplitBlobUtils {
       if (primitive == Float.TYPE) {
          return PType.PFLOAT;
       }
+      if (primitive == Long.TYPE) {
+         return PType.PLONG;
+      }
       if (primitive == Integer.TYPE) {
          return PType.PINTEGER;
       }
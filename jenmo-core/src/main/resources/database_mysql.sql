@@ -6,8 +6,9 @@ CREATE TABLE NODEREVISION (ID BIGINT NOT NULL AUTO_INCREMENT, CONTEXT VARCHAR(25
 CREATE TABLE NODETYPE (ID BIGINT NOT NULL AUTO_INCREMENT, NTYPE VARCHAR(255) NOT NULL, PRIMARY KEY (ID)) TYPE = innodb;
 CREATE TABLE PROPERTY (ID BIGINT NOT NULL AUTO_INCREMENT, NAME VARCHAR(255) NOT NULL, VERSION INTEGER, PRIMARY KEY (ID)) TYPE = innodb;
 CREATE TABLE PROPERTY_NODETYPE (PROPERTY_ID BIGINT, NODETYPE_ID BIGINT) TYPE = innodb;
-CREATE TABLE SPLITBLOB (ID BIGINT NOT NULL AUTO_INCREMENT, NUMELT BIGINT, NUMELTEACHPART INTEGER, SHAPE VARCHAR(255) NOT NULL, PTYPE SMALLINT, VERSION INTEGER, PRIMARY KEY (ID)) TYPE = innodb;
-CREATE TABLE SPLITBLOBPART (ID BIGINT NOT NULL AUTO_INCREMENT, DATA LONGBLOB, DATASIZE INTEGER, ORDR INTEGER, VERSION INTEGER, PARENT_ID BIGINT NOT NULL, PRIMARY KEY (ID)) TYPE = innodb;
+CREATE TABLE SPLITBLOB (ID BIGINT NOT NULL AUTO_INCREMENT, CHUNKSHAPE VARCHAR(255), NUMELT BIGINT, NUMELTEACHPART INTEGER, SHAPE VARCHAR(255) NOT NULL, PTYPE SMALLINT, STORAGEFORMAT INTEGER, VERSION INTEGER, PRIMARY KEY (ID)) TYPE = innodb;
+CREATE TABLE SPLITBLOBPART (ID BIGINT NOT NULL AUTO_INCREMENT, CODEC VARCHAR(32), CONTENTHASH VARCHAR(64), DATA LONGBLOB, DATASIZE INTEGER, NANCOUNT INTEGER, ORDR INTEGER, STATCOUNT INTEGER, STATMAX DOUBLE, STATMIN DOUBLE, STATSUM DOUBLE, VERSION INTEGER, PARENT_ID BIGINT NOT NULL, PAYLOAD_ID BIGINT, PRIMARY KEY (ID)) TYPE = innodb;
+CREATE TABLE SPLITBLOBPAYLOAD (ID BIGINT NOT NULL AUTO_INCREMENT, CONTENTHASH VARCHAR(64) NOT NULL, DATA LONGBLOB, DATASIZE INTEGER, PRIMARY KEY (ID)) TYPE = innodb;
 CREATE INDEX I_EDGE_FROM ON EDGE (FROM_ID);
 CREATE INDEX I_EDGE_TO ON EDGE (TO_ID);
 CREATE INDEX I_NODE_NODETYPE ON NODE (NODETYPE_ID);
@@ -20,3 +21,5 @@ CREATE INDEX I_NDRVSON_REVISION ON NODEREVISION (REVISION_ID);
 CREATE INDEX I_PRPRTYP_ELEMENT ON PROPERTY_NODETYPE (NODETYPE_ID);
 CREATE INDEX I_PRPRTYP_PROPERTY_ID ON PROPERTY_NODETYPE (PROPERTY_ID);
 CREATE INDEX I_SPLTPRT_PARENT ON SPLITBLOBPART (PARENT_ID);
+CREATE INDEX I_SPLTPRT_PAYLOAD ON SPLITBLOBPART (PAYLOAD_ID);
+CREATE INDEX I_SPLTPLD_CONTENTHASH ON SPLITBLOBPAYLOAD (CONTENTHASH);
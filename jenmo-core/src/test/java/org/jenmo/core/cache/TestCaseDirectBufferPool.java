@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.cache;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCaseDirectBufferPool {
+   @Test
+   public void testAcquireRelease() {
+      DirectBufferPool pool = new DirectBufferPool(100000);
+      ByteBuffer buffer = pool.acquire(5000);
+      Assert.assertTrue(buffer.isDirect());
+      Assert.assertEquals(0, buffer.position());
+      Assert.assertEquals(5000, buffer.limit());
+      Assert.assertEquals(8192, buffer.capacity());
+      buffer.put(10, (byte) 1);
+      pool.release(buffer);
+      Assert.assertEquals(8192, pool.getSize());
+
+      // Same size class: the buffer is reused
+      ByteBuffer again = pool.acquireZeroed(7000);
+      Assert.assertSame(buffer, again);
+      Assert.assertEquals(7000, again.limit());
+      Assert.assertEquals(0, again.get(10));
+      Assert.assertEquals(0, pool.getSize());
+
+      // Small sizes share the smallest class
+      Assert.assertEquals(4096, pool.acquire(0).capacity());
+      Assert.assertEquals(4096, pool.acquire(4096).capacity());
+      Assert.assertEquals(8192, pool.acquire(4097).capacity());
+   }
+
+   @Test
+   public void testBounded() {
+      DirectBufferPool pool = new DirectBufferPool(10000);
+      ByteBuffer b1 = pool.acquire(8192);
+      ByteBuffer b2 = pool.acquire(8192);
+      pool.release(b1);
+      pool.release(b2);
+      Assert.assertEquals(8192, pool.getSize());
+      // Foreign buffers are ignored
+      pool.release(ByteBuffer.allocate(4096));
+      pool.release(ByteBuffer.allocateDirect(5000));
+      Assert.assertEquals(8192, pool.getSize());
+   }
+}
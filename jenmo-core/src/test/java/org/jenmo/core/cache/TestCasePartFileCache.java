@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCasePartFileCache {
+   private File dir;
+
+   @Before
+   public void setUp() throws IOException {
+      dir = File.createTempFile("partcache", "");
+      dir.delete();
+   }
+
+   @After
+   public void tearDown() {
+      File[] files = dir.listFiles();
+      if (files != null) {
+         for (File each : files) {
+            each.delete();
+         }
+      }
+      dir.delete();
+   }
+
+   private static byte[] newBytes(int length, int seed) {
+      byte[] out = new byte[length];
+      for (int i = 0; i < length; i++) {
+         out[i] = (byte) (i + seed);
+      }
+      return out;
+   }
+
+   @Test
+   public void testPutGet() {
+      PartFileCache cache = new PartFileCache(dir, 1000);
+      Assert.assertNull(cache.get("h1"));
+
+      byte[] raw = newBytes(100, 3);
+      cache.put("h1", raw);
+      Assert.assertTrue(cache.contains("h1"));
+      Assert.assertFalse(cache.contains("h9"));
+      Assert.assertEquals(100, cache.getSize());
+
+      ByteBuffer buffer = cache.get("h1");
+      Assert.assertTrue(buffer.isReadOnly());
+      Assert.assertEquals(100, buffer.capacity());
+      byte[] read = new byte[100];
+      buffer.get(read);
+      Assert.assertArrayEquals(raw, read);
+
+      cache.remove("h1");
+      Assert.assertNull(cache.get("h1"));
+      Assert.assertEquals(0, cache.getSize());
+   }
+
+   @Test
+   public void testEviction() {
+      PartFileCache cache = new PartFileCache(dir, 250);
+      cache.put("h1", newBytes(100, 1));
+      cache.put("h2", newBytes(100, 2));
+      // Entry 1 is now the most recently used
+      Assert.assertNotNull(cache.get("h1"));
+      cache.put("h3", newBytes(100, 3));
+      Assert.assertTrue(cache.contains("h1"));
+      Assert.assertFalse(cache.contains("h2"));
+      Assert.assertTrue(cache.contains("h3"));
+      Assert.assertEquals(200, cache.getSize());
+
+      // Too large to be cached
+      cache.put("h4", newBytes(300, 4));
+      Assert.assertFalse(cache.contains("h4"));
+   }
+
+   @Test
+   public void testReload() {
+      PartFileCache cache = new PartFileCache(dir, 1000);
+      cache.put("h1", newBytes(100, 1));
+      cache.put("h2", newBytes(50, 2));
+
+      PartFileCache other = new PartFileCache(dir, 1000);
+      Assert.assertEquals(150, other.getSize());
+      ByteBuffer buffer = other.get("h2");
+      Assert.assertEquals(newBytes(50, 2)[10], buffer.get(10));
+
+      other.clear();
+      Assert.assertEquals(0, other.getSize());
+      Assert.assertEquals(0, dir.listFiles().length);
+   }
+}
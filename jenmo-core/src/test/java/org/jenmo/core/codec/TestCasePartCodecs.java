@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.jenmo.core.util.SplitBlobUtils.PType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCasePartCodecs {
+   private static final String[] NAMES = new String[] { "none", "deflate", "lz4", "shuffle+deflate",
+         "shuffle+lz4", "sparse", "sparse+lz4", "numeric" };
+
+   private static void checkRoundTrip(byte[] raw, PType type) {
+      for (String name : NAMES) {
+         IPartCodec codec = PartCodecs.get(name);
+         byte[] stored = codec.encode(ByteBuffer.wrap(raw.clone()), type);
+         byte[] decoded = new byte[raw.length];
+         codec.decode(stored, 0, ByteBuffer.wrap(decoded), type);
+         Assert.assertArrayEquals(name, raw, decoded);
+         // Same with stored bytes at an offset
+         byte[] shifted = new byte[stored.length + 3];
+         System.arraycopy(stored, 0, shifted, 3, stored.length);
+         decoded = new byte[raw.length];
+         codec.decode(shifted, 3, ByteBuffer.wrap(decoded), type);
+         Assert.assertArrayEquals(name, raw, decoded);
+         // Same with direct buffers
+         ByteBuffer direct = ByteBuffer.allocateDirect(raw.length);
+         direct.put(raw).clear();
+         Assert.assertArrayEquals(name, stored, codec.encode(direct, type));
+         ByteBuffer target = ByteBuffer.allocateDirect(raw.length);
+         codec.decode(stored, 0, target, type);
+         Assert.assertEquals(name, 0, target.position());
+         target.get(decoded);
+         Assert.assertArrayEquals(name, raw, decoded);
+      }
+   }
+
+   @Test
+   public void testSmall() {
+      checkRoundTrip(new byte[] { 1 }, PType.PBYTE);
+      checkRoundTrip(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13 }, PType.PBYTE);
+      checkRoundTrip(new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 }, PType.PBYTE);
+   }
+
+   @Test
+   public void testDoubles() {
+      ByteBuffer buffer = ByteBuffer.allocate(8 * 100000);
+      for (int i = 0; i < 100000; i++) {
+         buffer.putDouble(Math.sin(i / 1000.0));
+      }
+      byte[] raw = buffer.array();
+      checkRoundTrip(raw, PType.PDOUBLE);
+      buffer.clear();
+      // Shuffling helps for floating point values
+      Assert.assertTrue(PartCodecs.SHUFFLE_LZ4.encode(buffer, PType.PDOUBLE).length < raw.length);
+      int shuffled = PartCodecs.SHUFFLE_DEFLATE.encode(buffer, PType.PDOUBLE).length;
+      Assert.assertTrue(shuffled < PartCodecs.DEFLATE.encode(buffer, PType.PDOUBLE).length);
+   }
+
+   @Test
+   public void testRandom() {
+      Random random = new Random(17);
+      // Incompressible, with an odd length for the shuffle
+      byte[] raw = new byte[70001];
+      random.nextBytes(raw);
+      checkRoundTrip(raw, PType.PINTEGER);
+      // Long runs and matches farther than the window
+      for (int i = 0; i < raw.length; i++) {
+         raw[i] = (byte) ((i / 1000) % 3);
+      }
+      checkRoundTrip(raw, PType.PSHORT);
+   }
+
+   @Test
+   public void testSparse() {
+      int count = 10000;
+      ByteBuffer buffer = ByteBuffer.allocate(8 * count);
+      for (int i = 0; i < count; i++) {
+         buffer.putDouble(-999.0);
+      }
+      byte[] raw = buffer.array();
+      checkRoundTrip(raw, PType.PDOUBLE);
+      byte[] stored = PartCodecs.SPARSE.encode(ByteBuffer.wrap(raw), PType.PDOUBLE);
+      Assert.assertTrue(stored.length < 16);
+      Assert.assertEquals(-999.0, PartCodecs.constantOf("sparse", stored).getDouble(0), 0);
+      Assert.assertNull(PartCodecs.constantOf("lz4", stored));
+
+      // Few values differ from the fill value
+      for (int i = 0; i < count; i += 100) {
+         buffer.putDouble(8 * i, i);
+      }
+      checkRoundTrip(raw, PType.PDOUBLE);
+      stored = PartCodecs.SPARSE.encode(ByteBuffer.wrap(raw), PType.PDOUBLE);
+      Assert.assertTrue(stored.length < raw.length / 10);
+      Assert.assertNull(PartCodecs.constantOf("sparse", stored));
+
+      // Mostly zero, but not the first element
+      Arrays.fill(raw, (byte) 0);
+      buffer.putDouble(0, Double.NaN);
+      buffer.putDouble(8 * (count - 1), Double.NaN);
+      checkRoundTrip(raw, PType.PDOUBLE);
+      Assert.assertTrue(PartCodecs.SPARSE.encode(ByteBuffer.wrap(raw), PType.PDOUBLE).length < 64);
+
+      // Dense
+      for (int i = 0; i < count; i++) {
+         buffer.putDouble(8 * i, i);
+      }
+      checkRoundTrip(raw, PType.PDOUBLE);
+      Assert.assertEquals(raw.length + 1, PartCodecs.SPARSE.encode(ByteBuffer.wrap(raw),
+            PType.PDOUBLE).length);
+   }
+
+   @Test
+   public void testNumeric() {
+      int count = 100000;
+      ByteBuffer buffer = ByteBuffer.allocate(8 * count);
+      for (int i = 0; i < count; i++) {
+         buffer.putDouble(8 * i, 300 + 10 * Math.sin(i / 1000.0));
+      }
+      byte[] raw = buffer.array();
+      checkRoundTrip(raw, PType.PDOUBLE);
+      Assert.assertTrue(PartCodecs.NUMERIC.encode(buffer, PType.PDOUBLE).length < raw.length);
+
+      // Smooth floats, with sign changes
+      buffer = ByteBuffer.allocate(4 * count);
+      for (int i = 0; i < count; i++) {
+         buffer.putFloat(4 * i, (float) Math.sin(i / 100.0));
+      }
+      checkRoundTrip(buffer.array(), PType.PFLOAT);
+
+      // Slowly varying integers are packed in few bits
+      for (int i = 0; i < count; i++) {
+         buffer.putInt(4 * i, 1000000 + i / 3 - (i % 5));
+      }
+      checkRoundTrip(buffer.array(), PType.PINTEGER);
+      Assert.assertTrue(PartCodecs.NUMERIC.encode(buffer, PType.PINTEGER).length < count);
+      for (int i = 0; i < 2 * count; i++) {
+         buffer.putShort(2 * i, (short) (i % 200 - 100));
+      }
+      checkRoundTrip(buffer.array(), PType.PSHORT);
+      checkRoundTrip(buffer.array(), PType.PBYTE);
+
+      // Extreme values
+      buffer = ByteBuffer.allocate(8 * 1000);
+      Random random = new Random(5);
+      for (int i = 0; i < 1000; i++) {
+         buffer.putLong(8 * i, (i % 2 == 0) ? Long.MIN_VALUE : Long.MAX_VALUE - random.nextInt(3));
+      }
+      checkRoundTrip(buffer.array(), PType.PLONG);
+      for (int i = 0; i < 1000; i++) {
+         buffer.putLong(8 * i, random.nextLong());
+      }
+      checkRoundTrip(buffer.array(), PType.PLONG);
+      Assert.assertEquals(8 * 1000 + 1, PartCodecs.NUMERIC.encode(buffer, PType.PLONG).length);
+   }
+
+   @Test(expected = PartCodecException.class)
+   public void testCorrupted() {
+      byte[] raw = new byte[1000];
+      byte[] stored = PartCodecs.LZ4.encode(ByteBuffer.wrap(raw), PType.PBYTE);
+      PartCodecs.LZ4.decode(stored, 0, ByteBuffer.allocate(999), PType.PBYTE);
+   }
+
+   @Test(expected = PartCodecException.class)
+   public void testUnknown() {
+      PartCodecs.get("unknown");
+   }
+}
@@ -111,6 +111,7 @@ public abstract class AbstractTestDb {
       em.createNativeQuery("delete from PROPERTY_NODETYPE").executeUpdate();
       em.createNativeQuery("delete from SPLITBLOB").executeUpdate();
       em.createNativeQuery("delete from SPLITBLOBPART").executeUpdate();
+      em.createNativeQuery("delete from SPLITBLOBPAYLOAD").executeUpdate();
 
       txCommit(em);
    }
@@ -0,0 +1,1044 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.domain;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jenmo.common.multiarray.IndexIterator;
+import org.jenmo.common.multiarray.MultiArrayView;
+import org.jenmo.core.cache.DirectBufferPool;
+import org.jenmo.core.listener.IListener;
+import org.jenmo.core.listener.SplitBlobEvent;
+import org.jenmo.core.multiarray.BlobAggregate;
+import org.jenmo.core.multiarray.BlobLayout;
+import org.jenmo.core.multiarray.BlobOperations;
+import org.jenmo.core.multiarray.DoubleCursor;
+import org.jenmo.core.multiarray.IBlobPartAccessor;
+import org.jenmo.core.multiarray.IntCursor;
+import org.jenmo.core.multiarray.MultiArrayBlobPart;
+import org.jenmo.core.util.SplitBlobUtils.PType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCaseSplitBlob {
+   // Not a divisor of any row length so that rows are split between parts
+   private static final int PART_COUNT = 7;
+
+   private static final int NI = 5;
+
+   private static final int NJ = 4;
+
+   private static final int NK = 6;
+
+   private static double[][][] newDoubles() {
+      double[][][] values = new double[NI][NJ][NK];
+      int count = 0;
+      for (int i = 0; i < NI; i++) {
+         for (int j = 0; j < NJ; j++) {
+            for (int k = 0; k < NK; k++) {
+               values[i][j][k] = count++;
+            }
+         }
+      }
+      return values;
+   }
+
+   @Test
+   public void testSetGetAll() {
+      double[][][] values = newDoubles();
+      SplitBlob sb = SplitBlob.newInstance(PART_COUNT, values);
+      Assert.assertEquals(NI * NJ * NK, sb.getElmtCount());
+
+      double[][][] results = sb.getValues(double[][][].class);
+      for (int i = 0; i < NI; i++) {
+         for (int j = 0; j < NJ; j++) {
+            Assert.assertArrayEquals(values[i][j], results[i][j], 10e-9);
+         }
+      }
+   }
+
+   @Test
+   public void testGetSub() {
+      double[][][] values = newDoubles();
+      SplitBlob sb = SplitBlob.newInstance(PART_COUNT, values);
+
+      int[] fromPos = new int[] { 1, 2, 3 };
+      int[] lengths = new int[] { 3, 2, 2 };
+      double[][][] results = sb.getValues(double[][][].class, fromPos, lengths);
+      for (int i = 0; i < lengths[0]; i++) {
+         for (int j = 0; j < lengths[1]; j++) {
+            for (int k = 0; k < lengths[2]; k++) {
+               double expected = values[i + fromPos[0]][j + fromPos[1]][k + fromPos[2]];
+               Assert.assertEquals(expected, results[i][j][k], 10e-9);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testAccessor() {
+      double[][][] values = newDoubles();
+      SplitBlob sb = SplitBlob.newInstance(PART_COUNT, values);
+
+      IBlobPartAccessor reader = sb.getAccessor();
+      IndexIterator ii = new IndexIterator(sb.getShape());
+      for (; ii.notDone(); ii.incr()) {
+         int[] index = ii.value();
+         Assert.assertEquals(values[index[0]][index[1]][index[2]], reader.getDouble(index), 10e-9);
+      }
+      reader.close();
+   }
+
+   @Test
+   public void testOtherTypes() {
+      long[][] longs = new long[][] { { 1L, Long.MAX_VALUE, 3L }, { -4L, 5L, Long.MIN_VALUE } };
+      SplitBlob sb = SplitBlob.newInstance(4, longs);
+      long[][] longResults = sb.getValues(long[][].class);
+      Assert.assertArrayEquals(longs[0], longResults[0]);
+      Assert.assertArrayEquals(longs[1], longResults[1]);
+
+      short[] shorts = new short[] { 1, -2, 3, Short.MAX_VALUE, 5 };
+      sb = SplitBlob.newInstance(2, shorts);
+      Assert.assertArrayEquals(shorts, sb.getValues(short[].class));
+
+      byte[] bytes = new byte[] { 1, -2, 3, Byte.MAX_VALUE, 5 };
+      sb = SplitBlob.newInstance(3, bytes);
+      Assert.assertArrayEquals(bytes, sb.getValues(byte[].class));
+   }
+
+   @Test
+   public void testGetSubParallel() {
+      double[][][] values = newDoubles();
+      SplitBlob sb = SplitBlob.newInstance(PART_COUNT, values);
+
+      final List<SplitBlobPart> rolled = new ArrayList<SplitBlobPart>();
+      IListener<SplitBlobEvent> listener = new IListener<SplitBlobEvent>() {
+         @Override
+         public void update(SplitBlobEvent o, Object arg) {
+            rolled.add(o.getNewPart());
+         }
+      };
+
+      ExecutorService executor = Executors.newFixedThreadPool(3);
+      try {
+         int[] fromPos = new int[] { 1, 0, 2 };
+         int[] lengths = new int[] { 4, 3, 4 };
+         double[][][] results = sb.getValues(double[][][].class, fromPos, lengths, listener,
+               executor);
+         for (int i = 0; i < lengths[0]; i++) {
+            for (int j = 0; j < lengths[1]; j++) {
+               for (int k = 0; k < lengths[2]; k++) {
+                  double expected = values[i + fromPos[0]][j + fromPos[1]][k + fromPos[2]];
+                  Assert.assertEquals(expected, results[i][j][k], 10e-9);
+               }
+            }
+         }
+         // Each part is notified once, in order
+         for (int i = 1; i < rolled.size(); i++) {
+            Assert.assertTrue(rolled.get(i - 1).getOrdr() < rolled.get(i).getOrdr());
+         }
+
+         double[][][] all = sb.getValues(double[][][].class, executor);
+         for (int i = 0; i < NI; i++) {
+            for (int j = 0; j < NJ; j++) {
+               Assert.assertArrayEquals(values[i][j], all[i][j], 10e-9);
+            }
+         }
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void testCodecs() {
+      double[][][] values = newDoubles();
+      int[] shape = new int[] { NI, NJ, NK };
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+         for (String codec : new String[] { "deflate", "lz4", "shuffle+lz4" }) {
+            SplitBlob sb = SplitBlob.newInstance(PART_COUNT, double.class, shape);
+            sb.setPartCodec(codec);
+            sb.setValues(values);
+            Assert.assertEquals(codec, sb.getPart(0).getCodec());
+
+            double[][][] results = sb.getValues(double[][][].class);
+            double[][][] all = sb.getValues(double[][][].class, executor);
+            for (int i = 0; i < NI; i++) {
+               for (int j = 0; j < NJ; j++) {
+                  Assert.assertArrayEquals(values[i][j], results[i][j], 10e-9);
+                  Assert.assertArrayEquals(values[i][j], all[i][j], 10e-9);
+               }
+            }
+
+            // Copies keep the codec of parts
+            SplitBlob copy = SplitBlob.copy(sb);
+            Assert.assertEquals(codec, copy.getPart(0).getCodec());
+            IBlobPartAccessor reader = copy.getAccessor();
+            Assert.assertEquals(values[NI - 1][NJ - 1][NK - 1], reader.getDouble(new int[] {
+                  NI - 1, NJ - 1, NK - 1 }), 10e-9);
+            reader.close();
+         }
+      } finally {
+         executor.shutdown();
+      }
+
+      // Compressible values are smaller once stored
+      SplitBlob sb = SplitBlob.newInstance(1000, double.class, new int[] { 10000 });
+      sb.setPartCodec("shuffle+deflate");
+      sb.setValues(new double[10000]);
+      Assert.assertTrue(sb.getPart(0).getStoredSize() < 8 * 1000);
+   }
+
+   @Test
+   public void testConstantParts() {
+      double[][][] values = newDoubles();
+      for (int i = 0; i < NI; i++) {
+         for (int j = 0; j < NJ; j++) {
+            Arrays.fill(values[i][j], (i < NI / 2) ? -999.0 : 0.0);
+         }
+      }
+      values[NI - 1][NJ - 1][NK - 1] = 1.0;
+      SplitBlob sb = SplitBlob.newInstance(new int[] { 1, NJ, NK }, double.class, new int[] { NI,
+            NJ, NK });
+      sb.setPartCodec("sparse");
+      sb.setValues(values);
+      Assert.assertTrue(sb.getPart(0).getStoredSize() < 16);
+      Assert.assertTrue(sb.getPart(NI - 1).getStoredSize() < 64);
+      double[][][] results = sb.getValues(double[][][].class);
+      for (int i = 0; i < NI; i++) {
+         for (int j = 0; j < NJ; j++) {
+            Assert.assertArrayEquals(values[i][j], results[i][j], 0);
+         }
+      }
+      double[] row = new double[NK];
+      IBlobPartAccessor accessor = sb.getAccessor();
+      accessor.getDoubles(new int[] { 0, 1, 0 }, row, 0, NK);
+      for (double each : row) {
+         Assert.assertEquals(-999.0, each, 0);
+      }
+
+      // Allocated on first write
+      accessor.setDouble(new int[] { 0, 1, 2 }, 3.0);
+      Assert.assertEquals(-999.0, accessor.getDouble(new int[] { 0, 1, 1 }), 0);
+      Assert.assertEquals(3.0, accessor.getDouble(new int[] { 0, 1, 2 }), 0);
+      accessor.close();
+      Assert.assertEquals(3.0, sb.getValues(double[][][].class)[0][1][2], 0);
+      Assert.assertEquals(-999.0, sb.getValues(double[][][].class)[0][1][3], 0);
+   }
+
+   @Test
+   public void testTypedViews() {
+      checkTypedViews();
+      // Pooled buffers are larger than parts
+      DirectBufferPool.setInstance(new DirectBufferPool(1 << 24));
+      try {
+         checkTypedViews();
+      } finally {
+         DirectBufferPool.setInstance(null);
+      }
+   }
+
+   private static void checkTypedViews() {
+      double[][][] values = newDoubles();
+      for (String codec : new String[] { null, "numeric", "sparse", "deflate" }) {
+         SplitBlob sb = SplitBlob.newInstance(NJ * NK, double.class, new int[] { NI, NJ, NK });
+         Assert.assertEquals(ByteOrder.LITTLE_ENDIAN, sb.getByteOrder());
+         sb.setPartCodec(codec);
+         sb.setValues(values);
+         Assert.assertEquals(ByteOrder.LITTLE_ENDIAN, SplitBlob.copy(sb).getByteOrder());
+         for (int i = 0; i < NI; i++) {
+            SplitBlobPart part = sb.getPart(i);
+            part.openBuffer();
+            DoubleBuffer view = part.asDoubleBuffer();
+            Assert.assertTrue(view.isReadOnly());
+            Assert.assertEquals(NJ * NK, view.remaining());
+            double[] all = new double[NJ * NK];
+            view.get(all);
+            for (int j = 0; j < NJ; j++) {
+               for (int k = 0; k < NK; k++) {
+                  Assert.assertEquals(values[i][j][k], all[j * NK + k], 0);
+               }
+            }
+            Assert.assertEquals(values[i][0][1], part.asByteBuffer().getDouble(8), 0);
+            part.closeBuffer();
+         }
+      }
+
+      // Constant part
+      SplitBlob sb = SplitBlob.newInstance(10, int.class, new int[] { 10 });
+      sb.setPartCodec("sparse");
+      sb.setValues(new int[] { 7, 7, 7, 7, 7, 7, 7, 7, 7, 7 });
+      SplitBlobPart part = sb.getPart(0);
+      part.openBuffer();
+      Assert.assertEquals(7, part.getInt(36));
+      IntBuffer ints = part.asIntBuffer();
+      Assert.assertEquals(10, ints.remaining());
+      Assert.assertEquals(7, ints.get(9));
+      part.closeBuffer();
+   }
+
+   @Test
+   public void testPooledBuffers() {
+      DirectBufferPool pool = new DirectBufferPool(1 << 24);
+      DirectBufferPool.setInstance(pool);
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+         double[][][] values = newDoubles();
+         SplitBlob sb = SplitBlob.newInstance(PART_COUNT, double.class, new int[] { NI, NJ, NK });
+         sb.setPartCodec("shuffle+lz4");
+         sb.setValues(values);
+         // Buffers have been given back once parts closed
+         Assert.assertTrue(pool.getSize() > 0);
+         Assert.assertFalse(sb.getPart(0).isBufferOpen());
+
+         double[][][] results = sb.getValues(double[][][].class, executor);
+         for (int i = 0; i < NI; i++) {
+            for (int j = 0; j < NJ; j++) {
+               Assert.assertArrayEquals(values[i][j], results[i][j], 10e-9);
+            }
+         }
+
+         // Parts without codec keep their heap data
+         SplitBlob raw = SplitBlob.newInstance(PART_COUNT, double.class, new int[] { NI, NJ, NK });
+         raw.setValues(values);
+         long size = pool.getSize();
+         Assert.assertEquals(values[1][2][3], raw.getValues(double[][][].class)[1][2][3], 10e-9);
+         Assert.assertEquals(size, pool.getSize());
+      } finally {
+         executor.shutdown();
+         DirectBufferPool.setInstance(null);
+      }
+   }
+
+   @Test
+   public void testWriter() {
+      double[][][] values = newDoubles();
+      SplitBlob sb = SplitBlob.newInstance(PART_COUNT, double.class, new int[] { NI, NJ, NK });
+      SplitBlobWriter writer = SplitBlobWriter.newInstance(null, sb);
+      // A slab of two slices, then one slice
+      writer.append(new double[][][] { values[0], values[1] });
+      writer.append(values[2]);
+      // Flat chunks
+      writer.append(values[3][0]);
+      for (int j = 1; j < NJ; j++) {
+         writer.appendDoubles(values[3][j], 0, 2);
+         writer.appendDoubles(values[3][j], 2, NK - 2);
+      }
+      writer.appendDoubles(values[4][0], 0, 1);
+      Assert.assertEquals(4 * NJ * NK + 1, writer.getPosition());
+      writer.close();
+
+      double[][][] results = sb.getValues(double[][][].class);
+      for (int i = 0; i < NI - 1; i++) {
+         for (int j = 0; j < NJ; j++) {
+            Assert.assertArrayEquals(values[i][j], results[i][j], 10e-9);
+         }
+      }
+      // Not written elements are zeros
+      Assert.assertEquals(values[4][0][0], results[4][0][0], 10e-9);
+      Assert.assertEquals(0.0, results[4][0][1], 10e-9);
+      Assert.assertEquals(0.0, results[NI - 1][NJ - 1][NK - 1], 10e-9);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testWriterTooMany() {
+      SplitBlob sb = SplitBlob.newInstance(PART_COUNT, double.class, new int[] { 2, 3 });
+      SplitBlobWriter writer = SplitBlobWriter.newInstance(null, sb);
+      writer.append(new double[3][3]);
+   }
+
+   @Test
+   public void testChunked() {
+      double[][][] values = newDoubles();
+      // Tiles at the edges are padded along each dimension
+      int[] chunk = new int[] { 2, 3, 4 };
+      SplitBlob sb = SplitBlob.newInstance(chunk, values);
+      Assert.assertEquals(3 * 2 * 2, sb.getLayout().getPartCount());
+      Assert.assertEquals(2 * 3 * 4, sb.getElmtCountLastPart());
+      Assert.assertArrayEquals(chunk, sb.getChunkShape());
+
+      double[][][] results = sb.getValues(double[][][].class);
+      for (int i = 0; i < NI; i++) {
+         for (int j = 0; j < NJ; j++) {
+            Assert.assertArrayEquals(values[i][j], results[i][j], 10e-9);
+         }
+      }
+
+      final List<SplitBlobPart> rolled = new ArrayList<SplitBlobPart>();
+      IListener<SplitBlobEvent> listener = new IListener<SplitBlobEvent>() {
+         @Override
+         public void update(SplitBlobEvent o, Object arg) {
+            rolled.add(o.getNewPart());
+         }
+      };
+      // A slice along the first axis only reads the tiles of one layer
+      int[] fromPos = new int[] { 2, 0, 0 };
+      int[] lengths = new int[] { 1, NJ, NK };
+      ExecutorService executor = Executors.newFixedThreadPool(3);
+      try {
+         double[][][] slice = sb.getValues(double[][][].class, fromPos, lengths, listener,
+               executor);
+         Assert.assertEquals(2 * 2, rolled.size());
+         for (int j = 0; j < NJ; j++) {
+            Assert.assertArrayEquals(values[2][j], slice[0][j], 10e-9);
+         }
+
+         fromPos = new int[] { 1, 2, 3 };
+         lengths = new int[] { 3, 2, 3 };
+         double[][][] sub = sb.getValues(double[][][].class, fromPos, lengths);
+         double[][][] subParallel = sb.getValues(double[][][].class, fromPos, lengths, null,
+               executor);
+         for (int i = 0; i < lengths[0]; i++) {
+            for (int j = 0; j < lengths[1]; j++) {
+               for (int k = 0; k < lengths[2]; k++) {
+                  double expected = values[i + fromPos[0]][j + fromPos[1]][k + fromPos[2]];
+                  Assert.assertEquals(expected, sub[i][j][k], 10e-9);
+                  Assert.assertEquals(expected, subParallel[i][j][k], 10e-9);
+               }
+            }
+         }
+      } finally {
+         executor.shutdown();
+      }
+
+      IBlobPartAccessor reader = sb.getAccessor();
+      IndexIterator ii = new IndexIterator(sb.getShape());
+      for (; ii.notDone(); ii.incr()) {
+         int[] index = ii.value();
+         Assert.assertEquals(values[index[0]][index[1]][index[2]], reader.getDouble(index), 10e-9);
+      }
+      reader.close();
+   }
+
+   @Test
+   public void testChunkedWriter() {
+      double[][][] values = newDoubles();
+      SplitBlob sb = SplitBlob.newInstance(new int[] { 2, 3, 4 }, double.class, new int[] { NI,
+            NJ, NK });
+      SplitBlobWriter writer = SplitBlobWriter.newInstance(null, sb);
+      for (int i = 0; i < NI; i++) {
+         writer.append(new double[][][] { values[i] });
+      }
+      writer.close();
+
+      double[][][] results = sb.getValues(double[][][].class);
+      for (int i = 0; i < NI; i++) {
+         for (int j = 0; j < NJ; j++) {
+            Assert.assertArrayEquals(values[i][j], results[i][j], 10e-9);
+         }
+      }
+   }
+
+   @Test
+   public void testPartIndices() {
+      // Linear: 7 elements per part, rows of 6 elements
+      SplitBlob sb = SplitBlob.newInstance(PART_COUNT, double.class, new int[] { NI, NJ, NK });
+      int[] parts = sb.getLayout().getPartIndices(new int[] { 0, 0, 0 }, new int[] { 1, 1, 2 });
+      Assert.assertArrayEquals(new int[] { 0 }, parts);
+      parts = sb.getLayout().getPartIndices(new int[] { 0, 1, 0 }, new int[] { 2, 1, 6 });
+      // Elements 6-11 and 30-35
+      Assert.assertArrayEquals(new int[] { 0, 1, 4, 5 }, parts);
+      parts = sb.getLayout().getPartIndices(new int[] { 0, 0, 0 }, new int[] { NI, NJ, NK });
+      Assert.assertEquals(sb.getLayout().getPartCount(), parts.length);
+
+      // Chunked: 3 x 2 x 2 tiles
+      sb = SplitBlob.newInstance(new int[] { 2, 3, 4 }, double.class, new int[] { NI, NJ, NK });
+      parts = sb.getLayout().getPartIndices(new int[] { 4, 0, 0 }, new int[] { 1, NJ, 1 });
+      Assert.assertArrayEquals(new int[] { 8, 10 }, parts);
+      parts = sb.getLayout().getPartIndices(new int[] { 1, 2, 3 }, new int[] { 2, 2, 2 });
+      Assert.assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 5, 6, 7 }, parts);
+      parts = sb.getLayout().getPartIndices(new int[] { 1, 2, 3 }, new int[] { 0, 2, 2 });
+      Assert.assertEquals(0, parts.length);
+   }
+
+   @Test
+   public void testLinearAccess() {
+      double[][][] values = newDoubles();
+      double[] flat = new double[NI * NJ * NK];
+      for (int i = 0; i < NI; i++) {
+         for (int j = 0; j < NJ; j++) {
+            System.arraycopy(values[i][j], 0, flat, (i * NJ + j) * NK, NK);
+         }
+      }
+      SplitBlob[] blobs = new SplitBlob[] { SplitBlob.newInstance(PART_COUNT, values),
+            SplitBlob.newInstance(new int[] { 2, 3, 4 }, values) };
+      for (SplitBlob sb : blobs) {
+         IBlobPartAccessor accessor = sb.getAccessor();
+         for (int k = 0; k < flat.length; k++) {
+            Assert.assertEquals(flat[k], accessor.getDouble((long) k), 10e-9);
+         }
+         // Spans several rows and parts
+         double[] dst = new double[20];
+         accessor.getDoubles(17L, dst, 0, dst.length);
+         for (int k = 0; k < dst.length; k++) {
+            Assert.assertEquals(flat[17 + k], dst[k], 10e-9);
+         }
+         accessor.setDoubles(100L, new double[] { -1, -2, -3 }, 0, 3);
+         accessor.setDouble(0L, -4);
+         accessor.close();
+         double[][][] results = sb.getValues(double[][][].class);
+         Assert.assertEquals(-4, results[0][0][0], 10e-9);
+         Assert.assertEquals(-1, results[4][0][4], 10e-9);
+         Assert.assertEquals(-3, results[4][1][0], 10e-9);
+      }
+   }
+
+   @Test(expected = ArrayIndexOutOfBoundsException.class)
+   public void testLinearOutOfBounds() {
+      SplitBlob sb = SplitBlob.newInstance(PART_COUNT, newDoubles());
+      sb.getAccessor().getDoubles(NI * NJ * NK - 2L, new double[3], 0, 3);
+   }
+
+   @Test
+   public void testLargeLayout() {
+      // More than 2^31 elements
+      int[] shape = new int[] { 100000, 3, 100000 };
+      BlobLayout layout = new BlobLayout(shape, null, 1 << 24);
+      long last = 3L * 100000 * 100000 - 1;
+      Assert.assertEquals(last, layout.indexMap(new int[] { 99999, 2, 99999 }));
+      Assert.assertEquals(last, layout.linearMap(last));
+      Assert.assertEquals((int) ((last + 1 + (1 << 24) - 1) >> 24), layout.getPartCount());
+
+      layout = new BlobLayout(shape, new int[] { 1000, 1, 1000 }, 1000000);
+      Assert.assertEquals(300 * 100, layout.getPartCount());
+      int[] index = new int[] { 54321, 1, 98765 };
+      long linear = (54321L * 3 + 1) * 100000 + 98765;
+      Assert.assertEquals(layout.indexMap(index), layout.linearMap(linear));
+      Assert.assertEquals((54L * 3 * 100 + 100 + 98) * 1000000 + 321 * 1000 + 765, layout
+            .indexMap(index));
+   }
+
+   @Test
+   public void testStats() {
+      double[][][] values = newDoubles();
+      values[1][2][3] = Double.NaN;
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      double sum = 0;
+      for (int i = 0; i < NI; i++) {
+         for (int j = 0; j < NJ; j++) {
+            for (int k = 0; k < NK; k++) {
+               double v = values[i][j][k];
+               if (!Double.isNaN(v)) {
+                  min = Math.min(min, v);
+                  max = Math.max(max, v);
+                  sum += v;
+               }
+            }
+         }
+      }
+      // Chunked parts are padded: padding must be ignored
+      SplitBlob[] blobs = new SplitBlob[] { SplitBlob.newInstance(PART_COUNT, values),
+            SplitBlob.newInstance(new int[] { 2, 3, 4 }, values) };
+      for (SplitBlob sb : blobs) {
+         PartStats stats = sb.getStats();
+         Assert.assertEquals(min, stats.getMin(), 10e-9);
+         Assert.assertEquals(max, stats.getMax(), 10e-9);
+         Assert.assertEquals(sum, stats.getSum(), 10e-6);
+         Assert.assertEquals(NI * NJ * NK - 1, stats.getCount());
+         Assert.assertEquals(1, stats.getNanCount());
+         Assert.assertTrue(stats.mayContain(max, Double.POSITIVE_INFINITY));
+         Assert.assertFalse(stats.mayContain(max + 1, Double.POSITIVE_INFINITY));
+
+         long count = 0;
+         for (int i = 0; i < sb.getLayout().getPartCount(); i++) {
+            count += sb.getPartStats(i).getCount() + sb.getPartStats(i).getNanCount();
+            Assert.assertTrue(sb.getPartStats(i).getMax() <= max);
+         }
+         Assert.assertEquals(NI * NJ * NK, count);
+      }
+
+      // Updated when written again
+      SplitBlob sb = blobs[0];
+      IBlobPartAccessor accessor = sb.getAccessor();
+      accessor.setDouble(new int[] { 0, 0, 0 }, max + 10);
+      accessor.close();
+      Assert.assertEquals(max + 10, sb.getStats().getMax(), 10e-9);
+      Assert.assertEquals(max + 10, SplitBlob.copy(sb).getPartStats(0).getMax(), 10e-9);
+
+      // Unknown until written, and parts are not created
+      sb = SplitBlob.newInstance(PART_COUNT, double.class, new int[] { NI, NJ, NK });
+      Assert.assertNull(sb.getPartStats(0));
+      Assert.assertNull(sb.getStats());
+      for (SplitBlobPart each : sb.getParts()) {
+         Assert.assertNull(each);
+      }
+   }
+
+   @Test
+   public void testCopyPendingWrites() {
+      double[][][] values = newDoubles();
+      for (String codec : new String[] { null, "deflate" }) {
+         SplitBlob sb = SplitBlob.newInstance(PART_COUNT, double.class, new int[] { NI, NJ, NK });
+         sb.setPartCodec(codec);
+         sb.setValues(values);
+         // Written but not yet flushed when copied
+         IBlobPartAccessor accessor = sb.getAccessor();
+         accessor.setDouble(new int[] { 0, 0, 1 }, -1);
+         SplitBlob copy = SplitBlob.copy(sb);
+         accessor.setDouble(new int[] { 0, 0, 2 }, -2);
+         accessor.close();
+
+         values[0][0][1] = -1;
+         SplitBlob expected = SplitBlob.newInstance(PART_COUNT, double.class, new int[] { NI, NJ,
+               NK });
+         expected.setPartCodec(codec);
+         expected.setValues(values);
+         SplitBlobPart copied = copy.getPart(0);
+         Assert.assertEquals(expected.getPart(0).getContentHash(), copied.getContentHash());
+         PartStats stats = copy.getPartStats(0);
+         Assert.assertEquals(-1, stats.getMin(), 0);
+         Assert.assertEquals(expected.getPartStats(0).getSum(), stats.getSum(), 0);
+         double[][][] results = copy.getValues(double[][][].class);
+         Assert.assertEquals(-1, results[0][0][1], 0);
+         Assert.assertEquals(values[0][0][2], results[0][0][2], 0);
+         Assert.assertEquals(-2, sb.getValues(double[][][].class)[0][0][2], 0);
+         values = newDoubles();
+      }
+   }
+
+   @Test
+   public void testSharedData() {
+      double[][][] values = newDoubles();
+      for (String codec : new String[] { null, "deflate" }) {
+         SplitBlob sb = SplitBlob.newInstance(PART_COUNT, double.class, new int[] { NI, NJ, NK });
+         sb.setPartCodec(codec);
+         sb.setValues(values);
+         SplitBlob copy = SplitBlob.copy(sb);
+         SplitBlobPart part = sb.getPart(0);
+         SplitBlobPart copied = copy.getPart(0);
+         Assert.assertNotNull(part.getContentHash());
+         Assert.assertEquals(part.getContentHash(), copied.getContentHash());
+
+         // Copy-on-write
+         IBlobPartAccessor accessor = copy.getAccessor();
+         accessor.setDouble(new int[] { 0, 0, 0 }, -1);
+         accessor.close();
+         Assert.assertEquals(values[0][0][0], sb.getValues(double[][][].class)[0][0][0], 0);
+         Assert.assertEquals(-1, copy.getValues(double[][][].class)[0][0][0], 0);
+         Assert.assertFalse(part.getContentHash().equals(copied.getContentHash()));
+         accessor = sb.getAccessor();
+         accessor.setDouble(new int[] { 0, 0, 0 }, -1);
+         accessor.close();
+         Assert.assertEquals(part.getContentHash(), copied.getContentHash());
+
+         // Shared payload
+         SplitBlobPayload payload = part.share(null);
+         Assert.assertSame(payload, copied.share(payload));
+         Assert.assertEquals(part.getContentHash(), payload.getContentHash());
+         Assert.assertEquals(payload.getDataSize(), copied.getStoredSize());
+         Assert.assertSame(payload, SplitBlob.copy(copy).getPart(0).getPayload());
+         accessor = copy.getAccessor();
+         accessor.setDouble(new int[] { 0, 0, 1 }, -2);
+         accessor.close();
+         Assert.assertNull(copied.getPayload());
+         Assert.assertSame(payload, part.getPayload());
+         Assert.assertEquals(values[0][0][1], sb.getValues(double[][][].class)[0][0][1], 0);
+         Assert.assertEquals(-2, copy.getValues(double[][][].class)[0][0][1], 0);
+      }
+   }
+
+   @Test
+   public void testAggregate() {
+      double[][][] values = newDoubles();
+      values[2][1][0] = Double.NaN;
+      ExecutorService executor = Executors.newFixedThreadPool(3);
+      try {
+         SplitBlob[] blobs = new SplitBlob[] { SplitBlob.newInstance(PART_COUNT, values),
+               SplitBlob.newInstance(new int[] { 2, 3, 4 }, values) };
+         for (SplitBlob sb : blobs) {
+            // Along the first axis (i.e. vertical)
+            BlobAggregate agg = sb.aggregate(new int[] { 0 }, executor);
+            Assert.assertArrayEquals(new int[] { NJ, NK }, agg.getShape());
+            for (int j = 0; j < NJ; j++) {
+               for (int k = 0; k < NK; k++) {
+                  double sum = 0;
+                  double sum2 = 0;
+                  int n = 0;
+                  for (int i = 0; i < NI; i++) {
+                     if (!Double.isNaN(values[i][j][k])) {
+                        sum += values[i][j][k];
+                        sum2 += values[i][j][k] * values[i][j][k];
+                        n++;
+                     }
+                  }
+                  int cell = j * NK + k;
+                  Assert.assertEquals(n, agg.getCount(cell));
+                  Assert.assertEquals(sum / n, agg.getMean(cell), 10e-9);
+                  Assert.assertEquals(sum2 / n - (sum / n) * (sum / n), agg.getVariance(cell),
+                        10e-6);
+               }
+            }
+            Assert.assertEquals(1, agg.getNanCount());
+
+            // Along the last axes
+            agg = sb.aggregate(new int[] { 1, 2 }, executor);
+            Assert.assertArrayEquals(new int[] { NI }, agg.getShape());
+            Assert.assertEquals(NJ * NK - 1, agg.getMax(0), 10e-9);
+            Assert.assertEquals(NJ * NK, agg.getMin(1), 10e-9);
+
+            // Whole blob
+            agg = sb.aggregate(new int[] { 0, 1, 2 }, executor);
+            Assert.assertEquals(1, agg.getCellCount());
+            int n = NI * NJ * NK;
+            // The NaN value replaced 54
+            Assert.assertEquals((n - 1) * n / 2.0 - 54, agg.getSum(0), 10e-9);
+            Assert.assertEquals(n - 1, agg.getCount(0));
+            Assert.assertEquals(n - 1, agg.getMax(0), 10e-9);
+
+            long[] bins = sb.histogram(0, n, 4, executor);
+            Assert.assertArrayEquals(new long[] { n / 4, n / 4 - 1, n / 4, n / 4 }, bins);
+         }
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testAggregateWrongAxes() {
+      SplitBlob sb = SplitBlob.newInstance(PART_COUNT, newDoubles());
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+         sb.aggregate(new int[] { 1, 1 }, executor);
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void testOperations() {
+      double[][][] values = newDoubles();
+      int[][][] ints = new int[NI][NJ][NK];
+      for (int i = 0; i < NI; i++) {
+         for (int j = 0; j < NJ; j++) {
+            for (int k = 0; k < NK; k++) {
+               ints[i][j][k] = (k % 2 == 0) ? 0 : i + j;
+            }
+         }
+      }
+      // Operands of any layout, the result has the layout of the first one
+      SplitBlob[] as = new SplitBlob[] { SplitBlob.newInstance(PART_COUNT, values),
+            SplitBlob.newInstance(new int[] { 2, 3, 4 }, values) };
+      SplitBlob[] bs = new SplitBlob[] { SplitBlob.newInstance(NK, ints),
+            SplitBlob.newInstance(new int[] { 3, 2, 5 }, ints) };
+      for (SplitBlob a : as) {
+         for (SplitBlob b : bs) {
+            SplitBlob sum = BlobOperations.add(a, b);
+            Assert.assertArrayEquals(a.getChunkShape(), sum.getChunkShape());
+            SplitBlob diff = BlobOperations.subtract(a, b);
+            SplitBlob prod = BlobOperations.multiply(a, b);
+            SplitBlob scaled = BlobOperations.scale(a, 0.5);
+            SplitBlob axpy = BlobOperations.axpy(2, a, b);
+            Assert.assertEquals(PType.PINTEGER, axpy.getElmtType());
+            SplitBlob clamped = BlobOperations.clamp(a, 10, 20);
+            SplitBlob where = BlobOperations.where(b, a, scaled);
+
+            double[][][] r1 = sum.getValues(double[][][].class);
+            double[][][] r2 = diff.getValues(double[][][].class);
+            double[][][] r3 = prod.getValues(double[][][].class);
+            double[][][] r4 = scaled.getValues(double[][][].class);
+            int[][][] r5 = axpy.getValues(int[][][].class);
+            double[][][] r6 = clamped.getValues(double[][][].class);
+            double[][][] r7 = where.getValues(double[][][].class);
+            for (int i = 0; i < NI; i++) {
+               for (int j = 0; j < NJ; j++) {
+                  for (int k = 0; k < NK; k++) {
+                     double x = values[i][j][k];
+                     int y = ints[i][j][k];
+                     Assert.assertEquals(x + y, r1[i][j][k], 0);
+                     Assert.assertEquals(x - y, r2[i][j][k], 0);
+                     Assert.assertEquals(x * y, r3[i][j][k], 0);
+                     Assert.assertEquals(x * 0.5, r4[i][j][k], 0);
+                     Assert.assertEquals((int) (2 * x + y), r5[i][j][k]);
+                     Assert.assertEquals(Math.min(Math.max(x, 10), 20), r6[i][j][k], 0);
+                     Assert.assertEquals((y != 0) ? x : x * 0.5, r7[i][j][k], 0);
+                  }
+               }
+            }
+         }
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testOperationsWrongShape() {
+      SplitBlob a = SplitBlob.newInstance(double.class, new int[] { 2, 3 });
+      SplitBlob b = SplitBlob.newInstance(double.class, new int[] { 3, 2 });
+      BlobOperations.add(a, b);
+   }
+
+   @Test
+   public void testNpyFiles() throws Exception {
+      double[][][] values = newDoubles();
+      File file = File.createTempFile("jenmo", ".npy");
+      try {
+         SplitBlob[] blobs = new SplitBlob[] { SplitBlob.newInstance(PART_COUNT, values),
+               SplitBlob.newInstance(new int[] { 2, 3, 4 }, values) };
+         for (SplitBlob sb : blobs) {
+            SplitBlobFiles.exportNpy(sb, file);
+            // Header then raw little-endian elements, in row-major order
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            raf.close();
+            ByteBuffer content = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            Assert.assertEquals((byte) 0x93, content.get(0));
+            int start = 10 + content.getShort(8);
+            Assert.assertEquals(0, start % 64);
+            String header = new String(bytes, 10, start - 10, "ISO-8859-1");
+            Assert.assertTrue(header.startsWith("{'descr': '<f8', 'fortran_order': False, "
+                  + "'shape': (5, 4, 6), }"));
+            Assert.assertTrue(header.endsWith("\n"));
+            Assert.assertEquals(start + NI * NJ * NK * 8, bytes.length);
+            for (int i = 0; i < NI * NJ * NK; i++) {
+               Assert.assertEquals(i, content.getDouble(start + i * 8), 0);
+            }
+
+            // Read back with another layout
+            SplitBlob imported = SplitBlobFiles.importNpy(file, new int[] { 3, 3, 3 });
+            Assert.assertEquals(PType.PDOUBLE, imported.getElmtType());
+            double[][][] results = imported.getValues(double[][][].class);
+            for (int i = 0; i < NI; i++) {
+               for (int j = 0; j < NJ; j++) {
+                  Assert.assertArrayEquals(values[i][j], results[i][j], 0);
+               }
+            }
+         }
+
+         // Big-endian rank 1 file of ints, as written by numpy
+         String dict = "{'descr': '>i4', 'fortran_order': False, 'shape': (5,), }";
+         ByteBuffer raw = ByteBuffer.allocate(10 + dict.length() + 1 + 5 * 4);
+         raw.put((byte) 0x93).put("NUMPY".getBytes("ISO-8859-1")).put((byte) 1).put((byte) 0);
+         raw.order(ByteOrder.LITTLE_ENDIAN).putShort((short) (dict.length() + 1));
+         raw.put(dict.getBytes("ISO-8859-1")).put((byte) '\n');
+         raw.order(ByteOrder.BIG_ENDIAN);
+         for (int i = 0; i < 5; i++) {
+            raw.putInt(i * 1000 - 7);
+         }
+         FileOutputStream out = new FileOutputStream(file);
+         out.write(raw.array());
+         out.close();
+         SplitBlob imported = SplitBlobFiles.importNpy(file, 2);
+         Assert.assertArrayEquals(new int[] { 5 }, imported.getShape());
+         Assert.assertArrayEquals(new int[] { -7, 993, 1993, 2993, 3993 },
+               imported.getValues(int[].class));
+      } finally {
+         file.delete();
+      }
+   }
+
+   @Test
+   public void testCursors() {
+      double[][][] values = newDoubles();
+      SplitBlob[] blobs = new SplitBlob[] { SplitBlob.newInstance(PART_COUNT, values),
+            SplitBlob.newInstance(new int[] { 2, 3, 4 }, values) };
+      for (SplitBlob sb : blobs) {
+         final List<SplitBlobPart> rolled = new ArrayList<SplitBlobPart>();
+         DoubleCursor cursor = sb.getDoubleCursor(null);
+         cursor.setPartListener(new IListener<SplitBlobEvent>() {
+            @Override
+            public void update(SplitBlobEvent o, Object arg) {
+               rolled.add(o.getNewPart());
+            }
+         });
+         // Each element once, with its index
+         boolean[] seen = new boolean[NI * NJ * NK];
+         int[] index = new int[3];
+         while (cursor.hasNext()) {
+            double value = cursor.nextDouble();
+            cursor.getIndex(index);
+            Assert.assertEquals(values[index[0]][index[1]][index[2]], value, 0);
+            Assert.assertFalse(seen[(int) value]);
+            seen[(int) value] = true;
+         }
+         cursor.close();
+         for (boolean each : seen) {
+            Assert.assertTrue(each);
+         }
+         // Parts are changed at boundaries only
+         int partCount = sb.getLayout().getPartCount();
+         Assert.assertEquals(partCount, rolled.size());
+         for (int p = 0; p < partCount; p++) {
+            Assert.assertSame(sb.getPart(p), rolled.get(p));
+            Assert.assertFalse(sb.getPart(p).isBufferOpen());
+         }
+      }
+      // Storage order is the row-major order for the linear layout
+      DoubleCursor cursor = blobs[0].getDoubleCursor(null);
+      for (int i = 0; i < NI * NJ * NK; i++) {
+         Assert.assertEquals(i, cursor.nextDouble(), 0);
+      }
+      Assert.assertFalse(cursor.hasNext());
+      Assert.assertArrayEquals(new int[] { NI - 1, NJ - 1, NK - 1 }, cursor.getIndex());
+      try {
+         cursor.nextDouble();
+         Assert.fail();
+      } catch (NoSuchElementException e) {
+         // Expected
+      }
+      cursor.close();
+
+      IntCursor ints = SplitBlob.newInstance(2, new int[] { 4, 5, 6 }).getIntCursor(null);
+      Assert.assertEquals(4, ints.nextInt());
+      Assert.assertEquals(5, ints.nextInt());
+      Assert.assertEquals(6, ints.nextInt());
+      Assert.assertFalse(ints.hasNext());
+      ints.close();
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testCursorWrongType() {
+      SplitBlob.newInstance(PART_COUNT, newDoubles()).getIntCursor(null);
+   }
+
+   @Test
+   public void testResidentParts() {
+      SplitBlob sb = SplitBlob.newInstance(PART_COUNT, newDoubles());
+      IBlobPartAccessor accessor = sb.getAccessor(null, 3);
+      // One element in each of the first 4 parts
+      for (int p = 0; p < 4; p++) {
+         int linear = p * PART_COUNT;
+         Assert.assertEquals(linear, accessor.getDouble((long) linear), 10e-9);
+      }
+      Assert.assertFalse(sb.getPart(0).isBufferOpen());
+      Assert.assertTrue(sb.getPart(1).isBufferOpen());
+      Assert.assertTrue(sb.getPart(3).isBufferOpen());
+      // Part 1 is used again, so part 2 is the least recently used one
+      accessor.getDouble((long) PART_COUNT);
+      accessor.getDouble(0L);
+      Assert.assertTrue(sb.getPart(1).isBufferOpen());
+      Assert.assertFalse(sb.getPart(2).isBufferOpen());
+      accessor.close();
+      for (int p = 0; p < 4; p++) {
+         Assert.assertFalse(sb.getPart(p).isBufferOpen());
+      }
+   }
+
+   @Test
+   public void testReadAhead() {
+      double[][][] values = newDoubles();
+      SplitBlob sb = SplitBlob.newInstance(PART_COUNT, values);
+      sb.setPartCodec("deflate");
+      sb.setValues(values);
+      // Parts read ahead are opened at once
+      Executor direct = new Executor() {
+         @Override
+         public void execute(Runnable command) {
+            command.run();
+         }
+      };
+      IBlobPartAccessor accessor = sb.getAccessor(null, 1, direct, 2);
+      Assert.assertEquals(0, accessor.getDouble(0L), 0);
+      Assert.assertTrue(sb.getPart(1).isBufferOpen());
+      Assert.assertTrue(sb.getPart(2).isBufferOpen());
+      Assert.assertFalse(sb.getPart(3).isBufferOpen());
+      Assert.assertEquals(PART_COUNT, accessor.getDouble((long) PART_COUNT), 0);
+      Assert.assertFalse(sb.getPart(0).isBufferOpen());
+      Assert.assertTrue(sb.getPart(3).isBufferOpen());
+      // Jumping away cancels the parts which do not follow any more
+      int lastPart = sb.getLayout().getPartCount() - 1;
+      accessor.getDouble((long) lastPart * PART_COUNT);
+      Assert.assertFalse(sb.getPart(2).isBufferOpen());
+      Assert.assertFalse(sb.getPart(3).isBufferOpen());
+      accessor.getDouble(0L);
+      accessor.close();
+      for (int p = 0; p <= lastPart; p++) {
+         Assert.assertFalse(sb.getPart(p).isBufferOpen());
+      }
+
+      // Sequential scan
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+         final List<SplitBlobPart> rolled = new ArrayList<SplitBlobPart>();
+         accessor = sb.getAccessor(null, 1, executor, 3);
+         accessor.setPartListener(new IListener<SplitBlobEvent>() {
+            @Override
+            public void update(SplitBlobEvent o, Object arg) {
+               rolled.add(o.getNewPart());
+            }
+         });
+         double[] row = new double[NK];
+         for (int i = 0; i < NI; i++) {
+            for (int j = 0; j < NJ; j++) {
+               accessor.getDoubles(new int[] { i, j, 0 }, row, 0, NK);
+               Assert.assertArrayEquals(values[i][j], row, 0);
+            }
+         }
+         accessor.close();
+         Assert.assertEquals(lastPart + 1, rolled.size());
+         for (int p = 0; p <= lastPart; p++) {
+            Assert.assertSame(sb.getPart(p), rolled.get(p));
+            Assert.assertFalse(sb.getPart(p).isBufferOpen());
+         }
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void testViews() {
+      double[][][] values = newDoubles();
+      SplitBlob sb = SplitBlob.newInstance(new int[] { 2, 3, 4 }, values);
+      MultiArrayBlobPart reader = new MultiArrayBlobPart(sb);
+      final Set<SplitBlobPart> touched = new HashSet<SplitBlobPart>();
+      reader.setPartListener(new IListener<SplitBlobEvent>() {
+         @Override
+         public void update(SplitBlobEvent o, Object arg) {
+            touched.add(o.getNewPart());
+         }
+      });
+
+      // A 2D section along the second axis, read as (k, i)
+      MultiArrayView section = new MultiArrayView(reader).reduce(1, 1).transpose();
+      Assert.assertArrayEquals(new int[] { NK, NI }, section.getLengths());
+      IndexIterator ii = new IndexIterator(section.getLengths());
+      for (; ii.notDone(); ii.incr()) {
+         int[] index = ii.value();
+         Assert.assertEquals(values[index[1]][1][index[0]], section.getDouble(index), 0);
+      }
+      // Only the tiles holding j = 1 have been read
+      Assert.assertEquals(3 * 2, touched.size());
+
+      // A preview
+      MultiArrayView preview = new MultiArrayView(reader).sample(new int[] { 2, 2, 2 });
+      Assert.assertArrayEquals(new int[] { 3, 2, 3 }, preview.getLengths());
+      Assert.assertEquals(values[4][2][4], preview.getDouble(new int[] { 2, 1, 2 }), 0);
+      reader.close();
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testWrongType() {
+      SplitBlob sb = SplitBlob.newInstance(PART_COUNT, newDoubles());
+      sb.getValues(float[][][].class);
+   }
+}
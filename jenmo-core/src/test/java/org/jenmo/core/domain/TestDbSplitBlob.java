@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.domain;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.persistence.EntityManager;
+
+import org.jenmo.core.cache.PartFileCache;
+import org.jenmo.core.listener.IListener;
+import org.jenmo.core.listener.SplitBlobEvent;
+import org.jenmo.core.multiarray.BlobAggregate;
+import org.jenmo.core.multiarray.BlobPartTaskRunner;
+import org.jenmo.core.multiarray.IBlobPartAccessor;
+import org.jenmo.core.multiarray.IBlobPartTask;
+import org.jenmo.core.multiarray.MultiArrayBlobPart;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestDbSplitBlob extends AbstractTestDb {
+   private static final int NI = 6;
+
+   private static final int NJ = 5;
+
+   private static EntityManager em;
+
+   @BeforeClass
+   public static void setupClass() throws Exception {
+      em = initEm();
+   }
+
+   @AfterClass
+   public static void teardownClass() {
+      closeEm(em);
+   }
+
+   @Before
+   public void setupMethod() {
+      cleanUpTables(em);
+      txBegin(em);
+   }
+
+   @After
+   public void teardownMethod() {
+      txCommit(em);
+   }
+
+   private static double[][] newDoubles() {
+      double[][] values = new double[NI][NJ];
+      for (int i = 0; i < NI; i++) {
+         for (int j = 0; j < NJ; j++) {
+            values[i][j] = i * NJ + j;
+         }
+      }
+      return values;
+   }
+
+   /**
+    * Persists a new blob of the given values, and finds it again in a new persistence context.
+    */
+   private static SplitBlob persist(SplitBlob sb) {
+      em.persist(sb);
+      txCommit(em);
+      em.clear();
+      return em.find(SplitBlob.class, sb.getId());
+   }
+
+   @Test
+   public void testAggregate() throws Exception {
+      SplitBlob found = persist(SplitBlob.newInstance(4, newDoubles()));
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+         BlobAggregate all = found.aggregate(em, new int[] { 0, 1 }, executor);
+         Assert.assertEquals(NI * NJ, all.getCount(0));
+         Assert.assertEquals((NI * NJ - 1) * NI * NJ / 2.0, all.getSum(0), 0);
+         long[] bins = found.histogram(em, 0, NI * NJ, 2, executor);
+         Assert.assertEquals(NI * NJ / 2, bins[0]);
+
+         // Parts are not kept by the persistence context once processed
+         final List<SplitBlobPart> processed = new ArrayList<SplitBlobPart>();
+         BlobPartTaskRunner runner = new BlobPartTaskRunner(found, em, executor, 2);
+         for (int i = 0; i < found.getLayout().getPartCount(); i++) {
+            runner.submit(i, new IBlobPartTask() {
+               public void execute(SplitBlobPart part) {
+                  synchronized (processed) {
+                     processed.add(part);
+                  }
+               }
+            });
+         }
+         runner.await();
+         Assert.assertEquals(found.getLayout().getPartCount(), processed.size());
+         for (SplitBlobPart each : processed) {
+            Assert.assertFalse(em.contains(each));
+         }
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void testCloseAccessor() throws Exception {
+      double[][] values = newDoubles();
+      SplitBlob found = persist(SplitBlob.newInstance(4, values));
+      final List<SplitBlobPart> opened = new ArrayList<SplitBlobPart>();
+      IListener<SplitBlobEvent> listener = new IListener<SplitBlobEvent>() {
+         public void update(SplitBlobEvent o, Object arg) {
+            opened.add(o.getNewPart());
+         }
+      };
+      MultiArrayBlobPart reader = new MultiArrayBlobPart(found, em, 3);
+      reader.setPartListener(listener);
+      for (int i = 0; i < NI; i++) {
+         for (int j = 0; j < NJ; j++) {
+            Assert.assertEquals(values[i][j], reader.getDouble(new int[] { i, j }), 0);
+         }
+      }
+      reader.close();
+      // Resident parts are not kept by the persistence context either
+      Assert.assertEquals(found.getLayout().getPartCount(), opened.size());
+      for (SplitBlobPart each : opened) {
+         Assert.assertFalse(em.contains(each));
+      }
+   }
+
+   @Test
+   public void testStats() throws Exception {
+      SplitBlob found = persist(SplitBlob.newInstance(4, newDoubles()));
+      PartStats stats = found.getStats(em);
+      Assert.assertEquals(NI * NJ, stats.getCount());
+      Assert.assertEquals(NI * NJ - 1, stats.getMax(), 0);
+
+      // Not all the parts are stored
+      em.createNativeQuery("delete from SPLITBLOBPART where ORDR = 0").executeUpdate();
+      Assert.assertNull(found.getStats(em));
+   }
+
+   private static long countPayloads() {
+      return ((Number) em.createQuery("SELECT COUNT(p) FROM SplitBlobPayload p").getSingleResult())
+            .longValue();
+   }
+
+   private static void write(SplitBlob sb, int pos, double value) {
+      IBlobPartAccessor accessor = sb.getAccessor();
+      accessor.setDouble(new int[] { pos }, value);
+      accessor.close();
+   }
+
+   @Test
+   public void testPartCache() throws Exception {
+      File dir = File.createTempFile("partcache", "");
+      dir.delete();
+      PartFileCache cache = new PartFileCache(dir, 1 << 20);
+      PartFileCache.setInstance(cache);
+      try {
+         double[] values = new double[] { 0, 1, 2, 3, 4, 5 };
+         SplitBlob found = persist(SplitBlob.newInstance(2, values));
+         Assert.assertArrayEquals(values, found.getValues(double[].class), 0);
+         Assert.assertTrue(cache.contains(found.getPart(1).getContentHash()));
+
+         // A new version of part 1 is flushed and read again, then rolled back
+         write(found, 2, -1);
+         found.evictParts(em, Collections.singleton(found.getPart(1)));
+         SplitBlobPart again = found.getPart(em, 1);
+         again.openBuffer();
+         Assert.assertEquals(-1, again.getDouble(0), 0);
+         again.closeBuffer();
+         Assert.assertFalse(cache.contains(again.getContentHash()));
+         em.getTransaction().rollback();
+         em.clear();
+
+         // The same id and version are written again with other data
+         txBegin(em);
+         found = em.find(SplitBlob.class, found.getId());
+         write(found, 2, -2);
+         txCommit(em);
+         em.clear();
+         found = em.find(SplitBlob.class, found.getId());
+         Assert.assertEquals(-2, found.getValues(double[].class)[2], 0);
+         Assert.assertEquals(3, found.getValues(double[].class)[3], 0);
+      } finally {
+         PartFileCache.setInstance(null);
+         cache.clear();
+         dir.delete();
+      }
+   }
+
+   @Test
+   public void testDeduplicate() throws Exception {
+      // Two parts of zeros in each blob
+      SplitBlob a = SplitBlob.newInstance(3, new double[6]);
+      SplitBlob b = SplitBlob.newInstance(3, new double[6]);
+      em.persist(a);
+      em.persist(b);
+      em.flush();
+      Assert.assertEquals(2, a.deduplicate(em));
+      txCommit(em);
+      // The payload of the first blob is found by content hash
+      Assert.assertEquals(2, b.deduplicate(em));
+      txCommit(em);
+      Assert.assertEquals(1, countPayloads());
+
+      em.clear();
+      a = em.find(SplitBlob.class, a.getId());
+      b = em.find(SplitBlob.class, b.getId());
+      SplitBlobPayload payload = a.getPart(0).getPayload();
+      Assert.assertNotNull(payload);
+      for (SplitBlob each : new SplitBlob[] { a, b }) {
+         for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(payload.getId(), each.getPart(i).getPayload().getId());
+         }
+      }
+      Assert.assertArrayEquals(new double[6], b.getValues(double[].class), 0);
+
+      // A written part gets its own data
+      write(a, 0, 1);
+      txCommit(em);
+      em.clear();
+      a = em.find(SplitBlob.class, a.getId());
+      b = em.find(SplitBlob.class, b.getId());
+      Assert.assertNull(a.getPart(0).getPayload());
+      Assert.assertNotNull(a.getPart(1).getPayload());
+      Assert.assertEquals(1, a.getValues(double[].class)[0], 0);
+      Assert.assertArrayEquals(new double[6], b.getValues(double[].class), 0);
+      Assert.assertEquals(0, SplitBlobPayload.removeUnused(em));
+
+      // Removed once no part uses it any more
+      write(a, 3, 2);
+      write(b, 0, 3);
+      write(b, 3, 4);
+      txCommit(em);
+      Assert.assertEquals(1, SplitBlobPayload.removeUnused(em));
+      txCommit(em);
+      Assert.assertEquals(0, countPayloads());
+      em.clear();
+      b = em.find(SplitBlob.class, b.getId());
+      Assert.assertArrayEquals(new double[] { 3, 0, 0, 4, 0, 0 }, b.getValues(double[].class), 0);
+   }
+
+   @Test
+   public void testFetchParts() throws Exception {
+      // One element for each part, so that a region spans several batches of parts
+      final int ni = 40;
+      final int nj = 30;
+      double[][] values = new double[ni][nj];
+      for (int i = 0; i < ni; i++) {
+         for (int j = 0; j < nj; j++) {
+            values[i][j] = i * nj + j;
+         }
+      }
+      SplitBlob found = persist(SplitBlob.newInstance(1, values));
+      int[] fromPos = new int[] { 2, 3 };
+      int[] lengths = new int[] { 37, 20 };
+      double[][] results = found.getValues(em, double[][].class, fromPos, lengths);
+      for (int i = 0; i < lengths[0]; i++) {
+         for (int j = 0; j < lengths[1]; j++) {
+            Assert.assertEquals(values[i + fromPos[0]][j + fromPos[1]], results[i][j], 0);
+         }
+      }
+      // Parts have been selected by position, not through the list of parts
+      Assert.assertFalse(emf.getPersistenceUnitUtil().isLoaded(found, "parts"));
+
+      found.fetchParts(em, fromPos, new int[] { 1, 2 });
+      try {
+         SplitBlobPart part = found.getPart(2 * nj + 4);
+         Assert.assertEquals(2 * nj + 4, part.getOrdr());
+         Assert.assertTrue(em.contains(part));
+         Assert.assertFalse(emf.getPersistenceUnitUtil().isLoaded(found, "parts"));
+      } finally {
+         found.releaseFetchedParts();
+      }
+   }
+}
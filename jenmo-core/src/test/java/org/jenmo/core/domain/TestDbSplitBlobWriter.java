@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jenmo.core.domain;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestDbSplitBlobWriter extends AbstractTestDb {
+
+   private static EntityManager em;
+
+   @BeforeClass
+   public static void setupClass() throws Exception {
+      em = initEm();
+   }
+
+   @AfterClass
+   public static void teardownClass() {
+      closeEm(em);
+   }
+
+   @Before
+   public void setupMethod() {
+      cleanUpTables(em);
+      txBegin(em);
+   }
+
+   @After
+   public void teardownMethod() {
+      txCommit(em);
+   }
+
+   @Test
+   public void testBatchInsert() throws Exception {
+      final int ni = 10;
+      final int nj = 7;
+      double[][] values = new double[ni][nj];
+      for (int i = 0; i < ni; i++) {
+         for (int j = 0; j < nj; j++) {
+            values[i][j] = i * nj + j;
+         }
+      }
+      for (String codec : new String[] { null, "deflate" }) {
+         SplitBlob sb = SplitBlob.newInstance(nj, double.class, new int[] { ni, nj });
+         sb.setPartCodec(codec);
+         // Not a divisor of the part count, the last batch is inserted on close
+         SplitBlobWriter writer = SplitBlobWriter.newInstance(em, sb, 3);
+         writer.append(values);
+         writer.close();
+         for (int i = 0; i < ni; i++) {
+            Assert.assertTrue(sb.getPart(i).getId() != 0);
+         }
+         txCommit(em);
+
+         em.clear();
+         SplitBlob found = em.find(SplitBlob.class, sb.getId());
+         Assert.assertEquals(ni, found.getLayout().getPartCount());
+         double[][] results = found.getValues(double[][].class);
+         for (int i = 0; i < ni; i++) {
+            Assert.assertArrayEquals(values[i], results[i], 10e-9);
+            Assert.assertEquals(nj, found.getPart(i).getStats().getCount());
+         }
+         txBegin(em);
+      }
+   }
+
+   @Test
+   public void testIdentities() throws Exception {
+      // Parts persisted by JPA before and after the batches, in the same transaction
+      SplitBlob before = SplitBlob.newInstance(3, new double[25]);
+      em.persist(before);
+      em.flush();
+      SplitBlob sb = SplitBlob.newInstance(2, double.class, new int[] { 25 });
+      SplitBlobWriter writer = SplitBlobWriter.newInstance(em, sb, 4);
+      writer.append(new double[25]);
+      writer.close();
+      SplitBlob after = SplitBlob.newInstance(3, new double[25]);
+      em.persist(after);
+      txCommit(em);
+
+      Set<Long> ids = new HashSet<Long>();
+      for (SplitBlob each : new SplitBlob[] { before, sb, after }) {
+         for (int i = 0; i < each.getLayout().getPartCount(); i++) {
+            Assert.assertTrue(ids.add(each.getPart(i).getId()));
+         }
+      }
+      // Identities are reserved by blocks, not one block for each part
+      long min = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      for (int i = 0; i < sb.getLayout().getPartCount(); i++) {
+         min = Math.min(min, sb.getPart(i).getId());
+         max = Math.max(max, sb.getPart(i).getId());
+      }
+      Assert.assertTrue(max - min < 2 * sb.getLayout().getPartCount());
+   }
+}
@@ -127,7 +127,8 @@ public class TestDbHeavyScalarField extends AbstractTestDbPopu {
       } else if (mode == 2 || mode == 3) {
          int[] shape = sb.getShape();
          values2 = new double[shape[0]][shape[1]][shape[2]];
-         IBlobPartAccessor reader = sb.getAccessor(listener);
+         // At most 10 parts in memory, older ones are detached from the entity manager
+         IBlobPartAccessor reader = sb.getAccessor(em, 10);
          IndexIterator ii = new IndexIterator(shape);
          for (; ii.notDone(); ii.incr()) {
             int[] index = ii.value();
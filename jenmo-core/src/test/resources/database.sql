@@ -6,8 +6,9 @@ CREATE TABLE NODEREVISION (ID BIGSERIAL NOT NULL, CONTEXT VARCHAR(255), REVISED_
 CREATE TABLE NODETYPE (ID BIGSERIAL NOT NULL, NTYPE VARCHAR(255) NOT NULL, PRIMARY KEY (ID), CONSTRAINT UNQ_NTYPE UNIQUE (NTYPE));
 CREATE TABLE PROPERTY (ID BIGSERIAL NOT NULL, NAME VARCHAR(255) NOT NULL, VERSION INTEGER, PRIMARY KEY (ID), CONSTRAINT UNQ_NAME UNIQUE (NAME));
 CREATE TABLE PROPERTY_NODETYPE (PROPERTY_ID BIGINT, NODETYPE_ID BIGINT);
-CREATE TABLE SPLITBLOB (ID BIGSERIAL NOT NULL, NUMELT BIGINT, NUMELTEACHPART INTEGER, PTYPE SMALLINT, SHAPE VARCHAR(255) NOT NULL, VERSION INTEGER, PRIMARY KEY (ID));
-CREATE TABLE SPLITBLOBPART (ID BIGSERIAL NOT NULL, DATA OID, DATASIZE INTEGER, ORDR INTEGER, VERSION INTEGER, PARENT_ID BIGINT NOT NULL, PRIMARY KEY (ID)) WITH (OIDS=TRUE);
+CREATE TABLE SPLITBLOB (ID BIGSERIAL NOT NULL, CHUNKSHAPE VARCHAR(255), NUMELT BIGINT, NUMELTEACHPART INTEGER, PTYPE SMALLINT, SHAPE VARCHAR(255) NOT NULL, STORAGEFORMAT INTEGER, VERSION INTEGER, PRIMARY KEY (ID));
+CREATE TABLE SPLITBLOBPART (ID BIGSERIAL NOT NULL, CODEC VARCHAR(32), CONTENTHASH VARCHAR(64), DATA OID, DATASIZE INTEGER, NANCOUNT INTEGER, ORDR INTEGER, STATCOUNT INTEGER, STATMAX DOUBLE PRECISION, STATMIN DOUBLE PRECISION, STATSUM DOUBLE PRECISION, VERSION INTEGER, PARENT_ID BIGINT NOT NULL, PAYLOAD_ID BIGINT, PRIMARY KEY (ID)) WITH (OIDS=TRUE);
+CREATE TABLE SPLITBLOBPAYLOAD (ID BIGSERIAL NOT NULL, CONTENTHASH VARCHAR(64) NOT NULL, DATA OID, DATASIZE INTEGER, PRIMARY KEY (ID)) WITH (OIDS=TRUE);
 CREATE INDEX I_EDGE_FROM ON EDGE (FROM_ID);
 CREATE INDEX I_EDGE_TO ON EDGE (TO_ID);
 CREATE INDEX I_NODE_NODETYPE ON NODE (NODETYPE_ID);
@@ -20,6 +21,8 @@ CREATE INDEX I_NDRVSON_REVISION ON NODEREVISION (REVISION_ID);
 CREATE INDEX I_PRPRTYP_ELEMENT ON PROPERTY_NODETYPE (NODETYPE_ID);
 CREATE INDEX I_PRPRTYP_PROPERTY_ID ON PROPERTY_NODETYPE (PROPERTY_ID);
 CREATE INDEX I_SPLTPRT_PARENT ON SPLITBLOBPART (PARENT_ID);
+CREATE INDEX I_SPLTPRT_PAYLOAD ON SPLITBLOBPART (PAYLOAD_ID);
+CREATE INDEX I_SPLTPLD_CONTENTHASH ON SPLITBLOBPAYLOAD (CONTENTHASH);
 
 ALTER SEQUENCE NODE_ID_SEQ INCREMENT BY 50 START WITH 50;
 ALTER SEQUENCE EDGE_ID_SEQ INCREMENT BY 50 START WITH 50;
@@ -30,6 +33,7 @@ ALTER SEQUENCE NODETYPE_ID_SEQ INCREMENT BY 10 START WITH 10;
 ALTER SEQUENCE PROPERTY_ID_SEQ INCREMENT BY 10 START WITH 10;
 ALTER SEQUENCE SPLITBLOB_ID_SEQ INCREMENT BY 10 START WITH 10;
 ALTER SEQUENCE SPLITBLOBPART_ID_SEQ INCREMENT BY 10 START WITH 10;
+ALTER SEQUENCE SPLITBLOBPAYLOAD_ID_SEQ INCREMENT BY 10 START WITH 10;
 
 ALTER SEQUENCE NODE_ID_SEQ RESTART;
 ALTER SEQUENCE EDGE_ID_SEQ RESTART;
@@ -39,4 +43,5 @@ ALTER SEQUENCE NODEREVISION_ID_SEQ RESTART;
 ALTER SEQUENCE NODETYPE_ID_SEQ RESTART;
 ALTER SEQUENCE PROPERTY_ID_SEQ RESTART;
 ALTER SEQUENCE SPLITBLOB_ID_SEQ RESTART;
-ALTER SEQUENCE SPLITBLOBPART_ID_SEQ RESTART;
\ No newline at end of file
+ALTER SEQUENCE SPLITBLOBPART_ID_SEQ RESTART;
+ALTER SEQUENCE SPLITBLOBPAYLOAD_ID_SEQ RESTART;
\ No newline at end of file